@@ -0,0 +1,102 @@
+/**
+ * 
+ */
+package org.forwarder.demo.benchmarks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import org.forwarder.Config;
+import org.forwarder.Forwarder;
+import org.forwarder.executor.impls.RayExecutor;
+import org.forwarder.executor.impls.RecursionExecutor;
+import org.onnx4j.Tensor;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+import org.onnx4j.tensor.TensorBuilder;
+
+/**
+ * Models bundled with the test resources, named the way JMH <code>@Param</code>
+ * values refer to them.
+ * 
+ * Files are looked up under the directory given by the
+ * <code>forwarder.demo.resources</code> system property, by default the test
+ * resources of the parent project. TinyYoloV2 and Squeezenet only ship their
+ * test data sets, their <code>model.onnx</code> has to be dropped in next to
+ * them before benchmarking.
+ */
+public enum BenchmarkModel {
+
+	mnist_v1("mnist/opset_v1", "Input73", "Plus422_Output_0"),
+	mnist_v7("mnist/opset_v7", "Input3", "Plus214_Output_0"),
+	mnist_v8("mnist/opset_v8", "Input3", "Plus214_Output_0"),
+	tiny_yolov2_v1("tiny_yolov2/opset_v1", "image", "grid"),
+	tiny_yolov2_v7("tiny_yolov2/opset_v7", "image", "grid"),
+	tiny_yolov2_v8("tiny_yolov2/opset_v8", "image", "grid"),
+	squeezenet_v7("squeezenet/opset_v7", "data", "squeezenet0_flatten0_reshape0");
+
+	public static final String RESOURCES_PROPERTY = "forwarder.demo.resources";
+
+	private final String directory;
+
+	private final String inputName;
+
+	private final String outputName;
+
+	BenchmarkModel(String directory, String inputName, String outputName) {
+		this.directory = directory;
+		this.inputName = inputName;
+		this.outputName = outputName;
+	}
+
+	public String getInputName() {
+		return this.inputName;
+	}
+
+	public String getOutputName() {
+		return this.outputName;
+	}
+
+	public File getModelFile() throws FileNotFoundException {
+		return this.resolve("model.onnx");
+	}
+
+	public File getInputFile(int testDataSet) throws FileNotFoundException {
+		return this.resolve("test_data_set_" + testDataSet + "/input_0.pb");
+	}
+
+	/**
+	 * @param executor
+	 *            "RayExecutor" or "RecursionExecutor"
+	 */
+	public Forwarder open(String executor) throws Exception {
+		Config config = Config.builder().setDebug(false).setMemoryByteOrder(ByteOrder.LITTLE_ENDIAN).build();
+		String modelPath = this.getModelFile().getAbsolutePath();
+		if (RecursionExecutor.class.getSimpleName().equals(executor))
+			return Forwarder.config(config).load(modelPath).executor(RecursionExecutor.class);
+		if (RayExecutor.class.getSimpleName().equals(executor))
+			return Forwarder.config(config).load(modelPath).executor(RayExecutor.class);
+		throw new IllegalArgumentException(String.format("Unknown executor \"%s\"", executor));
+	}
+
+	public TensorProto loadInputProto(int testDataSet) throws IOException {
+		return TensorProto.parseFrom(Files.readAllBytes(this.getInputFile(testDataSet).toPath()));
+	}
+
+	public Tensor loadInput(Forwarder forwarder, int testDataSet) throws IOException {
+		return TensorBuilder.builder(this.loadInputProto(testDataSet), forwarder.getConfig().getTensorOptions())
+				.manager(forwarder.getModel().getTensorManager()).name(this.inputName).build();
+	}
+
+	private File resolve(String name) throws FileNotFoundException {
+		File file = new File(new File(System.getProperty(RESOURCES_PROPERTY, "../src/test/resources"), this.directory),
+				name);
+		if (!file.isFile())
+			throw new FileNotFoundException(String.format("%s not found, set -D%s to the directory holding %s",
+					file.getAbsolutePath(), RESOURCES_PROPERTY, this.directory));
+		return file;
+	}
+
+}
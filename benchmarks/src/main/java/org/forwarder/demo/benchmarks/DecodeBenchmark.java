@@ -0,0 +1,73 @@
+/**
+ * 
+ */
+package org.forwarder.demo.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Request decoding stages of <code>/demo/forward</code>: the base64 form field
+ * to PNG bytes, the PNG bytes to an image, and the resize to 28x28.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+	private static final int INPUT_SIZE = 28;
+
+	@Param({ "280" })
+	public int canvasSize;
+
+	private String base64Png;
+
+	private byte[] png;
+
+	private BufferedImage image;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.image = Samples.canvas(this.canvasSize);
+		this.png = Samples.png(this.image);
+		this.base64Png = Base64.getMimeEncoder().encodeToString(this.png);
+	}
+
+	@Benchmark
+	public byte[] base64Decode() {
+		return Base64.getMimeDecoder().decode(this.base64Png);
+	}
+
+	@Benchmark
+	public BufferedImage imageIoDecode() throws IOException {
+		try (ByteArrayInputStream in = new ByteArrayInputStream(this.png)) {
+			return ImageIO.read(in);
+		}
+	}
+
+	@Benchmark
+	public BufferedImage resize() {
+		return ReferencePreprocessing.resize(this.image, INPUT_SIZE, INPUT_SIZE);
+	}
+
+}
@@ -0,0 +1,124 @@
+/**
+ * 
+ */
+package org.forwarder.demo.benchmarks;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.forwarder.Backend;
+import org.forwarder.Forwarder;
+import org.forwarder.Session;
+import org.onnx4j.Tensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inference stages on every bundled model, backend and executor:
+ * <ul>
+ * <li><code>newSession</code> opens and closes a session</li>
+ * <li><code>forward</code> feeds the input and runs the graph on a session
+ * kept open for the whole trial</li>
+ * <li><code>getOutput</code> copies the output of an already forwarded
+ * session into a <code>float[]</code> the way the controller does</li>
+ * <li><code>endToEnd</code> chains all three as one request did before
+ * session pooling</li>
+ * </ul>
+ * 
+ * Narrow the cross product with <code>-p</code>, e.g.
+ * <code>-p model=mnist_v8 -p backend=DL4J</code>. Squeezenet is not supported
+ * by the Tensorflow backend, those combinations fail.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ForwardBenchmark {
+
+	@Param({ "mnist_v1", "mnist_v7", "mnist_v8", "tiny_yolov2_v1", "tiny_yolov2_v7", "tiny_yolov2_v8",
+			"squeezenet_v7" })
+	public BenchmarkModel model;
+
+	@Param({ "Tensorflow", "DL4J" })
+	public String backendName;
+
+	@Param({ "RayExecutor", "RecursionExecutor" })
+	public String executor;
+
+	private Forwarder forwarder;
+
+	private Backend<?> backend;
+
+	private Tensor input;
+
+	private Session<?> session;
+
+	private Session<?> forwardedSession;
+
+	private float[] output;
+
+	@Setup
+	public void setUp() throws Exception {
+		this.forwarder = this.model.open(this.executor);
+		this.backend = this.forwarder.backend(this.backendName);
+		this.input = this.model.loadInput(this.forwarder, 0);
+		this.session = this.backend.newSession();
+		this.forwardedSession = this.backend.newSession();
+		this.forwardedSession.feed(this.input, false).forward();
+		this.output = new float[this.forwardedSession.getOutput(this.model.getOutputName()).getData()
+				.asFloatBuffer().capacity()];
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		this.forwardedSession.close();
+		this.session.close();
+		this.input.close();
+		this.forwarder.close();
+	}
+
+	@Benchmark
+	public Session<?> newSession() throws Exception {
+		try (Session<?> session = this.backend.newSession()) {
+			return session;
+		}
+	}
+
+	@Benchmark
+	public Tensor forward() throws Exception {
+		return this.session.feed(this.input, false).forward().getOutput(this.model.getOutputName());
+	}
+
+	@Benchmark
+	public float[] getOutput() {
+		FloatBuffer buffer = this.forwardedSession.getOutput(this.model.getOutputName()).getData().asFloatBuffer();
+		for (int n = 0; n < buffer.capacity(); n++)
+			this.output[n] = buffer.get(n);
+		return this.output;
+	}
+
+	@Benchmark
+	public float[] endToEnd() throws Exception {
+		try (Session<?> session = this.backend.newSession()) {
+			FloatBuffer buffer = session.feed(this.input, false).forward().getOutput(this.model.getOutputName())
+					.getData().asFloatBuffer();
+			float[] output = new float[buffer.capacity()];
+			for (int n = 0; n < buffer.capacity(); n++)
+				output[n] = buffer.get(n);
+			return output;
+		}
+	}
+
+}
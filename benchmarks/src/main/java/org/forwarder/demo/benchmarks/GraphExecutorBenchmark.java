@@ -0,0 +1,102 @@
+/**
+ * 
+ */
+package org.forwarder.demo.benchmarks;
+
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.forwarder.demo.engine.DataflowExecutor;
+import org.forwarder.demo.engine.ExecutionPlan;
+import org.forwarder.demo.engine.GraphExecutor;
+import org.forwarder.demo.engine.MemoryPlan;
+import org.forwarder.demo.engine.NdArray;
+import org.forwarder.demo.engine.Precision;
+import org.forwarder.demo.engine.SequentialExecutor;
+import org.onnx4j.prototypes.OnnxProto3.ModelProto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One forward of the in-process graph engine, the nodes run one after the
+ * other on the calling thread (<code>Sequential</code>) or as soon as their
+ * inputs are ready on up to <code>parallelism</code> threads
+ * (<code>Dataflow</code>), intermediates written to the slabs of a
+ * {@link MemoryPlan} or allocated one by one, weights kept in a full or
+ * reduced {@link Precision}. Run with <code>-prof gc</code> to see what
+ * planning saves. Same mode and unit as
+ * {@link ForwardBenchmark#forward()}, which measures the forwarder executors
+ * on the same models.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphExecutorBenchmark {
+
+	@Param({ "mnist_v1", "mnist_v7", "mnist_v8", "tiny_yolov2_v8", "squeezenet_v7" })
+	public BenchmarkModel model;
+
+	@Param({ "Sequential", "Dataflow" })
+	public String executorName;
+
+	@Param({ "4" })
+	public int parallelism;
+
+	@Param({ "true", "false" })
+	public boolean planMemory;
+
+	@Param({ "FP32", "FP16", "INT8" })
+	public Precision precision;
+
+	private ExecutionPlan plan;
+
+	private GraphExecutor executor;
+
+	private Map<String, NdArray> inputs;
+
+	private MemoryPlan memory;
+
+	@Setup
+	public void setUp() throws Exception {
+		this.plan = ExecutionPlan
+				.compile(ModelProto.parseFrom(Files.readAllBytes(this.model.getModelFile().toPath())), this.precision);
+		this.inputs = Collections.singletonMap(this.model.getInputName(),
+				NdArray.of(this.model.loadInputProto(0)));
+		if (this.planMemory)
+			this.memory = this.plan.planMemory(Collections.singletonMap(this.model.getInputName(),
+					this.inputs.get(this.model.getInputName()).shape()));
+		if ("Sequential".equals(this.executorName))
+			this.executor = new SequentialExecutor();
+		else if ("Dataflow".equals(this.executorName))
+			this.executor = new DataflowExecutor(this.parallelism, this.parallelism);
+		else
+			throw new IllegalArgumentException(String.format("Unknown executor \"%s\"", this.executorName));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		if (this.executor instanceof DataflowExecutor)
+			((DataflowExecutor) this.executor).close();
+	}
+
+	@Benchmark
+	public Map<String, NdArray> forward() throws Exception {
+		return this.plan.execute(this.executor, this.inputs, this.memory);
+	}
+
+}
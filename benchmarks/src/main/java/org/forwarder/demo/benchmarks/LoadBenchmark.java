@@ -0,0 +1,54 @@
+/**
+ * 
+ */
+package org.forwarder.demo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.forwarder.Forwarder;
+import org.forwarder.Session;
+import org.onnx4j.Tensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cold start: loading a model, resolving the backend and running the first
+ * forward, each measured once per fresh JVM so that nothing is warm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(5)
+public class LoadBenchmark {
+
+	@Param({ "mnist_v1", "mnist_v7", "mnist_v8", "tiny_yolov2_v1", "tiny_yolov2_v7", "tiny_yolov2_v8",
+			"squeezenet_v7" })
+	public BenchmarkModel model;
+
+	@Param({ "Tensorflow", "DL4J" })
+	public String backendName;
+
+	@Param({ "RayExecutor", "RecursionExecutor" })
+	public String executor;
+
+	@Benchmark
+	public float firstForward() throws Exception {
+		try (Forwarder forwarder = this.model.open(this.executor);
+				Tensor input = this.model.loadInput(forwarder, 0);
+				Session<?> session = forwarder.backend(this.backendName).newSession()) {
+			return session.feed(input, false).forward().getOutput(this.model.getOutputName()).getData()
+					.asFloatBuffer().get(0);
+		}
+	}
+
+}
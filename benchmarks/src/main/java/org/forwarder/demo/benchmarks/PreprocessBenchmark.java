@@ -0,0 +1,66 @@
+/**
+ * 
+ */
+package org.forwarder.demo.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.forwarder.demo.preprocess.ImagePreprocessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Image to 28x28 gray plane: the getScaledInstance + getRGB path DemoController
+ * used to take against the one-pass {@link ImagePreprocessor}. Run with
+ * <code>-prof gc</code> to compare allocation rates as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreprocessBenchmark {
+
+	private static final int INPUT_SIZE = 28;
+
+	/**
+	 * Side of the square canvas, bcPaint posts about 300px
+	 */
+	@Param({ "280", "560" })
+	public int canvasSize;
+
+	private BufferedImage image;
+
+	private ImagePreprocessor preprocessor;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.image = Samples.canvas(this.canvasSize);
+		this.preprocessor = new ImagePreprocessor(INPUT_SIZE, INPUT_SIZE);
+	}
+
+	@Benchmark
+	public float[] reference() {
+		return ReferencePreprocessing
+				.toGrayPixels(ReferencePreprocessing.resize(this.image, INPUT_SIZE, INPUT_SIZE));
+	}
+
+	@Benchmark
+	public FloatBuffer onePass() {
+		return this.preprocessor.process(this.image);
+	}
+
+}
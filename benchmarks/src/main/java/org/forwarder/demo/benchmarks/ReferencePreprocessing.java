@@ -0,0 +1,48 @@
+/**
+ * 
+ */
+package org.forwarder.demo.benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+
+/**
+ * The preprocessing DemoController used before
+ * {@link org.forwarder.demo.preprocess.ImagePreprocessor}: scale through
+ * <code>getScaledInstance</code>, redraw into a new ARGB image, then read it
+ * back pixel by pixel. Kept as the baseline of {@link PreprocessBenchmark}.
+ */
+public final class ReferencePreprocessing {
+
+	private ReferencePreprocessing() {
+	}
+
+	public static BufferedImage resize(BufferedImage img, int height, int width) {
+		Image tmp = img.getScaledInstance(width, height, Image.SCALE_SMOOTH);
+		BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = resized.createGraphics();
+		g2d.drawImage(tmp, 0, 0, null);
+		g2d.dispose();
+		return resized;
+	}
+
+	public static float[] toGrayPixels(BufferedImage bufferedImage) {
+		int width = bufferedImage.getWidth();
+		int height = bufferedImage.getHeight();
+		float[] pixels = new float[width * height];
+
+		for (int i = 0; i < height; i++) {
+			for (int j = 0; j < width; j++) {
+				int color = bufferedImage.getRGB(j, i);
+				int red = (color >> 16) & 0xff;
+				int green = (color >> 8) & 0xff;
+				int blue = (color) & 0xff;
+				int gray = (int) (0.299 * red + 0.587 * green + 0.114 * blue);
+				pixels[i * width + j] = (float) gray;
+			}
+		}
+		return pixels;
+	}
+
+}
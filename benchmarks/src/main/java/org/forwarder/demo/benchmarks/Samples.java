@@ -0,0 +1,45 @@
+/**
+ * 
+ */
+package org.forwarder.demo.benchmarks;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Synthetic inputs shaped like what the bcPaint canvas of index.html posts: a
+ * hand drawn digit on a transparent square canvas, encoded as PNG.
+ */
+public final class Samples {
+
+	private Samples() {
+	}
+
+	public static BufferedImage canvas(int size) {
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2d.setColor(Color.WHITE);
+		g2d.setStroke(new BasicStroke(size / 14f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+		// a "7"
+		g2d.drawLine(size / 4, size / 4, size * 3 / 4, size / 4);
+		g2d.drawLine(size * 3 / 4, size / 4, size * 2 / 5, size * 4 / 5);
+		g2d.dispose();
+		return image;
+	}
+
+	public static byte[] png(BufferedImage image) throws IOException {
+		try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+			ImageIO.write(image, "png", out);
+			return out.toByteArray();
+		}
+	}
+
+}
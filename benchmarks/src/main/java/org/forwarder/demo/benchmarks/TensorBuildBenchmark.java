@@ -0,0 +1,91 @@
+/**
+ * 
+ */
+package org.forwarder.demo.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.forwarder.Forwarder;
+import org.forwarder.demo.preprocess.ImagePreprocessor;
+import org.onnx4j.Tensor;
+import org.onnx4j.Tensor.AllocationMode;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+import org.onnx4j.tensor.DataType;
+import org.onnx4j.tensor.Shape;
+import org.onnx4j.tensor.TensorBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Input tensor construction: the 28x28 image plane the controller builds with
+ * <code>putFloat</code>, and each bundled model's <code>input_0.pb</code>
+ * turned into a tensor the way the model tests load it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TensorBuildBenchmark {
+
+	private static final int INPUT_SIZE = 28;
+
+	@Param({ "mnist_v1", "mnist_v7", "mnist_v8", "tiny_yolov2_v1", "tiny_yolov2_v7", "tiny_yolov2_v8",
+			"squeezenet_v7" })
+	public BenchmarkModel model;
+
+	private Forwarder forwarder;
+
+	private TensorProto inputProto;
+
+	private FloatBuffer pixels;
+
+	@Setup
+	public void setUp() throws Exception {
+		this.forwarder = this.model.open("RayExecutor");
+		this.inputProto = this.model.loadInputProto(0);
+		this.pixels = new ImagePreprocessor(INPUT_SIZE, INPUT_SIZE).process(Samples.canvas(280));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		this.forwarder.close();
+	}
+
+	@Benchmark
+	public Tensor imageTensor() {
+		TensorBuilder builder = TensorBuilder
+				.builder(DataType.FLOAT, Shape.create(1, 1, INPUT_SIZE, INPUT_SIZE),
+						Tensor.options().setAllocationMode(AllocationMode.DIRECT).setByteOrder(ByteOrder.nativeOrder()))
+				.name(this.model.getInputName());
+		for (int n = 0; n < this.pixels.capacity(); n++)
+			builder.putFloat(this.pixels.get(n));
+
+		try (Tensor tensor = builder.build()) {
+			return tensor;
+		}
+	}
+
+	@Benchmark
+	public Tensor protoTensor() throws IOException {
+		try (Tensor tensor = TensorBuilder.builder(this.inputProto, this.forwarder.getConfig().getTensorOptions())
+				.manager(this.forwarder.getModel().getTensorManager()).name(this.model.getInputName()).build()) {
+			return tensor;
+		}
+	}
+
+}
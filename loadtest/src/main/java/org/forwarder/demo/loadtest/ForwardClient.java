@@ -0,0 +1,146 @@
+/**
+ * 
+ */
+package org.forwarder.demo.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Posts samples to one of the forward endpoints over keep-alive
+ * {@link HttpURLConnection}s and reads the output back as floats. Safe to use
+ * from any number of threads.
+ */
+public class ForwardClient {
+
+	public static final String FORWARD = "forward";
+
+	public static final String TENSOR = "tensor";
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final String baseUrl;
+
+	private final String endpoint;
+
+	private final String model;
+
+	private final int opset;
+
+	private final int timeoutMillis;
+
+	/**
+	 * @param baseUrl
+	 *            server root, e.g. <code>http://localhost:8081</code>
+	 */
+	public ForwardClient(String baseUrl, String endpoint, String model, int opset, int timeoutMillis) {
+		this.baseUrl = baseUrl;
+		this.endpoint = endpoint;
+		this.model = model;
+		this.opset = opset;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * @throws HttpStatusException
+	 *             if the server answered with anything but 200
+	 */
+	public float[] forward(LoadSample sample, String backend) throws IOException {
+		String query = String.format("backend=%s&model=%s&opset=%s", encode(backend), encode(this.model),
+				this.opset);
+		HttpURLConnection connection;
+		byte[] body;
+		if (FORWARD.equals(this.endpoint)) {
+			connection = this.open("/demo/forward");
+			connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			body = ("img=" + encode(sample.getBase64Png()) + "&" + query).getBytes(StandardCharsets.US_ASCII);
+		} else {
+			connection = this.open("/demo/forward/tensor?" + query);
+			connection.setRequestProperty("Content-Type", "application/octet-stream");
+			body = sample.getInputProto();
+		}
+		connection.setFixedLengthStreamingMode(body.length);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body);
+		}
+
+		int status = connection.getResponseCode();
+		if (status != HttpURLConnection.HTTP_OK)
+			throw new HttpStatusException(status, new String(readFully(connection.getErrorStream()),
+					StandardCharsets.UTF_8));
+		return objectMapper.readValue(readFully(connection.getInputStream()), float[].class);
+	}
+
+	/**
+	 * @return whether <code>GET /demo/ready</code> answers 200
+	 */
+	public boolean isReady() {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(this.baseUrl + "/demo/ready").openConnection();
+			connection.setConnectTimeout(this.timeoutMillis);
+			connection.setReadTimeout(this.timeoutMillis);
+			int status = connection.getResponseCode();
+			readFully(status == HttpURLConnection.HTTP_OK ? connection.getInputStream()
+					: connection.getErrorStream());
+			return status == HttpURLConnection.HTTP_OK;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private HttpURLConnection open(String path) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(this.baseUrl + path).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setConnectTimeout(this.timeoutMillis);
+		connection.setReadTimeout(this.timeoutMillis);
+		connection.setRequestProperty("Accept", "application/json");
+		return connection;
+	}
+
+	private static String encode(String value) throws IOException {
+		return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+	}
+
+	/**
+	 * Read and close the stream, which hands the connection back to the
+	 * keep-alive cache
+	 */
+	private static byte[] readFully(InputStream in) throws IOException {
+		if (in == null)
+			return new byte[0];
+		try (InputStream input = in; ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) >= 0)
+				out.write(buffer, 0, read);
+			return out.toByteArray();
+		}
+	}
+
+	public static class HttpStatusException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+
+		public HttpStatusException(int status, String body) {
+			super(String.format("HTTP %s: %s", status, body));
+			this.status = status;
+		}
+
+		public int getStatus() {
+			return this.status;
+		}
+
+	}
+
+}
@@ -0,0 +1,149 @@
+/**
+ * 
+ */
+package org.forwarder.demo.loadtest;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Outcome of a load test by backend: latencies, throughput, errors and
+ * outputs that differ from what the same sample gave when forwarded alone.
+ * 
+ * Latency is measured from the time a request was scheduled to be sent, not
+ * from the time it was, so a stalled server is charged for the requests
+ * waiting behind it instead of hiding them (coordinated omission). Service
+ * time, from send to answer, is reported next to it; the gap between the
+ * two is time spent queueing.
+ */
+public class LoadReport {
+
+	private static final long HIGHEST_MICROS = TimeUnit.HOURS.toMicros(1);
+
+	private static final int MAX_MISMATCH_DETAILS = 10;
+
+	private final Map<String, BackendStats> backends = new LinkedHashMap<>();
+
+	private final List<String> mismatchDetails = Collections.synchronizedList(new ArrayList<>());
+
+	private long elapsedNanos;
+
+	public LoadReport(List<String> backends) {
+		for (String backend : backends)
+			this.backends.put(backend, new BackendStats());
+	}
+
+	void completed(String backend, long latencyNanos, long serviceNanos) {
+		BackendStats stats = this.backends.get(backend);
+		stats.latencies.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_MICROS));
+		stats.serviceTimes.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(serviceNanos), HIGHEST_MICROS));
+		stats.completed.increment();
+	}
+
+	void mismatched(String backend, String detail) {
+		this.backends.get(backend).mismatches.increment();
+		if (this.mismatchDetails.size() < MAX_MISMATCH_DETAILS)
+			this.mismatchDetails.add(detail);
+	}
+
+	void failed(String backend, String error) {
+		this.backends.get(backend).errors.computeIfAbsent(error, (String key) -> new LongAdder()).increment();
+	}
+
+	void finish(long elapsedNanos) {
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public long getMismatches() {
+		long mismatches = 0;
+		for (BackendStats stats : this.backends.values())
+			mismatches += stats.mismatches.sum();
+		return mismatches;
+	}
+
+	public double getErrorRate() {
+		long requests = 0;
+		long errors = 0;
+		for (BackendStats stats : this.backends.values()) {
+			requests += stats.requests();
+			errors += stats.errors();
+		}
+		return requests == 0 ? 0d : ((double) errors) / requests;
+	}
+
+	/**
+	 * @return whether no output was wrong and few enough requests failed
+	 */
+	public boolean passed(double maxErrorRate) {
+		return this.getMismatches() == 0 && this.getErrorRate() <= maxErrorRate;
+	}
+
+	public void print(PrintStream out) {
+		double seconds = this.elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+		out.println(String.format("%-11s %8s %9s %7s %9s | %-38s | %-20s", "backend", "requests", "req/s", "errors",
+				"mismatch", "latency p50 / p90 / p99 / p99.9 / max", "service p50 / p99"));
+		for (Map.Entry<String, BackendStats> entry : this.backends.entrySet()) {
+			BackendStats stats = entry.getValue();
+			Histogram latencies = stats.latencies;
+			Histogram serviceTimes = stats.serviceTimes;
+			out.println(String.format("%-11s %8d %9.1f %6.2f%% %9d | %s / %s / %s / %s / %s | %s / %s",
+					entry.getKey(), stats.requests(), seconds == 0 ? 0d : stats.completed.sum() / seconds,
+					stats.requests() == 0 ? 0d : 100d * stats.errors() / stats.requests(), stats.mismatches.sum(),
+					millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(90)),
+					millis(latencies.getValueAtPercentile(99)), millis(latencies.getValueAtPercentile(99.9)),
+					millis(latencies.getMaxValue()), millis(serviceTimes.getValueAtPercentile(50)),
+					millis(serviceTimes.getValueAtPercentile(99))));
+			for (Map.Entry<String, LongAdder> error : stats.errors.entrySet())
+				out.println(String.format("    %6d x %s", error.getValue().sum(), error.getKey()));
+		}
+
+		synchronized (this.mismatchDetails) {
+			if (!this.mismatchDetails.isEmpty()) {
+				out.println("Wrong outputs under load, the backend or the endpoint is not thread safe:");
+				for (String detail : this.mismatchDetails)
+					out.println("    " + detail);
+			}
+		}
+	}
+
+	private static String millis(long micros) {
+		return String.format("%.1fms", micros / 1000d);
+	}
+
+	private static class BackendStats {
+
+		private final Histogram latencies = new ConcurrentHistogram(HIGHEST_MICROS, 3);
+
+		private final Histogram serviceTimes = new ConcurrentHistogram(HIGHEST_MICROS, 3);
+
+		private final LongAdder completed = new LongAdder();
+
+		private final LongAdder mismatches = new LongAdder();
+
+		private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+		private long errors() {
+			long errors = 0;
+			for (LongAdder count : this.errors.values())
+				errors += count.sum();
+			return errors;
+		}
+
+		private long requests() {
+			return this.completed.sum() + this.errors();
+		}
+
+	}
+
+}
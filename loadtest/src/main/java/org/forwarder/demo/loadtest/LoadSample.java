@@ -0,0 +1,147 @@
+/**
+ * 
+ */
+package org.forwarder.demo.loadtest;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+/**
+ * One <code>test_data_set_*</code> of a model, ready to be posted either as
+ * its <code>input_0.pb</code> or rendered as the gray PNG the canvas of
+ * index.html would send, along with the output each backend gave for it when
+ * forwarded alone.
+ */
+public class LoadSample {
+
+	private static final String TEST_DATA_SET_PREFIX = "test_data_set_";
+
+	private final String name;
+
+	private final byte[] inputProto;
+
+	private final String base64Png;
+
+	/**
+	 * Values of <code>output_0.pb</code>, null if the data set has none
+	 */
+	private final float[] expected;
+
+	/**
+	 * Output of every backend for this sample alone, filled before the load
+	 * starts and only read afterwards
+	 */
+	private final Map<String, float[]> references = new ConcurrentHashMap<>();
+
+	private LoadSample(String name, byte[] inputProto, String base64Png, float[] expected) {
+		this.name = name;
+		this.inputProto = inputProto;
+		this.base64Png = base64Png;
+		this.expected = expected;
+	}
+
+	/**
+	 * @return the data sets of a model directory, by name
+	 */
+	public static List<LoadSample> load(File modelDirectory) throws IOException {
+		File[] testDataSets = modelDirectory.listFiles(
+				(File file) -> file.isDirectory() && file.getName().startsWith(TEST_DATA_SET_PREFIX));
+		if (testDataSets == null || testDataSets.length == 0)
+			throw new FileNotFoundException(
+					String.format("No %s* found under %s", TEST_DATA_SET_PREFIX, modelDirectory.getAbsolutePath()));
+		Arrays.sort(testDataSets);
+
+		List<LoadSample> samples = new ArrayList<>();
+		for (File testDataSet : testDataSets) {
+			byte[] inputProto = Files.readAllBytes(new File(testDataSet, "input_0.pb").toPath());
+			File outputFile = new File(testDataSet, "output_0.pb");
+			float[] expected = outputFile.isFile()
+					? values(TensorProto.parseFrom(Files.readAllBytes(outputFile.toPath())))
+					: null;
+			samples.add(new LoadSample(testDataSet.getName(), inputProto,
+					Base64.getEncoder().encodeToString(png(TensorProto.parseFrom(inputProto))), expected));
+		}
+		return samples;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public byte[] getInputProto() {
+		return this.inputProto;
+	}
+
+	public String getBase64Png() {
+		return this.base64Png;
+	}
+
+	public float[] getExpected() {
+		return this.expected;
+	}
+
+	public float[] getReference(String backend) {
+		return this.references.get(backend);
+	}
+
+	void setReference(String backend, float[] reference) {
+		this.references.put(backend, reference);
+	}
+
+	static float[] values(TensorProto tensorProto) {
+		if (!tensorProto.getRawData().isEmpty()) {
+			FloatBuffer raw = tensorProto.getRawData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN)
+					.asFloatBuffer();
+			float[] values = new float[raw.remaining()];
+			raw.get(values);
+			return values;
+		}
+
+		float[] values = new float[tensorProto.getFloatDataCount()];
+		for (int n = 0; n < values.length; n++)
+			values[n] = tensorProto.getFloatData(n);
+		return values;
+	}
+
+	/**
+	 * Render the last two dimensions of an input as gray pixels, which the
+	 * preprocessing of <code>forward</code> turns back into the same values
+	 */
+	private static byte[] png(TensorProto input) throws IOException {
+		int dimensions = input.getDimsCount();
+		if (dimensions < 2)
+			throw new IllegalArgumentException(String.format("Input %s is not an image", input.getDimsList()));
+		int height = (int) input.getDims(dimensions - 2);
+		int width = (int) input.getDims(dimensions - 1);
+		float[] values = values(input);
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int gray = Math.max(0, Math.min(255, Math.round(values[y * width + x])));
+				image.setRGB(x, y, (gray << 16) | (gray << 8) | gray);
+			}
+		}
+		try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+			ImageIO.write(image, "png", out);
+			return out.toByteArray();
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+/**
+ * 
+ */
+package org.forwarder.demo.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Command line of the load test, <code>--name=value</code> pairs. Arguments
+ * the load test does not know are handed to the application it starts, so
+ * e.g. <code>--spring.profiles.active=test</code> or
+ * <code>--forwarder.batching.enabled=true</code> configure the server under
+ * test.
+ */
+public class LoadTestOptions {
+
+	/**
+	 * Server to load, e.g. <code>http://localhost:8081</code>. Unset starts the
+	 * application in process on a random port.
+	 */
+	private String url;
+
+	/**
+	 * <code>forward</code> posts the samples as base64 PNG images,
+	 * <code>tensor</code> posts their <code>input_0.pb</code> to
+	 * <code>forward/tensor</code>
+	 */
+	private String endpoint = ForwardClient.TENSOR;
+
+	private List<String> backends = Arrays.asList("Tensorflow", "DL4J");
+
+	private String model = "mnist";
+
+	private int opset = 8;
+
+	/**
+	 * Directory holding <code>&lt;model&gt;/opset_v&lt;opset&gt;/test_data_set_*</code>
+	 */
+	private String resources = "../src/test/resources";
+
+	/**
+	 * Requests per second, sent at their scheduled time whether or not the
+	 * previous ones were answered
+	 */
+	private double rate = 50;
+
+	private int durationSeconds = 30;
+
+	private int warmUpSeconds = 5;
+
+	/**
+	 * Client threads, i.e. the most requests in flight at once
+	 */
+	private int connections = 32;
+
+	private int timeoutMillis = 10000;
+
+	/**
+	 * Largest difference to the output of the same sample forwarded alone
+	 */
+	private float tolerance = 1e-5f;
+
+	private double maxErrorRate = 0.001;
+
+	private final List<String> applicationArgs = new ArrayList<>();
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if a value is malformed
+	 */
+	public static LoadTestOptions parse(String[] args) {
+		LoadTestOptions options = new LoadTestOptions();
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (!arg.startsWith("--") || separator < 0) {
+				options.applicationArgs.add(arg);
+				continue;
+			}
+
+			String name = arg.substring(2, separator);
+			String value = arg.substring(separator + 1);
+			try {
+				switch (name) {
+				case "url":
+					options.url = value.replaceAll("/$", "");
+					break;
+				case "endpoint":
+					if (!ForwardClient.FORWARD.equals(value) && !ForwardClient.TENSOR.equals(value))
+						throw new IllegalArgumentException(String.format("Unknown endpoint \"%s\"", value));
+					options.endpoint = value;
+					break;
+				case "backends":
+					options.backends = Arrays.asList(value.split(","));
+					break;
+				case "model":
+					options.model = value;
+					break;
+				case "opset":
+					options.opset = Integer.parseInt(value);
+					break;
+				case "resources":
+					options.resources = value;
+					break;
+				case "rate":
+					options.rate = Double.parseDouble(value);
+					break;
+				case "duration":
+					options.durationSeconds = Integer.parseInt(value);
+					break;
+				case "warm-up":
+					options.warmUpSeconds = Integer.parseInt(value);
+					break;
+				case "connections":
+					options.connections = Integer.parseInt(value);
+					break;
+				case "timeout-millis":
+					options.timeoutMillis = Integer.parseInt(value);
+					break;
+				case "tolerance":
+					options.tolerance = Float.parseFloat(value);
+					break;
+				case "max-error-rate":
+					options.maxErrorRate = Double.parseDouble(value);
+					break;
+				default:
+					options.applicationArgs.add(arg);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(String.format("Malformed value of --%s: \"%s\"", name, value), e);
+			}
+		}
+		if (options.rate <= 0 || options.connections <= 0)
+			throw new IllegalArgumentException("--rate and --connections must be positive");
+		return options;
+	}
+
+	public String getUrl() {
+		return this.url;
+	}
+
+	public String getEndpoint() {
+		return this.endpoint;
+	}
+
+	public List<String> getBackends() {
+		return this.backends;
+	}
+
+	public String getModel() {
+		return this.model;
+	}
+
+	public int getOpset() {
+		return this.opset;
+	}
+
+	public String getResources() {
+		return this.resources;
+	}
+
+	public double getRate() {
+		return this.rate;
+	}
+
+	public int getDurationSeconds() {
+		return this.durationSeconds;
+	}
+
+	public int getWarmUpSeconds() {
+		return this.warmUpSeconds;
+	}
+
+	public int getConnections() {
+		return this.connections;
+	}
+
+	public int getTimeoutMillis() {
+		return this.timeoutMillis;
+	}
+
+	public float getTolerance() {
+		return this.tolerance;
+	}
+
+	public double getMaxErrorRate() {
+		return this.maxErrorRate;
+	}
+
+	public List<String> getApplicationArgs() {
+		return Collections.unmodifiableList(this.applicationArgs);
+	}
+
+}
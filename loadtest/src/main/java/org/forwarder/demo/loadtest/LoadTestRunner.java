@@ -0,0 +1,125 @@
+/**
+ * 
+ */
+package org.forwarder.demo.loadtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.forwarder.demo.ApplicationStarter;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Entry point of the load test. Starts the application on a random port
+ * unless <code>--url</code> points at a running one, forwards every sample
+ * once per backend alone to learn its output, then drives the forward
+ * endpoint at <code>--rate</code> requests per second and checks every answer
+ * against those outputs.
+ * 
+ * Exits with 1 if an output was wrong under load, a backend disagreed with
+ * <code>output_0.pb</code>, or more than <code>--max-error-rate</code> of the
+ * requests failed. See {@link LoadTestOptions} for the other arguments.
+ */
+public class LoadTestRunner {
+
+	/**
+	 * Tolerance against <code>output_0.pb</code>, as in the conformance tests
+	 */
+	private static final float EXPECTED_TOLERANCE = 0.001f;
+
+	private static final long READY_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+	public static void main(String[] args) throws Exception {
+		LoadTestOptions options = LoadTestOptions.parse(args);
+		List<LoadSample> samples = LoadSample.load(
+				new File(options.getResources(), options.getModel() + "/opset_v" + options.getOpset()));
+
+		ConfigurableApplicationContext context = null;
+		boolean passed;
+		try {
+			String url = options.getUrl();
+			if (url == null) {
+				context = start(options);
+				url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+			}
+			ForwardClient client = new ForwardClient(url, options.getEndpoint(), options.getModel(),
+					options.getOpset(), options.getTimeoutMillis());
+			awaitReady(client, url);
+
+			passed = learnReferences(client, samples, options);
+
+			OpenLoopGenerator generator = new OpenLoopGenerator(client, samples, options.getBackends(),
+					options.getConnections(), options.getTolerance());
+			if (options.getWarmUpSeconds() > 0) {
+				System.out.println(String.format("Warming up %s for %ss at %s req/s", url, options.getWarmUpSeconds(),
+						options.getRate()));
+				generator.run(options.getRate(), options.getWarmUpSeconds());
+			}
+
+			System.out.println(String.format("Loading %s/demo/%s for %ss at %s req/s over %s connections", url,
+					ForwardClient.TENSOR.equals(options.getEndpoint()) ? "forward/tensor" : "forward",
+					options.getDurationSeconds(), options.getRate(), options.getConnections()));
+			LoadReport report = generator.run(options.getRate(), options.getDurationSeconds());
+			report.print(System.out);
+			passed &= report.passed(options.getMaxErrorRate());
+		} finally {
+			if (context != null)
+				context.close();
+		}
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+	private static ConfigurableApplicationContext start(LoadTestOptions options) {
+		List<String> applicationArgs = new ArrayList<>();
+		applicationArgs.add("--server.port=0");
+		// the dev profile logs every request at DEBUG
+		applicationArgs.add("--logging.level.web=INFO");
+		applicationArgs.addAll(options.getApplicationArgs());
+		return new SpringApplicationBuilder(ApplicationStarter.class)
+				.run(applicationArgs.toArray(new String[applicationArgs.size()]));
+	}
+
+	private static void awaitReady(ForwardClient client, String url) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + READY_TIMEOUT_MILLIS;
+		while (!client.isReady()) {
+			if (System.currentTimeMillis() > deadline)
+				throw new IllegalStateException(String.format("%s/demo/ready did not answer 200 in %sms", url,
+						READY_TIMEOUT_MILLIS));
+			Thread.sleep(500);
+		}
+	}
+
+	/**
+	 * Forward every sample alone on every backend, so that answers under load
+	 * can be told right from wrong
+	 *
+	 * @return false if a backend disagrees with <code>output_0.pb</code>
+	 */
+	private static boolean learnReferences(ForwardClient client, List<LoadSample> samples, LoadTestOptions options)
+			throws Exception {
+		boolean passed = true;
+		for (LoadSample sample : samples) {
+			for (String backend : options.getBackends()) {
+				float[] reference = client.forward(sample, backend);
+				sample.setReference(backend, reference);
+
+				// only the raw input reproduces output_0.pb, the PNG goes through preprocessing
+				if (ForwardClient.TENSOR.equals(options.getEndpoint()) && sample.getExpected() != null) {
+					int difference = OpenLoopGenerator.difference(reference, sample.getExpected(),
+							EXPECTED_TOLERANCE);
+					if (difference >= 0) {
+						System.out.println(String.format("%s on %s differs from output_0.pb at %s", sample.getName(),
+								backend, difference));
+						passed = false;
+					}
+				}
+			}
+		}
+		return passed;
+	}
+
+}
@@ -0,0 +1,132 @@
+/**
+ * 
+ */
+package org.forwarder.demo.loadtest;
+
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.forwarder.demo.loadtest.ForwardClient.HttpStatusException;
+
+/**
+ * Sends requests at a fixed rate regardless of how fast they are answered, as
+ * independent users would, cycling through every sample on every backend.
+ * 
+ * A closed loop of N threads each waiting for its answer before sending the
+ * next request slows down with the server and never sees the queue a real
+ * arrival rate builds up. Here a single thread schedules request
+ * <code>i</code> at <code>start + i / rate</code> and hands it to the client
+ * threads; when all of them are busy the request waits, and that wait counts
+ * towards its latency.
+ */
+public class OpenLoopGenerator {
+
+	private final ForwardClient client;
+
+	private final List<LoadSample> samples;
+
+	private final List<String> backends;
+
+	private final int connections;
+
+	private final float tolerance;
+
+	public OpenLoopGenerator(ForwardClient client, List<LoadSample> samples, List<String> backends, int connections,
+			float tolerance) {
+		this.client = client;
+		this.samples = samples;
+		this.backends = backends;
+		this.connections = connections;
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Send <code>rate * seconds</code> requests, then wait for the answers
+	 */
+	public LoadReport run(double rate, int seconds) throws InterruptedException {
+		LoadReport report = new LoadReport(this.backends);
+		long intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+		long requests = TimeUnit.SECONDS.toNanos(seconds) / intervalNanos;
+
+		AtomicInteger threads = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(this.connections, (Runnable runnable) -> {
+			Thread thread = new Thread(runnable, "loadtest-client-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		long startedAt = System.nanoTime();
+		try {
+			for (long i = 0; i < requests; i++) {
+				long scheduledAt = startedAt + i * intervalNanos;
+				long wait;
+				while ((wait = scheduledAt - System.nanoTime()) > 0)
+					LockSupport.parkNanos(wait);
+
+				LoadSample sample = this.samples.get((int) (i % this.samples.size()));
+				String backend = this.backends.get((int) ((i / this.samples.size()) % this.backends.size()));
+				executor.execute(() -> this.send(sample, backend, scheduledAt, report));
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.HOURS);
+		}
+		report.finish(System.nanoTime() - startedAt);
+		return report;
+	}
+
+	private void send(LoadSample sample, String backend, long scheduledAt, LoadReport report) {
+		long sentAt = System.nanoTime();
+		float[] output;
+		try {
+			output = this.client.forward(sample, backend);
+		} catch (HttpStatusException e) {
+			report.failed(backend, "HTTP " + e.getStatus());
+			return;
+		} catch (SocketTimeoutException e) {
+			report.failed(backend, "timeout");
+			return;
+		} catch (Exception e) {
+			report.failed(backend, e.getClass().getSimpleName());
+			return;
+		}
+		long answeredAt = System.nanoTime();
+		report.completed(backend, answeredAt - scheduledAt, answeredAt - sentAt);
+
+		float[] reference = sample.getReference(backend);
+		int difference = difference(output, reference, this.tolerance);
+		if (difference >= 0)
+			report.mismatched(backend, this.describe(sample, backend, output, reference, difference));
+	}
+
+	/**
+	 * @return index of the first value differing by more than the tolerance,
+	 *         the shorter length if the lengths differ, or -1 if all match
+	 */
+	static int difference(float[] actual, float[] expected, float tolerance) {
+		for (int n = 0; n < Math.min(actual.length, expected.length); n++) {
+			if (!(Math.abs(actual[n] - expected[n]) <= tolerance))
+				return n;
+		}
+		return actual.length == expected.length ? -1 : Math.min(actual.length, expected.length);
+	}
+
+	private String describe(LoadSample sample, String backend, float[] output, float[] reference, int index) {
+		StringBuilder detail = new StringBuilder(String.format("%s on %s differs at %s: %s instead of %s",
+				sample.getName(), backend, index, index < output.length ? output[index] : "nothing",
+				index < reference.length ? reference[index] : "nothing"));
+		// the answer of another request means state is shared between them
+		for (LoadSample other : this.samples) {
+			if (other != sample && difference(output, other.getReference(backend), this.tolerance) < 0) {
+				detail.append(", got the output of ").append(other.getName());
+				break;
+			}
+		}
+		return detail.toString();
+	}
+
+}
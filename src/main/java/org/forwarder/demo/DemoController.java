@@ -3,43 +3,78 @@
  */
 package org.forwarder.demo;
 
-import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorConvertOp;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
-import java.net.URLDecoder;
-import java.nio.ByteOrder;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import javax.imageio.ImageIO;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.FileUtils;
-import org.forwarder.Config;
-import org.forwarder.Forwarder;
-import org.forwarder.Session;
-import org.forwarder.executor.impls.RayExecutor;
+import org.forwarder.demo.arena.ArenaBuffer;
+import org.forwarder.demo.arena.ArenaTensor;
+import org.forwarder.demo.arena.TensorArena;
+import org.forwarder.demo.binary.BinaryTensors;
+import org.forwarder.demo.binary.BodyTooLargeException;
+import org.forwarder.demo.bulk.BulkScorer;
+import org.forwarder.demo.cache.ResultCache;
+import org.forwarder.demo.configurations.BatchingProperties;
+import org.forwarder.demo.configurations.TensorProperties;
+import org.forwarder.demo.inference.InferenceExecutors;
+import org.forwarder.demo.metrics.ForwardMeters;
+import org.forwarder.demo.metrics.InferenceMetrics;
+import org.forwarder.demo.output.JsonFloatWriter;
+import org.forwarder.demo.output.TensorOutputs;
+import org.forwarder.demo.preprocess.ImagePreprocessor;
+import org.forwarder.demo.profiling.ForwardProfiler;
+import org.forwarder.demo.registry.LoadedModel;
+import org.forwarder.demo.registry.ModelDescriptor;
+import org.forwarder.demo.registry.ModelHandle;
+import org.forwarder.demo.registry.ModelKey;
+import org.forwarder.demo.registry.ModelRegistry;
+import org.forwarder.demo.routing.BackendRouter;
+import org.forwarder.demo.rpc.InferenceService;
+import org.forwarder.demo.rpc.TensorFrames;
+import org.forwarder.demo.session.PooledSession;
+import org.forwarder.demo.startup.ModelBootstrap;
 import org.onnx4j.Tensor;
-import org.onnx4j.Tensor.AllocationMode;
-import org.onnx4j.tensor.DataType;
-import org.onnx4j.tensor.Shape;
-import org.onnx4j.tensor.TensorBuilder;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import com.twelvemonkeys.image.ResampleOp;
 
 import lombok.extern.slf4j.Slf4j;
-import sun.misc.BASE64Decoder;
 
 /**
  * @author HarryLee
@@ -50,76 +85,469 @@ import sun.misc.BASE64Decoder;
 @Slf4j
 @RestController
 @RequestMapping("/demo/")
-@SuppressWarnings("restriction")
 public class DemoController {
 
 	private static final int INPUT_IMG_WIDTH = 28;
 	private static final int INPUT_IMG_HEIGHT = 28;
+	private static final long[] IMAGE_SAMPLE_DIMS = new long[] { 1, INPUT_IMG_HEIGHT, INPUT_IMG_WIDTH };
+	private static final String PROTOBUF = "application/x-protobuf";
 
 	private static Logger logger = LoggerFactory.getLogger(DemoController.class);
 
-	private static BASE64Decoder decoder = new sun.misc.BASE64Decoder();
+	private static Base64.Decoder decoder = Base64.getMimeDecoder();
 
-	private static Forwarder fw;
+	private static ImagePreprocessor preprocessor = new ImagePreprocessor(INPUT_IMG_WIDTH, INPUT_IMG_HEIGHT);
 
-	static {
-		try {
-			logger.info("Loading mnist model ...");
-			String absoluteModelPath = URLDecoder
-					.decode(DemoController.class.getResource("/models/mnist/opset_v8/model.onnx").getFile(), "utf-8");
-			fw = Forwarder
-					.config(
-						Config
-							.builder()
-							.setDebug(true)
-							.setMemoryByteOrder(ByteOrder.LITTLE_ENDIAN)
-							.build()
-					)
-					.load(absoluteModelPath)
-					.executor(RayExecutor.class);
-			logger.info("MNIST model loaded.");
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+	private final ModelRegistry registry;
+
+	private final BatchingProperties batchingProperties;
+
+	private final ModelBootstrap bootstrap;
+
+	private final InferenceExecutors inferenceExecutors;
+
+	private final ResultCache resultCache;
+
+	private final ForwardProfiler profiler;
+
+	private final TensorArena requestArena;
+
+	private final BackendRouter router;
+
+	private final InferenceMetrics metrics;
+
+	private final BulkScorer bulkScorer;
+
+	private final InferenceService inferenceService;
+
+	private final TensorProperties tensorProperties;
+
+	public DemoController(ModelRegistry registry, BatchingProperties batchingProperties, ModelBootstrap bootstrap,
+			InferenceExecutors inferenceExecutors, ResultCache resultCache, ForwardProfiler profiler,
+			TensorArena requestArena, BackendRouter router, InferenceMetrics metrics, BulkScorer bulkScorer,
+			InferenceService inferenceService, TensorProperties tensorProperties) {
+		this.registry = registry;
+		this.batchingProperties = batchingProperties;
+		this.bootstrap = bootstrap;
+		this.inferenceExecutors = inferenceExecutors;
+		this.resultCache = resultCache;
+		this.profiler = profiler;
+		this.requestArena = requestArena;
+		this.router = router;
+		this.metrics = metrics;
+		this.bulkScorer = bulkScorer;
+		this.inferenceService = inferenceService;
+		this.tensorProperties = tensorProperties;
 	}
 
 	@RequestMapping(value = "forward", method = RequestMethod.POST)
 	@ResponseBody
-	public float[] forward(@RequestParam(value = "img") String base64Img, @RequestParam String backend)
+	public float[] forward(@RequestParam(value = "img") String base64Img, @RequestParam String backend,
+			@RequestParam(required = false) String model, @RequestParam(required = false) Integer opset)
 			throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException,
 			IllegalArgumentException, InvocationTargetException, Exception {
-		BufferedImage bufferedImage = base64StringToImage(base64Img);
-		bufferedImage = resize(bufferedImage, INPUT_IMG_WIDTH, INPUT_IMG_HEIGHT);
-
-		float[] preditions;
-		try (Tensor inputTensor = convert2InputTensor(bufferedImage)) {
-			//FileUtils.write(new File("d://out.txt"), inputTensor.toString(), "UTF-8");
-			
-			try (Session<?> session = fw.backend(backend).newSession()) {
-				Tensor outputTensor = session.feed(inputTensor).forward().getOutput("Plus214_Output_0");
-				FloatBuffer buffer = outputTensor.getData().asFloatBuffer();
-				preditions = new float[buffer.capacity()];
-				for (int n = 0; n < buffer.capacity(); n++) {
-					preditions[n] = buffer.get(n);
+		return this.predict(base64Img, backend, this.modelKey(model, opset),
+				this.resultCache.getProperties().isForwardEnabled());
+	}
+
+	/**
+	 * Same as {@link #forward} but decodes and forwards on the inference
+	 * executor of the backend, releasing the request thread meanwhile.
+	 * Requests beyond the queue limit are answered with 503 right away, as are
+	 * those still unanswered after <code>forwarder.inference.timeout-millis</code>.
+	 */
+	@RequestMapping(value = "forward/async", method = RequestMethod.POST)
+	@ResponseBody
+	public DeferredResult<float[]> forwardAsync(@RequestParam(value = "img") String base64Img,
+			@RequestParam String backend, @RequestParam(required = false) String model,
+			@RequestParam(required = false) Integer opset) {
+		ModelKey key = this.modelKey(model, opset);
+		long timeoutMillis = this.inferenceExecutors.getProperties().getTimeoutMillis();
+		DeferredResult<float[]> deferredResult = timeoutMillis > 0 ? new DeferredResult<>(timeoutMillis)
+				: new DeferredResult<>();
+
+		boolean cached = this.resultCache.getProperties().isForwardAsyncEnabled();
+		CompletableFuture<float[]> future = this.inferenceExecutors.submit(backend,
+				() -> this.predict(base64Img, backend, key, cached));
+		future.whenComplete((preditions, e) -> {
+			if (e != null)
+				deferredResult.setErrorResult(e instanceof CompletionException ? e.getCause() : e);
+			else
+				deferredResult.setResult(preditions);
+		});
+		deferredResult.onTimeout(() -> {
+			this.inferenceExecutors.timedOut();
+			future.cancel(true);
+			deferredResult.setErrorResult(new RejectedExecutionException(
+					String.format("Forward on backend \"%s\" timed out after %sms", backend, timeoutMillis)));
+		});
+		return deferredResult;
+	}
+
+	private float[] predict(String base64Img, String backend, ModelKey key, boolean cached) throws Exception {
+		ForwardMeters meters = this.meters(key, backend);
+		long startedAt = meters.start();
+		try {
+			BufferedImage bufferedImage = base64StringToImage(base64Img);
+			long decodedAt = meters.decoded(startedAt);
+			FloatBuffer pixels = preprocessor.process(bufferedImage);
+			long preprocessedAt = meters.preprocessed(decodedAt);
+			long inputBytes = (long) pixels.remaining() * Float.BYTES;
+
+			float[] preditions;
+			if (!cached) {
+				preditions = this.predict(pixels, backend, key);
+			} else {
+				ResultCache.Key cacheKey = ResultCache.key(key.toString(), backend, pixels);
+				preditions = this.resultCache.get(cacheKey);
+				if (preditions == null) {
+					preditions = this.predict(pixels, backend, key);
+					this.resultCache.put(cacheKey, preditions);
 				}
 			}
+			meters.forwarded(preprocessedAt);
+			meters.tensorBytes(inputBytes, (long) preditions.length * Float.BYTES);
+			return preditions;
+		} catch (Exception e) {
+			meters.error(e);
+			throw e;
+		} finally {
+			meters.finish();
 		}
-		return preditions;
 	}
-	
-	private static BufferedImage resize(BufferedImage img, int height, int width) {
-        Image tmp = img.getScaledInstance(width, height, Image.SCALE_SMOOTH);
-        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = resized.createGraphics();
-        g2d.drawImage(tmp, 0, 0, null);
-        g2d.dispose();
-        return resized;
-    }
 
+	private float[] predict(FloatBuffer pixels, String backend, ModelKey key) throws Exception {
+		if (BackendRouter.isAuto(backend))
+			return this.router.route(key.toString(), 1, chosen -> this.predictOn(pixels, chosen, key));
+		return this.predictOn(pixels, backend, key);
+	}
+
+	private float[] predictOn(FloatBuffer pixels, String backend, ModelKey key) throws Exception {
+		try (ModelHandle handle = this.registry.acquire(key)) {
+			LoadedModel loadedModel = handle.get();
+			ModelDescriptor descriptor = loadedModel.getDescriptor();
+			long[] inputShape = imageInputShape(descriptor);
+			if (this.batchingProperties.isEnabled()) {
+				try {
+					return loadedModel.batcher(backend).submit(pixels).get();
+				} catch (ExecutionException e) {
+					throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				}
+			}
+
+			float[] preditions;
+			try (ArenaTensor inputTensor = loadedModel.getArena().tensor(inputShape, descriptor.getInputName(),
+					pixels)) {
+				//FileUtils.write(new File("d://out.txt"), inputTensor.toString(), "UTF-8");
+
+				try (PooledSession session = loadedModel.getSessionPools().get(backend).borrow()) {
+					Tensor outputTensor = loadedModel.profile(backend).forward(session, inputTensor.get(),
+							descriptor.getOutputName());
+					preditions = TensorOutputs.toArray(outputTensor);
+				}
+			}
+			return preditions;
+		}
+	}
+
+	/**
+	 * @return the input shape of a single image of the model, its sample
+	 *         shape after a batch of 1
+	 * @throws IllegalArgumentException
+	 *             if the samples of the model are not the gray images the
+	 *             preprocessor produces
+	 */
+	private static long[] imageInputShape(ModelDescriptor descriptor) {
+		long[] sampleDims = descriptor.getSampleDims();
+		if (sampleDims.length == 0)
+			sampleDims = IMAGE_SAMPLE_DIMS;
+		else if (!Arrays.equals(sampleDims, IMAGE_SAMPLE_DIMS))
+			throw new IllegalArgumentException(String.format(
+					"Model %s takes samples of shape %s but images are preprocessed to %s, forward a tensor instead",
+					descriptor.getKey(), Arrays.toString(sampleDims), Arrays.toString(IMAGE_SAMPLE_DIMS)));
+		long[] inputShape = new long[sampleDims.length + 1];
+		inputShape[0] = 1;
+		System.arraycopy(sampleDims, 0, inputShape, 1, sampleDims.length);
+		return inputShape;
+	}
+
+	/**
+	 * Forward a binary tensor as is, skipping base64, ImageIO and JSON. The
+	 * body is either a serialized <code>TensorProto</code> or a raw float32
+	 * tensor as described in {@link BinaryTensors}, and the output is written
+	 * back in the same form with shape <code>[batch, elements / batch]</code>,
+	 * where batch is the first input dimension, or as a JSON array if the
+	 * request accepts <code>application/json</code>. Either way it is written
+	 * straight from the output buffer.
+	 */
+	@PostMapping(value = "forward/tensor", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public void forwardTensor(HttpServletRequest request, HttpServletResponse response, @RequestParam String backend,
+			@RequestParam(required = false) String model, @RequestParam(required = false) Integer opset)
+			throws Exception {
+		long contentLength = request.getContentLengthLong();
+		ModelKey key = this.modelKey(model, opset);
+		ForwardMeters meters = this.meters(key, backend);
+		long startedAt = meters.start();
+		// bodies above the limit, announced or not, are rejected by the read below before taking any memory
+		int maxBodyBytes = this.tensorProperties.getMaxBodyBytes();
+		try (ArenaBuffer bodyBuffer = contentLength >= 0 && contentLength <= maxBodyBytes
+				? this.requestArena.buffer((int) contentLength) : null;
+				ModelHandle handle = this.registry.acquire(key)) {
+			ByteBuffer body = bodyBuffer != null ? BinaryTensors.read(request.getInputStream(), bodyBuffer.buffer())
+					: BinaryTensors.read(request.getInputStream(), contentLength, maxBodyBytes);
+			LoadedModel loadedModel = handle.get();
+			ModelDescriptor descriptor = loadedModel.getDescriptor();
+
+			boolean raw = BinaryTensors.isRaw(body);
+			long batch;
+			long[] rawDims = null;
+			TensorProto tensorProto = null;
+			if (raw) {
+				rawDims = BinaryTensors.readRawHeader(body);
+				batch = rawDims.length > 0 ? rawDims[0] : 1;
+			} else {
+				tensorProto = BinaryTensors.toTensorProto(body);
+				List<Long> dims = tensorProto.getDimsList();
+				batch = dims.isEmpty() ? 1 : dims.get(0);
+			}
+			long decodedAt = meters.decoded(startedAt);
+
+			AutoCloseable input;
+			Tensor inputTensor;
+			if (raw) {
+				ArenaTensor arenaTensor = loadedModel.getArena().tensor(rawDims, descriptor.getInputName(),
+						BinaryTensors.floats(body));
+				input = arenaTensor;
+				inputTensor = arenaTensor.get();
+			} else {
+				inputTensor = loadedModel.newInputTensor(tensorProto);
+				input = inputTensor;
+			}
+			long preprocessedAt = meters.preprocessed(decodedAt);
+
+			// the session the output belongs to, held until the output is written
+			PooledSession[] session = new PooledSession[1];
+			try (AutoCloseable closeInput = input; AutoCloseable closeSession = () -> {
+				if (session[0] != null)
+					session[0].close();
+			}) {
+				Tensor outputTensor = BackendRouter.isAuto(backend)
+						? this.router.route(key.toString(), (int) batch,
+								chosen -> this.forwardOn(loadedModel, chosen, inputTensor, session))
+						: this.forwardOn(loadedModel, backend, inputTensor, session);
+				long forwardedAt = meters.forwarded(preprocessedAt);
+
+				ByteBuffer data = outputTensor.getData();
+				data = data.duplicate().order(data.order());
+				data.clear();
+				long elements = data.remaining() / Float.BYTES;
+				long[] outputDims = batch > 0 && elements % batch == 0 ? new long[] { batch, elements / batch }
+						: new long[] { elements };
+				meters.tensorBytes(inputTensor.getData().capacity(), data.remaining());
+
+				OutputStream out = response.getOutputStream();
+				String accept = request.getHeader(HttpHeaders.ACCEPT);
+				if (accept != null && accept.contains(MediaType.APPLICATION_JSON_VALUE)) {
+					response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+					JsonFloatWriter.write(TensorOutputs.view(outputTensor), out);
+				} else if (raw) {
+					response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+					response.setContentLengthLong(BinaryTensors.rawLength(data, outputDims));
+					BinaryTensors.writeRaw(out, data, outputDims);
+				} else {
+					response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+					BinaryTensors.writeTensorProto(out, descriptor.getOutputName(), data, outputDims);
+				}
+				out.flush();
+				meters.serialized(forwardedAt);
+			}
+		} catch (Exception e) {
+			meters.error(e);
+			throw e;
+		} finally {
+			meters.finish();
+		}
+	}
+
+	/**
+	 * Forward on a session borrowed from the pool of a backend, which is left
+	 * borrowed if the forward succeeds and returned if it fails
+	 *
+	 * @param borrowed
+	 *            receives the session the output belongs to
+	 */
+	private Tensor forwardOn(LoadedModel loadedModel, String backend, Tensor inputTensor, PooledSession[] borrowed)
+			throws Exception {
+		PooledSession session = loadedModel.getSessionPools().get(backend).borrow();
+		try {
+			Tensor outputTensor = loadedModel.profile(backend).forward(session, inputTensor,
+					loadedModel.getDescriptor().getOutputName());
+			borrowed[0] = session;
+			return outputTensor;
+		} catch (Exception e) {
+			session.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Score a streamed NDJSON body of images or tensors, streaming one NDJSON
+	 * result line back per sample as its batch completes. See
+	 * {@link BulkScorer} for the line formats. With backend "auto" the
+	 * backend is chosen once for the whole job.
+	 */
+	@PostMapping(value = "forward/bulk", consumes = BulkScorer.NDJSON)
+	public void forwardBulk(HttpServletRequest request, HttpServletResponse response, @RequestParam String backend,
+			@RequestParam(required = false) String model, @RequestParam(required = false) Integer opset)
+			throws Exception {
+		ModelKey key = this.modelKey(model, opset);
+		ForwardMeters meters = this.meters(key, backend);
+		boolean routed = BackendRouter.isAuto(backend);
+		String chosen = routed
+				? this.router.choose(key.toString(), this.bulkScorer.getProperties().getBatchSize(), null)
+				: backend;
+		// every batch forwarded on a chosen backend is recorded, so that a trial of its breaker is decided
+		BulkScorer.BatchListener listener = routed
+				? (samples, micros, succeeded) -> this.router.record(key.toString(), samples, chosen, micros,
+						succeeded)
+				: null;
+		try (ModelHandle handle = this.registry.acquire(key)) {
+			response.setContentType(BulkScorer.NDJSON);
+			this.bulkScorer.score(request.getInputStream(), response.getOutputStream(), handle.get(), chosen,
+					preprocessor, meters, listener);
+		}
+	}
+
+	/**
+	 * Forward a serialized <code>TensorProto</code> through the
+	 * {@link InferenceService}, answering the output as one. Bodies above
+	 * <code>forwarder.predict.max-message-bytes</code> are answered with 413.
+	 */
+	@PostMapping(value = "predict", consumes = PROTOBUF)
+	public void predict(HttpServletRequest request, HttpServletResponse response, @RequestParam String backend,
+			@RequestParam(required = false) String model, @RequestParam(required = false) Integer opset)
+			throws Exception {
+		TensorProto input = BinaryTensors
+				.toTensorProto(BinaryTensors.read(request.getInputStream(), request.getContentLengthLong(),
+						this.inferenceService.getProperties().getMaxMessageBytes()));
+		TensorProto output = this.inferenceService.predict(this.modelKey(model, opset), backend, input);
+		response.setContentType(PROTOBUF);
+		response.setContentLength(output.getSerializedSize());
+		OutputStream out = response.getOutputStream();
+		output.writeTo(out);
+		out.flush();
+	}
+
+	/**
+	 * Forward a bidirectional stream of {@link TensorFrames}, answering every
+	 * request frame in order as soon as its output is ready while the
+	 * following ones are still being read. Over HTTP/2 many streams share one
+	 * connection; see {@link InferenceService}.
+	 */
+	@PostMapping(value = "predict/stream", consumes = TensorFrames.CONTENT_TYPE)
+	public void predictStream(HttpServletRequest request, HttpServletResponse response,
+			@RequestParam String backend, @RequestParam(required = false) String model,
+			@RequestParam(required = false) Integer opset) throws Exception {
+		ModelKey key = this.modelKey(model, opset);
+		response.setContentType(TensorFrames.CONTENT_TYPE);
+		this.inferenceService.predictStream(key, backend, request.getInputStream(), response.getOutputStream());
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	public ResponseEntity<String> badRequest(IllegalArgumentException e) {
+		return ResponseEntity.badRequest().body(e.getMessage());
+	}
+
+	@ExceptionHandler(BodyTooLargeException.class)
+	public ResponseEntity<String> tooLarge(BodyTooLargeException e) {
+		return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(e.getMessage());
+	}
+
+	@ExceptionHandler({ RejectedExecutionException.class, TimeoutException.class })
+	public ResponseEntity<String> overloaded(Exception e) {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+	}
+
+	@GetMapping(value = "ready")
+	@ResponseBody
+	public ResponseEntity<Map<String, Object>> ready() {
+		return ResponseEntity.status(this.bootstrap.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE)
+				.body(this.bootstrap.status());
+	}
+
+	@GetMapping(value = "stats/models")
+	@ResponseBody
+	public Map<String, Object> modelStats() {
+		return this.registry.stats();
+	}
+
+	@GetMapping(value = "stats/cache")
+	@ResponseBody
+	public Map<String, Object> cacheStats() {
+		return this.resultCache.stats();
+	}
+
+	@GetMapping(value = "stats/profiling")
+	@ResponseBody
+	public Map<String, Object> profilingStats() {
+		return this.profiler.stats();
+	}
+
+	@PostMapping(value = "stats/profiling/reset")
+	@ResponseBody
+	public Map<String, Object> resetProfiling() {
+		this.profiler.reset();
+		return this.profiler.stats();
+	}
+
+	@GetMapping(value = "stats/arena")
+	@ResponseBody
+	public Map<String, Object> arenaStats() {
+		return this.requestArena.stats();
+	}
+
+	@GetMapping(value = "stats/routing")
+	@ResponseBody
+	public Map<String, Object> routingStats() {
+		return this.router.stats();
+	}
+
+	@GetMapping(value = "stats/predict")
+	@ResponseBody
+	public Map<String, Object> predictStats() {
+		return this.inferenceService.stats();
+	}
+
+	@GetMapping(value = "stats/inference")
+	@ResponseBody
+	public Map<String, Object> inferenceStats() {
+		return this.inferenceExecutors.stats();
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if no such model is configured
+	 */
+	private ForwardMeters meters(ModelKey key, String backend) {
+		return this.metrics.meters(key, this.registry.getDescriptor(key).getExecutor(), backend);
+	}
+
+	private ModelKey modelKey(String model, Integer opset) {
+		ModelKey defaultKey = this.registry.getDefaultKey();
+		return new ModelKey(model != null ? model : defaultKey.getName(),
+				opset != null ? opset : defaultKey.getOpset());
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the string is not the base64 of an image ImageIO reads
+	 */
 	private static BufferedImage base64StringToImage(String base64String) throws IOException {
-		byte[] bytes = decoder.decodeBuffer(base64String);
+		byte[] bytes = decoder.decode(base64String);
 		try (ByteArrayInputStream bais = new ByteArrayInputStream(bytes)) {
 			BufferedImage bi = ImageIO.read(bais);
+			if (bi == null)
+				throw new IllegalArgumentException("Not a readable image");
 			return bi;
 		}
 	}
@@ -139,30 +567,4 @@ public class DemoController {
 		return BufferedImage. ().getGraphics().getColor()*/
 	}
 
-	private static Tensor convert2InputTensor(BufferedImage bufferedImage) {
-		int width = bufferedImage.getWidth();
-		int height = bufferedImage.getHeight();
-		TensorBuilder builder = TensorBuilder
-				.builder(DataType.FLOAT, Shape.create(1, 1, height, width),
-						Tensor.options().setAllocationMode(AllocationMode.DIRECT).setByteOrder(ByteOrder.nativeOrder()))
-				.name("Input3");
-
-		for (int i = 0; i < height; i++) {
-			for (int j = 0; j < width; j++) {
-				int color = bufferedImage.getRGB(j, i);
-				int alpha = (color >> 24) & 0xff;
-			    int red = (color >> 16) & 0xff;
-			    int green = (color >> 8) & 0xff;
-			    int blue = (color) & 0xff;
-			    int gray = (int) (0.299 * red + 0.587 * green + 0.114 * blue);
-			    //System.out.print(String.format("gray(%s,%s) = %s,\t\t\t", i, j, gray));
-			    //System.out.print(String.format("(%s,%s) -> [gray=%s] [color=%s,a=%s,r=%s,g=%s,b=%s],\t", i, j, gray, color, alpha, red, green, blue));
-				builder.putFloat((float) gray);
-			}
-			//System.out.println("");
-		}
-
-		return builder.build();
-	}
-
 }
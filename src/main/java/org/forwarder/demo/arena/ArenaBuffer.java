@@ -0,0 +1,30 @@
+/**
+ *
+ */
+package org.forwarder.demo.arena;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Direct buffer of a size class, e.g. for a request body. Its
+ * {@link #buffer()} is cleared and limited to the requested size on checkout.
+ */
+public class ArenaBuffer extends Lease {
+
+	private final ByteBuffer buffer;
+
+	ArenaBuffer(TensorArena arena, ByteBuffer buffer, boolean pooled) {
+		super(arena, buffer.capacity(), pooled);
+		this.buffer = buffer;
+	}
+
+	public ByteBuffer buffer() {
+		return this.buffer;
+	}
+
+	@Override
+	void free() {
+		// Left to the garbage collector, direct buffers have no public free
+	}
+
+}
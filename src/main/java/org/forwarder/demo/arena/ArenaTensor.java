@@ -0,0 +1,42 @@
+/**
+ *
+ */
+package org.forwarder.demo.arena;
+
+import java.nio.FloatBuffer;
+
+import org.onnx4j.Tensor;
+
+/**
+ * Float32 input tensor checked out of a {@link TensorArena}. Feed
+ * {@link #get()} and close the lease once the forward is done, which either
+ * keeps the tensor for the next request of the same shape or closes it.
+ */
+public class ArenaTensor extends Lease {
+
+	final String key;
+
+	private final Tensor tensor;
+
+	/**
+	 * Writable view over the data of a reusable tensor, null otherwise
+	 */
+	final FloatBuffer floats;
+
+	ArenaTensor(TensorArena arena, String key, Tensor tensor, FloatBuffer floats, boolean pooled) {
+		super(arena, tensor.getData().capacity(), pooled);
+		this.key = key;
+		this.tensor = tensor;
+		this.floats = floats;
+	}
+
+	public Tensor get() {
+		return this.tensor;
+	}
+
+	@Override
+	void free() {
+		this.tensor.close();
+	}
+
+}
@@ -0,0 +1,40 @@
+/**
+ *
+ */
+package org.forwarder.demo.arena;
+
+/**
+ * Something checked out of a {@link TensorArena}, given back on close. Leases
+ * compare by identity, so the arena can track the outstanding ones.
+ */
+public abstract class Lease implements AutoCloseable {
+
+	final TensorArena arena;
+
+	final long bytes;
+
+	final boolean pooled;
+
+	long leasedAt;
+
+	Throwable trace;
+
+	boolean reported;
+
+	Lease(TensorArena arena, long bytes, boolean pooled) {
+		this.arena = arena;
+		this.bytes = bytes;
+		this.pooled = pooled;
+	}
+
+	@Override
+	public void close() {
+		this.arena.giveBack(this);
+	}
+
+	/**
+	 * Free the memory of a lease the arena does not keep
+	 */
+	abstract void free();
+
+}
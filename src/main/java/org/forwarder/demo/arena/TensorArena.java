@@ -0,0 +1,409 @@
+/**
+ *
+ */
+package org.forwarder.demo.arena;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.onnx4j.Tensor;
+import org.onnx4j.Tensor.AllocationMode;
+import org.onnx4j.tensor.DataType;
+import org.onnx4j.tensor.Shape;
+import org.onnx4j.tensor.TensorBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps direct memory around between requests instead of allocating it per
+ * request and waiting for the garbage collector to free it.
+ *
+ * Two kinds of leases are handed out. {@link ArenaBuffer}s are plain direct
+ * buffers rounded up to power-of-two size classes. {@link ArenaTensor}s are
+ * float32 input tensors kept per shape and overwritten in place, since
+ * {@link TensorBuilder} allocates its own buffers and cannot be handed one.
+ * Whether a tensor can be overwritten is checked once when the first one is
+ * built: its data must be the live, writable buffer. If it is not, tensors are
+ * built per request as before.
+ *
+ * Retained memory is capped at <code>maxBytes</code>, beyond which leases are
+ * allocated per request and freed on close. Leases still out after
+ * <code>leakThresholdMillis</code> are reported once as leaked, with the stack
+ * of their checkout, by a {@link #sweep()} every
+ * <code>sweepIntervalMillis</code>.
+ */
+public class TensorArena implements AutoCloseable {
+
+	private static final int MIN_SIZE_CLASS = 6;
+
+	private static final float PROBE = 1.5f;
+
+	private static final Object NOT_REUSABLE = new Object();
+
+	private static Logger logger = LoggerFactory.getLogger(TensorArena.class);
+
+	private final String name;
+
+	private final boolean enabled;
+
+	private final long maxBytes;
+
+	private final long leakThresholdMillis;
+
+	private final ConcurrentMap<Integer, Deque<ArenaBuffer>> buffers = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Deque<ArenaTensor>> tensors = new ConcurrentHashMap<>();
+
+	/**
+	 * Outstanding leases, compared by identity
+	 */
+	private final ConcurrentMap<Lease, Boolean> leased = new ConcurrentHashMap<>();
+
+	/**
+	 * Byte order the data of reusable tensors is written in, null until
+	 * probed, {@link #NOT_REUSABLE} if tensors cannot be overwritten
+	 */
+	private volatile Object tensorOrder;
+
+	private final AtomicLong retainedBytes = new AtomicLong();
+
+	private final AtomicLong liveBytes = new AtomicLong();
+
+	private final AtomicLong peakBytes = new AtomicLong();
+
+	private final LongAdder allocations = new LongAdder();
+
+	private final LongAdder reuses = new LongAdder();
+
+	private final LongAdder overflows = new LongAdder();
+
+	private final LongAdder leaks = new LongAdder();
+
+	/**
+	 * Runs the leak sweeps, null if they are not scheduled
+	 */
+	private final ScheduledExecutorService housekeeper;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param name
+	 *            used in logs
+	 * @param enabled
+	 *            false to allocate every lease per request and free it on
+	 *            close
+	 * @param maxBytes
+	 *            direct memory retained at most
+	 * @param leakThresholdMillis
+	 *            age beyond which an outstanding lease is reported as leaked
+	 * @param sweepIntervalMillis
+	 *            period of the leak sweep, 0 or less to only look for leaks
+	 *            in {@link #stats()} and {@link #close()}
+	 */
+	public TensorArena(String name, boolean enabled, long maxBytes, long leakThresholdMillis,
+			long sweepIntervalMillis) {
+		this.name = name;
+		this.enabled = enabled;
+		this.maxBytes = maxBytes;
+		this.leakThresholdMillis = leakThresholdMillis;
+		if (sweepIntervalMillis > 0) {
+			this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "tensor-arena-housekeeper-" + name);
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.housekeeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis,
+					TimeUnit.MILLISECONDS);
+		} else {
+			this.housekeeper = null;
+		}
+	}
+
+	/**
+	 * @param size
+	 *            bytes needed
+	 * @return direct buffer of at least <code>size</code> bytes, cleared and
+	 *         limited to <code>size</code>
+	 */
+	public ArenaBuffer buffer(int size) {
+		int sizeClass = sizeClass(size);
+		Deque<ArenaBuffer> free = this.buffers.computeIfAbsent(sizeClass, key -> new ConcurrentLinkedDeque<>());
+		ArenaBuffer lease = free.pollFirst();
+		if (lease != null) {
+			this.reuses.increment();
+		} else {
+			boolean pooled = this.reserve(sizeClass);
+			lease = new ArenaBuffer(this, ByteBuffer.allocateDirect(pooled ? sizeClass : size), pooled);
+			this.allocated(lease);
+		}
+		lease.buffer().clear().limit(size);
+		return this.lease(lease);
+	}
+
+	/**
+	 * @param dims
+	 *            shape of the tensor
+	 * @param name
+	 *            name of the tensor, i.e. of the model input it is fed to
+	 * @param values
+	 *            float32 values, each from its position to its limit, filling
+	 *            the tensor in order. The buffers are left untouched.
+	 * @return tensor holding the values
+	 */
+	public ArenaTensor tensor(long[] dims, String name, FloatBuffer... values) {
+		long size = 1;
+		for (long dim : dims)
+			size *= dim;
+		long count = 0;
+		for (FloatBuffer value : values)
+			count += value.remaining();
+		if (count != size)
+			throw new IllegalArgumentException(
+					String.format("Shape %s needs %s values but got %s", Arrays.toString(dims), size, count));
+
+		String key = name + Arrays.toString(dims);
+		if (this.tensorOrder != NOT_REUSABLE) {
+			Deque<ArenaTensor> free = this.tensors.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>());
+			ArenaTensor lease = free.pollFirst();
+			if (lease != null) {
+				this.reuses.increment();
+			} else {
+				lease = this.newTensor(key, dims, name);
+			}
+			if (lease.floats != null) {
+				FloatBuffer floats = lease.floats;
+				floats.clear();
+				for (FloatBuffer value : values)
+					floats.put(value.duplicate());
+				return this.lease(lease);
+			}
+			this.free(lease);
+		}
+
+		TensorBuilder builder = TensorBuilder
+				.builder(DataType.FLOAT, Shape.create(dims),
+						Tensor.options().setAllocationMode(AllocationMode.DIRECT).setByteOrder(ByteOrder.nativeOrder()))
+				.name(name);
+		for (FloatBuffer value : values) {
+			for (int n = value.position(); n < value.limit(); n++)
+				builder.putFloat(value.get(n));
+		}
+		ArenaTensor lease = new ArenaTensor(this, key, builder.build(), null, false);
+		this.allocated(lease);
+		return this.lease(lease);
+	}
+
+	/**
+	 * Report the leases out for longer than the leak threshold. Called
+	 * periodically when a sweep interval is set.
+	 */
+	public void sweep() {
+		try {
+			this.reportLeaks();
+		} catch (RuntimeException e) {
+			logger.warn("Failed to sweep arena \"{}\"", this.name, e);
+		}
+	}
+
+	/**
+	 * @return leases reported as leaked so far, without looking for new ones
+	 */
+	long leakCount() {
+		return this.leaks.sum();
+	}
+
+	public Map<String, Object> stats() {
+		this.reportLeaks();
+
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("tensorsReusable", this.tensorOrder == null ? null : this.tensorOrder != NOT_REUSABLE);
+		stats.put("liveBytes", this.liveBytes.get());
+		stats.put("peakBytes", this.peakBytes.get());
+		stats.put("retainedBytes", this.retainedBytes.get());
+		stats.put("maxBytes", this.maxBytes);
+		stats.put("leased", this.leased.size());
+		stats.put("allocations", this.allocations.sum());
+		stats.put("reuses", this.reuses.sum());
+		stats.put("overflows", this.overflows.sum());
+		stats.put("leaks", this.leaks.sum());
+		return stats;
+	}
+
+	/**
+	 * Free the retained memory. Outstanding leases are reported as leaked if
+	 * they are over the threshold, and freed when closed.
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		if (this.housekeeper != null)
+			this.housekeeper.shutdownNow();
+		this.reportLeaks();
+		for (Deque<ArenaTensor> free : this.tensors.values()) {
+			ArenaTensor lease;
+			while ((lease = free.pollFirst()) != null)
+				this.free(lease);
+		}
+		for (Deque<ArenaBuffer> free : this.buffers.values()) {
+			ArenaBuffer lease;
+			while ((lease = free.pollFirst()) != null)
+				this.free(lease);
+		}
+	}
+
+	void giveBack(Lease lease) {
+		if (this.leased.remove(lease) == null)
+			return;
+
+		if (lease.pooled && !this.closed) {
+			if (lease instanceof ArenaBuffer) {
+				ArenaBuffer buffer = (ArenaBuffer) lease;
+				this.buffers.get(buffer.buffer().capacity()).offerFirst(buffer);
+			} else {
+				ArenaTensor tensor = (ArenaTensor) lease;
+				this.tensors.get(tensor.key).offerFirst(tensor);
+			}
+		} else {
+			this.free(lease);
+		}
+	}
+
+	private ArenaTensor newTensor(String key, long[] dims, String name) {
+		int size = 1;
+		for (long dim : dims)
+			size *= (int) dim;
+		TensorBuilder builder = TensorBuilder
+				.builder(DataType.FLOAT, Shape.create(dims),
+						Tensor.options().setAllocationMode(AllocationMode.DIRECT).setByteOrder(ByteOrder.nativeOrder()))
+				.name(name);
+		builder.putFloat(PROBE);
+		for (int n = 1; n < size; n++)
+			builder.putFloat(0f);
+		Tensor tensor = builder.build();
+
+		FloatBuffer floats = this.probe(tensor);
+		boolean pooled = floats != null && this.reserve(tensor.getData().capacity());
+		ArenaTensor lease = new ArenaTensor(this, key, tensor, floats, pooled);
+		this.allocated(lease);
+		return lease;
+	}
+
+	/**
+	 * Find out whether the data of a freshly built tensor is its live buffer
+	 * and in which byte order its values are stored
+	 *
+	 * @return writable float view over the data, or null if the tensor cannot
+	 *         be overwritten
+	 */
+	private FloatBuffer probe(Tensor tensor) {
+		ByteBuffer data = tensor.getData();
+		Object order = this.tensorOrder;
+		if (order == null) {
+			if (data.capacity() < 2 * Float.BYTES)
+				return null;
+
+			order = NOT_REUSABLE;
+			if (this.enabled && !data.isReadOnly()) {
+				for (ByteOrder candidate : new ByteOrder[] { ByteOrder.nativeOrder(),
+						opposite(ByteOrder.nativeOrder()) }) {
+					if (view(data, candidate).get(0) != PROBE)
+						continue;
+					view(data, candidate).put(1, PROBE);
+					if (view(tensor.getData(), candidate).get(1) == PROBE)
+						order = candidate;
+					view(data, candidate).put(1, 0f);
+					break;
+				}
+			}
+			this.tensorOrder = order;
+			logger.info("Input tensors of arena \"{}\" are {}", this.name,
+					order == NOT_REUSABLE ? "built per request" : "reused in " + order);
+		}
+		return order == NOT_REUSABLE ? null : view(data, (ByteOrder) order);
+	}
+
+	private boolean reserve(long bytes) {
+		if (!this.enabled || this.closed)
+			return false;
+		while (true) {
+			long retained = this.retainedBytes.get();
+			if (retained + bytes > this.maxBytes) {
+				this.overflows.increment();
+				return false;
+			}
+			if (this.retainedBytes.compareAndSet(retained, retained + bytes))
+				return true;
+		}
+	}
+
+	private void allocated(Lease lease) {
+		this.allocations.increment();
+		long live = this.liveBytes.addAndGet(lease.bytes);
+		long peak;
+		while (live > (peak = this.peakBytes.get())) {
+			if (this.peakBytes.compareAndSet(peak, live))
+				break;
+		}
+	}
+
+	private void free(Lease lease) {
+		lease.free();
+		this.liveBytes.addAndGet(-lease.bytes);
+		if (lease.pooled)
+			this.retainedBytes.addAndGet(-lease.bytes);
+	}
+
+	private <T extends Lease> T lease(T lease) {
+		lease.leasedAt = System.currentTimeMillis();
+		lease.trace = logger.isDebugEnabled() ? new Throwable("Checkout") : null;
+		lease.reported = false;
+		this.leased.put(lease, Boolean.TRUE);
+		return lease;
+	}
+
+	private synchronized void reportLeaks() {
+		long now = System.currentTimeMillis();
+		List<Lease> leaked = new ArrayList<>();
+		for (Lease lease : this.leased.keySet()) {
+			if (!lease.reported && now - lease.leasedAt > this.leakThresholdMillis)
+				leaked.add(lease);
+		}
+		for (Lease lease : leaked) {
+			lease.reported = true;
+			this.leaks.increment();
+			logger.warn("{} of {} bytes from arena \"{}\" not closed for {}ms", lease.getClass().getSimpleName(),
+					lease.bytes, this.name, now - lease.leasedAt, lease.trace);
+		}
+	}
+
+	private static int sizeClass(int size) {
+		int sizeClass = Integer.highestOneBit(Math.max(size, 1 << MIN_SIZE_CLASS) - 1) << 1;
+		return sizeClass > 0 ? sizeClass : size;
+	}
+
+	private static FloatBuffer view(ByteBuffer data, ByteOrder order) {
+		ByteBuffer bytes = data.duplicate().order(order);
+		bytes.clear();
+		return bytes.asFloatBuffer();
+	}
+
+	private static ByteOrder opposite(ByteOrder order) {
+		return order == ByteOrder.LITTLE_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+	}
+
+}
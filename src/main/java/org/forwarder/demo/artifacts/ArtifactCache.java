@@ -0,0 +1,230 @@
+/**
+ *
+ */
+package org.forwarder.demo.artifacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forwarder.Forwarder;
+import org.forwarder.demo.configurations.ArtifactCacheProperties;
+import org.forwarder.demo.optimizer.GraphOptimizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps prepared models on disk across restarts, so that a model is only
+ * optimized again when something it depends on changed. The
+ * {@link org.forwarder.demo.registry.ModelRegistry} only goes through it for
+ * models the {@link org.forwarder.demo.optimizer.GraphOptimizer} prepares;
+ * with the optimizer disabled, models are loaded from their source files and
+ * nothing is cached.
+ *
+ * Every (model file, opset, optimizer settings, forwarder library version)
+ * has a slot named after their hash, holding the prepared
+ * <code>model.onnx</code> and a <code>manifest.properties</code> recording
+ * the SHA-256 of the source file. A slot is reused when the source still has
+ * the recorded length and modification time or, failing that, the recorded
+ * hash; otherwise it is rebuilt. Files are replaced atomically, so
+ * concurrent processes sharing the directory never read partial ones.
+ */
+public class ArtifactCache {
+
+	private static final String MODEL_FILE = "model.onnx";
+
+	private static final String MANIFEST_FILE = "manifest.properties";
+
+	private static Logger logger = LoggerFactory.getLogger(ArtifactCache.class);
+
+	private final ArtifactCacheProperties properties;
+
+	private final String libraryVersion = libraryVersion();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder invalidations = new LongAdder();
+
+	public ArtifactCache(ArtifactCacheProperties properties) {
+		this.properties = properties;
+	}
+
+	public static ArtifactCache disabled() {
+		ArtifactCacheProperties properties = new ArtifactCacheProperties();
+		properties.setEnabled(false);
+		return new ArtifactCache(properties);
+	}
+
+	public boolean isEnabled() {
+		return this.properties.isEnabled();
+	}
+
+	/**
+	 * Get the optimized form of a model, from the cache if a previous run left
+	 * one that still matches
+	 */
+	public ModelArtifact optimized(File modelFile, int opset, GraphOptimizer optimizer) throws IOException {
+		String sourcePath = modelFile.getCanonicalPath();
+		File slot = new File(this.properties.getDirectory(),
+				sha256(String.join("\n", sourcePath, String.valueOf(opset), optimizer.getFingerprint(),
+						this.libraryVersion).getBytes(StandardCharsets.UTF_8)));
+		File artifactFile = new File(slot, MODEL_FILE);
+		File manifestFile = new File(slot, MANIFEST_FILE);
+
+		Properties manifest = read(manifestFile);
+		if (manifest != null && artifactFile.isFile()) {
+			if (this.isFresh(manifest, modelFile, manifestFile)) {
+				this.hits.increment();
+				return new ModelArtifact(artifactFile, slot, true,
+						Long.parseLong(manifest.getProperty("coldLoadMillis", "-1")));
+			}
+			this.invalidations.increment();
+			logger.info("Cached artifact of {} is stale, rebuilding it", sourcePath);
+		}
+
+		this.misses.increment();
+		long startedAt = System.nanoTime();
+		String sourceHash = sha256(modelFile);
+		optimizer.optimize(modelFile, artifactFile);
+
+		manifest = new Properties();
+		manifest.setProperty("source", sourcePath);
+		manifest.setProperty("sourceSha256", sourceHash);
+		manifest.setProperty("sourceLength", String.valueOf(modelFile.length()));
+		manifest.setProperty("sourceLastModified", String.valueOf(modelFile.lastModified()));
+		manifest.setProperty("opset", String.valueOf(opset));
+		manifest.setProperty("optimizer", optimizer.getFingerprint());
+		manifest.setProperty("library", this.libraryVersion);
+		manifest.setProperty("buildMillis",
+				String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt)));
+		write(manifest, manifestFile);
+		return new ModelArtifact(artifactFile, slot, false, -1);
+	}
+
+	/**
+	 * Remember how long the cold load of a freshly built artifact took, to
+	 * compare later cached loads with
+	 */
+	public void recordColdLoad(ModelArtifact artifact, long loadMillis) throws IOException {
+		File manifestFile = new File(artifact.getSlot(), MANIFEST_FILE);
+		Properties manifest = read(manifestFile);
+		if (manifest != null) {
+			manifest.setProperty("coldLoadMillis", String.valueOf(loadMillis));
+			write(manifest, manifestFile);
+		}
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", this.isEnabled());
+		stats.put("directory", this.properties.getDirectory());
+		stats.put("hits", this.hits.sum());
+		stats.put("misses", this.misses.sum());
+		stats.put("invalidations", this.invalidations.sum());
+		return stats;
+	}
+
+	/**
+	 * @return whether the source is the one the artifact was built from,
+	 *         hashing it only if its length or modification time changed
+	 */
+	private boolean isFresh(Properties manifest, File modelFile, File manifestFile) throws IOException {
+		if (String.valueOf(modelFile.length()).equals(manifest.getProperty("sourceLength"))
+				&& String.valueOf(modelFile.lastModified()).equals(manifest.getProperty("sourceLastModified")))
+			return true;
+		if (!sha256(modelFile).equals(manifest.getProperty("sourceSha256")))
+			return false;
+
+		// same content, e.g. extracted again from the war: skip hashing next time
+		manifest.setProperty("sourceLength", String.valueOf(modelFile.length()));
+		manifest.setProperty("sourceLastModified", String.valueOf(modelFile.lastModified()));
+		write(manifest, manifestFile);
+		return true;
+	}
+
+	/**
+	 * @return the version of the forwarder library, or the identity of its
+	 *         jar if it declares none
+	 */
+	static String libraryVersion() {
+		Package library = Forwarder.class.getPackage();
+		if (library != null && library.getImplementationVersion() != null)
+			return library.getImplementationVersion();
+		try {
+			File jar = new File(Forwarder.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			return jar.getName() + ":" + jar.length() + ":" + jar.lastModified();
+		} catch (Exception e) {
+			return "unknown";
+		}
+	}
+
+	private static Properties read(File file) throws IOException {
+		if (!file.isFile())
+			return null;
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			properties.load(in);
+		}
+		return properties;
+	}
+
+	private static void write(Properties properties, File file) throws IOException {
+		File directory = file.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException(String.format("Cannot create %s", directory));
+		File partial = File.createTempFile(file.getName(), ".part", directory);
+		try {
+			try (OutputStream out = Files.newOutputStream(partial.toPath())) {
+				properties.store(out, "forwarder.demo model artifact");
+			}
+			Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(partial.toPath());
+		}
+	}
+
+	private static String sha256(File file) throws IOException {
+		MessageDigest digest = digest();
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) >= 0)
+				digest.update(buffer, 0, read);
+		}
+		return hex(digest.digest());
+	}
+
+	private static String sha256(byte[] bytes) {
+		return hex(digest().digest(bytes));
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+}
@@ -0,0 +1,51 @@
+/**
+ *
+ */
+package org.forwarder.demo.artifacts;
+
+import java.io.File;
+
+/**
+ * A prepared model file handed out by the {@link ArtifactCache}
+ */
+public class ModelArtifact {
+
+	private final File file;
+
+	private final File slot;
+
+	private final boolean cached;
+
+	private final long coldLoadMillis;
+
+	ModelArtifact(File file, File slot, boolean cached, long coldLoadMillis) {
+		this.file = file;
+		this.slot = slot;
+		this.cached = cached;
+		this.coldLoadMillis = coldLoadMillis;
+	}
+
+	public File getFile() {
+		return this.file;
+	}
+
+	File getSlot() {
+		return this.slot;
+	}
+
+	/**
+	 * @return whether a previous run prepared the file
+	 */
+	public boolean isCached() {
+		return this.cached;
+	}
+
+	/**
+	 * @return how long loading the model took when it was prepared, -1 if
+	 *         not recorded
+	 */
+	public long getColdLoadMillis() {
+		return this.coldLoadMillis;
+	}
+
+}
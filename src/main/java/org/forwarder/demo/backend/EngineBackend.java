@@ -0,0 +1,308 @@
+/**
+ *
+ */
+package org.forwarder.demo.backend;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forwarder.Backend;
+import org.forwarder.Session;
+import org.forwarder.demo.configurations.EngineProperties;
+import org.forwarder.demo.engine.AccuracyGate;
+import org.forwarder.demo.engine.ExecutionPlan;
+import org.forwarder.demo.engine.GraphExecutor;
+import org.forwarder.demo.engine.MemoryPlan;
+import org.forwarder.demo.engine.NdArray;
+import org.forwarder.demo.engine.NodeProfile;
+import org.forwarder.demo.engine.Precision;
+import org.forwarder.demo.profiling.ForwardProfiler;
+import org.forwarder.demo.registry.ModelDescriptor;
+import org.forwarder.demo.weights.ModelWeights;
+import org.onnx4j.Tensor;
+import org.onnx4j.Tensor.AllocationMode;
+import org.onnx4j.prototypes.OnnxProto3.ModelProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorShapeProto;
+import org.onnx4j.prototypes.OnnxProto3.ValueInfoProto;
+import org.onnx4j.tensor.DataType;
+import org.onnx4j.tensor.Shape;
+import org.onnx4j.tensor.TensorBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The "Engine" backend of a model: forwards on the in-process graph engine,
+ * in plain Java without native libraries, so that small models are served
+ * without the footprint of Tensorflow or DL4J.
+ *
+ * The model is compiled into an {@link ExecutionPlan} when the first session
+ * is opened, its weights packed to the configured {@link Precision} if the
+ * {@link AccuracyGate} lets them, and the memory of forwards of single
+ * samples planned. Inputs are fed as flat float tensors of whole samples of
+ * the sample shape of the model, forwarded one at a time so that models whose
+ * graph fixes a batch of 1, like the MNIST ones, take batches too.
+ */
+public class EngineBackend extends Backend<ExecutionPlan> {
+
+	public static final String NAME = "Engine";
+
+	private static Logger logger = LoggerFactory.getLogger(EngineBackend.class);
+
+	private final ModelDescriptor descriptor;
+
+	private final File modelFile;
+
+	/**
+	 * Mapping of the model file, owned by the model, or null
+	 */
+	private final ModelWeights weights;
+
+	private final File dataSetDirectory;
+
+	private final EngineProperties properties;
+
+	private final GraphExecutor executor;
+
+	private final ForwardProfiler profiler;
+
+	private final LongAdder samples = new LongAdder();
+
+	private long[] sampleDims;
+
+	private MemoryPlan memory;
+
+	private AccuracyGate.Result accuracy;
+
+	/**
+	 * Node by node profile of the forwards, null unless profiling is enabled
+	 */
+	private NodeProfile nodes;
+
+	private long compileMillis;
+
+	/**
+	 * Set last once compiled, guarding the fields above
+	 */
+	private volatile ExecutionPlan plan;
+
+	EngineBackend(ModelDescriptor descriptor, File modelFile, ModelWeights weights, File dataSetDirectory,
+			EngineProperties properties, GraphExecutor executor, ForwardProfiler profiler) {
+		this.descriptor = descriptor;
+		this.modelFile = modelFile;
+		this.weights = weights;
+		this.dataSetDirectory = dataSetDirectory;
+		this.properties = properties;
+		this.executor = executor;
+		this.profiler = profiler;
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             if the model uses an operator the engine does not support
+	 * @throws IllegalArgumentException
+	 *             if the model does not take the input or give the output of
+	 *             its descriptor
+	 */
+	@Override
+	public Session<ExecutionPlan> newSession() throws Exception {
+		this.compile();
+		return new EngineSession(this);
+	}
+
+	public String getOutputName() {
+		return this.descriptor.getOutputName();
+	}
+
+	/**
+	 * @return the compiled plan, null until the first session is opened
+	 */
+	public ExecutionPlan getPlan() {
+		return this.plan;
+	}
+
+	/**
+	 * Forward whole samples directly, without copying them into and out of
+	 * onnx4j tensors as a session does
+	 *
+	 * @param input
+	 *            float samples of the sample shape of the model, in any shape
+	 *            holding them whole
+	 * @return the outputs of the descriptor of the samples, stacked along the
+	 *         first axis
+	 * @throws IllegalArgumentException
+	 *             if the values are not whole samples
+	 */
+	public NdArray forward(NdArray input) throws Exception {
+		if (this.plan == null)
+			this.compile();
+		return this.forward(input.data(), input.size());
+	}
+
+	/**
+	 * Forward whole samples, one at a time
+	 *
+	 * @param values
+	 *            the samples, possibly followed by unused values
+	 * @return the outputs of the descriptor of the samples, stacked along the
+	 *         first axis
+	 * @throws IllegalArgumentException
+	 *             if the values are not whole samples
+	 */
+	NdArray forward(float[] values, int size) throws Exception {
+		ExecutionPlan plan = this.plan;
+		int sampleSize = (int) product(this.sampleDims);
+		if (size == 0 || size % sampleSize != 0)
+			throw new IllegalArgumentException(String.format("%s values are not whole samples of shape %s", size,
+					Arrays.toString(this.sampleDims)));
+		int batch = size / sampleSize;
+		int[] shape = new int[this.sampleDims.length + 1];
+		shape[0] = 1;
+		for (int n = 0; n < this.sampleDims.length; n++)
+			shape[n + 1] = (int) this.sampleDims[n];
+
+		float[] sample = batch == 1 ? values : new float[sampleSize];
+		float[] stacked = null;
+		NdArray output = null;
+		for (int n = 0; n < batch; n++) {
+			if (batch > 1)
+				System.arraycopy(values, n * sampleSize, sample, 0, sampleSize);
+			output = plan.execute(this.executor,
+					Collections.singletonMap(this.descriptor.getInputName(), NdArray.floats(shape, sample)),
+					this.memory, this.nodes).get(this.descriptor.getOutputName());
+			if (batch == 1)
+				break;
+			if (stacked == null)
+				stacked = new float[batch * output.size()];
+			System.arraycopy(output.data(), 0, stacked, n * output.size(), output.size());
+		}
+		this.samples.add(batch);
+		if (batch == 1)
+			return output;
+		int[] outputShape = output.shape().clone();
+		outputShape[0] *= batch;
+		return NdArray.floats(outputShape, stacked);
+	}
+
+	/**
+	 * @return a tensor holding a copy of the output
+	 */
+	Tensor toTensor(NdArray output) {
+		long[] dims = new long[output.rank()];
+		for (int n = 0; n < dims.length; n++)
+			dims[n] = output.dim(n);
+		TensorBuilder builder = TensorBuilder
+				.builder(DataType.FLOAT, Shape.create(dims),
+						Tensor.options().setAllocationMode(AllocationMode.HEAP).setByteOrder(ByteOrder.nativeOrder()))
+				.name(this.descriptor.getOutputName());
+		float[] data = output.data();
+		for (int n = 0; n < output.size(); n++)
+			builder.putFloat(data[n]);
+		return builder.build();
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		ExecutionPlan plan = this.plan;
+		stats.put("compiled", plan != null);
+		if (plan != null) {
+			stats.put("compileMillis", this.compileMillis);
+			stats.put("nodes", plan.getNodeCount());
+			stats.put("precision", plan.getPrecision());
+			stats.put("weightBytes", plan.getWeightBytes());
+			stats.put("accuracy", this.accuracy != null ? this.accuracy.toString() : null);
+			stats.put("memory", this.memory != null ? this.memory.stats() : null);
+		}
+		stats.put("samples", this.samples.sum());
+		return stats;
+	}
+
+	private synchronized void compile() throws Exception {
+		if (this.plan != null)
+			return;
+		long startedAt = System.nanoTime();
+		// parsed straight from the mapping when there is one, rather than from a heap copy of the whole file
+		ModelProto model = this.weights != null ? ModelProto.parseFrom(this.weights.getModelBytes())
+				: ModelProto.parseFrom(Files.readAllBytes(this.modelFile.toPath()));
+		ExecutionPlan plan = ExecutionPlan.compile(model);
+		String inputName = this.descriptor.getInputName();
+		if (!plan.getInputNames().equals(Collections.singleton(inputName)))
+			throw new IllegalArgumentException(
+					String.format("Model %s takes %s rather than %s alone", this.descriptor.getKey(),
+							plan.getInputNames(), inputName));
+		if (!plan.getOutputNames().contains(this.descriptor.getOutputName()))
+			throw new IllegalArgumentException(String.format("Model %s gives %s but not %s",
+					this.descriptor.getKey(), plan.getOutputNames(), this.descriptor.getOutputName()));
+
+		Precision precision = this.properties.getPrecision();
+		if (precision != Precision.FP32) {
+			ExecutionPlan packed = ExecutionPlan.compile(model, precision);
+			this.accuracy = new AccuracyGate(this.properties.getTolerance()).check(packed, this.executor,
+					this.dataSetDirectory);
+			if (this.accuracy.isPassed()) {
+				logger.info("Model {} kept in {}: {}", this.descriptor.getKey(), precision, this.accuracy);
+				plan = packed;
+			} else {
+				logger.warn("Model {} kept in {} rather than {}: {}", this.descriptor.getKey(), Precision.FP32,
+						precision, this.accuracy);
+			}
+		}
+
+		this.sampleDims = this.descriptor.getSampleShape().isEmpty() ? sampleDims(model, inputName)
+				: this.descriptor.getSampleDims();
+		if (this.properties.isPlanMemory()) {
+			int[] shape = new int[this.sampleDims.length + 1];
+			shape[0] = 1;
+			for (int n = 0; n < this.sampleDims.length; n++)
+				shape[n + 1] = (int) this.sampleDims[n];
+			this.memory = plan.planMemory(Collections.singletonMap(inputName, shape));
+		}
+		if (this.profiler.isEnabled()) {
+			this.nodes = new NodeProfile(plan);
+			this.profiler.register(this.descriptor.getKey().toString(), this.nodes);
+		}
+		this.compileMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+		this.plan = plan;
+		logger.info("Model {} compiled for backend {} in {}ms: {} nodes, {} bytes of weights, {}",
+				this.descriptor.getKey(), NAME, this.compileMillis, plan.getNodeCount(), plan.getWeightBytes(),
+				this.memory != null ? this.memory : "memory not planned");
+	}
+
+	/**
+	 * @return the input dimensions the model declares after the batch
+	 * @throws IllegalArgumentException
+	 *             if it does not declare them all
+	 */
+	private static long[] sampleDims(ModelProto model, String inputName) {
+		for (ValueInfoProto input : model.getGraph().getInputList()) {
+			if (!input.getName().equals(inputName))
+				continue;
+			List<TensorShapeProto.Dimension> dims = input.getType().getTensorType().getShape().getDimList();
+			long[] sampleDims = new long[Math.max(0, dims.size() - 1)];
+			for (int n = 0; n < sampleDims.length; n++) {
+				sampleDims[n] = dims.get(n + 1).getDimValue();
+				if (sampleDims[n] <= 0)
+					break;
+			}
+			if (dims.size() > 1 && product(sampleDims) > 0)
+				return sampleDims;
+		}
+		throw new IllegalArgumentException(
+				String.format("Sample shape of input %s is neither configured nor declared", inputName));
+	}
+
+	private static long product(long[] dims) {
+		long product = 1;
+		for (long dim : dims)
+			product *= dim;
+		return product;
+	}
+
+}
@@ -0,0 +1,104 @@
+/**
+ *
+ */
+package org.forwarder.demo.backend;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.forwarder.demo.configurations.EngineProperties;
+import org.forwarder.demo.engine.DataflowExecutor;
+import org.forwarder.demo.engine.GraphExecutor;
+import org.forwarder.demo.engine.SequentialExecutor;
+import org.forwarder.demo.profiling.ForwardProfiler;
+import org.forwarder.demo.registry.ModelDescriptor;
+import org.forwarder.demo.weights.ModelWeights;
+
+/**
+ * Opens the {@link EngineBackend} of every loaded model, all of them running
+ * their forwards on one shared {@link GraphExecutor}: on the request thread
+ * with a parallelism of 1, else on a {@link DataflowExecutor} of
+ * <code>threads</code> threads.
+ */
+public class EngineBackends implements AutoCloseable {
+
+	private final EngineProperties properties;
+
+	private final GraphExecutor executor;
+
+	private final ForwardProfiler profiler;
+
+	public EngineBackends(EngineProperties properties) {
+		this(properties, ForwardProfiler.disabled());
+	}
+
+	/**
+	 * @param profiler
+	 *            profiler the backends register the node profile of their
+	 *            plan with, when it is enabled
+	 */
+	public EngineBackends(EngineProperties properties, ForwardProfiler profiler) {
+		this.properties = properties;
+		this.profiler = profiler;
+		if (!properties.isEnabled() || properties.getParallelism() <= 1) {
+			this.executor = new SequentialExecutor();
+		} else {
+			int threads = properties.getThreads() > 0 ? properties.getThreads()
+					: Runtime.getRuntime().availableProcessors();
+			this.executor = new DataflowExecutor(threads, properties.getParallelism());
+		}
+	}
+
+	public static EngineBackends disabled() {
+		EngineProperties properties = new EngineProperties();
+		properties.setEnabled(false);
+		return new EngineBackends(properties);
+	}
+
+	public boolean isEnabled() {
+		return this.properties.isEnabled();
+	}
+
+	/**
+	 * @param modelFile
+	 *            file to compile, possibly optimized
+	 * @param dataSetDirectory
+	 *            directory of the <code>test_data_set_N</code> to check
+	 *            reduced precision weights against
+	 * @return the backend, compiling the model when the first session is
+	 *         opened on it
+	 */
+	public EngineBackend open(ModelDescriptor descriptor, File modelFile, File dataSetDirectory) {
+		return this.open(descriptor, modelFile, null, dataSetDirectory);
+	}
+
+	/**
+	 * @param weights
+	 *            mapping of the model file to compile the model from instead
+	 *            of reading the file, or null. It must stay open as long as
+	 *            the backend is used.
+	 */
+	public EngineBackend open(ModelDescriptor descriptor, File modelFile, ModelWeights weights,
+			File dataSetDirectory) {
+		return new EngineBackend(descriptor, modelFile, weights, dataSetDirectory, this.properties, this.executor,
+				this.profiler);
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", this.isEnabled());
+		stats.put("precision", this.properties.getPrecision());
+		stats.put("planMemory", this.properties.isPlanMemory());
+		if (this.executor instanceof DataflowExecutor)
+			stats.put("executor", ((DataflowExecutor) this.executor).stats());
+		return stats;
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+		if (this.executor instanceof DataflowExecutor)
+			((DataflowExecutor) this.executor).close();
+	}
+
+}
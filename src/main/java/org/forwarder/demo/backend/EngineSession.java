@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package org.forwarder.demo.backend;
+
+import java.nio.FloatBuffer;
+
+import org.forwarder.Session;
+import org.forwarder.demo.engine.ExecutionPlan;
+import org.forwarder.demo.output.TensorOutputs;
+import org.onnx4j.Tensor;
+
+/**
+ * A session of an {@link EngineBackend}, pooled like the sessions of the
+ * native backends. It copies the fed tensor into an array it keeps across
+ * forwards and holds the output of the last forward until the next one or
+ * until it is closed; fed tensors stay owned by the caller.
+ */
+public class EngineSession extends Session<ExecutionPlan> {
+
+	private final EngineBackend backend;
+
+	private Tensor input;
+
+	private float[] values = new float[0];
+
+	private Tensor output;
+
+	EngineSession(EngineBackend backend) {
+		this.backend = backend;
+	}
+
+	@Override
+	public Session<ExecutionPlan> feed(Tensor tensor) {
+		this.input = tensor;
+		return this;
+	}
+
+	/**
+	 * The engine copies its input, so whether the tensor is closed after the
+	 * forward is left to the caller either way
+	 */
+	@Override
+	public Session<ExecutionPlan> feed(Tensor tensor, boolean closeAfterForward) {
+		return this.feed(tensor);
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             if no tensor was fed
+	 */
+	@Override
+	public Session<ExecutionPlan> forward() throws Exception {
+		if (this.input == null)
+			throw new IllegalStateException("No tensor fed to forward");
+		FloatBuffer view = TensorOutputs.view(this.input);
+		int size = view.remaining();
+		if (this.values.length < size)
+			this.values = new float[size];
+		view.get(this.values, 0, size);
+		this.input = null;
+
+		Tensor output = this.backend.toTensor(this.backend.forward(this.values, size));
+		this.closeOutput();
+		this.output = output;
+		return this;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the name is not the output of the model
+	 */
+	@Override
+	public Tensor getOutput(String name) {
+		if (!this.backend.getOutputName().equals(name))
+			throw new IllegalArgumentException(
+					String.format("Output %s is not %s", name, this.backend.getOutputName()));
+		return this.output;
+	}
+
+	@Override
+	public void close() throws Exception {
+		this.closeOutput();
+	}
+
+	private void closeOutput() throws Exception {
+		if (this.output != null) {
+			this.output.close();
+			this.output = null;
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+/**
+ *
+ */
+package org.forwarder.demo.batching;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.forwarder.demo.arena.ArenaTensor;
+import org.forwarder.demo.arena.TensorArena;
+import org.forwarder.demo.output.TensorOutputs;
+import org.forwarder.demo.profiling.ForwardProfile;
+import org.forwarder.demo.session.PooledSession;
+
+/**
+ * Forwards a batch of samples on one borrowed session, either stacked into a
+ * single <code>[N, ...]</code> input tensor or fed one after another, and
+ * hands each output row to a {@link RowConsumer} while it is still a view of
+ * the output tensor. Stacked batches smaller than the batch the graph fixes
+ * are padded with zero samples, whose rows are dropped.
+ */
+public final class BatchForward {
+
+	/**
+	 * Receives the output rows of a batch in order
+	 */
+	public interface RowConsumer {
+
+		/**
+		 * @param row
+		 *            output of the sample, only valid during the call
+		 */
+		void accept(int index, FloatBuffer row) throws Exception;
+
+	}
+
+	private BatchForward() {
+	}
+
+	/**
+	 * @param samples
+	 *            flattened samples, each read from position to limit
+	 * @param stack
+	 *            stack the samples into one tensor
+	 * @param modelBatchSize
+	 *            batch size the graph fixes for its input, 0 if its batch
+	 *            dimension is dynamic
+	 * @throws IllegalArgumentException
+	 *             if more samples are stacked than the graph fixes
+	 */
+	public static void forward(PooledSession session, ForwardProfile profile, TensorArena arena, String inputName,
+			String outputName, long[] sampleShape, FloatBuffer[] samples, boolean stack, int modelBatchSize,
+			RowConsumer rows) throws Exception {
+		if (stack)
+			stacked(session, profile, arena, inputName, outputName, sampleShape, samples, modelBatchSize, rows);
+		else
+			sequential(session, profile, arena, inputName, outputName, sampleShape, samples, rows);
+	}
+
+	private static void stacked(PooledSession session, ForwardProfile profile, TensorArena arena, String inputName,
+			String outputName, long[] sampleShape, FloatBuffer[] samples, int modelBatchSize, RowConsumer rows)
+			throws Exception {
+		if (modelBatchSize > 0 && samples.length > modelBatchSize)
+			throw new IllegalArgumentException(String.format("Cannot stack %s samples, the model fixes a batch of %s",
+					samples.length, modelBatchSize));
+		int batchSize = modelBatchSize > 0 ? modelBatchSize : samples.length;
+		FloatBuffer[] values = samples;
+		if (batchSize > samples.length) {
+			values = Arrays.copyOf(samples, batchSize);
+			FloatBuffer zeros = FloatBuffer.allocate(samples[0].remaining());
+			Arrays.fill(values, samples.length, batchSize, zeros);
+		}
+		try (ArenaTensor inputTensor = arena.tensor(dims(batchSize, sampleShape), inputName, values)) {
+			FloatBuffer buffer = TensorOutputs.view(profile.forward(session, inputTensor.get(), outputName));
+			int rowSize = buffer.capacity() / batchSize;
+			for (int n = 0; n < samples.length; n++) {
+				buffer.limit((n + 1) * rowSize).position(n * rowSize);
+				rows.accept(n, buffer.slice());
+			}
+		}
+	}
+
+	private static void sequential(PooledSession session, ForwardProfile profile, TensorArena arena,
+			String inputName, String outputName, long[] sampleShape, FloatBuffer[] samples, RowConsumer rows)
+			throws Exception {
+		long[] dims = dims(1, sampleShape);
+		for (int n = 0; n < samples.length; n++) {
+			try (ArenaTensor inputTensor = arena.tensor(dims, inputName, samples[n])) {
+				rows.accept(n, TensorOutputs.view(profile.forward(session, inputTensor.get(), outputName)));
+			}
+		}
+	}
+
+	private static long[] dims(int batchSize, long[] sampleShape) {
+		long[] dims = new long[sampleShape.length + 1];
+		dims[0] = batchSize;
+		System.arraycopy(sampleShape, 0, dims, 1, sampleShape.length);
+		return dims;
+	}
+
+}
@@ -0,0 +1,333 @@
+/**
+ *
+ */
+package org.forwarder.demo.batching;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forwarder.demo.arena.TensorArena;
+import org.forwarder.demo.configurations.BatchingProperties;
+import org.forwarder.demo.metrics.Histogram;
+import org.forwarder.demo.profiling.ForwardProfile;
+import org.forwarder.demo.session.PooledSession;
+import org.forwarder.demo.session.SessionPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Gathers concurrent forward requests for one backend and runs them as a
+ * single batch.
+ *
+ * A dedicated worker thread takes the first pending request, then keeps
+ * collecting companions until either <code>maxBatchSize</code> requests are
+ * gathered or <code>maxWaitMicros</code> have elapsed since the first one was
+ * queued. The batch is then stacked into one <code>[N, ...]</code> input
+ * tensor and forwarded once, with the output rows split back to each caller.
+ *
+ * Unless inputs are stacked, as for graphs fixing a batch of 1, the requests
+ * gathered are forwarded in parallel instead, each on a session of its own
+ * borrowed by a forwarding thread, and without waiting for companions since
+ * there is nothing to gain from them.
+ */
+public class MicroBatcher implements AutoCloseable {
+
+	private static Logger logger = LoggerFactory.getLogger(MicroBatcher.class);
+
+	private final String name;
+
+	private final SessionPool sessionPool;
+
+	private final ForwardProfile profile;
+
+	private final TensorArena arena;
+
+	private final String inputName;
+
+	private final String outputName;
+
+	private final long[] sampleShape;
+
+	private final int sampleSize;
+
+	private final int maxBatchSize;
+
+	private final long maxWaitNanos;
+
+	private final boolean stackInputs;
+
+	/**
+	 * Batch size the graph fixes, 0 if its batch dimension is dynamic
+	 */
+	private final int modelBatchSize;
+
+	private final BlockingQueue<Request> queue;
+
+	private final Thread worker;
+
+	/**
+	 * Threads forwarding the requests of a batch in parallel when they are
+	 * not stacked, else null
+	 */
+	private final ExecutorService forwarders;
+
+	private final Histogram batchSizes = new Histogram("requests");
+
+	private final Histogram queueWaits = new Histogram("us");
+
+	private volatile boolean running = true;
+
+	/**
+	 * @param name
+	 *            used for the worker thread and in logs
+	 * @param sessionPool
+	 *            pool of the backend every batch is forwarded on
+	 * @param profile
+	 *            profile every forward is run and recorded with
+	 * @param arena
+	 *            arena the input tensors are checked out of
+	 * @param inputName
+	 *            name of the model input
+	 * @param outputName
+	 *            name of the model output split back to callers
+	 * @param sampleShape
+	 *            shape of one sample without the batch dimension, e.g.
+	 *            <code>{1, 28, 28}</code>
+	 * @param modelBatchSize
+	 *            batch size the graph fixes for its input, 0 if its batch
+	 *            dimension is dynamic
+	 * @param properties
+	 *            batching limits
+	 * @throws IllegalStateException
+	 *             if inputs are stacked into batches the queue or the graph
+	 *             cannot take
+	 */
+	public MicroBatcher(String name, SessionPool sessionPool, ForwardProfile profile, TensorArena arena,
+			String inputName, String outputName, long[] sampleShape, int modelBatchSize,
+			BatchingProperties properties) {
+		this.name = name;
+		this.sessionPool = sessionPool;
+		this.profile = profile;
+		this.arena = arena;
+		this.inputName = inputName;
+		this.outputName = outputName;
+		this.sampleShape = sampleShape.clone();
+		int size = 1;
+		for (long dim : sampleShape)
+			size *= (int) dim;
+		this.sampleSize = size;
+		this.maxBatchSize = Math.max(1, properties.getMaxBatchSize());
+		this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, properties.getMaxWaitMicros()));
+		this.stackInputs = properties.isStackInputs();
+		this.modelBatchSize = modelBatchSize;
+		int queueCapacity = Math.max(1, properties.getQueueCapacity());
+		if (this.stackInputs && queueCapacity < this.maxBatchSize)
+			throw new IllegalStateException(String.format(
+					"Batcher \"%s\" stacks up to %s samples but queues only %s", name, this.maxBatchSize,
+					queueCapacity));
+		if (this.stackInputs && modelBatchSize > 0 && modelBatchSize != this.maxBatchSize)
+			throw new IllegalStateException(String.format(
+					"Batcher \"%s\" stacks up to %s samples but the model fixes a batch of %s", name,
+					this.maxBatchSize, modelBatchSize));
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+		if (this.stackInputs) {
+			this.forwarders = null;
+		} else {
+			AtomicInteger threadCount = new AtomicInteger();
+			this.forwarders = Executors.newFixedThreadPool(this.maxBatchSize, runnable -> {
+				Thread thread = new Thread(runnable, "micro-batcher-" + name + "-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		this.worker = new Thread(this::loop, "micro-batcher-" + name);
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * Queue one sample for the next batch
+	 *
+	 * @param sample
+	 *            flattened sample, <code>sampleShape</code> elements long
+	 * @return output row of this sample once its batch has been forwarded
+	 */
+	public CompletableFuture<float[]> submit(float[] sample) {
+		return this.submit(FloatBuffer.wrap(sample));
+	}
+
+	/**
+	 * Queue one sample for the next batch without copying it. The buffer is
+	 * read when the batch runs, so it must not be modified until the
+	 * returned future completes.
+	 *
+	 * @param sample
+	 *            flattened sample, <code>sampleShape</code> elements from
+	 *            index 0
+	 * @return output row of this sample once its batch has been forwarded
+	 */
+	public CompletableFuture<float[]> submit(FloatBuffer sample) {
+		if (sample.capacity() != this.sampleSize)
+			throw new IllegalArgumentException(String.format("Expected sample of %s elements but got %s",
+					this.sampleSize, sample.capacity()));
+
+		Request request = new Request(sample);
+		if (!this.running || !this.queue.offer(request)) {
+			request.future.completeExceptionally(
+					new RejectedExecutionException(String.format("Batcher \"%s\" is full or closed", this.name)));
+		}
+		return request.future;
+	}
+
+	public Histogram getBatchSizes() {
+		return this.batchSizes;
+	}
+
+	public Histogram getQueueWaits() {
+		return this.queueWaits;
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("stacked", this.stackInputs);
+		stats.put("pending", this.queue.size());
+		stats.put("batchSize", this.batchSizes.toMap());
+		stats.put("queueWait", this.queueWaits.toMap());
+		return stats;
+	}
+
+	@Override
+	public void close() {
+		this.running = false;
+		this.worker.interrupt();
+		try {
+			this.worker.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.forwarders != null)
+			this.forwarders.shutdown();
+
+		Request request;
+		while ((request = this.queue.poll()) != null) {
+			request.future.completeExceptionally(
+					new RejectedExecutionException(String.format("Batcher \"%s\" is closed", this.name)));
+		}
+	}
+
+	private void loop() {
+		List<Request> batch = new ArrayList<>(this.maxBatchSize);
+		while (this.running) {
+			try {
+				Request first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null)
+					continue;
+
+				batch.add(first);
+				long deadline = first.enqueuedAt + (this.stackInputs ? this.maxWaitNanos : 0);
+				while (batch.size() < this.maxBatchSize) {
+					this.queue.drainTo(batch, this.maxBatchSize - batch.size());
+					long remaining = deadline - System.nanoTime();
+					if (batch.size() >= this.maxBatchSize || remaining <= 0)
+						break;
+
+					Request next = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null)
+						break;
+					batch.add(next);
+				}
+
+				this.run(batch);
+			} catch (InterruptedException e) {
+				if (this.running)
+					logger.warn("Batcher \"{}\" interrupted while gathering requests", this.name);
+			} finally {
+				for (Request request : batch) {
+					if (!request.future.isDone())
+						request.future.completeExceptionally(
+								new RejectedExecutionException(String.format("Batcher \"%s\" is closed", this.name)));
+				}
+				batch.clear();
+			}
+		}
+	}
+
+	private void run(List<Request> batch) {
+		long now = System.nanoTime();
+		for (Request request : batch)
+			this.queueWaits.record(TimeUnit.NANOSECONDS.toMicros(now - request.enqueuedAt));
+		this.batchSizes.record(batch.size());
+
+		if (this.forwarders == null) {
+			this.forward(batch);
+			return;
+		}
+		CompletableFuture<?>[] forwards = new CompletableFuture<?>[batch.size()];
+		for (int n = 0; n < forwards.length; n++) {
+			List<Request> single = Collections.singletonList(batch.get(n));
+			forwards[n] = CompletableFuture.runAsync(() -> this.forward(single), this.forwarders);
+		}
+		// bounds the forwards in flight to a batch, the queue holding the others
+		CompletableFuture.allOf(forwards).join();
+	}
+
+	/**
+	 * Forward requests stacked on one borrowed session, completing their
+	 * futures
+	 */
+	private void forward(List<Request> batch) {
+		FloatBuffer[] samples = new FloatBuffer[batch.size()];
+		for (int n = 0; n < samples.length; n++)
+			samples[n] = whole(batch.get(n).sample);
+
+		float[][] rows = new float[samples.length][];
+		try (PooledSession session = this.sessionPool.borrow()) {
+			BatchForward.forward(session, this.profile, this.arena, this.inputName, this.outputName,
+					this.sampleShape, samples, this.stackInputs, this.modelBatchSize, (n, row) -> {
+						rows[n] = new float[row.remaining()];
+						row.get(rows[n]);
+					});
+			for (int n = 0; n < batch.size(); n++)
+				batch.get(n).future.complete(rows[n]);
+		} catch (Throwable e) {
+			logger.error("Failed to forward batch of {} on \"{}\"", batch.size(), this.name, e);
+			for (Request request : batch)
+				request.future.completeExceptionally(e);
+		}
+	}
+
+	private static FloatBuffer whole(FloatBuffer sample) {
+		FloatBuffer whole = sample.duplicate();
+		whole.clear();
+		return whole;
+	}
+
+	private static class Request {
+
+		private final FloatBuffer sample;
+
+		private final long enqueuedAt = System.nanoTime();
+
+		private final CompletableFuture<float[]> future = new CompletableFuture<>();
+
+		private Request(FloatBuffer sample) {
+			this.sample = sample;
+		}
+
+	}
+
+}
@@ -0,0 +1,236 @@
+/**
+ *
+ */
+package org.forwarder.demo.binary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+
+/**
+ * Binary tensor bodies of <code>/demo/forward/tensor</code>. A body is either
+ * a serialized ONNX <code>TensorProto</code> or a raw float32 tensor laid out
+ * in little-endian as:
+ *
+ * <pre>
+ * "F32T"            4 bytes magic
+ * rank              int32
+ * dims[rank]        int64 each
+ * data              float32 each, row-major
+ * </pre>
+ *
+ * The magic can never start a valid <code>TensorProto</code> (it would be
+ * field 8 with the unused wire type 6), so the two are told apart by peeking
+ * at the first bytes.
+ */
+public final class BinaryTensors {
+
+	public static final int RAW_MAGIC = ('F') | ('3' << 8) | ('2' << 16) | ('T' << 24);
+
+	/**
+	 * Highest rank of a raw body, well above that of any model input
+	 */
+	public static final int MAX_RANK = 32;
+
+	private static final int INITIAL_CAPACITY = 64 * 1024;
+
+	private BinaryTensors() {
+	}
+
+	/**
+	 * Read a whole request body into a direct buffer
+	 *
+	 * @param contentLength
+	 *            length announced by the request, or -1 if unknown
+	 * @param maxBytes
+	 *            largest body accepted, checked before any memory is
+	 *            allocated for it
+	 * @return the body, flipped for reading
+	 * @throws BodyTooLargeException
+	 *             if the body announces or turns out to hold more than
+	 *             maxBytes
+	 */
+	public static ByteBuffer read(InputStream in, long contentLength, int maxBytes) throws IOException {
+		if (contentLength > maxBytes)
+			throw new BodyTooLargeException(contentLength, maxBytes);
+
+		if (contentLength >= 0)
+			return read(in, ByteBuffer.allocateDirect((int) contentLength));
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(Math.min(INITIAL_CAPACITY, maxBytes));
+		ReadableByteChannel channel = Channels.newChannel(in);
+		while (true) {
+			if (!buffer.hasRemaining()) {
+				if (buffer.capacity() >= maxBytes) {
+					if (in.read() < 0)
+						break;
+					throw new BodyTooLargeException(-1, maxBytes);
+				}
+				ByteBuffer grown = ByteBuffer.allocateDirect((int) Math.min(2L * buffer.capacity(), maxBytes));
+				buffer.flip();
+				grown.put(buffer);
+				buffer = grown;
+			}
+			if (channel.read(buffer) < 0)
+				break;
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Read a request body of known length into a buffer, e.g. one checked out
+	 * of a {@link org.forwarder.demo.arena.TensorArena}
+	 *
+	 * @param buffer
+	 *            buffer limited to the length of the body
+	 * @return the buffer, flipped for reading
+	 */
+	public static ByteBuffer read(InputStream in, ByteBuffer buffer) throws IOException {
+		ReadableByteChannel channel = Channels.newChannel(in);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0)
+				throw new IllegalArgumentException(
+						String.format("Body ended after %s of %s bytes", buffer.position(), buffer.limit()));
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	public static boolean isRaw(ByteBuffer body) {
+		return body.remaining() >= Integer.BYTES
+				&& body.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt() == RAW_MAGIC;
+	}
+
+	/**
+	 * @return dims of a raw body, leaving the body positioned at its data
+	 * @throws IllegalArgumentException
+	 *             if the header is truncated, its rank is negative or above
+	 *             {@link #MAX_RANK}, or its shape does not match the data
+	 */
+	public static long[] readRawHeader(ByteBuffer body) {
+		body.order(ByteOrder.LITTLE_ENDIAN);
+		if (body.remaining() < 2 * Integer.BYTES || body.getInt() != RAW_MAGIC)
+			throw new IllegalArgumentException("Not a raw float32 tensor");
+
+		int rank = body.getInt();
+		if (rank < 0 || rank > MAX_RANK || body.remaining() < (long) rank * Long.BYTES)
+			throw new IllegalArgumentException(String.format("Invalid rank %s", rank));
+
+		long[] dims = new long[rank];
+		long dataBytes;
+		try {
+			long elements = 1;
+			for (int n = 0; n < rank; n++) {
+				dims[n] = body.getLong();
+				if (dims[n] < 0)
+					throw new IllegalArgumentException(String.format("Invalid dimension %s", dims[n]));
+				elements = Math.multiplyExact(elements, dims[n]);
+			}
+			dataBytes = Math.multiplyExact(elements, (long) Float.BYTES);
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException(String.format("Shape %s overflows", Arrays.toString(dims)), e);
+		}
+		if (dataBytes != body.remaining())
+			throw new IllegalArgumentException(
+					String.format("Shape needs %s bytes of data but got %s", dataBytes, body.remaining()));
+		return dims;
+	}
+
+	/**
+	 * @return the data of a raw body whose header has been read
+	 */
+	public static FloatBuffer floats(ByteBuffer body) {
+		return body.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+	}
+
+	public static TensorProto toTensorProto(ByteBuffer body) {
+		try {
+			return TensorProto.parseFrom(body);
+		} catch (InvalidProtocolBufferException e) {
+			throw new IllegalArgumentException("Not a serialized TensorProto", e);
+		}
+	}
+
+	/**
+	 * Write float32 tensor data as a raw body
+	 *
+	 * @param data
+	 *            float32 values from position to limit, in the byte order of
+	 *            the buffer
+	 */
+	public static void writeRaw(OutputStream out, ByteBuffer data, long[] dims) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES + dims.length * Long.BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(RAW_MAGIC).putInt(dims.length);
+		for (long dim : dims)
+			header.putLong(dim);
+		header.flip();
+
+		WritableByteChannel channel = Channels.newChannel(out);
+		writeFully(channel, header);
+		writeFully(channel, littleEndian(data));
+	}
+
+	/**
+	 * Write float32 tensor data as a serialized <code>TensorProto</code>
+	 */
+	public static void writeTensorProto(OutputStream out, String name, ByteBuffer data, long[] dims)
+			throws IOException {
+		tensorProto(name, data, dims).writeTo(out);
+	}
+
+	/**
+	 * Wrap float32 tensor data into a <code>TensorProto</code> without
+	 * copying it when it is little-endian, so the proto is only valid as long
+	 * as the data is not overwritten
+	 */
+	public static TensorProto tensorProto(String name, ByteBuffer data, long[] dims) {
+		TensorProto.Builder builder = TensorProto.newBuilder().setName(name)
+				.setDataType(TensorProto.DataType.FLOAT.getNumber())
+				.setRawData(UnsafeByteOperations.unsafeWrap(littleEndian(data)));
+		for (long dim : dims)
+			builder.addDims(dim);
+		return builder.build();
+	}
+
+	/**
+	 * Byte length of {@link #writeRaw} output
+	 */
+	public static long rawLength(ByteBuffer data, long[] dims) {
+		return 2 * Integer.BYTES + dims.length * Long.BYTES + data.remaining();
+	}
+
+	/**
+	 * @return the float32 data as little-endian bytes, the buffer itself when
+	 *         it already is
+	 */
+	private static ByteBuffer littleEndian(ByteBuffer data) {
+		ByteBuffer source = data.duplicate().order(data.order());
+		if (source.order() == ByteOrder.LITTLE_ENDIAN)
+			return source;
+
+		FloatBuffer floats = source.asFloatBuffer();
+		ByteBuffer converted = ByteBuffer.allocateDirect(source.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+		converted.asFloatBuffer().put(floats);
+		return converted;
+	}
+
+	private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+}
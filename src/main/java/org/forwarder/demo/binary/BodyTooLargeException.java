@@ -0,0 +1,24 @@
+/**
+ *
+ */
+package org.forwarder.demo.binary;
+
+/**
+ * A request body above the configured limit, answered with 413 rather than
+ * the 400 of other invalid bodies
+ */
+public class BodyTooLargeException extends IllegalArgumentException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param length
+	 *            length announced by the request, or -1 if it was found while
+	 *            reading a body of unknown length
+	 */
+	public BodyTooLargeException(long length, long maxBytes) {
+		super(length >= 0 ? String.format("Body of %s bytes exceeds %s bytes", length, maxBytes)
+				: String.format("Body exceeds %s bytes", maxBytes));
+	}
+
+}
@@ -0,0 +1,412 @@
+/**
+ *
+ */
+package org.forwarder.demo.bulk;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.forwarder.demo.batching.BatchForward;
+import org.forwarder.demo.binary.BinaryTensors;
+import org.forwarder.demo.configurations.BatchingProperties;
+import org.forwarder.demo.configurations.BulkProperties;
+import org.forwarder.demo.metrics.ForwardMeters;
+import org.forwarder.demo.output.JsonFloatWriter;
+import org.forwarder.demo.preprocess.ImagePreprocessor;
+import org.forwarder.demo.profiling.ForwardProfile;
+import org.forwarder.demo.registry.LoadedModel;
+import org.forwarder.demo.registry.ModelDescriptor;
+import org.forwarder.demo.session.PooledSession;
+import org.forwarder.demo.session.SessionPool;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Scores an NDJSON body of samples and streams the results back as NDJSON,
+ * one line per sample in the order of the body. Every input line is an
+ * object with an optional <code>id</code> echoed back and either
+ * <code>img</code>, a base64 image, or <code>tensor</code>, a base64
+ * <code>TensorProto</code> or raw float32 tensor as described in
+ * {@link BinaryTensors}:
+ *
+ * <pre>
+ * {"id": "a1", "img": "iVBORw0KGgo..."}
+ * {"id": "a2", "tensor": "RjMyVAQAAAA..."}
+ * </pre>
+ *
+ * and every output line either <code>{"index":0,"id":"a1","output":[...]}</code>
+ * or <code>{"index":1,"id":"a2","error":"..."}</code>. A bad line only fails
+ * its own sample.
+ *
+ * Lines are decoded and preprocessed in parallel on a shared pool, at most
+ * <code>prefetchBatches</code> batches ahead of the one being forwarded, and
+ * forwarded <code>batchSize</code> at a time through a single session
+ * borrowed for the whole job. Reading the body stops while the window is
+ * full and writing blocks while the client is not reading, so a job holds
+ * the same memory however large its body is.
+ */
+public class BulkScorer implements AutoCloseable {
+
+	public static final String NDJSON = "application/x-ndjson";
+
+	private static final byte[] NEW_LINE = { '\n' };
+
+	private static Logger logger = LoggerFactory.getLogger(BulkScorer.class);
+
+	private static ObjectMapper objectMapper = new ObjectMapper();
+
+	/**
+	 * Receives the outcome of every batch of a job forwarded on its backend,
+	 * e.g. to route later jobs by
+	 */
+	public interface BatchListener {
+
+		/**
+		 * @param samples
+		 *            valid samples of the batch forwarded
+		 */
+		void forwarded(int samples, long micros, boolean succeeded);
+
+	}
+
+	private final BulkProperties properties;
+
+	private final boolean stackInputs;
+
+	private final ThreadPoolExecutor executor;
+
+	private final Semaphore jobs;
+
+	public BulkScorer(BulkProperties properties, BatchingProperties batchingProperties) {
+		this.properties = properties;
+		this.stackInputs = batchingProperties.isStackInputs();
+		this.jobs = new Semaphore(Math.max(1, properties.getMaxJobs()));
+
+		int threads = properties.getThreads() > 0 ? properties.getThreads()
+				: Runtime.getRuntime().availableProcessors();
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+					Thread thread = new Thread(runnable, "bulk-preprocess-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	public BulkProperties getProperties() {
+		return this.properties;
+	}
+
+	/**
+	 * Score a whole body
+	 *
+	 * @param backendName
+	 *            backend every batch of the job is forwarded on
+	 * @param preprocessor
+	 *            preprocessor of the images of the model
+	 * @throws RejectedExecutionException
+	 *             if <code>maxJobs</code> jobs are already running
+	 * @throws IOException
+	 *             if the body cannot be read or the results cannot be written
+	 */
+	public void score(InputStream in, OutputStream out, LoadedModel model, String backendName,
+			ImagePreprocessor preprocessor, ForwardMeters meters) throws Exception {
+		this.score(in, out, model, backendName, preprocessor, meters, null);
+	}
+
+	/**
+	 * Score a whole body, telling a listener the outcome of every batch
+	 * forwarded
+	 *
+	 * @param listener
+	 *            listener of the batches, or null
+	 * @see #score(InputStream, OutputStream, LoadedModel, String,
+	 *      ImagePreprocessor, ForwardMeters)
+	 */
+	public void score(InputStream in, OutputStream out, LoadedModel model, String backendName,
+			ImagePreprocessor preprocessor, ForwardMeters meters, BatchListener listener) throws Exception {
+		if (!this.jobs.tryAcquire())
+			throw new RejectedExecutionException(
+					String.format("%s bulk jobs are already running", this.properties.getMaxJobs()));
+		try {
+			this.run(in, out, model, backendName, preprocessor, meters, listener);
+		} finally {
+			this.jobs.release();
+		}
+	}
+
+	@Override
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+	private void run(InputStream in, OutputStream out, LoadedModel model, String backendName,
+			ImagePreprocessor preprocessor, ForwardMeters meters, BatchListener listener) throws Exception {
+		int modelBatchSize = this.stackInputs ? model.getBatchSize() : 0;
+		int batchSize = Math.max(1, this.properties.getBatchSize());
+		if (modelBatchSize > 0)
+			batchSize = Math.min(batchSize, modelBatchSize);
+		int window = batchSize * Math.max(2, this.properties.getPrefetchBatches() + 1);
+		ModelDescriptor descriptor = model.getDescriptor();
+		long[] sampleShape = descriptor.getSampleDims();
+		int sampleSize = 1;
+		for (long dim : sampleShape)
+			sampleSize *= (int) dim;
+		SessionPool sessionPool = model.getSessionPools().get(backendName);
+		ForwardProfile profile = model.profile(backendName);
+
+		LineReader lines = new LineReader(in, this.properties.getMaxLineBytes());
+		Deque<CompletableFuture<Sample>> pending = new ArrayDeque<>(window);
+		List<Sample> batch = new ArrayList<>(batchSize);
+		PooledSession session = null;
+		long startedAt = meters.start();
+		long scored = 0;
+		try {
+			int index = 0;
+			boolean ended = false;
+			while (true) {
+				while (!ended && pending.size() < window) {
+					byte[] line = lines.next();
+					if (line == null) {
+						ended = true;
+					} else if (line == LineReader.TOO_LONG || line.length > 0) {
+						// TOO_LONG is empty too, but gets its error line from parse rather than being skipped
+						int sampleIndex = index++;
+						int size = sampleSize;
+						pending.add(CompletableFuture.supplyAsync(
+								() -> parse(sampleIndex, line, size, preprocessor, meters), this.executor));
+					}
+				}
+				if (pending.isEmpty())
+					break;
+
+				while (batch.size() < batchSize && !pending.isEmpty())
+					batch.add(pending.poll().join());
+
+				long forwardStartedAt = System.nanoTime();
+				if (session == null)
+					session = sessionPool.borrow();
+				int valid = 0;
+				for (Sample sample : batch) {
+					if (sample.error == null)
+						valid++;
+				}
+				boolean forwarded = this.forward(session, profile, model, sampleShape, batch, out, meters);
+				if (!forwarded) {
+					session.close();
+					session = null;
+				}
+				if (listener != null && valid > 0)
+					listener.forwarded(valid, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - forwardStartedAt),
+							forwarded);
+				long forwardedAt = meters.forwarded(forwardStartedAt);
+				out.flush();
+				meters.serialized(forwardedAt);
+				scored += batch.size();
+				batch.clear();
+			}
+		} catch (Exception e) {
+			meters.error(e);
+			throw e;
+		} finally {
+			for (CompletableFuture<Sample> sample : pending)
+				sample.cancel(true);
+			if (session != null)
+				session.close();
+			meters.finish();
+			logger.debug("Bulk job on {}/{} scored {} samples in {}ms", descriptor.getKey(), backendName, scored,
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+		}
+	}
+
+	/**
+	 * Forward the valid samples of a batch and write the result line of every
+	 * sample in order
+	 *
+	 * @return false if the forward failed and the session must not be reused
+	 */
+	private boolean forward(PooledSession session, ForwardProfile profile, LoadedModel model, long[] sampleShape,
+			List<Sample> batch, OutputStream out, ForwardMeters meters) throws IOException {
+		ModelDescriptor descriptor = model.getDescriptor();
+		List<Sample> valid = new ArrayList<>(batch.size());
+		for (Sample sample : batch) {
+			if (sample.error == null)
+				valid.add(sample);
+		}
+		FloatBuffer[] samples = new FloatBuffer[valid.size()];
+		for (int n = 0; n < samples.length; n++)
+			samples[n] = valid.get(n).values.duplicate();
+
+		// Index of the first sample of the batch whose line is not written yet
+		int[] written = { 0 };
+		boolean forwarded = true;
+		if (samples.length > 0) {
+			try {
+				BatchForward.forward(session, profile, model.getArena(), descriptor.getInputName(),
+						descriptor.getOutputName(), sampleShape, samples, this.stackInputs,
+						this.stackInputs ? model.getBatchSize() : 0, (n, row) -> {
+							Sample sample = valid.get(n);
+							while (batch.get(written[0]) != sample)
+								writeError(batch.get(written[0]++), out);
+							meters.tensorBytes((long) sample.values.capacity() * Float.BYTES,
+									(long) row.remaining() * Float.BYTES);
+							writeOutput(sample, row, out);
+							written[0]++;
+						});
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				logger.warn("Failed to forward bulk batch of {} on {}", samples.length, descriptor.getKey(), e);
+				meters.error(e);
+				forwarded = false;
+				for (int n = written[0]; n < batch.size(); n++) {
+					if (batch.get(n).error == null)
+						batch.get(n).error = String.valueOf(e.getMessage());
+				}
+			}
+		}
+		for (int n = written[0]; n < batch.size(); n++)
+			writeError(batch.get(n), out);
+		return forwarded;
+	}
+
+	private static Sample parse(int index, byte[] line, int sampleSize, ImagePreprocessor preprocessor,
+			ForwardMeters meters) {
+		Sample sample = new Sample(index);
+		long startedAt = System.nanoTime();
+		try {
+			if (line == LineReader.TOO_LONG)
+				throw new IllegalArgumentException("Line is too long");
+
+			JsonNode node = objectMapper.readTree(line);
+			JsonNode id = node.get("id");
+			sample.id = id != null ? id.toString() : null;
+
+			FloatBuffer values;
+			if (node.hasNonNull("img")) {
+				BufferedImage image;
+				try (InputStream in = new ByteArrayInputStream(
+						Base64.getMimeDecoder().decode(node.get("img").asText()))) {
+					image = ImageIO.read(in);
+				}
+				if (image == null)
+					throw new IllegalArgumentException("Not a readable image");
+				long decodedAt = meters.decoded(startedAt);
+				values = copy(preprocessor.process(image));
+				meters.preprocessed(decodedAt);
+			} else if (node.hasNonNull("tensor")) {
+				ByteBuffer body = ByteBuffer.wrap(Base64.getMimeDecoder().decode(node.get("tensor").asText()));
+				long decodedAt = meters.decoded(startedAt);
+				values = floats(body);
+				meters.preprocessed(decodedAt);
+			} else {
+				throw new IllegalArgumentException("Line has neither \"img\" nor \"tensor\"");
+			}
+
+			if (values.remaining() != sampleSize)
+				throw new IllegalArgumentException(
+						String.format("Expected sample of %s elements but got %s", sampleSize, values.remaining()));
+			sample.values = values;
+		} catch (Exception e) {
+			meters.error(e);
+			sample.error = String.valueOf(e.getMessage());
+		}
+		return sample;
+	}
+
+	/**
+	 * @return the float32 values of a raw or <code>TensorProto</code> tensor
+	 */
+	private static FloatBuffer floats(ByteBuffer body) {
+		if (BinaryTensors.isRaw(body)) {
+			BinaryTensors.readRawHeader(body);
+			return copy(BinaryTensors.floats(body));
+		}
+
+		TensorProto tensorProto = BinaryTensors.toTensorProto(body);
+		if (!tensorProto.getRawData().isEmpty())
+			return copy(tensorProto.getRawData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN)
+					.asFloatBuffer());
+
+		FloatBuffer values = FloatBuffer.allocate(tensorProto.getFloatDataCount());
+		for (int n = 0; n < tensorProto.getFloatDataCount(); n++)
+			values.put(tensorProto.getFloatData(n));
+		values.flip();
+		return values;
+	}
+
+	/**
+	 * Copy values out of a buffer that is reused or backed by the body
+	 */
+	private static FloatBuffer copy(FloatBuffer source) {
+		FloatBuffer values = FloatBuffer.allocate(source.remaining());
+		values.put(source.duplicate());
+		values.flip();
+		return values;
+	}
+
+	private static void writeOutput(Sample sample, FloatBuffer row, OutputStream out) throws IOException {
+		writeHead(sample, out);
+		out.write(",\"output\":".getBytes(StandardCharsets.US_ASCII));
+		JsonFloatWriter.write(row, out);
+		out.write('}');
+		out.write(NEW_LINE);
+	}
+
+	private static void writeError(Sample sample, OutputStream out) throws IOException {
+		writeHead(sample, out);
+		out.write(",\"error\":".getBytes(StandardCharsets.US_ASCII));
+		out.write(objectMapper.writeValueAsBytes(sample.error));
+		out.write('}');
+		out.write(NEW_LINE);
+	}
+
+	private static void writeHead(Sample sample, OutputStream out) throws IOException {
+		StringBuilder head = new StringBuilder("{\"index\":").append(sample.index);
+		if (sample.id != null)
+			head.append(",\"id\":").append(sample.id);
+		out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static class Sample {
+
+		private final int index;
+
+		private String id;
+
+		private FloatBuffer values;
+
+		private String error;
+
+		private Sample(int index) {
+			this.index = index;
+		}
+
+	}
+
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package org.forwarder.demo.bulk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of an NDJSON body as bytes, never holding more than
+ * <code>maxLineBytes</code> of a line. Longer lines are skipped up to their
+ * end and reported as {@link #TOO_LONG}.
+ */
+class LineReader {
+
+	static final byte[] TOO_LONG = new byte[0];
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final InputStream in;
+
+	private final int maxLineBytes;
+
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+
+	private int position;
+
+	private int limit;
+
+	LineReader(InputStream in, int maxLineBytes) {
+		this.in = in;
+		this.maxLineBytes = maxLineBytes;
+	}
+
+	/**
+	 * @return the next line without its line break, {@link #TOO_LONG} if it
+	 *         exceeds the limit, or null at the end of the body
+	 */
+	byte[] next() throws IOException {
+		byte[] line = new byte[256];
+		int length = 0;
+		boolean tooLong = false;
+		while (true) {
+			if (this.position == this.limit) {
+				this.limit = this.in.read(this.chunk);
+				this.position = 0;
+				if (this.limit < 0) {
+					this.limit = 0;
+					if (length == 0 && !tooLong)
+						return null;
+					break;
+				}
+			}
+
+			int start = this.position;
+			while (this.position < this.limit && this.chunk[this.position] != '\n')
+				this.position++;
+			int count = this.position - start;
+			if (!tooLong && length + count > this.maxLineBytes)
+				tooLong = true;
+			if (!tooLong) {
+				if (length + count > line.length)
+					line = Arrays.copyOf(line, Math.min(this.maxLineBytes, Math.max(length + count, line.length * 2)));
+				System.arraycopy(this.chunk, start, line, length, count);
+				length += count;
+			}
+			if (this.position < this.limit) {
+				this.position++;
+				break;
+			}
+		}
+		if (tooLong)
+			return TOO_LONG;
+		if (length > 0 && line[length - 1] == '\r')
+			length--;
+		return Arrays.copyOf(line, length);
+	}
+
+}
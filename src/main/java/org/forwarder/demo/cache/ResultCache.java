@@ -0,0 +1,198 @@
+/**
+ *
+ */
+package org.forwarder.demo.cache;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forwarder.demo.configurations.CacheProperties;
+
+/**
+ * Forward results keyed by the preprocessed input together with the model and
+ * backend that produced them, so that retries, double submits and identical
+ * drawings skip the backend.
+ *
+ * Lookups hash the input once. The input itself is kept with each entry and
+ * compared on a hash match, so a collision can never serve the result of
+ * another input. Entries expire <code>ttlMillis</code> after they were put and
+ * the least recently used ones are dropped beyond <code>maxEntries</code>.
+ */
+public class ResultCache {
+
+	private final CacheProperties properties;
+
+	/**
+	 * Least recently used first. Guarded by itself.
+	 */
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	private final LongAdder expirations = new LongAdder();
+
+	public ResultCache(CacheProperties properties) {
+		this.properties = properties;
+	}
+
+	public CacheProperties getProperties() {
+		return this.properties;
+	}
+
+	/**
+	 * @param model
+	 *            model the result is computed by, e.g. "mnist/opset_v8"
+	 * @param backend
+	 *            backend the result is computed on
+	 * @param input
+	 *            preprocessed input from index 0 to its capacity, copied
+	 * @return key to {@link #get} and {@link #put} the result with
+	 */
+	public static Key key(String model, String backend, FloatBuffer input) {
+		float[] values = new float[input.capacity()];
+		for (int n = 0; n < values.length; n++)
+			values[n] = input.get(n);
+		return new Key(model, backend, values);
+	}
+
+	/**
+	 * @return copy of the cached result, or null if there is none or it
+	 *         expired
+	 */
+	public float[] get(Key key) {
+		Entry entry;
+		synchronized (this.entries) {
+			entry = this.entries.get(key);
+			if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+				this.entries.remove(key);
+				this.expirations.increment();
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			this.misses.increment();
+			return null;
+		}
+		this.hits.increment();
+		return entry.result.clone();
+	}
+
+	public void put(Key key, float[] result) {
+		long now = System.currentTimeMillis();
+		Entry entry = new Entry(result.clone(), now + this.properties.getTtlMillis());
+		synchronized (this.entries) {
+			this.entries.put(key, entry);
+
+			Iterator<Entry> iterator = this.entries.values().iterator();
+			while (iterator.hasNext()) {
+				Entry eldest = iterator.next();
+				if (eldest.expiresAt <= now) {
+					iterator.remove();
+					this.expirations.increment();
+				} else if (this.entries.size() > this.properties.getMaxEntries()) {
+					iterator.remove();
+					this.evictions.increment();
+				} else {
+					break;
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (this.entries) {
+			this.entries.clear();
+		}
+	}
+
+	public Map<String, Object> stats() {
+		long hits = this.hits.sum();
+		long misses = this.misses.sum();
+
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("forwardEnabled", this.properties.isForwardEnabled());
+		stats.put("forwardAsyncEnabled", this.properties.isForwardAsyncEnabled());
+		synchronized (this.entries) {
+			stats.put("size", this.entries.size());
+		}
+		stats.put("hits", hits);
+		stats.put("misses", misses);
+		stats.put("hitRate", hits + misses == 0 ? 0d : ((double) hits) / (hits + misses));
+		stats.put("evictions", this.evictions.sum());
+		stats.put("expirations", this.expirations.sum());
+		return stats;
+	}
+
+	public static final class Key {
+
+		private final String model;
+
+		private final String backend;
+
+		private final float[] input;
+
+		private final long hash;
+
+		private Key(String model, String backend, float[] input) {
+			this.model = model;
+			this.backend = backend;
+			this.input = input;
+			this.hash = hash(model, backend, input);
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (this.hash ^ (this.hash >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return this.hash == other.hash && this.model.equals(other.model) && this.backend.equals(other.backend)
+					&& Arrays.equals(this.input, other.input);
+		}
+
+		/**
+		 * 64-bit FNV-1a over the strings and the raw bits of the input, with a
+		 * final avalanche so that nearby inputs spread over the buckets
+		 */
+		private static long hash(String model, String backend, float[] input) {
+			long hash = 0xcbf29ce484222325L;
+			hash = (hash ^ model.hashCode()) * 0x100000001b3L;
+			hash = (hash ^ backend.hashCode()) * 0x100000001b3L;
+			for (float value : input)
+				hash = (hash ^ Float.floatToIntBits(value)) * 0x100000001b3L;
+			hash ^= hash >>> 33;
+			hash *= 0xff51afd7ed558ccdL;
+			hash ^= hash >>> 33;
+			return hash;
+		}
+
+	}
+
+	private static final class Entry {
+
+		private final float[] result;
+
+		private final long expiresAt;
+
+		private Entry(float[] result, long expiresAt) {
+			this.result = result;
+			this.expiresAt = expiresAt;
+		}
+
+	}
+
+}
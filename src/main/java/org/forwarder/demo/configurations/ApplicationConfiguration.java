@@ -3,9 +3,28 @@
  */
 package org.forwarder.demo.configurations;
 
+import org.apache.coyote.http2.Http2Protocol;
+import org.forwarder.demo.arena.TensorArena;
+import org.forwarder.demo.artifacts.ArtifactCache;
+import org.forwarder.demo.backend.EngineBackends;
+import org.forwarder.demo.bulk.BulkScorer;
+import org.forwarder.demo.cache.ResultCache;
+import org.forwarder.demo.inference.InferenceExecutors;
+import org.forwarder.demo.metrics.InferenceMetrics;
+import org.forwarder.demo.optimizer.GraphOptimizer;
+import org.forwarder.demo.profiling.ForwardProfiler;
+import org.forwarder.demo.registry.ModelRegistry;
+import org.forwarder.demo.routing.BackendRouter;
+import org.forwarder.demo.rpc.InferenceService;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.PropertySource;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 /**
  * Load global configurations from property file named
  * parent-application-${spring.profiles.active}.properties
@@ -16,7 +35,95 @@ import org.springframework.context.annotation.PropertySource;
  *
  */
 @Configuration
+@EnableConfigurationProperties({ BatchingProperties.class, SessionPoolProperties.class,
+		ModelRegistryProperties.class, StartupProperties.class, InferenceProperties.class,
+		CacheProperties.class, ProfilingProperties.class, ArenaProperties.class,
+		RoutingProperties.class, MetricsProperties.class, BulkProperties.class, OptimizerProperties.class,
+		ArtifactCacheProperties.class, EngineProperties.class, PredictProperties.class,
+		TensorProperties.class })
 //@PropertySource(value = "classpath:application-${spring.profiles.active}.properties")
 public class ApplicationConfiguration {
 
+	@Bean(destroyMethod = "close")
+	public ModelRegistry modelRegistry(ModelRegistryProperties properties, SessionPoolProperties sessionPoolProperties,
+			BatchingProperties batchingProperties, ArenaProperties arenaProperties, ForwardProfiler profiler,
+			InferenceMetrics metrics, GraphOptimizer optimizer, ArtifactCache artifactCache,
+			EngineBackends engineBackends) {
+		return new ModelRegistry(properties, sessionPoolProperties, batchingProperties, arenaProperties, profiler,
+				metrics, optimizer, artifactCache, engineBackends);
+	}
+
+	@Bean(destroyMethod = "close")
+	public EngineBackends engineBackends(EngineProperties properties, ForwardProfiler profiler) {
+		return new EngineBackends(properties, profiler);
+	}
+
+	@Bean(destroyMethod = "close")
+	public InferenceService inferenceService(PredictProperties properties, ModelRegistry registry,
+			BackendRouter router, InferenceMetrics metrics) {
+		return new InferenceService(properties, registry, router, metrics);
+	}
+
+	/**
+	 * Accept cleartext HTTP/2 on the embedded Tomcat, which Spring Boot only
+	 * sets up along with SSL
+	 */
+	@Bean
+	public WebServerFactoryCustomizer<TomcatServletWebServerFactory> http2Customizer(PredictProperties properties) {
+		return factory -> {
+			boolean ssl = factory.getSsl() != null && factory.getSsl().isEnabled();
+			if (properties.isHttp2() && !ssl)
+				factory.addConnectorCustomizers(connector -> connector.addUpgradeProtocol(new Http2Protocol()));
+		};
+	}
+
+	@Bean
+	public GraphOptimizer graphOptimizer(OptimizerProperties properties) {
+		return new GraphOptimizer(properties);
+	}
+
+	@Bean
+	public ArtifactCache artifactCache(ArtifactCacheProperties properties) {
+		return new ArtifactCache(properties);
+	}
+
+	@Bean
+	public InferenceMetrics inferenceMetrics(MeterRegistry meterRegistry, MetricsProperties properties) {
+		return new InferenceMetrics(meterRegistry, properties);
+	}
+
+	@Bean
+	public BackendRouter backendRouter(RoutingProperties properties) {
+		return new BackendRouter(properties);
+	}
+
+	/**
+	 * Arena of the request bodies of the binary forward endpoint
+	 */
+	@Bean(destroyMethod = "close")
+	public TensorArena requestArena(ArenaProperties properties) {
+		return new TensorArena("requests", properties.isEnabled(), properties.getMaxRequestBytes(),
+				properties.getLeakThresholdMillis(), properties.getSweepIntervalMillis());
+	}
+
+	@Bean
+	public ForwardProfiler forwardProfiler(ProfilingProperties properties) {
+		return new ForwardProfiler(properties);
+	}
+
+	@Bean(destroyMethod = "close")
+	public InferenceExecutors inferenceExecutors(InferenceProperties properties) {
+		return new InferenceExecutors(properties);
+	}
+
+	@Bean(destroyMethod = "close")
+	public BulkScorer bulkScorer(BulkProperties properties, BatchingProperties batchingProperties) {
+		return new BulkScorer(properties, batchingProperties);
+	}
+
+	@Bean
+	public ResultCache resultCache(CacheProperties properties) {
+		return new ResultCache(properties);
+	}
+
 }
@@ -0,0 +1,45 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Settings of the direct memory arenas, bound from
+ * <code>forwarder.arena.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.arena")
+public class ArenaProperties {
+
+	/**
+	 * Reuse input tensors and request buffers instead of allocating direct
+	 * memory per request
+	 */
+	private boolean enabled = true;
+
+	/**
+	 * Direct memory kept by the arena of each model, beyond which tensors
+	 * are allocated per request and closed after use again
+	 */
+	private long maxBytesPerModel = 64L * 1024 * 1024;
+
+	/**
+	 * Direct memory kept for request bodies of the binary endpoint
+	 */
+	private long maxRequestBytes = 64L * 1024 * 1024;
+
+	/**
+	 * Leases held longer than this are reported as leaked
+	 */
+	private long leakThresholdMillis = 30000;
+
+	/**
+	 * Period of the leak sweep of every arena
+	 */
+	private long sweepIntervalMillis = 10000;
+
+}
@@ -0,0 +1,33 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Settings of the on-disk cache of prepared models, bound from
+ * <code>forwarder.artifacts.*</code>. Only the output of the graph optimizer
+ * is cached, so the cache is unused unless
+ * <code>forwarder.optimizer.enabled</code> is set too.
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.artifacts")
+public class ArtifactCacheProperties {
+
+	/**
+	 * Keep optimized models across restarts instead of optimizing every model
+	 * again at every start. Has no effect while the optimizer is disabled,
+	 * models are then loaded from their source files.
+	 */
+	private boolean enabled = true;
+
+	/**
+	 * Where prepared models and their manifests are kept. Should survive
+	 * restarts, unlike the default.
+	 */
+	private String directory = System.getProperty("java.io.tmpdir") + "/forwarder-artifacts";
+
+}
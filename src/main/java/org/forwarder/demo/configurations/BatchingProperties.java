@@ -0,0 +1,51 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Settings of the micro-batching stage in front of
+ * {@link org.forwarder.demo.DemoController#forward}, bound from
+ * <code>forwarder.batching.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.batching")
+public class BatchingProperties {
+
+	/**
+	 * Route requests through the batcher instead of running one forward per
+	 * request
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * Upper bound of requests gathered into a single forward, which must be
+	 * the batch size of models that fix one when inputs are stacked. Also the
+	 * number of requests forwarded in parallel when they are not.
+	 */
+	private int maxBatchSize = 8;
+
+	/**
+	 * How long the first request of a batch waits for companions, when inputs
+	 * are stacked
+	 */
+	private long maxWaitMicros = 2000;
+
+	/**
+	 * Requests waiting to be batched, beyond which new requests are rejected
+	 */
+	private int queueCapacity = 1024;
+
+	/**
+	 * Stack gathered inputs into one [N, ...] tensor. Only for models
+	 * exported with a dynamic batch dimension: the bundled MNIST graphs
+	 * reshape to a fixed [1, 256], so by default the gathered requests are
+	 * forwarded in parallel, each on a session of its own, instead.
+	 */
+	private boolean stackInputs = false;
+
+}
@@ -0,0 +1,47 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Settings of the streaming bulk endpoint
+ * {@link org.forwarder.demo.DemoController#forwardBulk}, bound from
+ * <code>forwarder.bulk.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.bulk")
+public class BulkProperties {
+
+	/**
+	 * Samples fed through the session of a job at a time
+	 */
+	private int batchSize = 32;
+
+	/**
+	 * Batches a job decodes and preprocesses ahead of the one being
+	 * forwarded. Together with <code>batchSize</code> this bounds the memory
+	 * of a job, however large its body is.
+	 */
+	private int prefetchBatches = 2;
+
+	/**
+	 * Threads decoding and preprocessing the lines of all jobs, 0 for one per
+	 * available processor
+	 */
+	private int threads = 0;
+
+	/**
+	 * Jobs running at once, beyond which new ones are shed with 503
+	 */
+	private int maxJobs = 4;
+
+	/**
+	 * Longest line accepted, longer ones are answered with an error line
+	 */
+	private int maxLineBytes = 8 * 1024 * 1024;
+
+}
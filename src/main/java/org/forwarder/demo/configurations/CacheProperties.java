@@ -0,0 +1,40 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Settings of the result cache in front of the forward endpoints, bound from
+ * <code>forwarder.cache.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.cache")
+public class CacheProperties {
+
+	/**
+	 * Serve repeated inputs of {@link org.forwarder.demo.DemoController#forward}
+	 * from the cache
+	 */
+	private boolean forwardEnabled = false;
+
+	/**
+	 * Serve repeated inputs of
+	 * {@link org.forwarder.demo.DemoController#forwardAsync} from the cache
+	 */
+	private boolean forwardAsyncEnabled = false;
+
+	/**
+	 * Results kept, least recently used ones are dropped beyond it
+	 */
+	private int maxEntries = 10000;
+
+	/**
+	 * Time a result is served for after it was computed
+	 */
+	private long ttlMillis = 60000;
+
+}
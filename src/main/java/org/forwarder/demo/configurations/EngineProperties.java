@@ -0,0 +1,57 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import org.forwarder.demo.engine.Precision;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Settings of the "Engine" backend, which forwards on the in-process graph
+ * engine instead of a native library, bound from
+ * <code>forwarder.engine.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.engine")
+public class EngineProperties {
+
+	/**
+	 * Serve the "Engine" backend of every model
+	 */
+	private boolean enabled = true;
+
+	/**
+	 * Threads shared by all models to run the nodes of a forward in parallel,
+	 * 0 for one per processor. Unused with a parallelism of 1.
+	 */
+	private int threads = 0;
+
+	/**
+	 * Nodes of a forward run at once, 1 to run them one after the other on
+	 * the request thread. Sessions already run concurrent requests in
+	 * parallel.
+	 */
+	private int parallelism = 1;
+
+	/**
+	 * Write the intermediates of forwards of single samples to reused slabs
+	 * instead of allocating them
+	 */
+	private boolean planMemory = true;
+
+	/**
+	 * Precision the weights are kept in. Models falling short of the
+	 * tolerance on the test data sets next to their model.onnx, or without
+	 * any, are kept in FP32.
+	 */
+	private Precision precision = Precision.FP32;
+
+	/**
+	 * Largest error of reduced precision outputs, relative to the largest
+	 * magnitude of the reference outputs
+	 */
+	private double tolerance = 0.01;
+
+}
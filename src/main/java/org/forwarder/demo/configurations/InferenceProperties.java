@@ -0,0 +1,58 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Settings of the inference executors behind
+ * {@link org.forwarder.demo.DemoController#forwardAsync}, bound from
+ * <code>forwarder.inference.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.inference")
+public class InferenceProperties {
+
+	/**
+	 * Backends requests may be submitted for, the only ones a pool is
+	 * started for so that clients cannot start threads at will
+	 */
+	private List<String> backends = new ArrayList<>(Arrays.asList("Tensorflow", "DL4J", "Engine", "auto"));
+
+	/**
+	 * Threads per backend, 0 for one per available processor
+	 */
+	private int threads = 0;
+
+	/**
+	 * Threads of particular backends, overriding <code>threads</code>
+	 */
+	private Map<String, Integer> backendThreads = new LinkedHashMap<>();
+
+	/**
+	 * Requests waiting for a thread of a backend, beyond which new requests
+	 * are shed with 503
+	 */
+	private int queueCapacity = 64;
+
+	/**
+	 * Time a request may take from submission to result, 0 to wait forever
+	 */
+	private long timeoutMillis = 5000;
+
+	public int threadsOf(String backendName) {
+		Integer threads = this.backendThreads.get(backendName);
+		int count = threads != null ? threads : this.threads;
+		return count > 0 ? count : Runtime.getRuntime().availableProcessors();
+	}
+
+}
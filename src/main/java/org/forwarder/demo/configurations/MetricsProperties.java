@@ -0,0 +1,35 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Settings of the inference metrics scraped from
+ * <code>/actuator/prometheus</code>, bound from
+ * <code>forwarder.metrics.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.metrics")
+public class MetricsProperties {
+
+	/**
+	 * Backend names kept as tags. Any other name requested is tagged "other",
+	 * so that clients cannot grow the number of time series at will.
+	 */
+	private List<String> backends = new ArrayList<>(Arrays.asList("Tensorflow", "DL4J", "Engine", "auto"));
+
+	/**
+	 * Publish histogram buckets of the latencies, from which Prometheus can
+	 * compute percentiles across instances
+	 */
+	private boolean percentileHistograms = true;
+
+}
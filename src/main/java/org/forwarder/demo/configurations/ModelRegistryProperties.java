@@ -0,0 +1,57 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forwarder.demo.registry.ModelDescriptor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Models the application can serve and how many of them may stay loaded,
+ * bound from <code>forwarder.registry.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.registry")
+public class ModelRegistryProperties {
+
+	/**
+	 * Loaded models beyond which the least recently used one is closed
+	 */
+	private int maxModels = 4;
+
+	/**
+	 * Estimated resident bytes beyond which the least recently used model is
+	 * closed
+	 */
+	private long maxBytes = 512L * 1024 * 1024;
+
+	/**
+	 * Model served when a request does not name one
+	 */
+	private String defaultModel = "mnist";
+
+	private int defaultOpset = 8;
+
+	/**
+	 * Map model files read-only, shared between every model opened on the
+	 * same file, and compile the Engine backend from the mapping rather than
+	 * from a heap copy of the file. The native backends of the forwarder load
+	 * their own copy of the weights either way, so for them the mapping only
+	 * adds resident memory.
+	 */
+	private boolean mapWeights = false;
+
+	/**
+	 * Where <code>classpath:</code> models packaged inside a jar or war are
+	 * extracted to, since forwarders only load from files
+	 */
+	private String extractDirectory = System.getProperty("java.io.tmpdir") + "/forwarder-models";
+
+	private List<ModelDescriptor> models = new ArrayList<>();
+
+}
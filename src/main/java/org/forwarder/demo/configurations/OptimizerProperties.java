@@ -0,0 +1,61 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Graph optimizations applied to a model before it is loaded, bound from
+ * <code>forwarder.optimizer.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.optimizer")
+public class OptimizerProperties {
+
+	/**
+	 * Rewrite every model through the enabled passes and load the result
+	 * instead of the original file
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * Evaluate shape-only nodes whose inputs are all constants, and turn
+	 * <code>Constant</code> nodes into initializers
+	 */
+	private boolean constantFolding = true;
+
+	/**
+	 * Drop <code>Identity</code> and <code>Dropout</code> nodes, reshapes to
+	 * the shape their input already has and reshapes of reshapes
+	 */
+	private boolean eliminateNoOps = true;
+
+	/**
+	 * Fold a per-channel constant <code>Add</code> after a <code>Conv</code>
+	 * into the bias of the convolution
+	 */
+	private boolean fuseConvAdd = true;
+
+	/**
+	 * Fold an inference <code>BatchNormalization</code> after a
+	 * <code>Conv</code> into its weights and bias
+	 */
+	private boolean fuseConvBatchNorm = true;
+
+	/**
+	 * Replace a 2-D <code>MatMul</code> followed by a constant
+	 * <code>Add</code> with a <code>Gemm</code>. Off by default, enable once
+	 * the backends in use implement <code>Gemm</code>.
+	 */
+	private boolean fuseMatMulAdd = false;
+
+	/**
+	 * Rounds of all enabled passes, stopping early once a round changes
+	 * nothing
+	 */
+	private int maxRounds = 8;
+
+}
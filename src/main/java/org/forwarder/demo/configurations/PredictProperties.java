@@ -0,0 +1,48 @@
+/**
+ *
+ */
+package org.forwarder.demo.configurations;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Settings of the {@link org.forwarder.demo.rpc.InferenceService} behind the
+ * <code>predict</code> and <code>predict/stream</code> endpoints, bound from
+ * <code>forwarder.predict.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.predict")
+public class PredictProperties {
+
+	/**
+	 * Threads forwarding the requests of all streams, 0 for one per available
+	 * processor
+	 */
+	private int threads = 0;
+
+	/**
+	 * Streams open at once, beyond which new ones are shed with 503
+	 */
+	private int maxStreams = 16;
+
+	/**
+	 * Requests of a stream forwarded or waiting for their response to be
+	 * written, beyond which the stream is not read further
+	 */
+	private int maxInFlight = 8;
+
+	/**
+	 * Largest request accepted, in bytes, whether the body of a unary request
+	 * or a frame of a stream
+	 */
+	private int maxMessageBytes = 64 * 1024 * 1024;
+
+	/**
+	 * Accept cleartext HTTP/2 (h2c) on the embedded Tomcat, so that streams
+	 * and requests of a client share one connection
+	 */
+	private boolean http2 = true;
+
+}
@@ -0,0 +1,30 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Settings of the forward profiler, bound from
+ * <code>forwarder.profiling.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.profiling")
+public class ProfilingProperties {
+
+	/**
+	 * Record wall time, allocations and output size of every forward, and of
+	 * every node of the forwards on the graph engine
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * Also emit a JFR event per forward, for JDKs that ship
+	 * <code>jdk.jfr</code> running a build made on JDK 9 or later
+	 */
+	private boolean jfrEvents = false;
+
+}
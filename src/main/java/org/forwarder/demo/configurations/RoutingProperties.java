@@ -0,0 +1,53 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Settings of the "auto" backend, bound from <code>forwarder.routing.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.routing")
+public class RoutingProperties {
+
+	/**
+	 * Backends "auto" chooses from
+	 */
+	private List<String> backends = new ArrayList<>(Arrays.asList("Tensorflow", "DL4J"));
+
+	/**
+	 * Share of requests sent to a random healthy backend rather than the
+	 * fastest one, so that the latency of the others stays up to date
+	 */
+	private double explorationRate = 0.05;
+
+	/**
+	 * Forwards a backend gets before its latency is trusted
+	 */
+	private int minSamples = 10;
+
+	/**
+	 * Weight of the latest forward in the rolling latency
+	 */
+	private double smoothing = 0.2;
+
+	/**
+	 * Consecutive failures that take a backend out of rotation
+	 */
+	private int failureThreshold = 5;
+
+	/**
+	 * Time a failing backend stays out of rotation before one trial request
+	 * is let through again
+	 */
+	private long openMillis = 30000;
+
+}
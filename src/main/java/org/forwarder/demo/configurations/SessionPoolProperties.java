@@ -0,0 +1,54 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Settings of the per-backend session pools, bound from
+ * <code>forwarder.session-pool.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.session-pool")
+public class SessionPoolProperties {
+
+	/**
+	 * Upper bound of sessions (idle and borrowed) per backend
+	 */
+	private int maxTotal = 8;
+
+	/**
+	 * Sessions kept open even when idle, also the number created at warm-up
+	 */
+	private int minIdle = 1;
+
+	/**
+	 * How long a borrower waits for a free session before giving up
+	 */
+	private long maxWaitMillis = 5000;
+
+	/**
+	 * Idle sessions above <code>minIdle</code> older than this are closed
+	 */
+	private long idleTimeoutMillis = 300000;
+
+	/**
+	 * Period of the eviction and leak detection sweep
+	 */
+	private long evictionIntervalMillis = 30000;
+
+	/**
+	 * Sessions borrowed for longer than this are reported as leaked
+	 */
+	private long leakThresholdMillis = 60000;
+
+	/**
+	 * Capture the borrower's stack trace so leak reports show where the
+	 * session was taken. Costs a stack walk per borrow.
+	 */
+	private boolean leakTrace = false;
+
+}
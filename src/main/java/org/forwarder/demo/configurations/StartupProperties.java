@@ -0,0 +1,43 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Models loaded and warmed up in the background once the application has
+ * started, bound from <code>forwarder.startup.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.startup")
+public class StartupProperties {
+
+	/**
+	 * Models to load, as <code>name:opset</code>
+	 */
+	private List<String> models = new ArrayList<>();
+
+	/**
+	 * Backends warmed up on every startup model
+	 */
+	private List<String> backends = new ArrayList<>();
+
+	/**
+	 * Threads loading and warming up models
+	 */
+	private int parallelism = 2;
+
+	/**
+	 * Forwards run on each backend, fed with the
+	 * <code>test_data_set_0/input_0.pb</code> next to the model file when
+	 * there is one
+	 */
+	private int warmUpIterations = 3;
+
+}
@@ -0,0 +1,25 @@
+/**
+ * 
+ */
+package org.forwarder.demo.configurations;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Settings of the binary endpoint
+ * {@link org.forwarder.demo.DemoController#forwardTensor}, bound from
+ * <code>forwarder.tensor.*</code>
+ */
+@Data
+@ConfigurationProperties(prefix = "forwarder.tensor")
+public class TensorProperties {
+
+	/**
+	 * Largest body accepted, in bytes. Longer ones are answered with 413
+	 * before any memory is allocated for them.
+	 */
+	private int maxBodyBytes = 64 * 1024 * 1024;
+
+}
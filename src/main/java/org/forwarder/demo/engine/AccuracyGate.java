@@ -0,0 +1,158 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+/**
+ * Checks a plan against the <code>test_data_set_N</code> directories shipped
+ * next to a <code>model.onnx</code>, each holding <code>input_N.pb</code> and
+ * the <code>output_N.pb</code> they are expected to give.
+ *
+ * The error of an output is its largest absolute difference to the
+ * reference divided by the largest magnitude of the reference (or 1 if
+ * smaller), so that a single tolerance holds for logits and probabilities
+ * alike. A plan passes if the error of no output of any data set exceeds the
+ * tolerance; a model without data sets never passes.
+ */
+public class AccuracyGate {
+
+	private static final String DATA_SET_PREFIX = "test_data_set_";
+
+	private final double tolerance;
+
+	public AccuracyGate(double tolerance) {
+		if (tolerance < 0)
+			throw new IllegalArgumentException(String.format("Negative tolerance %s", tolerance));
+		this.tolerance = tolerance;
+	}
+
+	public double getTolerance() {
+		return this.tolerance;
+	}
+
+	/**
+	 * @param modelDirectory
+	 *            directory holding the data sets
+	 * @throws IllegalArgumentException
+	 *             if a data set misses an input or an output of the plan
+	 */
+	public Result check(ExecutionPlan plan, GraphExecutor executor, File modelDirectory) throws Exception {
+		File[] dataSets = modelDirectory
+				.listFiles(file -> file.isDirectory() && file.getName().startsWith(DATA_SET_PREFIX));
+		if (dataSets == null)
+			dataSets = new File[0];
+		Arrays.sort(dataSets);
+
+		Map<String, Double> errors = new LinkedHashMap<>();
+		for (File dataSet : dataSets) {
+			Map<String, NdArray> inputs = read(dataSet, "input_", new ArrayList<>(plan.getInputNames()));
+			Map<String, NdArray> expected = read(dataSet, "output_", new ArrayList<>(plan.getOutputNames()));
+			Map<String, NdArray> outputs = plan.execute(executor, inputs);
+			double error = 0;
+			for (Map.Entry<String, NdArray> output : expected.entrySet())
+				error = Math.max(error, error(outputs.get(output.getKey()), output.getValue()));
+			errors.put(dataSet.getName(), error);
+		}
+		return new Result(this.tolerance, errors);
+	}
+
+	/**
+	 * @return the relative error of an output, infinite if it is missing or
+	 *         of another shape
+	 */
+	static double error(NdArray actual, NdArray expected) {
+		if (actual == null || actual.size() != expected.size())
+			return Double.POSITIVE_INFINITY;
+		float[] a = actual.data();
+		float[] e = expected.data();
+		double difference = 0;
+		double magnitude = 1;
+		for (int n = 0; n < expected.size(); n++) {
+			if (Float.isNaN(a[n]))
+				return Double.POSITIVE_INFINITY;
+			difference = Math.max(difference, Math.abs(a[n] - e[n]));
+			magnitude = Math.max(magnitude, Math.abs(e[n]));
+		}
+		return difference / magnitude;
+	}
+
+	/**
+	 * Read the <code>prefixN.pb</code> tensors of a data set, naming them
+	 * after the tensor name if it is one of the given names, else after the
+	 * Nth name
+	 */
+	private static Map<String, NdArray> read(File dataSet, String prefix, List<String> names) throws IOException {
+		Map<String, NdArray> tensors = new LinkedHashMap<>();
+		for (int n = 0; n < names.size(); n++) {
+			File file = new File(dataSet, prefix + n + ".pb");
+			if (!file.isFile())
+				throw new IllegalArgumentException(String.format("Data set %s misses %s", dataSet, file.getName()));
+			TensorProto tensor;
+			try (InputStream in = new FileInputStream(file)) {
+				tensor = TensorProto.parseFrom(in);
+			}
+			tensors.put(names.contains(tensor.getName()) ? tensor.getName() : names.get(n), NdArray.of(tensor));
+		}
+		return tensors;
+	}
+
+	/**
+	 * Errors of a checked plan by data set
+	 */
+	public static class Result {
+
+		private final double tolerance;
+
+		private final Map<String, Double> errors;
+
+		private final double maxError;
+
+		Result(double tolerance, Map<String, Double> errors) {
+			this.tolerance = tolerance;
+			this.errors = Collections.unmodifiableMap(errors);
+			double maxError = 0;
+			for (double error : errors.values())
+				maxError = Math.max(maxError, error);
+			this.maxError = maxError;
+		}
+
+		public boolean isPassed() {
+			return !this.errors.isEmpty() && this.maxError <= this.tolerance;
+		}
+
+		public int getDataSetCount() {
+			return this.errors.size();
+		}
+
+		public Map<String, Double> getErrors() {
+			return this.errors;
+		}
+
+		public double getMaxError() {
+			return this.maxError;
+		}
+
+		@Override
+		public String toString() {
+			if (this.errors.isEmpty())
+				return "no data sets to check";
+			return String.format("%s of %s data sets with a max error of %.3g against a tolerance of %s",
+					this.isPassed() ? "passed" : "failed", this.errors.size(), this.maxError, this.tolerance);
+		}
+
+	}
+
+}
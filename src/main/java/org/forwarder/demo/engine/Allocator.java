@@ -0,0 +1,27 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+/**
+ * Provides the arrays kernels write their outputs to
+ */
+@FunctionalInterface
+public interface Allocator {
+
+	/**
+	 * A new zeroed array for every output
+	 */
+	Allocator HEAP = (output, size) -> new float[size];
+
+	/**
+	 * Get the array for an output of the node. Kernels ask once per output
+	 * they allocate and may receive a reused array, longer than asked for and
+	 * holding former values.
+	 *
+	 * @param output
+	 *            index of the output among those of the node
+	 */
+	float[] allocate(int output, int size);
+
+}
@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import org.onnx4j.prototypes.OnnxProto3.AttributeProto;
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+
+/**
+ * Reads node attributes, falling back to the defaults of the operator
+ */
+final class Attributes {
+
+	private Attributes() {
+	}
+
+	static AttributeProto attribute(NodeProto node, String name) {
+		for (AttributeProto attribute : node.getAttributeList()) {
+			if (name.equals(attribute.getName()))
+				return attribute;
+		}
+		return null;
+	}
+
+	static int[] ints(NodeProto node, String name, int[] defaultValue) {
+		AttributeProto attribute = attribute(node, name);
+		if (attribute == null)
+			return defaultValue;
+		int[] values = new int[attribute.getIntsCount()];
+		for (int n = 0; n < values.length; n++)
+			values[n] = Math.toIntExact(attribute.getInts(n));
+		return values;
+	}
+
+	static float[] floats(NodeProto node, String name, float[] defaultValue) {
+		AttributeProto attribute = attribute(node, name);
+		if (attribute == null)
+			return defaultValue;
+		float[] values = new float[attribute.getFloatsCount()];
+		for (int n = 0; n < values.length; n++)
+			values[n] = attribute.getFloats(n);
+		return values;
+	}
+
+	static int intValue(NodeProto node, String name, int defaultValue) {
+		AttributeProto attribute = attribute(node, name);
+		return attribute == null ? defaultValue : Math.toIntExact(attribute.getI());
+	}
+
+	static float floatValue(NodeProto node, String name, float defaultValue) {
+		AttributeProto attribute = attribute(node, name);
+		return attribute == null ? defaultValue : attribute.getF();
+	}
+
+	static String string(NodeProto node, String name, String defaultValue) {
+		AttributeProto attribute = attribute(node, name);
+		return attribute == null ? defaultValue : attribute.getS().toStringUtf8();
+	}
+
+}
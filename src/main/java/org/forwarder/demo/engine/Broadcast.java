@@ -0,0 +1,159 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import java.util.Arrays;
+
+/**
+ * Multidirectional (numpy style) broadcasting of elementwise operators
+ */
+final class Broadcast {
+
+	@FunctionalInterface
+	interface FloatBinaryOperator {
+
+		float apply(float a, float b);
+
+	}
+
+	private Broadcast() {
+	}
+
+	static int[] shape(int[] a, int[] b) {
+		int rank = Math.max(a.length, b.length);
+		int[] shape = new int[rank];
+		for (int axis = 0; axis < rank; axis++) {
+			int aDim = axis < rank - a.length ? 1 : a[axis - (rank - a.length)];
+			int bDim = axis < rank - b.length ? 1 : b[axis - (rank - b.length)];
+			if (aDim != bDim && aDim != 1 && bDim != 1)
+				throw new IllegalArgumentException(
+						String.format("Shapes %s and %s cannot be broadcast", Arrays.toString(a), Arrays.toString(b)));
+			shape[axis] = aDim == 1 ? bDim : aDim;
+		}
+		return shape;
+	}
+
+	/**
+	 * @return strides of an operand of the given shape over the broadcast
+	 *         shape, 0 along the axes it is repeated on
+	 */
+	static int[] strides(int[] operand, int[] shape) {
+		int[] strides = new int[shape.length];
+		int stride = 1;
+		for (int axis = shape.length - 1, operandAxis = operand.length - 1; axis >= 0; axis--, operandAxis--) {
+			int dim = operandAxis < 0 ? 1 : operand[operandAxis];
+			strides[axis] = dim == 1 ? 0 : stride;
+			stride *= dim;
+		}
+		return strides;
+	}
+
+	/**
+	 * @return the result in the array allocated for the first output
+	 */
+	static NdArray apply(NdArray a, NdArray b, FloatBinaryOperator operator, Allocator allocator) {
+		int[] shape = shape(a.shape(), b.shape());
+		float[] z = allocator.allocate(0, NdArray.size(shape));
+		apply(a, b, operator, shape, z);
+		return NdArray.floats(shape, z);
+	}
+
+	/**
+	 * Addition with loops of their own for an operand added whole or
+	 * repeated along trailing axes, e.g. a bias per channel, so that the
+	 * innermost loop is a plain sum over contiguous values the JIT can
+	 * vectorize. Other broadcasts go through {@link #apply}.
+	 *
+	 * @return the result in the array allocated for the first output
+	 */
+	static NdArray add(NdArray a, NdArray b, Allocator allocator) {
+		int[] shape = shape(a.shape(), b.shape());
+		int size = NdArray.size(shape);
+		if (a.size() != size) {
+			NdArray swapped = a;
+			a = b;
+			b = swapped;
+		}
+		if (a.size() != size)
+			return apply(a, b, (x, y) -> x + y, allocator);
+
+		float[] x = a.data();
+		float[] y = b.data();
+		float[] z = allocator.allocate(0, size);
+		if (b.size() == size) {
+			for (int n = 0; n < size; n++)
+				z[n] = x[n] + y[n];
+			return NdArray.floats(shape, z);
+		}
+
+		// b is either repeated over or read along the run of trailing axes
+		int[] bStrides = strides(b.shape(), shape);
+		int axis = shape.length - 1;
+		boolean repeated = bStrides[axis] == 0;
+		int run = 1;
+		while (axis >= 0 && (repeated ? bStrides[axis] == 0 : bStrides[axis] == run))
+			run *= shape[axis--];
+
+		int[] index = new int[axis + 1];
+		int bOffset = 0;
+		for (int offset = 0; offset < size; offset += run) {
+			if (repeated) {
+				float value = y[bOffset];
+				for (int n = 0; n < run; n++)
+					z[offset + n] = x[offset + n] + value;
+			} else {
+				for (int n = 0; n < run; n++)
+					z[offset + n] = x[offset + n] + y[bOffset + n];
+			}
+			for (int outer = axis; outer >= 0; outer--) {
+				bOffset += bStrides[outer];
+				if (++index[outer] < shape[outer])
+					break;
+				bOffset -= bStrides[outer] * shape[outer];
+				index[outer] = 0;
+			}
+		}
+		return NdArray.floats(shape, z);
+	}
+
+	/**
+	 * Write the result to <code>z</code>, which may be the data of an operand
+	 * of the result shape since every value is read before it is written
+	 */
+	static void apply(NdArray a, NdArray b, FloatBinaryOperator operator, int[] shape, float[] z) {
+		float[] x = a.data();
+		float[] y = b.data();
+		int size = NdArray.size(shape);
+		if (Arrays.equals(a.shape(), b.shape())) {
+			for (int n = 0; n < size; n++)
+				z[n] = operator.apply(x[n], y[n]);
+			return;
+		}
+
+		int rank = shape.length;
+		int[] aStrides = strides(a.shape(), shape);
+		int[] bStrides = strides(b.shape(), shape);
+		int inner = rank == 0 ? 1 : shape[rank - 1];
+		int aInner = rank == 0 ? 0 : aStrides[rank - 1];
+		int bInner = rank == 0 ? 0 : bStrides[rank - 1];
+
+		int[] index = new int[rank];
+		int aOffset = 0;
+		int bOffset = 0;
+		for (int offset = 0; offset < size; offset += inner) {
+			for (int n = 0; n < inner; n++)
+				z[offset + n] = operator.apply(x[aOffset + n * aInner], y[bOffset + n * bInner]);
+			for (int axis = rank - 2; axis >= 0; axis--) {
+				aOffset += aStrides[axis];
+				bOffset += bStrides[axis];
+				if (++index[axis] < shape[axis])
+					break;
+				aOffset -= aStrides[axis] * shape[axis];
+				bOffset -= bStrides[axis] * shape[axis];
+				index[axis] = 0;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,282 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import java.util.Arrays;
+
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+
+/**
+ * 2-D convolution and pooling kernels over NCHW inputs
+ */
+final class ConvKernels {
+
+	/**
+	 * Columns gathered at a time by a convolution, 256 KB so that they stay in
+	 * the L2 cache while every feature map is multiplied with them
+	 */
+	private static final int BLOCK_VALUES = 1 << 16;
+
+	/**
+	 * Gathered columns of the convolutions run by a thread, reused across
+	 * forwards
+	 */
+	private static final ThreadLocal<float[]> COLUMNS = ThreadLocal.withInitial(() -> new float[0]);
+
+	private ConvKernels() {
+	}
+
+	/**
+	 * Convolution as a matrix product: the input values every weight of a
+	 * group is applied to are gathered (im2col) for a block of output
+	 * positions at a time, then every feature map of the group accumulates
+	 * weight by weight over the block onto the bias. The innermost loops run
+	 * over contiguous values with unit strides for the JIT to vectorize.
+	 * Pointwise convolutions of unit stride without padding read their input
+	 * as is. Packed weights are decoded a feature map at a time.
+	 */
+	static Kernel conv(NodeProto node) {
+		int group = Attributes.intValue(node, "group", 1);
+		int[] kernelShape = Attributes.ints(node, "kernel_shape", null);
+		return (inputs, allocator) -> {
+			NdArray input = inputs[0];
+			NdArray weights = inputs[1];
+			NdArray bias = inputs.length > 2 ? inputs[2] : null;
+			int[] kernel = kernelShape != null ? kernelShape : Arrays.copyOfRange(weights.shape(), 2, weights.rank());
+			Window window = Window.of(node, input.shape(), kernel);
+
+			int batches = input.dim(0);
+			int channels = input.dim(1);
+			int height = input.dim(2);
+			int width = input.dim(3);
+			int maps = weights.dim(0);
+			int groupChannels = channels / group;
+			int groupMaps = maps / group;
+			if (weights.dim(1) != groupChannels)
+				throw new IllegalArgumentException(String.format("Weights %s do not fit %s input channels in %s groups",
+						weights, channels, group));
+
+			int outputPlane = window.outputHeight * window.outputWidth;
+			int depth = groupChannels * window.kernelHeight * window.kernelWidth;
+			boolean pointwise = window.kernelHeight == 1 && window.kernelWidth == 1 && window.strideHeight == 1
+					&& window.strideWidth == 1 && window.padTop == 0 && window.padLeft == 0
+					&& outputPlane == height * width;
+			int block = pointwise ? outputPlane : Math.max(1, Math.min(outputPlane, BLOCK_VALUES / depth));
+			float[] columns = pointwise ? null : columns(depth * block);
+			float[] x = input.data();
+			float[] w = weights.isPacked() ? new float[depth] : weights.data();
+			float[] y = allocator.allocate(0, batches * maps * outputPlane);
+			for (int n = 0; n < batches; n++) {
+				for (int m = 0; m < maps; m++) {
+					int output = (n * maps + m) * outputPlane;
+					Arrays.fill(y, output, output + outputPlane, bias != null ? bias.data()[m] : 0);
+				}
+				for (int g = 0; g < group; g++) {
+					int groupInput = (n * channels + g * groupChannels) * height * width;
+					for (int first = 0; first < outputPlane; first += block) {
+						int length = Math.min(block, outputPlane - first);
+						float[] gathered = x;
+						int gatheredOffset = groupInput + first;
+						int gatheredStride = height * width;
+						if (!pointwise) {
+							gather(x, groupInput, groupChannels, height, width, window, first, length, columns);
+							gathered = columns;
+							gatheredOffset = 0;
+							gatheredStride = length;
+						}
+						for (int m = g * groupMaps; m < (g + 1) * groupMaps; m++) {
+							int mapWeights = m * depth;
+							if (weights.isPacked()) {
+								weights.packed().decode(mapWeights, depth, w, 0);
+								mapWeights = 0;
+							}
+							int output = (n * maps + m) * outputPlane + first;
+							for (int k = 0; k < depth; k++) {
+								float weight = w[mapWeights + k];
+								if (weight == 0)
+									continue;
+								int row = gatheredOffset + k * gatheredStride;
+								for (int j = 0; j < length; j++)
+									y[output + j] += weight * gathered[row + j];
+							}
+						}
+					}
+				}
+			}
+			return Kernels.one(
+					NdArray.floats(new int[] { batches, maps, window.outputHeight, window.outputWidth }, y));
+		};
+	}
+
+	/**
+	 * Gather the input values the weights of a group apply to for output
+	 * positions <code>[first, first + length)</code>, a row per weight, zeros
+	 * where they fall into the padding
+	 */
+	private static void gather(float[] x, int groupInput, int groupChannels, int height, int width, Window window,
+			int first, int length, float[] columns) {
+		int outputWidth = window.outputWidth;
+		int stride = window.strideWidth;
+		int row = 0;
+		for (int c = 0; c < groupChannels; c++) {
+			int plane = groupInput + c * height * width;
+			for (int kh = 0; kh < window.kernelHeight; kh++) {
+				int rowOffset = kh * window.dilationHeight - window.padTop;
+				for (int kw = 0; kw < window.kernelWidth; kw++) {
+					int columnOffset = kw * window.dilationWidth - window.padLeft;
+					int firstInside = firstInside(columnOffset, stride, outputWidth);
+					int endInside = endInside(columnOffset, stride, width, outputWidth);
+					// one output row, or the part of it inside the block, at a time
+					for (int position = first; position < first + length;) {
+						int oh = position / outputWidth;
+						int firstColumn = position - oh * outputWidth;
+						int endColumn = Math.min(outputWidth, firstColumn + first + length - position);
+						int target = row + position - first - firstColumn;
+						int ih = oh * window.strideHeight + rowOffset;
+						if (ih < 0 || ih >= height) {
+							Arrays.fill(columns, target + firstColumn, target + endColumn, 0);
+						} else {
+							int from = Math.max(firstColumn, Math.min(endColumn, firstInside));
+							int to = Math.max(from, Math.min(endColumn, endInside));
+							Arrays.fill(columns, target + firstColumn, target + from, 0);
+							int source = plane + ih * width + columnOffset;
+							if (stride == 1) {
+								System.arraycopy(x, source + from, columns, target + from, to - from);
+							} else {
+								for (int ow = from; ow < to; ow++)
+									columns[target + ow] = x[source + ow * stride];
+							}
+							Arrays.fill(columns, target + to, target + endColumn, 0);
+						}
+						position += endColumn - firstColumn;
+					}
+					row += length;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the gathered columns of this thread, of at least the given size
+	 */
+	private static float[] columns(int size) {
+		float[] columns = COLUMNS.get();
+		if (columns.length < size) {
+			columns = new float[size];
+			COLUMNS.set(columns);
+		}
+		return columns;
+	}
+
+	/**
+	 * @return the first output whose input <code>o * stride + offset</code>
+	 *         is not before the input
+	 */
+	private static int firstInside(int offset, int stride, int outputs) {
+		return offset >= 0 ? 0 : Math.min(outputs, (-offset + stride - 1) / stride);
+	}
+
+	/**
+	 * @return the output after the last whose input
+	 *         <code>o * stride + offset</code> is before <code>inputs</code>
+	 */
+	private static int endInside(int offset, int stride, int inputs, int outputs) {
+		return inputs - offset <= 0 ? 0 : Math.min(outputs, (inputs - offset + stride - 1) / stride);
+	}
+
+	static Kernel maxPool(NodeProto node) {
+		int[] kernel = Attributes.ints(node, "kernel_shape", null);
+		return (inputs, allocator) -> Kernels.one(pool(node, inputs[0], kernel, true, false, allocator));
+	}
+
+	static Kernel averagePool(NodeProto node) {
+		int[] kernel = Attributes.ints(node, "kernel_shape", null);
+		boolean countPadding = Attributes.intValue(node, "count_include_pad", 0) != 0;
+		return (inputs, allocator) -> Kernels
+				.one(pool(node, inputs[0], kernel, false, countPadding, allocator));
+	}
+
+	static Kernel globalAveragePool() {
+		return (inputs, allocator) -> {
+			NdArray input = inputs[0];
+			int planes = input.dim(0) * input.dim(1);
+			int plane = input.size() / planes;
+			float[] x = input.data();
+			float[] y = allocator.allocate(0, planes);
+			for (int p = 0; p < planes; p++) {
+				float sum = 0;
+				for (int i = 0; i < plane; i++)
+					sum += x[p * plane + i];
+				y[p] = sum / plane;
+			}
+			int[] shape = new int[input.rank()];
+			Arrays.fill(shape, 1);
+			shape[0] = input.dim(0);
+			shape[1] = input.dim(1);
+			return Kernels.one(NdArray.floats(shape, y));
+		};
+	}
+
+	/**
+	 * Pools an output row at a time, folding in one input row per kernel row
+	 * and kernel column over the outputs it reaches, so that the innermost
+	 * loops carry no bounds checks
+	 */
+	private static NdArray pool(NodeProto node, NdArray input, int[] kernel, boolean max, boolean countPadding,
+			Allocator allocator) {
+		Window window = Window.of(node, input.shape(), kernel);
+		int planes = input.dim(0) * input.dim(1);
+		int height = input.dim(2);
+		int width = input.dim(3);
+		int outputWidth = window.outputWidth;
+		int outputPlane = window.outputHeight * outputWidth;
+		int stride = window.strideWidth;
+		int[] firstColumns = new int[window.kernelWidth];
+		int[] lastColumns = new int[window.kernelWidth];
+		int[] columnCounts = new int[outputWidth];
+		for (int kw = 0; kw < window.kernelWidth; kw++) {
+			int columnOffset = kw * window.dilationWidth - window.padLeft;
+			firstColumns[kw] = firstInside(columnOffset, stride, outputWidth);
+			lastColumns[kw] = endInside(columnOffset, stride, width, outputWidth);
+			for (int ow = firstColumns[kw]; ow < lastColumns[kw]; ow++)
+				columnCounts[ow]++;
+		}
+
+		float[] x = input.data();
+		float[] y = allocator.allocate(0, planes * outputPlane);
+		for (int p = 0; p < planes; p++) {
+			int plane = p * height * width;
+			for (int oh = 0; oh < window.outputHeight; oh++) {
+				int outputRow = p * outputPlane + oh * outputWidth;
+				Arrays.fill(y, outputRow, outputRow + outputWidth, max ? Float.NEGATIVE_INFINITY : 0);
+				int rows = 0;
+				for (int kh = 0; kh < window.kernelHeight; kh++) {
+					int ih = oh * window.strideHeight + kh * window.dilationHeight - window.padTop;
+					if (ih < 0 || ih >= height)
+						continue;
+					rows++;
+					for (int kw = 0; kw < window.kernelWidth; kw++) {
+						int row = plane + ih * width + kw * window.dilationWidth - window.padLeft;
+						int first = firstColumns[kw];
+						int end = lastColumns[kw];
+						if (max) {
+							for (int ow = first; ow < end; ow++)
+								y[outputRow + ow] = Math.max(y[outputRow + ow], x[row + ow * stride]);
+						} else {
+							for (int ow = first; ow < end; ow++)
+								y[outputRow + ow] += x[row + ow * stride];
+						}
+					}
+				}
+				if (!max) {
+					for (int ow = 0; ow < outputWidth; ow++)
+						y[outputRow + ow] /= countPadding ? window.kernelHeight * window.kernelWidth
+								: Math.max(1, rows * columnCounts[ow]);
+				}
+			}
+		}
+		return NdArray.floats(new int[] { input.dim(0), input.dim(1), window.outputHeight, outputWidth }, y);
+	}
+
+}
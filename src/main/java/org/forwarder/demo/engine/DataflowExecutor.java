@@ -0,0 +1,232 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forwarder.demo.engine.ExecutionPlan.Step;
+
+/**
+ * Runs every step as soon as the steps producing its inputs are done, so
+ * that independent branches of a graph, e.g. the expand 1x1 and 3x3
+ * convolutions of a SqueezeNet fire module, run on several cores during a
+ * single forward.
+ *
+ * The calling thread runs steps itself and starts helpers on a work-stealing
+ * {@link ForkJoinPool} when more steps become ready than it can take on,
+ * never more than <code>parallelism</code> threads per forward including
+ * itself. With a parallelism of 1 every step runs on the calling thread.
+ */
+public class DataflowExecutor implements GraphExecutor, AutoCloseable {
+
+	private final ForkJoinPool pool;
+
+	private final boolean ownsPool;
+
+	private final int parallelism;
+
+	private final LongAdder forwards = new LongAdder();
+
+	private final LongAdder helpers = new LongAdder();
+
+	/**
+	 * @param threads
+	 *            size of the pool shared by all forwards, 0 for one thread
+	 *            per core
+	 * @param parallelism
+	 *            most threads one forward runs on
+	 */
+	public DataflowExecutor(int threads, int parallelism) {
+		this(new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("dataflow-" + thread.getPoolIndex());
+			thread.setDaemon(true);
+			return thread;
+		}, null, true), true, parallelism);
+	}
+
+	/**
+	 * @param pool
+	 *            pool the helpers run on, left open by {@link #close()}
+	 */
+	public DataflowExecutor(ForkJoinPool pool, int parallelism) {
+		this(pool, false, parallelism);
+	}
+
+	private DataflowExecutor(ForkJoinPool pool, boolean ownsPool, int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException(String.format("Parallelism %s is not positive", parallelism));
+		this.pool = pool;
+		this.ownsPool = ownsPool;
+		this.parallelism = parallelism;
+	}
+
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	@Override
+	public void execute(ExecutionPlan plan, Frame frame) throws Exception {
+		this.forwards.increment();
+		if (plan.getSteps().length == 0)
+			return;
+
+		Forward forward = new Forward(plan, frame);
+		forward.workers.set(1);
+		forward.help(plan.getSources().length - 1);
+		forward.work();
+		try {
+			forward.done.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("parallelism", this.parallelism);
+		stats.put("poolSize", this.pool.getParallelism());
+		stats.put("forwards", this.forwards.sum());
+		stats.put("helpers", this.helpers.sum());
+		stats.put("steals", this.pool.getStealCount());
+		return stats;
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+		if (this.ownsPool) {
+			this.pool.shutdown();
+			this.pool.awaitTermination(5, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * State of one forward, shared by the threads working on it
+	 */
+	private final class Forward {
+
+		private final ExecutionPlan plan;
+
+		private final Frame frame;
+
+		/**
+		 * Predecessors left to run by step. Decrementing a count to 0 also
+		 * publishes the values written by the predecessors to the thread that
+		 * runs the step.
+		 */
+		private final AtomicIntegerArray pending;
+
+		private final AtomicInteger remaining;
+
+		private final ConcurrentLinkedQueue<Step> ready = new ConcurrentLinkedQueue<>();
+
+		private final AtomicInteger workers = new AtomicInteger();
+
+		/**
+		 * First failure of a step, completing the forward once no worker
+		 * runs any more, so that no kernel still writes to the frame when the
+		 * caller gets the failure
+		 */
+		private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		Forward(ExecutionPlan plan, Frame frame) {
+			this.plan = plan;
+			this.frame = frame;
+			Step[] steps = plan.getSteps();
+			this.pending = new AtomicIntegerArray(steps.length);
+			for (Step step : steps)
+				this.pending.set(step.index, step.predecessors);
+			this.remaining = new AtomicInteger(steps.length);
+			for (Step source : plan.getSources())
+				this.ready.add(source);
+		}
+
+		/**
+		 * Run ready steps until there are none, on a worker slot already
+		 * taken
+		 */
+		void work() {
+			while (true) {
+				Step step;
+				while (this.failure.get() == null && (step = this.ready.poll()) != null)
+					this.run(step);
+				if (this.workers.decrementAndGet() == 0 && this.failure.get() != null)
+					this.done.completeExceptionally(this.failure.get());
+
+				// a step may have become ready after the last poll, while this
+				// worker still held its slot and no helper was started for it
+				if (this.failure.get() != null || this.ready.isEmpty() || !this.acquire())
+					return;
+			}
+		}
+
+		private void run(Step step) {
+			try {
+				this.plan.run(step, this.frame);
+			} catch (Throwable e) {
+				this.failure.compareAndSet(null, e);
+				return;
+			}
+
+			int readied = 0;
+			for (int successor : step.successors) {
+				if (this.pending.decrementAndGet(successor) == 0) {
+					this.ready.add(this.plan.getStep(successor));
+					readied++;
+				}
+			}
+			if (this.remaining.decrementAndGet() == 0) {
+				this.done.complete(null);
+				return;
+			}
+
+			// this worker goes on with one of them, helpers take the others
+			this.help(readied - 1);
+		}
+
+		/**
+		 * Start helpers for ready steps, as many as the parallelism allows
+		 */
+		void help(int steps) {
+			for (; steps > 0 && this.acquire(); steps--) {
+				try {
+					DataflowExecutor.this.pool.execute(this::work);
+					DataflowExecutor.this.helpers.increment();
+				} catch (RejectedExecutionException e) {
+					// pool closed, the workers running take them all
+					this.workers.decrementAndGet();
+					return;
+				}
+			}
+		}
+
+		private boolean acquire() {
+			while (true) {
+				int workers = this.workers.get();
+				if (workers >= DataflowExecutor.this.parallelism)
+					return false;
+				if (this.workers.compareAndSet(workers, workers + 1))
+					return true;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,515 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onnx4j.prototypes.OnnxProto3.AttributeProto;
+import org.onnx4j.prototypes.OnnxProto3.ModelProto;
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+import org.onnx4j.prototypes.OnnxProto3.OperatorSetIdProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+import org.onnx4j.prototypes.OnnxProto3.ValueInfoProto;
+
+/**
+ * A model graph compiled once for the graph engine: values numbered,
+ * initializers and <code>Constant</code> nodes read, a {@link Kernel}
+ * created for every other node and the nodes sorted topologically with the
+ * dependencies between them, so that {@link GraphExecutor}s only have to
+ * decide which ready node runs where.
+ *
+ * Plans are immutable and shared by concurrent forwards, every forward
+ * working on a {@link Frame} of its own holding the values by number. Kernels
+ * allocate their outputs on the heap unless the forward follows a
+ * {@link MemoryPlan} made for the shapes of its inputs.
+ *
+ * The weights of <code>Conv</code>, <code>Gemm</code> and <code>MatMul</code>
+ * nodes may be packed to a reduced {@link Precision} when compiling; an
+ * {@link AccuracyGate} tells whether the model still holds up.
+ */
+public final class ExecutionPlan {
+
+	/**
+	 * A node to run: where its inputs are read and its outputs written in the
+	 * value array, and the steps depending on it
+	 */
+	static final class Step {
+
+		final int index;
+
+		final NodeProto node;
+
+		final Kernel kernel;
+
+		/**
+		 * Values read, -1 for omitted optional inputs
+		 */
+		final int[] inputs;
+
+		/**
+		 * Values written, -1 for omitted optional outputs
+		 */
+		final int[] outputs;
+
+		/**
+		 * Number of distinct steps producing the inputs
+		 */
+		int predecessors;
+
+		int[] successors;
+
+		Step(int index, NodeProto node, Kernel kernel, int[] inputs, int[] outputs) {
+			this.index = index;
+			this.node = node;
+			this.kernel = kernel;
+			this.inputs = inputs;
+			this.outputs = outputs;
+		}
+
+		@Override
+		public String toString() {
+			return this.node.getOpType() + " "
+					+ (this.node.getName().isEmpty() ? this.node.getOutput(0) : this.node.getName());
+		}
+
+	}
+
+	private final int opset;
+
+	private final Precision precision;
+
+	private final List<String> valueNames;
+
+	/**
+	 * Initializers and constants by value, null for the others
+	 */
+	private final NdArray[] constants;
+
+	private final Map<String, Integer> inputs;
+
+	private final Map<String, Integer> outputs;
+
+	private final Step[] steps;
+
+	/**
+	 * Steps depending on no other step
+	 */
+	private final Step[] sources;
+
+	private ExecutionPlan(int opset, Precision precision, List<String> valueNames, NdArray[] constants,
+			Map<String, Integer> inputs, Map<String, Integer> outputs, Step[] steps) {
+		this.opset = opset;
+		this.precision = precision;
+		this.valueNames = valueNames;
+		this.constants = constants;
+		this.inputs = inputs;
+		this.outputs = outputs;
+		this.steps = steps;
+		List<Step> sources = new ArrayList<>();
+		for (Step step : steps) {
+			if (step.predecessors == 0)
+				sources.add(step);
+		}
+		this.sources = sources.toArray(new Step[0]);
+	}
+
+	public static ExecutionPlan compile(ModelProto model) {
+		return compile(model, Kernels::create, Precision.FP32);
+	}
+
+	public static ExecutionPlan compile(ModelProto model, Precision precision) {
+		return compile(model, Kernels::create, precision);
+	}
+
+	public static ExecutionPlan compile(ModelProto model, KernelFactory kernels) {
+		return compile(model, kernels, Precision.FP32);
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             if an operator or tensor is not supported
+	 * @throws IllegalArgumentException
+	 *             if a node reads a value nothing produces or the nodes form
+	 *             a cycle
+	 */
+	public static ExecutionPlan compile(ModelProto model, KernelFactory kernels, Precision precision) {
+		int opset = opset(model);
+		Map<String, Integer> ids = new LinkedHashMap<>();
+		Map<Integer, NdArray> constants = new HashMap<>();
+		for (TensorProto initializer : model.getGraph().getInitializerList())
+			constants.put(id(ids, initializer.getName()), NdArray.of(initializer));
+
+		Map<String, Integer> inputs = new LinkedHashMap<>();
+		for (ValueInfoProto input : model.getGraph().getInputList()) {
+			int id = id(ids, input.getName());
+			if (!constants.containsKey(id))
+				inputs.put(input.getName(), id);
+		}
+
+		List<Step> steps = new ArrayList<>();
+		Map<Integer, Step> producers = new HashMap<>();
+		for (NodeProto node : model.getGraph().getNodeList()) {
+			if ("Constant".equals(node.getOpType())) {
+				AttributeProto value = Attributes.attribute(node, "value");
+				if (value == null)
+					throw new UnsupportedOperationException(String.format("Constant %s without a tensor value",
+							node.getName()));
+				constants.put(id(ids, node.getOutput(0)), NdArray.of(value.getT()));
+				continue;
+			}
+			Step step = new Step(steps.size(), node, kernels.create(node, opset), ids(ids, node.getInputList()),
+					ids(ids, node.getOutputList()));
+			for (int output : step.outputs) {
+				if (output >= 0)
+					producers.put(output, step);
+			}
+			steps.add(step);
+		}
+
+		// link steps through the values they exchange
+		List<Set<Step>> successors = new ArrayList<>();
+		for (int n = 0; n < steps.size(); n++)
+			successors.add(new LinkedHashSet<>());
+		for (Step step : steps) {
+			Set<Step> predecessors = new LinkedHashSet<>();
+			for (int input : step.inputs) {
+				if (input < 0 || constants.containsKey(input) || inputs.containsValue(input))
+					continue;
+				Step producer = producers.get(input);
+				if (producer == null)
+					throw new IllegalArgumentException(String.format("Value %s read by %s is never produced",
+							name(ids, input), step));
+				predecessors.add(producer);
+			}
+			step.predecessors = predecessors.size();
+			for (Step predecessor : predecessors)
+				successors.get(predecessor.index).add(step);
+		}
+		for (Step step : steps) {
+			step.successors = new int[successors.get(step.index).size()];
+			int n = 0;
+			for (Step successor : successors.get(step.index))
+				step.successors[n++] = successor.index;
+		}
+
+		Map<String, Integer> outputs = new LinkedHashMap<>();
+		for (ValueInfoProto output : model.getGraph().getOutputList()) {
+			int id = id(ids, output.getName());
+			if (!producers.containsKey(id) && !constants.containsKey(id) && !inputs.containsValue(id))
+				throw new IllegalArgumentException(String.format("Output %s is never produced", output.getName()));
+			outputs.put(output.getName(), id);
+		}
+
+		NdArray[] values = new NdArray[ids.size()];
+		for (Map.Entry<Integer, NdArray> constant : constants.entrySet())
+			values[constant.getKey()] = constant.getValue();
+		if (precision != Precision.FP32)
+			pack(values, steps, precision);
+		return new ExecutionPlan(opset, precision, Collections.unmodifiableList(new ArrayList<>(ids.keySet())),
+				values, Collections.unmodifiableMap(inputs), Collections.unmodifiableMap(outputs), sort(steps));
+	}
+
+	public int getOpset() {
+		return this.opset;
+	}
+
+	public Precision getPrecision() {
+		return this.precision;
+	}
+
+	/**
+	 * @return bytes taken by the initializers and constants, packed or not
+	 */
+	public long getWeightBytes() {
+		long bytes = 0;
+		for (NdArray constant : this.constants) {
+			if (constant != null)
+				bytes += constant.getByteLength();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return names of the inputs to feed, initializers excluded
+	 */
+	public Set<String> getInputNames() {
+		return this.inputs.keySet();
+	}
+
+	public Set<String> getOutputNames() {
+		return this.outputs.keySet();
+	}
+
+	public int getNodeCount() {
+		return this.steps.length;
+	}
+
+	/**
+	 * Plan where the intermediates of forwards of inputs of the given shapes
+	 * are written, running one forward of zeros to learn their sizes
+	 *
+	 * @param inputShapes
+	 *            shape of every input by name
+	 */
+	public MemoryPlan planMemory(Map<String, int[]> inputShapes) {
+		return MemoryPlanner.plan(this, inputShapes);
+	}
+
+	/**
+	 * Forward a set of inputs, allocating every intermediate
+	 *
+	 * @return the graph outputs by name
+	 * @throws IllegalArgumentException
+	 *             if an input is missing
+	 */
+	public Map<String, NdArray> execute(GraphExecutor executor, Map<String, NdArray> inputs) throws Exception {
+		return this.execute(executor, inputs, null);
+	}
+
+	/**
+	 * Forward a set of inputs, writing intermediates to the slabs of a memory
+	 * plan if it was made for their shapes
+	 *
+	 * @param memory
+	 *            memory plan of this plan, null to allocate every
+	 *            intermediate
+	 * @return the graph outputs by name
+	 * @throws IllegalArgumentException
+	 *             if an input is missing
+	 */
+	public Map<String, NdArray> execute(GraphExecutor executor, Map<String, NdArray> inputs, MemoryPlan memory)
+			throws Exception {
+		return this.execute(executor, inputs, memory, null);
+	}
+
+	/**
+	 * Forward a set of inputs, recording every node run in a profile
+	 *
+	 * @param profile
+	 *            profile of this plan, null to record nothing
+	 * @return the graph outputs by name
+	 * @throws IllegalArgumentException
+	 *             if an input is missing
+	 */
+	public Map<String, NdArray> execute(GraphExecutor executor, Map<String, NdArray> inputs, MemoryPlan memory,
+			NodeProfile profile) throws Exception {
+		if (memory != null && memory.getPlan() != this)
+			throw new IllegalArgumentException("Memory plan of another execution plan");
+		if (profile != null && profile.getPlan() != this)
+			throw new IllegalArgumentException("Node profile of another execution plan");
+		NdArray[] values = this.newValues();
+		for (Map.Entry<String, Integer> input : this.inputs.entrySet()) {
+			NdArray value = inputs.get(input.getKey());
+			if (value == null)
+				throw new IllegalArgumentException(String.format("Missing input %s", input.getKey()));
+			values[input.getValue()] = value;
+		}
+
+		if (memory != null && memory.fits(inputs)) {
+			float[][] slabs = memory.acquire();
+			try {
+				executor.execute(this, new Frame(values, memory, slabs, profile));
+			} finally {
+				memory.release(slabs);
+			}
+		} else {
+			executor.execute(this, new Frame(values, null, null, profile));
+		}
+
+		Map<String, NdArray> outputs = new LinkedHashMap<>();
+		for (Map.Entry<String, Integer> output : this.outputs.entrySet())
+			outputs.put(output.getKey(), values[output.getValue()]);
+		return outputs;
+	}
+
+	Step[] getSteps() {
+		return this.steps;
+	}
+
+	Step[] getSources() {
+		return this.sources;
+	}
+
+	Step getStep(int index) {
+		return this.steps[index];
+	}
+
+	int getValueId(String name) {
+		return this.valueNames.indexOf(name);
+	}
+
+	/**
+	 * @return the values of a new forward, holding the constants
+	 */
+	NdArray[] newValues() {
+		return this.constants.clone();
+	}
+
+	/**
+	 * Run a step of a forward
+	 *
+	 * @throws IllegalStateException
+	 *             if its kernel fails
+	 */
+	void run(Step step, Frame frame) {
+		this.run(step, frame.values, frame.allocator(step), frame.profile);
+	}
+
+	void run(Step step, NdArray[] values, Allocator allocator, NodeProfile profile) {
+		NdArray[] inputs = new NdArray[step.inputs.length];
+		for (int n = 0; n < inputs.length; n++)
+			inputs[n] = step.inputs[n] < 0 ? null : values[step.inputs[n]];
+
+		NdArray[] outputs;
+		long allocatedBefore = profile != null ? profile.allocatedBytes() : -1;
+		long startedAt = profile != null ? System.nanoTime() : 0;
+		try {
+			outputs = step.kernel.run(inputs, allocator);
+		} catch (RuntimeException e) {
+			throw new IllegalStateException(String.format("Failed to run %s", step), e);
+		}
+		if (profile != null)
+			profile.record(step, System.nanoTime() - startedAt,
+					allocatedBefore >= 0 ? profile.allocatedBytes() - allocatedBefore : -1, outputs);
+		for (int n = 0; n < Math.min(outputs.length, step.outputs.length); n++) {
+			if (step.outputs[n] >= 0)
+				values[step.outputs[n]] = outputs[n];
+		}
+	}
+
+	/**
+	 * Pack the float weights of <code>Conv</code>, <code>Gemm</code> and
+	 * <code>MatMul</code> nodes, with their output channels along the axis
+	 * the kernel produces them from. Constants also read as anything else,
+	 * such as biases or shapes, stay as they are.
+	 */
+	private static void pack(NdArray[] values, List<Step> steps, Precision precision) {
+		Map<Integer, Integer> axes = new HashMap<>();
+		Set<Integer> others = new HashSet<>();
+		for (Step step : steps) {
+			for (int n = 0; n < step.inputs.length; n++) {
+				int input = step.inputs[n];
+				if (input < 0 || values[input] == null)
+					continue;
+				int axis = n == 1 ? channelAxis(step.node, values[input]) : -1;
+				if (axis < 0 || (axes.containsKey(input) && axes.get(input) != axis))
+					others.add(input);
+				else
+					axes.put(input, axis);
+			}
+		}
+		for (Map.Entry<Integer, Integer> weights : axes.entrySet()) {
+			NdArray value = values[weights.getKey()];
+			if (others.contains(weights.getKey()))
+				continue;
+			PackedWeights packed = precision == Precision.FP16 ? PackedWeights.half(value.data(), value.size())
+					: PackedWeights.int8(value.data(), value.shape(), weights.getValue());
+			values[weights.getKey()] = NdArray.packed(value.shape(), packed);
+		}
+	}
+
+	/**
+	 * @return axis of the output channels of the weights of a node, -1 if the
+	 *         node does not take packed weights
+	 */
+	private static int channelAxis(NodeProto node, NdArray weights) {
+		if (!weights.isFloat() || weights.rank() < 2)
+			return -1;
+		switch (node.getOpType()) {
+		case "Conv":
+			return 0;
+		case "Gemm":
+			return Attributes.intValue(node, "transB", 0) != 0 ? 0 : 1;
+		case "MatMul":
+			return weights.rank() - 1;
+		default:
+			return -1;
+		}
+	}
+
+	static int opset(ModelProto model) {
+		for (OperatorSetIdProto opsetImport : model.getOpsetImportList()) {
+			if (opsetImport.getDomain().isEmpty() || "ai.onnx".equals(opsetImport.getDomain()))
+				return (int) opsetImport.getVersion();
+		}
+		return 1;
+	}
+
+	/**
+	 * Kahn's algorithm, keeping the graph order among ready steps. Indices
+	 * are renumbered to the sorted order.
+	 */
+	private static Step[] sort(List<Step> steps) {
+		int[] pending = new int[steps.size()];
+		Deque<Step> ready = new ArrayDeque<>();
+		for (Step step : steps) {
+			pending[step.index] = step.predecessors;
+			if (step.predecessors == 0)
+				ready.add(step);
+		}
+
+		List<Step> sorted = new ArrayList<>(steps.size());
+		while (!ready.isEmpty()) {
+			Step step = ready.poll();
+			sorted.add(step);
+			for (int successor : step.successors) {
+				if (--pending[successor] == 0)
+					ready.add(steps.get(successor));
+			}
+		}
+		if (sorted.size() != steps.size())
+			throw new IllegalArgumentException("Graph has a cycle");
+
+		int[] renumbered = new int[steps.size()];
+		Step[] result = new Step[sorted.size()];
+		for (int n = 0; n < result.length; n++) {
+			Step step = sorted.get(n);
+			renumbered[step.index] = n;
+			result[n] = new Step(n, step.node, step.kernel, step.inputs, step.outputs);
+			result[n].predecessors = step.predecessors;
+		}
+		for (int n = 0; n < result.length; n++) {
+			int[] successors = sorted.get(n).successors;
+			result[n].successors = new int[successors.length];
+			for (int s = 0; s < successors.length; s++)
+				result[n].successors[s] = renumbered[successors[s]];
+		}
+		return result;
+	}
+
+	private static int id(Map<String, Integer> ids, String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = ids.size();
+			ids.put(name, id);
+		}
+		return id;
+	}
+
+	private static int[] ids(Map<String, Integer> ids, List<String> names) {
+		int[] values = new int[names.size()];
+		for (int n = 0; n < values.length; n++)
+			values[n] = names.get(n).isEmpty() ? -1 : id(ids, names.get(n));
+		return values;
+	}
+
+	private static String name(Map<String, Integer> ids, int id) {
+		for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+			if (entry.getValue() == id)
+				return entry.getKey();
+		}
+		return String.valueOf(id);
+	}
+
+}
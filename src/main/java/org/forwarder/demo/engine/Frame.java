@@ -0,0 +1,46 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import org.forwarder.demo.engine.ExecutionPlan.Step;
+
+/**
+ * The values of one forward by number and, when its memory is planned, the
+ * slabs its intermediates are written to, and the profile its nodes are
+ * recorded in if any
+ */
+public final class Frame {
+
+	final NdArray[] values;
+
+	private final MemoryPlan memory;
+
+	private final float[][] slabs;
+
+	final NodeProfile profile;
+
+	Frame(NdArray[] values, MemoryPlan memory, float[][] slabs, NodeProfile profile) {
+		this.values = values;
+		this.memory = memory;
+		this.slabs = slabs;
+		this.profile = profile;
+	}
+
+	/**
+	 * @return where the step writes its outputs: their planned slabs, or new
+	 *         arrays for outputs not planned or larger than planned
+	 */
+	Allocator allocator(Step step) {
+		if (this.memory == null)
+			return Allocator.HEAP;
+		int[] slabs = this.memory.getSlabs(step.index);
+		return (output, size) -> {
+			int slab = output < slabs.length ? slabs[output] : -1;
+			if (slab < 0 || this.slabs[slab].length < size)
+				return new float[size];
+			return this.slabs[slab];
+		};
+	}
+
+}
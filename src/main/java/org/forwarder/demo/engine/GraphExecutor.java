@@ -0,0 +1,21 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+/**
+ * Decides the order and threads the steps of an {@link ExecutionPlan} run on
+ * during one forward
+ */
+public interface GraphExecutor {
+
+	/**
+	 * Run every step of the plan, each after the steps producing its inputs
+	 *
+	 * @param frame
+	 *            the forward, holding the constants and inputs and receiving
+	 *            the outputs of the steps
+	 */
+	void execute(ExecutionPlan plan, Frame frame) throws Exception;
+
+}
@@ -0,0 +1,24 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+/**
+ * The computation of one graph node, its attributes already read. Kernels
+ * are shared by concurrent forwards, so they keep no state between runs.
+ */
+@FunctionalInterface
+public interface Kernel {
+
+	/**
+	 * @param inputs
+	 *            inputs of the node in order, null for omitted optional ones
+	 * @param allocator
+	 *            where new outputs are written. An output may instead share
+	 *            the data of an input, e.g. a reshape.
+	 * @return outputs of the node in order, possibly fewer than it declares
+	 *         if the rest are optional
+	 */
+	NdArray[] run(NdArray[] inputs, Allocator allocator);
+
+}
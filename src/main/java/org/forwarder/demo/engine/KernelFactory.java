@@ -0,0 +1,22 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+
+/**
+ * Creates the {@link Kernel} of a graph node when a plan is compiled
+ */
+@FunctionalInterface
+public interface KernelFactory {
+
+	/**
+	 * @param opset
+	 *            version of the default operator set imported by the model
+	 * @throws UnsupportedOperationException
+	 *             if the operator or some of its attributes are not supported
+	 */
+	Kernel create(NodeProto node, int opset);
+
+}
@@ -0,0 +1,364 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import java.util.Arrays;
+
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+
+/**
+ * The default {@link KernelFactory}: elementwise, shape and normalization
+ * operators, convolutions and pools through {@link ConvKernels} and matrix
+ * products through {@link MatMulKernels}
+ */
+public final class Kernels {
+
+	@FunctionalInterface
+	interface FloatUnaryOperator {
+
+		float apply(float x);
+
+	}
+
+	@FunctionalInterface
+	interface BinaryOperator {
+
+		NdArray apply(NdArray a, NdArray b, Allocator allocator);
+
+	}
+
+	private Kernels() {
+	}
+
+	public static Kernel create(NodeProto node, int opset) {
+		switch (node.getOpType()) {
+		case "Add":
+			return binary(node, opset, Broadcast::add);
+		case "Sub":
+			return binary(node, opset, (a, b, allocator) -> Broadcast.apply(a, b, (x, y) -> x - y, allocator));
+		case "Mul":
+			return binary(node, opset, (a, b, allocator) -> Broadcast.apply(a, b, (x, y) -> x * y, allocator));
+		case "Div":
+			return binary(node, opset, (a, b, allocator) -> Broadcast.apply(a, b, (x, y) -> x / y, allocator));
+		case "Sum":
+			return sum();
+		case "Relu":
+			return relu();
+		case "LeakyRelu":
+			float alpha = Attributes.floatValue(node, "alpha", 0.01f);
+			return unary(x -> x >= 0 ? x : alpha * x);
+		case "Sigmoid":
+			return unary(x -> (float) (1 / (1 + Math.exp(-x))));
+		case "Tanh":
+			return unary(x -> (float) Math.tanh(x));
+		case "Identity":
+		case "Dropout":
+			return (inputs, allocator) -> new NdArray[] { inputs[0] };
+		case "Reshape":
+			return reshape(node, opset);
+		case "Flatten":
+			return flatten(node);
+		case "Squeeze":
+			return squeeze(node);
+		case "Unsqueeze":
+			return unsqueeze(node);
+		case "Concat":
+			return concat(node, opset);
+		case "Softmax":
+			return softmax(node);
+		case "BatchNormalization":
+			return batchNormalization(node);
+		case "ImageScaler":
+			return imageScaler(node);
+		case "Conv":
+			return ConvKernels.conv(node);
+		case "MaxPool":
+			return ConvKernels.maxPool(node);
+		case "AveragePool":
+			return ConvKernels.averagePool(node);
+		case "GlobalAveragePool":
+			return ConvKernels.globalAveragePool();
+		case "Gemm":
+			return MatMulKernels.gemm(node);
+		case "MatMul":
+			return MatMulKernels.matMul();
+		default:
+			throw new UnsupportedOperationException(
+					String.format("Operator %s of opset %s is not supported", node.getOpType(), opset));
+		}
+	}
+
+	static NdArray[] one(NdArray output) {
+		return new NdArray[] { output };
+	}
+
+	static int axis(int axis, int rank) {
+		int normalized = axis < 0 ? axis + rank : axis;
+		if (normalized < 0 || normalized >= rank)
+			throw new IllegalArgumentException(String.format("Axis %s out of rank %s", axis, rank));
+		return normalized;
+	}
+
+	private static Kernel unary(FloatUnaryOperator operator) {
+		return (inputs, allocator) -> {
+			float[] x = inputs[0].data();
+			int size = inputs[0].size();
+			float[] y = allocator.allocate(0, size);
+			for (int n = 0; n < size; n++)
+				y[n] = operator.apply(x[n]);
+			return one(NdArray.floats(inputs[0].shape(), y));
+		};
+	}
+
+	/**
+	 * A loop of its own rather than {@link #unary}, so that the JIT sees a
+	 * plain <code>max</code> it can vectorize
+	 */
+	private static Kernel relu() {
+		return (inputs, allocator) -> {
+			float[] x = inputs[0].data();
+			int size = inputs[0].size();
+			float[] y = allocator.allocate(0, size);
+			for (int n = 0; n < size; n++)
+				y[n] = Math.max(x[n], 0f);
+			return one(NdArray.floats(inputs[0].shape(), y));
+		};
+	}
+
+	/**
+	 * Before opset 7 the second operand is only broadcast with
+	 * <code>broadcast=1</code>, aligned on <code>axis</code> if given and on
+	 * the trailing axes otherwise. Later opsets broadcast both operands.
+	 */
+	private static Kernel binary(NodeProto node, int opset, BinaryOperator operator) {
+		if (opset < 7 && Attributes.intValue(node, "broadcast", 0) != 0
+				&& Attributes.attribute(node, "axis") != null) {
+			int axis = Attributes.intValue(node, "axis", 0);
+			return (inputs, allocator) -> {
+				int[] a = inputs[0].shape();
+				int[] b = inputs[1].shape();
+				int begin = axis < 0 ? axis + a.length : axis;
+				int[] aligned = new int[a.length];
+				Arrays.fill(aligned, 1);
+				System.arraycopy(b, 0, aligned, begin, b.length);
+				return one(operator.apply(inputs[0], inputs[1].reshape(aligned), allocator));
+			};
+		}
+		return (inputs, allocator) -> one(operator.apply(inputs[0], inputs[1], allocator));
+	}
+
+	/**
+	 * Accumulates every input into the output, allocated once at the shape
+	 * they broadcast to
+	 */
+	private static Kernel sum() {
+		return (inputs, allocator) -> {
+			int[] shape = inputs[0].shape();
+			for (int n = 1; n < inputs.length; n++)
+				shape = Broadcast.shape(shape, inputs[n].shape());
+			NdArray sum = NdArray.floats(shape, allocator.allocate(0, NdArray.size(shape)));
+			Arrays.fill(sum.data(), 0, sum.size(), 0);
+			for (NdArray input : inputs)
+				Broadcast.apply(sum, input, (a, b) -> a + b, shape, sum.data());
+			return one(sum);
+		};
+	}
+
+	/**
+	 * The target shape is the <code>shape</code> attribute before opset 5 and
+	 * the second input since, a 0 keeping the input dimension and a -1
+	 * inferred from the others
+	 */
+	private static Kernel reshape(NodeProto node, int opset) {
+		int[] attribute = opset < 5 ? Attributes.ints(node, "shape", null) : null;
+		return (inputs, allocator) -> {
+			NdArray data = inputs[0];
+			long[] shape;
+			if (attribute != null) {
+				shape = new long[attribute.length];
+				for (int n = 0; n < shape.length; n++)
+					shape[n] = attribute[n];
+			} else {
+				shape = inputs[1].longData();
+			}
+
+			int[] target = new int[shape.length];
+			int inferred = -1;
+			int known = 1;
+			for (int n = 0; n < target.length; n++) {
+				if (shape[n] == -1) {
+					inferred = n;
+					continue;
+				}
+				target[n] = shape[n] == 0 ? data.dim(n) : Math.toIntExact(shape[n]);
+				known *= target[n];
+			}
+			if (inferred >= 0)
+				target[inferred] = known == 0 ? 0 : data.size() / known;
+			return one(data.reshape(target));
+		};
+	}
+
+	private static Kernel flatten(NodeProto node) {
+		int axis = Attributes.intValue(node, "axis", 1);
+		return (inputs, allocator) -> {
+			int[] shape = inputs[0].shape();
+			int split = axis < 0 ? axis + shape.length : axis;
+			int outer = NdArray.size(Arrays.copyOfRange(shape, 0, split));
+			return one(inputs[0].reshape(outer, inputs[0].size() / Math.max(1, outer)));
+		};
+	}
+
+	private static Kernel squeeze(NodeProto node) {
+		int[] axes = Attributes.ints(node, "axes", null);
+		return (inputs, allocator) -> {
+			int[] shape = inputs[0].shape();
+			boolean[] squeezed = new boolean[shape.length];
+			if (axes == null) {
+				for (int axis = 0; axis < shape.length; axis++)
+					squeezed[axis] = shape[axis] == 1;
+			} else {
+				for (int axis : axes)
+					squeezed[axis(axis, shape.length)] = true;
+			}
+			int[] target = new int[shape.length];
+			int rank = 0;
+			for (int axis = 0; axis < shape.length; axis++) {
+				if (!squeezed[axis])
+					target[rank++] = shape[axis];
+			}
+			return one(inputs[0].reshape(Arrays.copyOf(target, rank)));
+		};
+	}
+
+	private static Kernel unsqueeze(NodeProto node) {
+		int[] axes = Attributes.ints(node, "axes", new int[0]);
+		return (inputs, allocator) -> {
+			int[] shape = inputs[0].shape();
+			int rank = shape.length + axes.length;
+			boolean[] inserted = new boolean[rank];
+			for (int axis : axes)
+				inserted[axis(axis, rank)] = true;
+			int[] target = new int[rank];
+			for (int axis = 0, source = 0; axis < rank; axis++)
+				target[axis] = inserted[axis] ? 1 : shape[source++];
+			return one(inputs[0].reshape(target));
+		};
+	}
+
+	private static Kernel concat(NodeProto node, int opset) {
+		int axisAttribute = Attributes.intValue(node, "axis", opset < 4 ? 1 : Integer.MIN_VALUE);
+		if (axisAttribute == Integer.MIN_VALUE)
+			throw new UnsupportedOperationException("Concat without axis");
+		return (inputs, allocator) -> {
+			int[] first = inputs[0].shape();
+			int axis = axis(axisAttribute, first.length);
+			int outer = NdArray.size(Arrays.copyOfRange(first, 0, axis));
+			int[] shape = first.clone();
+			shape[axis] = 0;
+			for (NdArray input : inputs)
+				shape[axis] += input.dim(axis);
+
+			float[] output = allocator.allocate(0, NdArray.size(shape));
+			int outputBlock = NdArray.size(shape) / Math.max(1, outer);
+			int position = 0;
+			for (NdArray input : inputs) {
+				int block = input.size() / Math.max(1, outer);
+				float[] data = input.data();
+				for (int n = 0; n < outer; n++)
+					System.arraycopy(data, n * block, output, n * outputBlock + position, block);
+				position += block;
+			}
+			return one(NdArray.floats(shape, output));
+		};
+	}
+
+	/**
+	 * Softmax over the input coerced to 2-D at <code>axis</code>
+	 */
+	private static Kernel softmax(NodeProto node) {
+		int axisAttribute = Attributes.intValue(node, "axis", 1);
+		return (inputs, allocator) -> {
+			int[] shape = inputs[0].shape();
+			int axis = axisAttribute < 0 ? axisAttribute + shape.length : axisAttribute;
+			int outer = NdArray.size(Arrays.copyOfRange(shape, 0, axis));
+			int inner = inputs[0].size() / Math.max(1, outer);
+			float[] x = inputs[0].data();
+			float[] y = allocator.allocate(0, inputs[0].size());
+			for (int n = 0; n < outer; n++) {
+				int offset = n * inner;
+				float max = Float.NEGATIVE_INFINITY;
+				for (int i = 0; i < inner; i++)
+					max = Math.max(max, x[offset + i]);
+				double sum = 0;
+				for (int i = 0; i < inner; i++) {
+					y[offset + i] = (float) Math.exp(x[offset + i] - max);
+					sum += y[offset + i];
+				}
+				for (int i = 0; i < inner; i++)
+					y[offset + i] /= sum;
+			}
+			return one(NdArray.floats(shape, y));
+		};
+	}
+
+	/**
+	 * Inference form, normalizing every channel of an NC... input by its
+	 * running mean and variance
+	 */
+	private static Kernel batchNormalization(NodeProto node) {
+		float epsilon = Attributes.floatValue(node, "epsilon", 1e-5f);
+		if (Attributes.intValue(node, "spatial", 1) != 1)
+			throw new UnsupportedOperationException("BatchNormalization with spatial=0");
+		return (inputs, allocator) -> {
+			float[] scale = inputs[1].data();
+			float[] bias = inputs[2].data();
+			float[] mean = inputs[3].data();
+			float[] variance = inputs[4].data();
+			float[] multipliers = new float[scale.length];
+			float[] offsets = new float[scale.length];
+			for (int c = 0; c < scale.length; c++) {
+				multipliers[c] = (float) (scale[c] / Math.sqrt(variance[c] + epsilon));
+				offsets[c] = bias[c] - mean[c] * multipliers[c];
+			}
+			return one(perChannel(inputs[0], multipliers, offsets, allocator));
+		};
+	}
+
+	private static Kernel imageScaler(NodeProto node) {
+		float scale = Attributes.floatValue(node, "scale", 1f);
+		float[] bias = Attributes.floats(node, "bias", null);
+		return (inputs, allocator) -> {
+			int channels = inputs[0].dim(1);
+			float[] multipliers = new float[channels];
+			float[] offsets = new float[channels];
+			Arrays.fill(multipliers, scale);
+			if (bias != null)
+				System.arraycopy(bias, 0, offsets, 0, channels);
+			return one(perChannel(inputs[0], multipliers, offsets, allocator));
+		};
+	}
+
+	/**
+	 * @return <code>x * multiplier + offset</code> of the channel along axis 1
+	 */
+	static NdArray perChannel(NdArray input, float[] multipliers, float[] offsets, Allocator allocator) {
+		int[] shape = input.shape();
+		int channels = shape[1];
+		int plane = input.size() / (shape[0] * channels);
+		float[] x = input.data();
+		float[] y = allocator.allocate(0, input.size());
+		for (int n = 0; n < shape[0]; n++) {
+			for (int c = 0; c < channels; c++) {
+				int offset = (n * channels + c) * plane;
+				float multiplier = multipliers[c];
+				float add = offsets[c];
+				for (int i = 0; i < plane; i++)
+					y[offset + i] = x[offset + i] * multiplier + add;
+			}
+		}
+		return NdArray.floats(shape, y);
+	}
+
+}
@@ -0,0 +1,200 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import java.util.Arrays;
+
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+
+/**
+ * Matrix product kernels
+ */
+final class MatMulKernels {
+
+	/**
+	 * Rows of B multiplied at a time
+	 */
+	private static final int DEPTH_BLOCK = 64;
+
+	/**
+	 * Columns of B and Y multiplied at a time, so that a block of B takes
+	 * 64 KB and stays in the L2 cache across the rows of A
+	 */
+	private static final int COLUMN_BLOCK = 256;
+
+	private MatMulKernels() {
+	}
+
+	/**
+	 * <code>alpha * A' * B' + beta * C</code>, C broadcast to the product
+	 */
+	static Kernel gemm(NodeProto node) {
+		float alpha = Attributes.floatValue(node, "alpha", 1f);
+		float beta = Attributes.floatValue(node, "beta", 1f);
+		boolean transposeA = Attributes.intValue(node, "transA", 0) != 0;
+		boolean transposeB = Attributes.intValue(node, "transB", 0) != 0;
+		return (inputs, allocator) -> {
+			NdArray a = inputs[0];
+			NdArray b = inputs[1];
+			int rows = transposeA ? a.dim(1) : a.dim(0);
+			int depth = transposeA ? a.dim(0) : a.dim(1);
+			int columns = transposeB ? b.dim(0) : b.dim(1);
+			if ((transposeB ? b.dim(1) : b.dim(0)) != depth)
+				throw new IllegalArgumentException(String.format("Gemm of %s and %s", a, b));
+
+			float[] y = allocator.allocate(0, rows * columns);
+			Arrays.fill(y, 0, rows * columns, 0);
+			multiply(a.data(), 0, transposeA, b, 0, transposeB, y, 0, rows, depth, columns);
+			if (alpha != 1)
+				for (int n = 0; n < rows * columns; n++)
+					y[n] *= alpha;
+			NdArray product = NdArray.floats(new int[] { rows, columns }, y);
+			if (inputs.length < 3 || inputs[2] == null || beta == 0)
+				return Kernels.one(product);
+			if (!Arrays.equals(Broadcast.shape(product.shape(), inputs[2].shape()), product.shape()))
+				throw new IllegalArgumentException(String.format("Gemm bias %s does not fit %s", inputs[2], product));
+			Broadcast.apply(product, inputs[2], (p, c) -> p + beta * c, product.shape(), y);
+			return Kernels.one(product);
+		};
+	}
+
+	/**
+	 * Numpy <code>matmul</code>: 1-D operands are promoted to matrices and
+	 * leading dimensions are broadcast as a batch of products
+	 */
+	static Kernel matMul() {
+		return (inputs, allocator) -> {
+			NdArray a = inputs[0];
+			NdArray b = inputs[1];
+			int[] aShape = a.rank() == 1 ? new int[] { 1, a.dim(0) } : a.shape();
+			int[] bShape = b.rank() == 1 ? new int[] { b.dim(0), 1 } : b.shape();
+			int rows = aShape[aShape.length - 2];
+			int depth = aShape[aShape.length - 1];
+			int columns = bShape[bShape.length - 1];
+			if (bShape[bShape.length - 2] != depth)
+				throw new IllegalArgumentException(String.format("MatMul of %s and %s", a, b));
+
+			int[] aBatch = Arrays.copyOf(aShape, aShape.length - 2);
+			int[] bBatch = Arrays.copyOf(bShape, bShape.length - 2);
+			int[] batch = Broadcast.shape(aBatch, bBatch);
+			int[] aStrides = Broadcast.strides(aBatch, batch);
+			int[] bStrides = Broadcast.strides(bBatch, batch);
+			int batches = NdArray.size(batch);
+
+			float[] y = allocator.allocate(0, batches * rows * columns);
+			Arrays.fill(y, 0, batches * rows * columns, 0);
+			int[] index = new int[batch.length];
+			for (int n = 0; n < batches; n++) {
+				int aOffset = 0;
+				int bOffset = 0;
+				for (int axis = 0; axis < batch.length; axis++) {
+					aOffset += index[axis] * aStrides[axis];
+					bOffset += index[axis] * bStrides[axis];
+				}
+				multiply(a.data(), aOffset * rows * depth, false, b, bOffset * depth * columns, false, y,
+						n * rows * columns, rows, depth, columns);
+				for (int axis = batch.length - 1; axis >= 0 && ++index[axis] == batch[axis]; axis--)
+					index[axis] = 0;
+			}
+
+			// the dimensions 1-D operands were promoted with are removed again
+			int[] shape = Arrays.copyOf(batch, batch.length + 2);
+			int rank = batch.length;
+			if (a.rank() != 1)
+				shape[rank++] = rows;
+			if (b.rank() != 1)
+				shape[rank++] = columns;
+			shape = Arrays.copyOf(shape, rank);
+			return Kernels.one(NdArray.floats(shape, y));
+		};
+	}
+
+	private static void multiply(float[] a, int aOffset, boolean transposeA, NdArray b, int bOffset,
+			boolean transposeB, float[] y, int yOffset, int rows, int depth, int columns) {
+		if (b.isPacked())
+			multiply(a, aOffset, transposeA, b.packed(), bOffset, transposeB, y, yOffset, rows, depth, columns);
+		else
+			multiply(a, aOffset, transposeA, b.data(), bOffset, transposeB, y, yOffset, rows, depth, columns);
+	}
+
+	/**
+	 * Add the <code>rows x depth</code> by <code>depth x columns</code>
+	 * product into <code>y</code> a block of B at a time, in i-k-j order
+	 * within the block so that the innermost loop runs along contiguous rows
+	 * of B and Y for the JIT to vectorize. A transposed B is copied back to
+	 * rows first.
+	 */
+	static void multiply(float[] a, int aOffset, boolean transposeA, float[] b, int bOffset, boolean transposeB,
+			float[] y, int yOffset, int rows, int depth, int columns) {
+		if (transposeB) {
+			b = transpose(b, bOffset, columns, depth);
+			bOffset = 0;
+		}
+		for (int firstColumn = 0; firstColumn < columns; firstColumn += COLUMN_BLOCK) {
+			int endColumn = Math.min(columns, firstColumn + COLUMN_BLOCK);
+			for (int firstDepth = 0; firstDepth < depth; firstDepth += DEPTH_BLOCK) {
+				int endDepth = Math.min(depth, firstDepth + DEPTH_BLOCK);
+				for (int i = 0; i < rows; i++) {
+					int row = yOffset + i * columns;
+					for (int k = firstDepth; k < endDepth; k++) {
+						float aik = transposeA ? a[aOffset + k * rows + i] : a[aOffset + i * depth + k];
+						if (aik == 0)
+							continue;
+						int bRow = bOffset + k * columns;
+						for (int j = firstColumn; j < endColumn; j++)
+							y[row + j] += aik * b[bRow + j];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the <code>rows x columns</code> matrix at <code>offset</code>
+	 *         transposed, in a new array
+	 */
+	private static float[] transpose(float[] matrix, int offset, int rows, int columns) {
+		float[] transposed = new float[rows * columns];
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < columns; j++)
+				transposed[j * rows + i] = matrix[offset + i * columns + j];
+		}
+		return transposed;
+	}
+
+	/**
+	 * Add the product with packed weights into <code>y</code>, decoding every
+	 * row of B once: in k-i-j order for B as stored, in j-i-k order with a
+	 * dot product per value of Y for B transposed
+	 */
+	static void multiply(float[] a, int aOffset, boolean transposeA, PackedWeights b, int bOffset,
+			boolean transposeB, float[] y, int yOffset, int rows, int depth, int columns) {
+		if (transposeB) {
+			float[] bRow = new float[depth];
+			for (int j = 0; j < columns; j++) {
+				b.decode(bOffset + j * depth, depth, bRow, 0);
+				for (int i = 0; i < rows; i++) {
+					float sum = 0;
+					for (int k = 0; k < depth; k++)
+						sum += (transposeA ? a[aOffset + k * rows + i] : a[aOffset + i * depth + k]) * bRow[k];
+					y[yOffset + i * columns + j] += sum;
+				}
+			}
+			return;
+		}
+		float[] bRow = new float[columns];
+		for (int k = 0; k < depth; k++) {
+			b.decode(bOffset + k * columns, columns, bRow, 0);
+			for (int i = 0; i < rows; i++) {
+				float aik = transposeA ? a[aOffset + k * rows + i] : a[aOffset + i * depth + k];
+				if (aik == 0)
+					continue;
+				int row = yOffset + i * columns;
+				for (int j = 0; j < columns; j++)
+					y[row + j] += aik * bRow[j];
+			}
+		}
+	}
+
+}
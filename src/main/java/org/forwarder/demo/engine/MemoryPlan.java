@@ -0,0 +1,150 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the intermediates of an {@link ExecutionPlan} are written for given
+ * input shapes: every output a kernel allocates is assigned one of a few
+ * slabs, shared by intermediates that are never alive at the same time.
+ *
+ * A forward borrows a set of slabs for its whole duration and returns it
+ * when done, so concurrent forwards never share slabs and, once as many
+ * sets exist as forwards run at once, forwards allocate nothing but their
+ * outputs. Graph outputs are never planned, they are handed to the caller.
+ */
+public final class MemoryPlan {
+
+	private final ExecutionPlan plan;
+
+	private final Map<String, int[]> inputShapes;
+
+	/**
+	 * Slab of every output of every step, -1 for those not planned
+	 */
+	private final int[][] slabsByStep;
+
+	/**
+	 * Length of every slab in floats
+	 */
+	private final int[] slabSizes;
+
+	private final int plannedValues;
+
+	private final long naiveBytes;
+
+	private final long unplannedBytes;
+
+	private final ConcurrentLinkedQueue<float[][]> idleSlabs = new ConcurrentLinkedQueue<>();
+
+	private final LongAdder slabSets = new LongAdder();
+
+	MemoryPlan(ExecutionPlan plan, Map<String, int[]> inputShapes, int[][] slabsByStep, int[] slabSizes,
+			int plannedValues, long naiveBytes, long unplannedBytes) {
+		this.plan = plan;
+		this.inputShapes = inputShapes;
+		this.slabsByStep = slabsByStep;
+		this.slabSizes = slabSizes;
+		this.plannedValues = plannedValues;
+		this.naiveBytes = naiveBytes;
+		this.unplannedBytes = unplannedBytes;
+	}
+
+	/**
+	 * @return whether the inputs have the shapes this plan was made for
+	 */
+	public boolean fits(Map<String, NdArray> inputs) {
+		for (Map.Entry<String, int[]> shape : this.inputShapes.entrySet()) {
+			NdArray input = inputs.get(shape.getKey());
+			if (input == null || !Arrays.equals(shape.getValue(), input.shape()))
+				return false;
+		}
+		return true;
+	}
+
+	public int getSlabCount() {
+		return this.slabSizes.length;
+	}
+
+	public int getPlannedValues() {
+		return this.plannedValues;
+	}
+
+	/**
+	 * @return bytes of one set of slabs, the most memory the planned
+	 *         intermediates of a forward take
+	 */
+	public long getPlannedBytes() {
+		long bytes = 0;
+		for (int size : this.slabSizes)
+			bytes += (long) size * Float.BYTES;
+		return bytes;
+	}
+
+	/**
+	 * @return bytes the planned intermediates take when each gets an array
+	 *         of its own
+	 */
+	public long getNaiveBytes() {
+		return this.naiveBytes;
+	}
+
+	/**
+	 * @return bytes of the outputs allocated at every forward, graph outputs
+	 *         and the intermediates sharing their data
+	 */
+	public long getUnplannedBytes() {
+		return this.unplannedBytes;
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		Map<String, Object> shapes = new LinkedHashMap<>();
+		for (Map.Entry<String, int[]> shape : this.inputShapes.entrySet())
+			shapes.put(shape.getKey(), Arrays.toString(shape.getValue()));
+		stats.put("inputShapes", shapes);
+		stats.put("plannedValues", this.plannedValues);
+		stats.put("slabs", this.slabSizes.length);
+		stats.put("plannedBytes", this.getPlannedBytes());
+		stats.put("naiveBytes", this.naiveBytes);
+		stats.put("unplannedBytes", this.unplannedBytes);
+		stats.put("slabSets", this.slabSets.sum());
+		return stats;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s intermediates in %s slabs of %s bytes instead of %s bytes", this.plannedValues,
+				this.slabSizes.length, this.getPlannedBytes(), this.naiveBytes);
+	}
+
+	ExecutionPlan getPlan() {
+		return this.plan;
+	}
+
+	int[] getSlabs(int step) {
+		return this.slabsByStep[step];
+	}
+
+	float[][] acquire() {
+		float[][] slabs = this.idleSlabs.poll();
+		if (slabs == null) {
+			slabs = new float[this.slabSizes.length][];
+			for (int n = 0; n < slabs.length; n++)
+				slabs[n] = new float[this.slabSizes[n]];
+			this.slabSets.increment();
+		}
+		return slabs;
+	}
+
+	void release(float[][] slabs) {
+		this.idleSlabs.add(slabs);
+	}
+
+}
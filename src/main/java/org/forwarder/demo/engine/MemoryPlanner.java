@@ -0,0 +1,208 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forwarder.demo.engine.ExecutionPlan.Step;
+
+/**
+ * Makes the {@link MemoryPlan} of an {@link ExecutionPlan} for given input
+ * shapes.
+ *
+ * One forward of zeros records the size of every output kernels allocate
+ * and which outputs share the data of an input instead, e.g. reshapes,
+ * grouping values by the buffer holding them. Buffers are then assigned to
+ * slabs in topological order, best fit first, a slab being reused once
+ * every step reading its former buffer is an ancestor of the step writing
+ * the new one. Lifetimes follow the dependencies of the graph rather than one
+ * order of the steps, so the plan holds for any {@link GraphExecutor},
+ * however it interleaves independent steps.
+ */
+final class MemoryPlanner {
+
+	/**
+	 * The intermediates written to one allocated array
+	 */
+	private static final class Buffer {
+
+		final Step producer;
+
+		final int output;
+
+		final int size;
+
+		final List<Step> readers = new ArrayList<>();
+
+		boolean escapes;
+
+		Buffer(Step producer, int output, int size) {
+			this.producer = producer;
+			this.output = output;
+			this.size = size;
+		}
+
+	}
+
+	private static final class Slab {
+
+		final int index;
+
+		int size;
+
+		Buffer last;
+
+		Slab(int index) {
+			this.index = index;
+		}
+
+	}
+
+	private MemoryPlanner() {
+	}
+
+	static MemoryPlan plan(ExecutionPlan plan, Map<String, int[]> inputShapes) {
+		Step[] steps = plan.getSteps();
+		NdArray[] values = plan.newValues();
+		Map<String, int[]> shapes = new LinkedHashMap<>();
+		for (String name : plan.getInputNames()) {
+			int[] shape = inputShapes.get(name);
+			if (shape == null)
+				throw new IllegalArgumentException(String.format("Missing shape of input %s", name));
+			values[plan.getValueId(name)] = NdArray.zeros(shape.clone());
+			shapes.put(name, shape.clone());
+		}
+
+		Buffer[] buffers = new Buffer[values.length];
+		for (Step step : steps) {
+			float[][] allocated = new float[step.outputs.length][];
+			plan.run(step, values, (output, size) -> {
+				float[] data = new float[size];
+				if (output < allocated.length)
+					allocated[output] = data;
+				return data;
+			}, null);
+
+			for (int input : step.inputs) {
+				if (input >= 0 && buffers[input] != null && !buffers[input].readers.contains(step))
+					buffers[input].readers.add(step);
+			}
+			for (int n = 0; n < step.outputs.length; n++) {
+				int output = step.outputs[n];
+				if (output < 0 || values[output] == null || !values[output].isFloat())
+					continue;
+				float[] data = values[output].data();
+				if (data == allocated[n]) {
+					buffers[output] = new Buffer(step, n, data.length);
+					continue;
+				}
+				for (int input : step.inputs) {
+					if (input >= 0 && values[input] != null && values[input].isFloat()
+							&& values[input].data() == data) {
+						buffers[output] = buffers[input];
+						break;
+					}
+				}
+			}
+		}
+		for (String name : plan.getOutputNames()) {
+			Buffer buffer = buffers[plan.getValueId(name)];
+			if (buffer != null)
+				buffer.escapes = true;
+		}
+
+		// topological order of their producers, as the steps are sorted
+		List<Buffer> planned = new ArrayList<>();
+		long naiveBytes = 0;
+		long unplannedBytes = 0;
+		for (int id = 0; id < buffers.length; id++) {
+			Buffer buffer = buffers[id];
+			if (buffer == null || buffer.producer.outputs[buffer.output] != id)
+				continue;
+			if (buffer.escapes) {
+				unplannedBytes += (long) buffer.size * Float.BYTES;
+			} else {
+				planned.add(buffer);
+				naiveBytes += (long) buffer.size * Float.BYTES;
+			}
+		}
+		Collections.sort(planned, (a, b) -> Integer.compare(a.producer.index, b.producer.index));
+
+		BitSet[] ancestors = ancestors(steps);
+		List<Slab> slabs = new ArrayList<>();
+		int[][] slabsByStep = new int[steps.length][];
+		for (Step step : steps) {
+			slabsByStep[step.index] = new int[step.outputs.length];
+			Arrays.fill(slabsByStep[step.index], -1);
+		}
+		for (Buffer buffer : planned) {
+			Slab best = null;
+			for (Slab slab : slabs) {
+				if (!isDead(slab.last, buffer.producer, ancestors))
+					continue;
+				if (best == null || fitsBetter(slab, best, buffer.size))
+					best = slab;
+			}
+			if (best == null) {
+				best = new Slab(slabs.size());
+				slabs.add(best);
+			}
+			best.size = Math.max(best.size, buffer.size);
+			best.last = buffer;
+			slabsByStep[buffer.producer.index][buffer.output] = best.index;
+		}
+
+		int[] slabSizes = new int[slabs.size()];
+		for (Slab slab : slabs)
+			slabSizes[slab.index] = slab.size;
+		return new MemoryPlan(plan, shapes, slabsByStep, slabSizes, planned.size(), naiveBytes, unplannedBytes);
+	}
+
+	/**
+	 * @return whether a slab fits a buffer better than another: the smallest
+	 *         large enough, else the largest, to grow it the least
+	 */
+	private static boolean fitsBetter(Slab slab, Slab best, int size) {
+		if (slab.size >= size)
+			return best.size < size || slab.size < best.size;
+		return best.size < size && slab.size > best.size;
+	}
+
+	/**
+	 * @return whether every step touching the buffer is done before the step
+	 *         starts, whatever the order independent steps run in
+	 */
+	private static boolean isDead(Buffer buffer, Step step, BitSet[] ancestors) {
+		if (buffer.readers.isEmpty())
+			return ancestors[step.index].get(buffer.producer.index);
+		for (Step reader : buffer.readers) {
+			if (!ancestors[step.index].get(reader.index))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the steps every step transitively depends on, by step
+	 */
+	private static BitSet[] ancestors(Step[] steps) {
+		BitSet[] ancestors = new BitSet[steps.length];
+		for (int n = 0; n < steps.length; n++)
+			ancestors[n] = new BitSet(steps.length);
+		for (Step step : steps) {
+			for (int successor : step.successors) {
+				ancestors[successor].or(ancestors[step.index]);
+				ancestors[successor].set(step.index);
+			}
+		}
+		return ancestors;
+	}
+
+}
@@ -0,0 +1,224 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+/**
+ * A dense row-major tensor of the graph engine, holding either
+ * <code>float</code>s or, for shapes and indices, <code>long</code>s.
+ *
+ * The float data may be longer than the tensor when it lives in a buffer
+ * planned by a {@link MemoryPlan}: only the first {@link #size()} values
+ * belong to it. Weights of plans of a reduced {@link Precision} are packed
+ * instead, and only read by the kernels that decode them.
+ */
+public final class NdArray {
+
+	private final int[] shape;
+
+	private final int size;
+
+	private final float[] floats;
+
+	private final long[] longs;
+
+	private final PackedWeights packed;
+
+	private NdArray(int[] shape, float[] floats, long[] longs, PackedWeights packed) {
+		this.shape = shape;
+		this.size = size(shape);
+		this.floats = floats;
+		this.longs = longs;
+		this.packed = packed;
+	}
+
+	/**
+	 * @param data
+	 *            values, possibly followed by unused ones
+	 */
+	public static NdArray floats(int[] shape, float[] data) {
+		if (size(shape) > data.length)
+			throw new IllegalArgumentException(
+					String.format("%s values do not fit shape %s", data.length, Arrays.toString(shape)));
+		return new NdArray(shape, data, null, null);
+	}
+
+	public static NdArray zeros(int... shape) {
+		return new NdArray(shape, new float[size(shape)], null, null);
+	}
+
+	public static NdArray longs(int[] shape, long[] data) {
+		if (size(shape) != data.length)
+			throw new IllegalArgumentException(
+					String.format("%s values do not fit shape %s", data.length, Arrays.toString(shape)));
+		return new NdArray(shape, null, data, null);
+	}
+
+	static NdArray packed(int[] shape, PackedWeights data) {
+		if (size(shape) != data.size)
+			throw new IllegalArgumentException(
+					String.format("%s values do not fit shape %s", data.size, Arrays.toString(shape)));
+		return new NdArray(shape, null, null, data);
+	}
+
+	/**
+	 * Read a <code>FLOAT</code>, <code>INT64</code> or <code>INT32</code>
+	 * tensor, stored either as little-endian <code>raw_data</code> or in its
+	 * typed repeated field
+	 *
+	 * @throws UnsupportedOperationException
+	 *             for other data types
+	 */
+	public static NdArray of(TensorProto tensor) {
+		int[] shape = new int[tensor.getDimsCount()];
+		for (int n = 0; n < shape.length; n++)
+			shape[n] = Math.toIntExact(tensor.getDims(n));
+
+		boolean raw = !tensor.getRawData().isEmpty();
+		if (tensor.getDataType() == TensorProto.DataType.FLOAT.getNumber()) {
+			float[] data;
+			if (raw) {
+				FloatBuffer buffer = tensor.getRawData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN)
+						.asFloatBuffer();
+				data = new float[buffer.remaining()];
+				buffer.get(data);
+			} else {
+				data = new float[tensor.getFloatDataCount()];
+				for (int n = 0; n < data.length; n++)
+					data[n] = tensor.getFloatData(n);
+			}
+			return floats(shape, data);
+		}
+		if (tensor.getDataType() == TensorProto.DataType.INT64.getNumber()) {
+			long[] data;
+			if (raw) {
+				LongBuffer buffer = tensor.getRawData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN)
+						.asLongBuffer();
+				data = new long[buffer.remaining()];
+				buffer.get(data);
+			} else {
+				data = new long[tensor.getInt64DataCount()];
+				for (int n = 0; n < data.length; n++)
+					data[n] = tensor.getInt64Data(n);
+			}
+			return longs(shape, data);
+		}
+		if (tensor.getDataType() == TensorProto.DataType.INT32.getNumber()) {
+			long[] data;
+			if (raw) {
+				IntBuffer buffer = tensor.getRawData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN)
+						.asIntBuffer();
+				data = new long[buffer.remaining()];
+				for (int n = 0; n < data.length; n++)
+					data[n] = buffer.get(n);
+			} else {
+				data = new long[tensor.getInt32DataCount()];
+				for (int n = 0; n < data.length; n++)
+					data[n] = tensor.getInt32Data(n);
+			}
+			return longs(shape, data);
+		}
+		throw new UnsupportedOperationException(String.format("Tensor %s of data type %s is not supported",
+				tensor.getName(), TensorProto.DataType.forNumber(tensor.getDataType())));
+	}
+
+	public static int size(int[] shape) {
+		int size = 1;
+		for (int dim : shape)
+			size = Math.multiplyExact(size, dim);
+		return size;
+	}
+
+	/**
+	 * @return the shape, not to be modified
+	 */
+	public int[] shape() {
+		return this.shape;
+	}
+
+	public int rank() {
+		return this.shape.length;
+	}
+
+	public int dim(int axis) {
+		return this.shape[axis];
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isFloat() {
+		return this.floats != null;
+	}
+
+	public boolean isPacked() {
+		return this.packed != null;
+	}
+
+	/**
+	 * @return the data, not to be modified, possibly longer than
+	 *         {@link #size()}
+	 * @throws IllegalStateException
+	 *             if this tensor holds longs or packed weights
+	 */
+	public float[] data() {
+		if (this.floats == null)
+			throw new IllegalStateException(
+					this.packed != null ? "Packed weights used as floats" : "Tensor of longs used as floats");
+		return this.floats;
+	}
+
+	PackedWeights packed() {
+		return this.packed;
+	}
+
+	/**
+	 * @return bytes taken by the data of this tensor
+	 */
+	public long getByteLength() {
+		if (this.packed != null)
+			return this.packed.getByteLength();
+		return this.floats != null ? (long) this.size * Float.BYTES : (long) this.size * Long.BYTES;
+	}
+
+	/**
+	 * @return the data as longs, converting floats
+	 */
+	public long[] longData() {
+		if (this.longs != null)
+			return this.longs;
+		if (this.floats == null)
+			throw new IllegalStateException("Packed weights used as longs");
+		long[] longs = new long[this.size];
+		for (int n = 0; n < longs.length; n++)
+			longs[n] = (long) this.floats[n];
+		return longs;
+	}
+
+	/**
+	 * @return the same data under another shape of the same size
+	 */
+	public NdArray reshape(int... shape) {
+		if (size(shape) != this.size())
+			throw new IllegalArgumentException(String.format("Cannot reshape %s into %s",
+					Arrays.toString(this.shape), Arrays.toString(shape)));
+		return new NdArray(shape, this.floats, this.longs, this.packed);
+	}
+
+	@Override
+	public String toString() {
+		String type = this.floats != null ? "float"
+				: this.longs != null ? "long" : this.packed.getPrecision().name().toLowerCase();
+		return type + Arrays.toString(this.shape);
+	}
+
+}
@@ -0,0 +1,146 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forwarder.demo.engine.ExecutionPlan.Step;
+
+/**
+ * Wall time, heap allocations and output size of every node of an
+ * {@link ExecutionPlan}, recorded by {@link ExecutionPlan#run} for the
+ * forwards given this profile and summed up per node and per operator type.
+ *
+ * Allocations are those of the thread running the kernel, which is the one
+ * running the whole node under both executors, and are -1 when the JVM does
+ * not track them.
+ */
+public final class NodeProfile {
+
+	private final ExecutionPlan plan;
+
+	private final com.sun.management.ThreadMXBean allocations;
+
+	private final LongAdder[] runs;
+
+	private final LongAdder[] nanos;
+
+	private final LongAdder[] allocatedBytes;
+
+	private final LongAdder[] outputBytes;
+
+	public NodeProfile(ExecutionPlan plan) {
+		this.plan = plan;
+
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+			this.allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+		} else {
+			this.allocations = null;
+		}
+
+		int nodes = plan.getNodeCount();
+		this.runs = adders(nodes);
+		this.nanos = adders(nodes);
+		this.allocatedBytes = adders(nodes);
+		this.outputBytes = adders(nodes);
+	}
+
+	public ExecutionPlan getPlan() {
+		return this.plan;
+	}
+
+	/**
+	 * @return bytes allocated on the heap by the calling thread so far, or -1
+	 *         if the JVM does not track them
+	 */
+	long allocatedBytes() {
+		return this.allocations != null ? this.allocations.getThreadAllocatedBytes(Thread.currentThread().getId())
+				: -1;
+	}
+
+	void record(Step step, long nanos, long allocatedBytes, NdArray[] outputs) {
+		long outputBytes = 0;
+		for (NdArray output : outputs) {
+			if (output != null)
+				outputBytes += (long) output.size() * Float.BYTES;
+		}
+		this.runs[step.index].increment();
+		this.nanos[step.index].add(nanos);
+		if (allocatedBytes >= 0)
+			this.allocatedBytes[step.index].add(allocatedBytes);
+		this.outputBytes[step.index].add(outputBytes);
+	}
+
+	/**
+	 * @return totals per node in topological order, and per operator type
+	 *         from the slowest
+	 */
+	public Map<String, Object> stats() {
+		List<Map<String, Object>> nodes = new ArrayList<>();
+		Map<String, long[]> opTypes = new LinkedHashMap<>();
+		for (Step step : this.plan.getSteps()) {
+			long[] totals = { this.runs[step.index].sum(), this.nanos[step.index].sum(),
+					this.allocations != null ? this.allocatedBytes[step.index].sum() : -1,
+					this.outputBytes[step.index].sum() };
+			Map<String, Object> node = new LinkedHashMap<>();
+			node.put("node", step.toString());
+			node.putAll(toMap(totals));
+			nodes.add(node);
+
+			long[] opType = opTypes.computeIfAbsent(step.node.getOpType(), key -> new long[4]);
+			opType[0] += totals[0];
+			opType[1] += totals[1];
+			opType[2] = totals[2] < 0 ? -1 : opType[2] + totals[2];
+			opType[3] += totals[3];
+		}
+
+		Map<String, Object> byOpType = new LinkedHashMap<>();
+		opTypes.entrySet().stream().sorted((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]))
+				.forEach(opType -> byOpType.put(opType.getKey(), toMap(opType.getValue())));
+
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("allocationsTracked", this.allocations != null);
+		stats.put("opTypes", byOpType);
+		stats.put("nodes", nodes);
+		return stats;
+	}
+
+	public void reset() {
+		for (LongAdder[] adders : new LongAdder[][] { this.runs, this.nanos, this.allocatedBytes, this.outputBytes }) {
+			for (LongAdder adder : adders)
+				adder.reset();
+		}
+	}
+
+	/**
+	 * @param totals
+	 *            runs, nanoseconds, allocated bytes and output bytes
+	 */
+	private static Map<String, Object> toMap(long[] totals) {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("runs", totals[0]);
+		map.put("wallMicros", TimeUnit.NANOSECONDS.toMicros(totals[1]));
+		map.put("meanWallMicros", totals[0] > 0 ? totals[1] / 1000d / totals[0] : 0);
+		map.put("allocatedBytes", totals[2]);
+		map.put("outputBytes", totals[3]);
+		return map;
+	}
+
+	private static LongAdder[] adders(int count) {
+		LongAdder[] adders = new LongAdder[count];
+		for (int n = 0; n < count; n++)
+			adders[n] = new LongAdder();
+		return adders;
+	}
+
+}
@@ -0,0 +1,232 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+/**
+ * Weights kept in a reduced {@link Precision} and decoded to floats by the
+ * kernels reading them, a run at a time, so that they take half or a quarter
+ * of their <code>float</code> size for as long as the plan lives.
+ */
+abstract class PackedWeights {
+
+	/**
+	 * Number of values
+	 */
+	final int size;
+
+	PackedWeights(int size) {
+		this.size = size;
+	}
+
+	abstract Precision getPrecision();
+
+	abstract long getByteLength();
+
+	/**
+	 * Decode <code>length</code> values from <code>offset</code> on into
+	 * <code>target</code>
+	 */
+	abstract void decode(int offset, int length, float[] target, int targetOffset);
+
+	/**
+	 * Store values as IEEE 754 half-precision floats
+	 */
+	static PackedWeights half(float[] data, int size) {
+		short[] bits = new short[size];
+		for (int n = 0; n < size; n++)
+			bits[n] = toHalf(data[n]);
+		return new Half(bits);
+	}
+
+	/**
+	 * Quantize values to signed bytes, with a scale and zero point per
+	 * channel along an axis chosen from the <code>[min, max]</code> range of
+	 * the channel widened to hold zero, so that zero is represented exactly
+	 *
+	 * @param axis
+	 *            axis of the output channels
+	 */
+	static PackedWeights int8(float[] data, int[] shape, int axis) {
+		int channels = shape[axis];
+		int inner = 1;
+		for (int n = axis + 1; n < shape.length; n++)
+			inner *= shape[n];
+		int size = NdArray.size(shape);
+
+		float[] min = new float[channels];
+		float[] max = new float[channels];
+		for (int n = 0; n < size; n++) {
+			int channel = (n / inner) % channels;
+			min[channel] = Math.min(min[channel], data[n]);
+			max[channel] = Math.max(max[channel], data[n]);
+		}
+		float[] scales = new float[channels];
+		int[] zeroPoints = new int[channels];
+		for (int channel = 0; channel < channels; channel++) {
+			float scale = (max[channel] - min[channel]) / 255;
+			if (scale == 0 || !Float.isFinite(scale)) {
+				scales[channel] = 1;
+				continue;
+			}
+			scales[channel] = scale;
+			zeroPoints[channel] = clamp(Math.round(Byte.MIN_VALUE - min[channel] / scale));
+		}
+
+		byte[] values = new byte[size];
+		for (int n = 0; n < size; n++) {
+			int channel = (n / inner) % channels;
+			values[n] = (byte) clamp(Math.round(data[n] / scales[channel]) + zeroPoints[channel]);
+		}
+		return new Int8(values, scales, zeroPoints, inner);
+	}
+
+	/**
+	 * Round to the nearest half, ties to even, overflowing to infinity and
+	 * underflowing through the subnormals to zero
+	 */
+	static short toHalf(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = (bits >>> 23) & 0xff;
+		int mantissa = bits & 0x7fffff;
+		if (exponent == 0xff)
+			return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+
+		int halfExponent = exponent - 127 + 15;
+		if (halfExponent >= 0x1f)
+			return (short) (sign | 0x7c00);
+		if (halfExponent <= 0) {
+			if (halfExponent < -10)
+				return (short) sign;
+			mantissa |= 0x800000;
+			int shift = 14 - halfExponent;
+			int half = mantissa >> shift;
+			int remainder = mantissa & ((1 << shift) - 1);
+			int halfway = 1 << (shift - 1);
+			if (remainder > halfway || (remainder == halfway && (half & 1) != 0))
+				half++;
+			return (short) (sign | half);
+		}
+		// a carry out of the mantissa rightly increments the exponent
+		int half = (halfExponent << 10) | (mantissa >> 13);
+		int remainder = mantissa & 0x1fff;
+		if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0))
+			half++;
+		return (short) (sign | half);
+	}
+
+	static float toFloat(short half) {
+		int bits = half & 0xffff;
+		int sign = (bits & 0x8000) << 16;
+		int exponent = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+		if (exponent == 0x1f)
+			return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+		if (exponent == 0) {
+			// subnormal, in units of 2^-24
+			float value = mantissa * 0x1p-24f;
+			return sign != 0 ? -value : value;
+		}
+		return Float.intBitsToFloat(sign | ((exponent + 127 - 15) << 23) | (mantissa << 13));
+	}
+
+	private static int clamp(int value) {
+		return Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, value));
+	}
+
+	static final class Half extends PackedWeights {
+
+		/**
+		 * Floats of every half, looked up rather than converted in the inner
+		 * loops
+		 */
+		private static final float[] FLOATS = new float[1 << 16];
+
+		static {
+			for (int bits = 0; bits < FLOATS.length; bits++)
+				FLOATS[bits] = toFloat((short) bits);
+		}
+
+		private final short[] bits;
+
+		Half(short[] bits) {
+			super(bits.length);
+			this.bits = bits;
+		}
+
+		@Override
+		Precision getPrecision() {
+			return Precision.FP16;
+		}
+
+		@Override
+		long getByteLength() {
+			return (long) this.bits.length * Short.BYTES;
+		}
+
+		@Override
+		void decode(int offset, int length, float[] target, int targetOffset) {
+			for (int n = 0; n < length; n++)
+				target[targetOffset + n] = FLOATS[this.bits[offset + n] & 0xffff];
+		}
+
+	}
+
+	static final class Int8 extends PackedWeights {
+
+		private final byte[] values;
+
+		private final float[] scales;
+
+		private final int[] zeroPoints;
+
+		/**
+		 * Number of consecutive values of a channel
+		 */
+		private final int inner;
+
+		Int8(byte[] values, float[] scales, int[] zeroPoints, int inner) {
+			super(values.length);
+			this.values = values;
+			this.scales = scales;
+			this.zeroPoints = zeroPoints;
+			this.inner = inner;
+		}
+
+		@Override
+		Precision getPrecision() {
+			return Precision.INT8;
+		}
+
+		@Override
+		long getByteLength() {
+			return this.values.length + (long) this.scales.length * (Float.BYTES + Integer.BYTES);
+		}
+
+		/**
+		 * <code>(q - zeroPoint) * scale</code>, walking the channels rather
+		 * than dividing for every value
+		 */
+		@Override
+		void decode(int offset, int length, float[] target, int targetOffset) {
+			int channel = (offset / this.inner) % this.scales.length;
+			int left = this.inner - offset % this.inner;
+			for (int n = 0; n < length; n++) {
+				target[targetOffset + n] = (this.values[offset + n] - this.zeroPoints[channel])
+						* this.scales[channel];
+				if (--left == 0) {
+					left = this.inner;
+					if (++channel == this.scales.length)
+						channel = 0;
+				}
+			}
+		}
+
+		float getScale(int channel) {
+			return this.scales[channel];
+		}
+
+	}
+
+}
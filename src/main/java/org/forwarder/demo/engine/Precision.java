@@ -0,0 +1,29 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+/**
+ * Precision the weights of <code>Conv</code>, <code>Gemm</code> and
+ * <code>MatMul</code> nodes are kept in by an {@link ExecutionPlan}. Kernels
+ * still compute in <code>float</code>, decoding the weights as they read them.
+ */
+public enum Precision {
+
+	/**
+	 * Weights as the model stores them
+	 */
+	FP32,
+
+	/**
+	 * Weights rounded to IEEE 754 half-precision floats, halving them
+	 */
+	FP16,
+
+	/**
+	 * Weights quantized to signed bytes with a scale and zero point per
+	 * output channel, quartering them
+	 */
+	INT8
+
+}
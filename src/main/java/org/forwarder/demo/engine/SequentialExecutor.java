@@ -0,0 +1,20 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import org.forwarder.demo.engine.ExecutionPlan.Step;
+
+/**
+ * Runs the steps one after the other on the calling thread, in topological
+ * order
+ */
+public class SequentialExecutor implements GraphExecutor {
+
+	@Override
+	public void execute(ExecutionPlan plan, Frame frame) {
+		for (Step step : plan.getSteps())
+			plan.run(step, frame);
+	}
+
+}
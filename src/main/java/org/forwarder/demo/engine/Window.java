@@ -0,0 +1,98 @@
+/**
+ *
+ */
+package org.forwarder.demo.engine;
+
+import java.util.Arrays;
+
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+
+/**
+ * Geometry of a 2-D sliding window over an NCHW input, shared by
+ * convolutions and pools: strides, dilations and the padding given
+ * explicitly or by <code>auto_pad</code>
+ */
+final class Window {
+
+	final int kernelHeight;
+
+	final int kernelWidth;
+
+	final int strideHeight;
+
+	final int strideWidth;
+
+	final int dilationHeight;
+
+	final int dilationWidth;
+
+	final int padTop;
+
+	final int padLeft;
+
+	final int outputHeight;
+
+	final int outputWidth;
+
+	private Window(int[] kernel, int[] strides, int[] dilations, int[] padBegin, int[] outputs) {
+		this.kernelHeight = kernel[0];
+		this.kernelWidth = kernel[1];
+		this.strideHeight = strides[0];
+		this.strideWidth = strides[1];
+		this.dilationHeight = dilations[0];
+		this.dilationWidth = dilations[1];
+		this.padTop = padBegin[0];
+		this.padLeft = padBegin[1];
+		this.outputHeight = outputs[0];
+		this.outputWidth = outputs[1];
+	}
+
+	/**
+	 * @param kernel
+	 *            height and width of the window
+	 * @throws UnsupportedOperationException
+	 *             if the input is not 2-D spatial
+	 */
+	static Window of(NodeProto node, int[] inputShape, int[] kernel) {
+		if (inputShape.length != 4 || kernel.length != 2)
+			throw new UnsupportedOperationException(String.format("%s only supports 2-D NCHW inputs, not %s",
+					node.getOpType(), Arrays.toString(inputShape)));
+
+		int[] strides = Attributes.ints(node, "strides", new int[] { 1, 1 });
+		int[] dilations = Attributes.ints(node, "dilations", new int[] { 1, 1 });
+		int[] pads = Attributes.ints(node, "pads", new int[] { 0, 0, 0, 0 });
+		String autoPad = Attributes.string(node, "auto_pad", "NOTSET");
+		boolean ceil = Attributes.intValue(node, "ceil_mode", 0) != 0;
+
+		int[] padBegin = new int[2];
+		int[] outputs = new int[2];
+		for (int axis = 0; axis < 2; axis++) {
+			int input = inputShape[axis + 2];
+			int extent = (kernel[axis] - 1) * dilations[axis] + 1;
+			switch (autoPad) {
+			case "SAME_UPPER":
+			case "SAME_LOWER":
+				outputs[axis] = (input + strides[axis] - 1) / strides[axis];
+				int padding = Math.max(0, (outputs[axis] - 1) * strides[axis] + extent - input);
+				padBegin[axis] = "SAME_UPPER".equals(autoPad) ? padding / 2 : padding - padding / 2;
+				break;
+			case "VALID":
+				outputs[axis] = (input - extent + strides[axis]) / strides[axis];
+				break;
+			case "NOTSET":
+			case "":
+				int padded = input + pads[axis] + pads[axis + 2] - extent;
+				outputs[axis] = (ceil ? (padded + strides[axis] - 1) / strides[axis] : padded / strides[axis]) + 1;
+				padBegin[axis] = pads[axis];
+				break;
+			default:
+				throw new UnsupportedOperationException(String.format("auto_pad %s is not supported", autoPad));
+			}
+			if (outputs[axis] <= 0)
+				throw new IllegalArgumentException(String.format("%s window %s does not fit input %s",
+						node.getOpType(), Arrays.toString(kernel), Arrays.toString(inputShape)));
+		}
+		return new Window(kernel, strides, dilations, padBegin, outputs);
+	}
+
+}
@@ -0,0 +1,169 @@
+/**
+ *
+ */
+package org.forwarder.demo.inference;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forwarder.demo.configurations.InferenceProperties;
+import org.forwarder.demo.metrics.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One bounded thread pool per backend that inference runs on, so that request
+ * threads are handed back to the servlet container while a forward is in
+ * flight.
+ *
+ * Each pool has a fixed number of threads and a bounded queue. A request
+ * arriving at a full queue is rejected straight away instead of waiting,
+ * which keeps the latency of accepted requests bounded during bursts. Pools
+ * are only started for the backends of <code>forwarder.inference.backends</code>,
+ * so that clients cannot start threads at will.
+ */
+public class InferenceExecutors implements AutoCloseable {
+
+	private static Logger logger = LoggerFactory.getLogger(InferenceExecutors.class);
+
+	private final InferenceProperties properties;
+
+	private final Set<String> backends;
+
+	private final ConcurrentMap<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+
+	private final Histogram queueWaits = new Histogram("us");
+
+	private final LongAdder rejected = new LongAdder();
+
+	private final LongAdder timeouts = new LongAdder();
+
+	private volatile boolean closed;
+
+	public InferenceExecutors(InferenceProperties properties) {
+		this.properties = properties;
+		this.backends = new HashSet<>(properties.getBackends());
+	}
+
+	public InferenceProperties getProperties() {
+		return this.properties;
+	}
+
+	/**
+	 * Run a task on the pool of a backend
+	 *
+	 * @param backendName
+	 *            name of the backend the task forwards on
+	 * @param task
+	 *            the inference to run
+	 * @return result of the task. Cancelling it interrupts the task if it is
+	 *         already running.
+	 * @throws RejectedExecutionException
+	 *             if the queue of the backend is full
+	 * @throws IllegalArgumentException
+	 *             if the backend is not a supported one
+	 */
+	public <T> CompletableFuture<T> submit(String backendName, Callable<T> task) {
+		long queuedAt = System.nanoTime();
+		CompletableFuture<T> result = new CompletableFuture<>();
+		Future<?> execution;
+		try {
+			execution = this.executor(backendName).submit(() -> {
+				this.queueWaits.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - queuedAt));
+				if (result.isDone())
+					return;
+				try {
+					result.complete(task.call());
+				} catch (Throwable e) {
+					result.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			this.rejected.increment();
+			throw new RejectedExecutionException(
+					String.format("Inference queue of backend \"%s\" is full", backendName), e);
+		}
+		result.whenComplete((value, e) -> {
+			if (result.isCancelled())
+				execution.cancel(true);
+		});
+		return result;
+	}
+
+	/**
+	 * Count a request given up by its caller
+	 */
+	public void timedOut() {
+		this.timeouts.increment();
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("rejected", this.rejected.sum());
+		stats.put("timeouts", this.timeouts.sum());
+		stats.put("queueWait", this.queueWaits.toMap());
+
+		Map<String, Object> backends = new LinkedHashMap<>();
+		for (Map.Entry<String, ThreadPoolExecutor> entry : this.executors.entrySet()) {
+			ThreadPoolExecutor executor = entry.getValue();
+			Map<String, Object> backend = new LinkedHashMap<>();
+			backend.put("threads", executor.getMaximumPoolSize());
+			backend.put("active", executor.getActiveCount());
+			backend.put("queued", executor.getQueue().size());
+			backend.put("completed", executor.getCompletedTaskCount());
+			backends.put(entry.getKey(), backend);
+		}
+		stats.put("backends", backends);
+		return stats;
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+		for (ThreadPoolExecutor executor : this.executors.values())
+			executor.shutdownNow();
+		this.executors.clear();
+	}
+
+	private ThreadPoolExecutor executor(String backendName) {
+		if (this.closed)
+			throw new RejectedExecutionException("Inference executors are closed");
+		if (!this.backends.contains(backendName))
+			throw new IllegalArgumentException(String.format("Unknown backend \"%s\"", backendName));
+
+		ThreadPoolExecutor executor = this.executors.get(backendName);
+		if (executor == null) {
+			synchronized (this.executors) {
+				executor = this.executors.get(backendName);
+				if (executor == null) {
+					int threads = this.properties.threadsOf(backendName);
+					AtomicInteger threadCount = new AtomicInteger();
+					executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+							new ArrayBlockingQueue<>(Math.max(1, this.properties.getQueueCapacity())), runnable -> {
+								Thread thread = new Thread(runnable,
+										"inference-" + backendName + "-" + threadCount.incrementAndGet());
+								thread.setDaemon(true);
+								return thread;
+							}, new ThreadPoolExecutor.AbortPolicy());
+					this.executors.put(backendName, executor);
+					logger.info("Started inference executor of backend {} with {} threads", backendName, threads);
+				}
+			}
+		}
+		return executor;
+	}
+
+}
@@ -0,0 +1,147 @@
+/**
+ * 
+ */
+package org.forwarder.demo.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters of the requests for one model with one executor on one backend,
+ * registered once and then only recorded into. Every stage method takes the
+ * time the stage started at and returns the time it ended at, so that a
+ * request times its stages back to back with one clock read each:
+ * 
+ * <pre>
+ * long startedAt = meters.start();
+ * long decodedAt = meters.decoded(startedAt);
+ * long preprocessedAt = meters.preprocessed(decodedAt);
+ * ...
+ * meters.finish();
+ * </pre>
+ * 
+ * None of the recording methods allocate, error counters are created once
+ * per exception type.
+ */
+public class ForwardMeters {
+
+	private final MeterRegistry registry;
+
+	private final String[] tags;
+
+	private final Counter requests;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final Timer decode;
+
+	private final Timer preprocess;
+
+	private final Timer forward;
+
+	private final Timer serialize;
+
+	private final Timer sessionCreation;
+
+	private final DistributionSummary inputBytes;
+
+	private final DistributionSummary outputBytes;
+
+	private final ConcurrentMap<Class<?>, Counter> errors = new ConcurrentHashMap<>();
+
+	ForwardMeters(MeterRegistry registry, String model, String executor, String backend, boolean histograms) {
+		this.registry = registry;
+		this.tags = new String[] { "model", model, "executor", executor, "backend", backend };
+		this.requests = Counter.builder("forwarder.requests").description("Inference requests received")
+				.tags(this.tags).register(registry);
+		Gauge.builder("forwarder.requests.in.flight", this.inFlight, AtomicInteger::get)
+				.description("Inference requests being served").tags(this.tags).register(registry);
+		this.decode = timer("forwarder.decode", "Decoding of request bodies", histograms);
+		this.preprocess = timer("forwarder.preprocess", "Preprocessing of decoded inputs into tensors", histograms);
+		this.forward = timer("forwarder.forward", "Forwards, including session and batch waits", histograms);
+		this.serialize = timer("forwarder.serialize", "Serialization of outputs", histograms);
+		this.sessionCreation = timer("forwarder.session.creation", "Sessions opened on the backend", histograms);
+		this.inputBytes = summary("forwarder.tensor.bytes", "input");
+		this.outputBytes = summary("forwarder.tensor.bytes", "output");
+	}
+
+	/**
+	 * Count a request in
+	 * 
+	 * @return the time the request started at
+	 */
+	public long start() {
+		this.requests.increment();
+		this.inFlight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Count a request out, whether it succeeded or not
+	 */
+	public void finish() {
+		this.inFlight.decrementAndGet();
+	}
+
+	public long decoded(long startedAt) {
+		return record(this.decode, startedAt);
+	}
+
+	public long preprocessed(long startedAt) {
+		return record(this.preprocess, startedAt);
+	}
+
+	public long forwarded(long startedAt) {
+		return record(this.forward, startedAt);
+	}
+
+	public long serialized(long startedAt) {
+		return record(this.serialize, startedAt);
+	}
+
+	public void sessionCreated(long nanos) {
+		this.sessionCreation.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void tensorBytes(long input, long output) {
+		this.inputBytes.record(input);
+		this.outputBytes.record(output);
+	}
+
+	public void error(Throwable e) {
+		Counter counter = this.errors.get(e.getClass());
+		if (counter == null) {
+			counter = this.errors.computeIfAbsent(e.getClass(),
+					type -> Counter.builder("forwarder.errors").description("Failed inference requests")
+							.tags(this.tags).tags("type", type.getSimpleName()).register(this.registry));
+		}
+		counter.increment();
+	}
+
+	private Timer timer(String name, String description, boolean histograms) {
+		Timer.Builder builder = Timer.builder(name).description(description).tags(this.tags);
+		if (histograms)
+			builder.publishPercentileHistogram();
+		return builder.register(this.registry);
+	}
+
+	private DistributionSummary summary(String name, String direction) {
+		return DistributionSummary.builder(name).description("Bytes of the tensors fed and fetched")
+				.baseUnit("bytes").tags(this.tags).tags("direction", direction).register(this.registry);
+	}
+
+	private static long record(Timer timer, long startedAt) {
+		long now = System.nanoTime();
+		timer.record(now - startedAt, TimeUnit.NANOSECONDS);
+		return now;
+	}
+
+}
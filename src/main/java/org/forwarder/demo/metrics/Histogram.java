@@ -0,0 +1,114 @@
+/**
+ * 
+ */
+package org.forwarder.demo.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram with power-of-two buckets. Bucket <code>n</code> counts
+ * values in <code>[2^(n-1), 2^n)</code>, bucket 0 counts zero, so recording is
+ * a couple of atomic adds and never allocates.
+ * 
+ * Percentiles are reported as the upper bound of the bucket they fall into,
+ * which is precise enough for latency and batch-size distributions.
+ */
+public class Histogram {
+
+	private static final int BUCKETS = 64;
+
+	private final String unit;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private final AtomicLong max = new AtomicLong();
+
+	public Histogram(String unit) {
+		this.unit = unit;
+	}
+
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+
+		this.buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+		this.count.increment();
+		this.sum.add(value);
+
+		long currentMax;
+		while (value > (currentMax = this.max.get())) {
+			if (this.max.compareAndSet(currentMax, value))
+				break;
+		}
+	}
+
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	public long getMax() {
+		return this.max.get();
+	}
+
+	public double getMean() {
+		long n = this.count.sum();
+		return n == 0 ? 0d : ((double) this.sum.sum()) / n;
+	}
+
+	/**
+	 * @param quantile
+	 *            value in <code>(0, 1]</code>
+	 * @return upper bound of the bucket holding the requested quantile
+	 */
+	public long getPercentile(double quantile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int n = 0; n < BUCKETS; n++) {
+			snapshot[n] = this.buckets.get(n);
+			total += snapshot[n];
+		}
+		if (total == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(quantile * total);
+		long seen = 0;
+		for (int n = 0; n < BUCKETS; n++) {
+			seen += snapshot[n];
+			if (seen >= rank)
+				return Math.min(n == 0 ? 0 : (1L << n) - 1, this.max.get());
+		}
+		return this.max.get();
+	}
+
+	/**
+	 * @return a JSON friendly view of this histogram
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> view = new LinkedHashMap<>();
+		view.put("unit", this.unit);
+		view.put("count", this.getCount());
+		view.put("mean", this.getMean());
+		view.put("p50", this.getPercentile(0.50));
+		view.put("p90", this.getPercentile(0.90));
+		view.put("p99", this.getPercentile(0.99));
+		view.put("max", this.getMax());
+
+		Map<String, Long> distribution = new LinkedHashMap<>();
+		for (int n = 0; n < BUCKETS; n++) {
+			long bucketCount = this.buckets.get(n);
+			if (bucketCount > 0)
+				distribution.put("<=" + (n == 0 ? 0 : (1L << n) - 1), bucketCount);
+		}
+		view.put("buckets", distribution);
+		return view;
+	}
+
+}
@@ -0,0 +1,74 @@
+/**
+ * 
+ */
+package org.forwarder.demo.metrics;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.forwarder.demo.configurations.MetricsProperties;
+import org.forwarder.demo.registry.ModelKey;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Hands out the {@link ForwardMeters} of each model, executor and backend,
+ * registered on the Micrometer registry that Spring Boot exposes at
+ * <code>/actuator/prometheus</code>.
+ * 
+ * Meters are looked up by {@link ModelKey} and backend name through two
+ * hash lookups, so getting them on the request path allocates nothing once
+ * they exist. Backends not listed in <code>forwarder.metrics.backends</code>
+ * all share the "other" tag.
+ */
+public class InferenceMetrics {
+
+	private static final String OTHER = "other";
+
+	private final MeterRegistry registry;
+
+	private final Set<String> backends;
+
+	private final boolean histograms;
+
+	private final ConcurrentMap<ModelKey, ConcurrentMap<String, ForwardMeters>> meters = new ConcurrentHashMap<>();
+
+	public InferenceMetrics(MeterRegistry registry, MetricsProperties properties) {
+		this.registry = registry;
+		this.backends = new HashSet<>(properties.getBackends());
+		this.histograms = properties.isPercentileHistograms();
+	}
+
+	/**
+	 * @return metrics kept in memory only, e.g. for tests
+	 */
+	public static InferenceMetrics local() {
+		return new InferenceMetrics(new SimpleMeterRegistry(), new MetricsProperties());
+	}
+
+	public MeterRegistry getRegistry() {
+		return this.registry;
+	}
+
+	/**
+	 * @param executor
+	 *            executor of the model, only read when its meters are created
+	 * @return meters of a model on a backend, created on first use
+	 */
+	public ForwardMeters meters(ModelKey key, String executor, String backend) {
+		ConcurrentMap<String, ForwardMeters> byBackend = this.meters.get(key);
+		if (byBackend == null)
+			byBackend = this.meters.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+
+		String tag = this.backends.contains(backend) ? backend : OTHER;
+		ForwardMeters forwardMeters = byBackend.get(tag);
+		if (forwardMeters == null)
+			forwardMeters = byBackend.computeIfAbsent(tag,
+					b -> new ForwardMeters(this.registry, key.toString(), executor, b, this.histograms));
+		return forwardMeters;
+	}
+
+}
@@ -0,0 +1,164 @@
+/**
+ *
+ */
+package org.forwarder.demo.optimizer;
+
+import java.util.Arrays;
+
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+/**
+ * Computes ahead of time the nodes whose inputs are all constants, turning
+ * their outputs into initializers: <code>Constant</code> itself and the
+ * shape-only <code>Identity</code>, <code>Reshape</code>,
+ * <code>Flatten</code>, <code>Squeeze</code> and <code>Unsqueeze</code>,
+ * which keep the data of their input and only change its dimensions. The
+ * weight reshapes exported models carry, e.g. the
+ * <code>Parameter193_reshape1</code> of MNIST, are folded this way.
+ */
+class ConstantFolding implements GraphPass {
+
+	@Override
+	public String getName() {
+		return "constantFolding";
+	}
+
+	@Override
+	public int apply(GraphEditor graph) {
+		int folded = 0;
+		for (NodeProto node : graph.getNodes()) {
+			if (node.getOutputCount() != 1 || graph.isGraphOutput(node.getOutput(0)))
+				continue;
+
+			TensorProto value = this.fold(graph, node);
+			if (value != null) {
+				graph.addInitializer(value);
+				graph.removeNode(node);
+				folded++;
+			}
+		}
+		return folded;
+	}
+
+	/**
+	 * @return the output of the node, or null if it cannot be computed now
+	 */
+	private TensorProto fold(GraphEditor graph, NodeProto node) {
+		String output = node.getOutput(0);
+		if (GraphEditor.CONSTANT.equals(node.getOpType()))
+			return graph.getConstant(output);
+		if (node.getInputCount() == 0)
+			return null;
+
+		TensorProto input = graph.getConstant(node.getInput(0));
+		if (input == null)
+			return null;
+		long[] dims = Tensors.dims(input);
+		long[] folded;
+		switch (node.getOpType()) {
+		case "Identity":
+			folded = dims;
+			break;
+		case "Reshape":
+			folded = reshape(dims, graph.reshapeTarget(node));
+			break;
+		case "Flatten":
+			folded = flatten(dims, (int) GraphEditor.intValue(node, "axis", 1));
+			break;
+		case "Squeeze":
+			folded = graph.getOpset() < 13 ? squeeze(dims, GraphEditor.ints(node, "axes")) : null;
+			break;
+		case "Unsqueeze":
+			folded = graph.getOpset() < 13 ? unsqueeze(dims, GraphEditor.ints(node, "axes")) : null;
+			break;
+		default:
+			folded = null;
+		}
+		return folded == null ? null : Tensors.reshaped(input, output, folded);
+	}
+
+	/**
+	 * @return the dimensions a <code>Reshape</code> to <code>target</code>
+	 *         produces, resolving 0 (copy) and -1 (infer), or null if invalid
+	 */
+	static long[] reshape(long[] dims, long[] target) {
+		if (target == null)
+			return null;
+		long[] shape = target.clone();
+		int inferred = -1;
+		long known = 1;
+		for (int n = 0; n < shape.length; n++) {
+			if (shape[n] == 0) {
+				if (n >= dims.length)
+					return null;
+				shape[n] = dims[n];
+			}
+			if (shape[n] == -1) {
+				if (inferred >= 0)
+					return null;
+				inferred = n;
+			} else if (shape[n] < 0) {
+				return null;
+			} else {
+				known *= shape[n];
+			}
+		}
+		long count = Tensors.count(dims);
+		if (inferred >= 0) {
+			if (known == 0 || count % known != 0)
+				return null;
+			shape[inferred] = count / known;
+		}
+		return Tensors.count(shape) == count ? shape : null;
+	}
+
+	private static long[] flatten(long[] dims, int axis) {
+		if (axis < 0)
+			axis += dims.length;
+		if (axis < 0 || axis > dims.length)
+			return null;
+		return new long[] { Tensors.count(Arrays.copyOfRange(dims, 0, axis)),
+				Tensors.count(Arrays.copyOfRange(dims, axis, dims.length)) };
+	}
+
+	private static long[] squeeze(long[] dims, long[] axes) {
+		boolean[] squeezed = new boolean[dims.length];
+		if (axes == null || axes.length == 0) {
+			for (int n = 0; n < dims.length; n++)
+				squeezed[n] = dims[n] == 1;
+		} else {
+			for (long axis : axes) {
+				int index = (int) (axis < 0 ? axis + dims.length : axis);
+				if (index < 0 || index >= dims.length || dims[index] != 1)
+					return null;
+				squeezed[index] = true;
+			}
+		}
+		long[] shape = new long[dims.length];
+		int rank = 0;
+		for (int n = 0; n < dims.length; n++) {
+			if (!squeezed[n])
+				shape[rank++] = dims[n];
+		}
+		return Arrays.copyOf(shape, rank);
+	}
+
+	private static long[] unsqueeze(long[] dims, long[] axes) {
+		if (axes == null || axes.length == 0)
+			return null;
+		int rank = dims.length + axes.length;
+		boolean[] inserted = new boolean[rank];
+		for (long axis : axes) {
+			int index = (int) (axis < 0 ? axis + rank : axis);
+			if (index < 0 || index >= rank || inserted[index])
+				return null;
+			inserted[index] = true;
+		}
+		long[] shape = new long[rank];
+		for (int n = 0, source = 0; n < rank; n++)
+			shape[n] = inserted[n] ? 1 : dims[source++];
+		return shape;
+	}
+
+}
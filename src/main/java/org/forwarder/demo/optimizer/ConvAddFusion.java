@@ -0,0 +1,106 @@
+/**
+ *
+ */
+package org.forwarder.demo.optimizer;
+
+import java.util.List;
+
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+/**
+ * Folds a constant per-channel <code>Add</code> after a <code>Conv</code>
+ * into the bias input of the convolution, as in the
+ * <code>Convolution28_Output_0 + Parameter6</code> of MNIST. The bias must
+ * hold one value per output channel, broadcast over the spatial dimensions:
+ * <code>[M, 1, 1]</code> with numpy broadcasting since opset 7,
+ * <code>[M]</code> with <code>broadcast=1, axis=1</code> before.
+ */
+class ConvAddFusion implements GraphPass {
+
+	@Override
+	public String getName() {
+		return "fuseConvAdd";
+	}
+
+	@Override
+	public int apply(GraphEditor graph) {
+		int fused = 0;
+		while (this.fuseOne(graph))
+			fused++;
+		return fused;
+	}
+
+	private boolean fuseOne(GraphEditor graph) {
+		for (NodeProto conv : graph.getNodes()) {
+			if (!"Conv".equals(conv.getOpType()) || conv.getInputCount() < 2)
+				continue;
+			TensorProto weights = graph.getConstant(conv.getInput(1));
+			String output = conv.getOutput(0);
+			List<NodeProto> consumers = graph.consumers(output);
+			if (!Tensors.isFloat(weights) || weights.getDimsCount() < 3 || consumers.size() != 1
+					|| !graph.isOnlyConsumer(output, consumers.get(0)))
+				continue;
+			NodeProto add = consumers.get(0);
+			if (!"Add".equals(add.getOpType()) || add.getInputCount() != 2)
+				continue;
+
+			boolean convFirst = output.equals(add.getInput(0));
+			// before opset 7 only the second input broadcasts
+			if (!convFirst && graph.getOpset() < 7)
+				continue;
+			TensorProto addend = graph.getConstant(add.getInput(convFirst ? 1 : 0));
+			int channels = (int) weights.getDims(0);
+			if (!Tensors.isFloat(addend) || !isPerChannel(graph, add, Tensors.dims(addend), channels,
+					weights.getDimsCount()))
+				continue;
+
+			float[] bias = Tensors.floats(addend);
+			if (conv.getInputCount() > 2) {
+				TensorProto existing = graph.getConstant(conv.getInput(2));
+				if (!Tensors.isFloat(existing) || existing.getDimsCount() != 1 || existing.getDims(0) != channels)
+					continue;
+				float[] existingBias = Tensors.floats(existing);
+				for (int n = 0; n < channels; n++)
+					bias[n] += existingBias[n];
+			}
+
+			String biasName = graph.uniqueName(add.getOutput(0) + "_bias");
+			graph.addInitializer(Tensors.floatTensor(biasName, new long[] { channels }, bias));
+			NodeProto.Builder fused = conv.toBuilder().setOutput(0, add.getOutput(0));
+			if (conv.getInputCount() > 2)
+				fused.setInput(2, biasName);
+			else
+				fused.addInput(biasName);
+			graph.replaceNode(conv, fused.build());
+			graph.removeNode(add);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param rank
+	 *            rank of the convolution output, which is that of its weights
+	 */
+	private static boolean isPerChannel(GraphEditor graph, NodeProto add, long[] dims, int channels, int rank) {
+		if (Tensors.count(dims) != channels)
+			return false;
+		if (graph.getOpset() < 7) {
+			if (GraphEditor.intValue(add, "broadcast", 0) != 1 || GraphEditor.intValue(add, "axis", -1) != 1)
+				return false;
+			// legacy broadcasting matches the dimensions from axis on exactly
+			return dims.length == 1;
+		}
+		// numpy broadcasting aligns the trailing dimensions: [M, 1, 1] or [1, M, 1, 1]
+		if (dims.length != rank - 1 && dims.length != rank)
+			return false;
+		int channelAxis = dims.length - (rank - 1);
+		for (int n = 0; n < dims.length; n++) {
+			if (n != channelAxis && dims[n] != 1)
+				return false;
+		}
+		return dims[channelAxis] == channels;
+	}
+
+}
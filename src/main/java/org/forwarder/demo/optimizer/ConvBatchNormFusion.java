@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package org.forwarder.demo.optimizer;
+
+import java.util.List;
+
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+/**
+ * Folds an inference <code>BatchNormalization</code> after a
+ * <code>Conv</code> into the weights and bias of the convolution:
+ * <code>W' = W * s</code> and <code>b' = (b - mean) * s + B</code> per output
+ * channel, where <code>s = scale / sqrt(var + epsilon)</code>.
+ */
+class ConvBatchNormFusion implements GraphPass {
+
+	@Override
+	public String getName() {
+		return "fuseConvBatchNorm";
+	}
+
+	@Override
+	public int apply(GraphEditor graph) {
+		int fused = 0;
+		while (this.fuseOne(graph))
+			fused++;
+		return fused;
+	}
+
+	private boolean fuseOne(GraphEditor graph) {
+		for (NodeProto conv : graph.getNodes()) {
+			if (!"Conv".equals(conv.getOpType()) || conv.getInputCount() < 2)
+				continue;
+			TensorProto weights = graph.getConstant(conv.getInput(1));
+			String output = conv.getOutput(0);
+			List<NodeProto> consumers = graph.consumers(output);
+			if (!Tensors.isFloat(weights) || weights.getDimsCount() < 3 || consumers.size() != 1
+					|| !graph.isOnlyConsumer(output, consumers.get(0)))
+				continue;
+			NodeProto batchNorm = consumers.get(0);
+			if (!this.isInference(graph, batchNorm))
+				continue;
+
+			int channels = (int) weights.getDims(0);
+			float[] scale = this.parameter(graph, batchNorm.getInput(1), channels);
+			float[] shift = this.parameter(graph, batchNorm.getInput(2), channels);
+			float[] mean = this.parameter(graph, batchNorm.getInput(3), channels);
+			float[] variance = this.parameter(graph, batchNorm.getInput(4), channels);
+			float[] bias = conv.getInputCount() > 2 ? this.parameter(graph, conv.getInput(2), channels)
+					: new float[channels];
+			if (scale == null || shift == null || mean == null || variance == null || bias == null)
+				continue;
+
+			float epsilon = GraphEditor.floatValue(batchNorm, "epsilon", 1e-5f);
+			float[] kernel = Tensors.floats(weights);
+			int kernelSize = kernel.length / channels;
+			for (int channel = 0; channel < channels; channel++) {
+				float factor = (float) (scale[channel] / Math.sqrt(variance[channel] + epsilon));
+				for (int n = channel * kernelSize; n < (channel + 1) * kernelSize; n++)
+					kernel[n] *= factor;
+				bias[channel] = (bias[channel] - mean[channel]) * factor + shift[channel];
+			}
+
+			String weightsName = graph.uniqueName(conv.getInput(1) + "_bn");
+			String biasName = graph.uniqueName(batchNorm.getOutput(0) + "_bias");
+			graph.addInitializer(Tensors.floatTensor(weightsName, Tensors.dims(weights), kernel));
+			graph.addInitializer(Tensors.floatTensor(biasName, new long[] { channels }, bias));
+			NodeProto.Builder fused = conv.toBuilder().setInput(1, weightsName).setOutput(0, batchNorm.getOutput(0));
+			if (conv.getInputCount() > 2)
+				fused.setInput(2, biasName);
+			else
+				fused.addInput(biasName);
+			graph.replaceNode(conv, fused.build());
+			graph.removeNode(batchNorm);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return whether the node normalizes with its running statistics and only
+	 *         its first output is read
+	 */
+	private boolean isInference(GraphEditor graph, NodeProto batchNorm) {
+		if (!"BatchNormalization".equals(batchNorm.getOpType()) || batchNorm.getInputCount() != 5)
+			return false;
+		for (int n = 1; n < batchNorm.getOutputCount(); n++) {
+			String output = batchNorm.getOutput(n);
+			if (!output.isEmpty() && (graph.isGraphOutput(output) || !graph.consumers(output).isEmpty()))
+				return false;
+		}
+		if (graph.getOpset() < 7 && GraphEditor.intValue(batchNorm, "is_test", 0) != 1)
+			return false;
+		return graph.getOpset() >= 9 || GraphEditor.intValue(batchNorm, "spatial", 1) == 1;
+	}
+
+	/**
+	 * @return the per-channel values of a constant, or null
+	 */
+	private float[] parameter(GraphEditor graph, String name, int channels) {
+		TensorProto tensor = graph.getConstant(name);
+		if (!Tensors.isFloat(tensor) || Tensors.count(Tensors.dims(tensor)) != channels)
+			return null;
+		return Tensors.floats(tensor);
+	}
+
+}
@@ -0,0 +1,360 @@
+/**
+ *
+ */
+package org.forwarder.demo.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onnx4j.prototypes.OnnxProto3.AttributeProto;
+import org.onnx4j.prototypes.OnnxProto3.GraphProto;
+import org.onnx4j.prototypes.OnnxProto3.ModelProto;
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+import org.onnx4j.prototypes.OnnxProto3.OperatorSetIdProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorShapeProto;
+import org.onnx4j.prototypes.OnnxProto3.TypeProto;
+import org.onnx4j.prototypes.OnnxProto3.ValueInfoProto;
+
+/**
+ * Mutable view of the graph of a model that the optimization passes rewrite.
+ *
+ * Constants are the initializers plus the outputs of <code>Constant</code>
+ * nodes. Nodes whose outputs nobody reads any more, and initializers no node
+ * reads, are dropped when the model is {@link #build(ModelProto) built}, so a
+ * pass only has to rewire the values it replaces.
+ */
+final class GraphEditor {
+
+	static final String CONSTANT = "Constant";
+
+	private final int opset;
+
+	/**
+	 * Whether initializers must also be listed as graph inputs, as before IR
+	 * version 4
+	 */
+	private final boolean initializersAreInputs;
+
+	private final List<NodeProto> nodes;
+
+	private final Map<String, TensorProto> initializers = new LinkedHashMap<>();
+
+	private final Map<String, ValueInfoProto> inputs = new LinkedHashMap<>();
+
+	private final Set<String> outputs = new HashSet<>();
+
+	/**
+	 * Shapes declared by the graph, of inputs, outputs and intermediate values
+	 */
+	private final Map<String, ValueInfoProto> valueInfos = new HashMap<>();
+
+	private final Set<String> names = new HashSet<>();
+
+	GraphEditor(ModelProto model) {
+		GraphProto graph = model.getGraph();
+		this.opset = opset(model);
+		this.initializersAreInputs = model.getIrVersion() < 4;
+		this.nodes = new ArrayList<>(graph.getNodeList());
+		for (TensorProto initializer : graph.getInitializerList())
+			this.initializers.put(initializer.getName(), initializer);
+		for (ValueInfoProto input : graph.getInputList())
+			this.inputs.put(input.getName(), input);
+		for (ValueInfoProto output : graph.getOutputList())
+			this.outputs.add(output.getName());
+
+		for (ValueInfoProto valueInfo : graph.getValueInfoList())
+			this.valueInfos.put(valueInfo.getName(), valueInfo);
+		for (ValueInfoProto input : graph.getInputList())
+			this.valueInfos.put(input.getName(), input);
+		for (ValueInfoProto output : graph.getOutputList())
+			this.valueInfos.put(output.getName(), output);
+
+		this.names.addAll(this.valueInfos.keySet());
+		this.names.addAll(this.initializers.keySet());
+		for (NodeProto node : this.nodes) {
+			this.names.addAll(node.getInputList());
+			this.names.addAll(node.getOutputList());
+			this.names.add(node.getName());
+		}
+	}
+
+	/**
+	 * @return version of the default operator set, 1 if the model imports
+	 *         none
+	 */
+	static int opset(ModelProto model) {
+		for (OperatorSetIdProto opsetImport : model.getOpsetImportList()) {
+			if (opsetImport.getDomain().isEmpty() || "ai.onnx".equals(opsetImport.getDomain()))
+				return (int) opsetImport.getVersion();
+		}
+		return 1;
+	}
+
+	int getOpset() {
+		return this.opset;
+	}
+
+	/**
+	 * @return a snapshot of the nodes in graph order
+	 */
+	List<NodeProto> getNodes() {
+		return new ArrayList<>(this.nodes);
+	}
+
+	int getNodeCount() {
+		return this.nodes.size();
+	}
+
+	/**
+	 * @return the constant value of a tensor named <code>name</code>, or null
+	 *         if it is computed at run time
+	 */
+	TensorProto getConstant(String name) {
+		TensorProto initializer = this.initializers.get(name);
+		if (initializer != null)
+			return initializer;
+
+		NodeProto producer = this.producer(name);
+		if (producer != null && CONSTANT.equals(producer.getOpType())) {
+			AttributeProto value = attribute(producer, "value");
+			if (value != null && value.hasT())
+				return value.getT().toBuilder().setName(name).build();
+		}
+		return null;
+	}
+
+	boolean isGraphOutput(String name) {
+		return this.outputs.contains(name);
+	}
+
+	NodeProto producer(String name) {
+		for (NodeProto node : this.nodes) {
+			if (node.getOutputList().contains(name))
+				return node;
+		}
+		return null;
+	}
+
+	List<NodeProto> consumers(String name) {
+		List<NodeProto> consumers = new ArrayList<>();
+		for (NodeProto node : this.nodes) {
+			if (node.getInputList().contains(name))
+				consumers.add(node);
+		}
+		return consumers;
+	}
+
+	/**
+	 * @return whether <code>node</code> is the only reader of
+	 *         <code>name</code>, so that the value may be replaced
+	 */
+	boolean isOnlyConsumer(String name, NodeProto node) {
+		if (this.isGraphOutput(name))
+			return false;
+		List<NodeProto> consumers = this.consumers(name);
+		return consumers.size() == 1 && consumers.get(0) == node;
+	}
+
+	/**
+	 * @return static shape of a value, or null if unknown or symbolic
+	 */
+	long[] shape(String name) {
+		TensorProto constant = this.getConstant(name);
+		if (constant != null)
+			return Tensors.dims(constant);
+
+		ValueInfoProto valueInfo = this.valueInfos.get(name);
+		if (valueInfo == null || !valueInfo.getType().hasTensorType()
+				|| !valueInfo.getType().getTensorType().hasShape())
+			return null;
+		List<TensorShapeProto.Dimension> dimensions = valueInfo.getType().getTensorType().getShape().getDimList();
+		long[] shape = new long[dimensions.size()];
+		for (int n = 0; n < shape.length; n++) {
+			if (dimensions.get(n).getValueCase() != TensorShapeProto.Dimension.ValueCase.DIM_VALUE
+					|| dimensions.get(n).getDimValue() <= 0)
+				return null;
+			shape[n] = dimensions.get(n).getDimValue();
+		}
+		return shape;
+	}
+
+	/**
+	 * @return rank of a value, from its shape or from the constant target of
+	 *         the reshape producing it, -1 if unknown
+	 */
+	int rank(String name) {
+		long[] shape = this.shape(name);
+		if (shape != null)
+			return shape.length;
+
+		NodeProto producer = this.producer(name);
+		if (producer != null && "Reshape".equals(producer.getOpType())) {
+			long[] target = this.reshapeTarget(producer);
+			if (target != null)
+				return target.length;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the constant shape argument of a <code>Reshape</code>, from
+	 *         its second input since opset 5 and its attribute before
+	 */
+	long[] reshapeTarget(NodeProto reshape) {
+		if (this.opset < 5)
+			return ints(reshape, "shape");
+		if (reshape.getInputCount() < 2)
+			return null;
+		TensorProto shape = this.getConstant(reshape.getInput(1));
+		return Tensors.isInt64(shape) ? Tensors.longs(shape) : null;
+	}
+
+	String uniqueName(String base) {
+		String name = base;
+		for (int n = 1; this.names.contains(name); n++)
+			name = base + "_" + n;
+		this.names.add(name);
+		return name;
+	}
+
+	void addInitializer(TensorProto initializer) {
+		this.initializers.put(initializer.getName(), initializer);
+		this.names.add(initializer.getName());
+	}
+
+	void replaceNode(NodeProto node, NodeProto replacement) {
+		this.nodes.set(this.indexOf(node), replacement);
+		this.names.add(replacement.getName());
+	}
+
+	void removeNode(NodeProto node) {
+		this.nodes.remove(this.indexOf(node));
+	}
+
+	/**
+	 * Make every node read <code>to</code> where it read <code>from</code>
+	 */
+	void replaceUses(String from, String to) {
+		for (int n = 0; n < this.nodes.size(); n++) {
+			NodeProto node = this.nodes.get(n);
+			if (!node.getInputList().contains(from))
+				continue;
+			NodeProto.Builder builder = node.toBuilder();
+			for (int input = 0; input < builder.getInputCount(); input++) {
+				if (from.equals(builder.getInput(input)))
+					builder.setInput(input, to);
+			}
+			this.nodes.set(n, builder.build());
+		}
+	}
+
+	/**
+	 * @return the model with its graph replaced by the edited one, without
+	 *         dead nodes and unused initializers
+	 */
+	ModelProto build(ModelProto model) {
+		this.removeDeadNodes();
+
+		Set<String> used = new HashSet<>(this.outputs);
+		for (NodeProto node : this.nodes)
+			used.addAll(node.getInputList());
+		Set<String> produced = new HashSet<>();
+		for (NodeProto node : this.nodes)
+			produced.addAll(node.getOutputList());
+
+		GraphProto.Builder graph = model.getGraph().toBuilder().clearNode().clearInitializer().clearInput()
+				.clearValueInfo().addAllNode(this.nodes);
+		for (TensorProto initializer : this.initializers.values()) {
+			if (used.contains(initializer.getName()))
+				graph.addInitializer(initializer);
+		}
+		for (ValueInfoProto input : this.inputs.values()) {
+			// inputs that only listed a dropped initializer go with it
+			if (!this.initializers.containsKey(input.getName()) || used.contains(input.getName()))
+				graph.addInput(input);
+		}
+		if (this.initializersAreInputs) {
+			for (TensorProto initializer : this.initializers.values()) {
+				if (used.contains(initializer.getName()) && !this.inputs.containsKey(initializer.getName()))
+					graph.addInput(valueInfo(initializer));
+			}
+		}
+		for (ValueInfoProto valueInfo : model.getGraph().getValueInfoList()) {
+			if (produced.contains(valueInfo.getName()) && !this.initializers.containsKey(valueInfo.getName()))
+				graph.addValueInfo(valueInfo);
+		}
+		return model.toBuilder().setGraph(graph).build();
+	}
+
+	private void removeDeadNodes() {
+		boolean removed;
+		do {
+			removed = false;
+			Set<String> used = new HashSet<>(this.outputs);
+			for (NodeProto node : this.nodes)
+				used.addAll(node.getInputList());
+			for (int n = this.nodes.size() - 1; n >= 0; n--) {
+				boolean live = false;
+				for (String output : this.nodes.get(n).getOutputList())
+					live |= used.contains(output);
+				if (!live) {
+					this.nodes.remove(n);
+					removed = true;
+				}
+			}
+		} while (removed);
+	}
+
+	private int indexOf(NodeProto node) {
+		for (int n = 0; n < this.nodes.size(); n++) {
+			if (this.nodes.get(n) == node)
+				return n;
+		}
+		throw new IllegalArgumentException(String.format("Node %s is not in the graph", node.getName()));
+	}
+
+	private static ValueInfoProto valueInfo(TensorProto tensor) {
+		TensorShapeProto.Builder shape = TensorShapeProto.newBuilder();
+		for (long dim : tensor.getDimsList())
+			shape.addDim(TensorShapeProto.Dimension.newBuilder().setDimValue(dim));
+		return ValueInfoProto.newBuilder().setName(tensor.getName())
+				.setType(TypeProto.newBuilder().setTensorType(
+						TypeProto.Tensor.newBuilder().setElemType(tensor.getDataType()).setShape(shape)))
+				.build();
+	}
+
+	static AttributeProto attribute(NodeProto node, String name) {
+		for (AttributeProto attribute : node.getAttributeList()) {
+			if (name.equals(attribute.getName()))
+				return attribute;
+		}
+		return null;
+	}
+
+	static long[] ints(NodeProto node, String name) {
+		AttributeProto attribute = attribute(node, name);
+		if (attribute == null)
+			return null;
+		long[] values = new long[attribute.getIntsCount()];
+		for (int n = 0; n < values.length; n++)
+			values[n] = attribute.getInts(n);
+		return values;
+	}
+
+	static long intValue(NodeProto node, String name, long defaultValue) {
+		AttributeProto attribute = attribute(node, name);
+		return attribute == null ? defaultValue : attribute.getI();
+	}
+
+	static float floatValue(NodeProto node, String name, float defaultValue) {
+		AttributeProto attribute = attribute(node, name);
+		return attribute == null ? defaultValue : attribute.getF();
+	}
+
+}
@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package org.forwarder.demo.optimizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forwarder.demo.configurations.OptimizerProperties;
+import org.onnx4j.prototypes.OnnxProto3.ModelProto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rewrites the graph of a model ahead of loading it: constant folding,
+ * removal of no-op nodes and fusion of <code>Conv</code> with a following
+ * <code>Add</code> or <code>BatchNormalization</code> and of
+ * <code>MatMul</code> with a following <code>Add</code>, each toggled by
+ * {@link OptimizerProperties}.
+ *
+ * Forwarders only load model files, so the optimized model is written to a
+ * file of its own and loaded from there. The enabled passes run in rounds
+ * until one changes nothing, since a rewrite often enables another, e.g.
+ * folding the reshapes of a bias lets it be fused into the convolution.
+ */
+public class GraphOptimizer {
+
+	/**
+	 * Revision of the rewrites, to bump whenever a pass changes what it
+	 * produces so that cached optimized models are rebuilt
+	 */
+	private static final int REVISION = 1;
+
+	private static Logger logger = LoggerFactory.getLogger(GraphOptimizer.class);
+
+	private final OptimizerProperties properties;
+
+	private final List<GraphPass> passes = new ArrayList<>();
+
+	public GraphOptimizer(OptimizerProperties properties) {
+		this.properties = properties;
+		if (properties.isConstantFolding())
+			this.passes.add(new ConstantFolding());
+		if (properties.isEliminateNoOps())
+			this.passes.add(new NoOpElimination());
+		if (properties.isFuseConvBatchNorm())
+			this.passes.add(new ConvBatchNormFusion());
+		if (properties.isFuseConvAdd())
+			this.passes.add(new ConvAddFusion());
+		if (properties.isFuseMatMulAdd())
+			this.passes.add(new MatMulAddFusion());
+	}
+
+	public static GraphOptimizer disabled() {
+		return new GraphOptimizer(new OptimizerProperties());
+	}
+
+	public boolean isEnabled() {
+		return this.properties.isEnabled();
+	}
+
+	/**
+	 * @return identifies what this optimizer makes of a model: the revision,
+	 *         enabled passes and rounds
+	 */
+	public String getFingerprint() {
+		StringBuilder fingerprint = new StringBuilder("r").append(REVISION);
+		for (GraphPass pass : this.passes)
+			fingerprint.append(',').append(pass.getName());
+		return fingerprint.append(",rounds=").append(this.properties.getMaxRounds()).toString();
+	}
+
+	public OptimizedModel optimize(ModelProto model) {
+		GraphEditor graph = new GraphEditor(model);
+		int nodesBefore = graph.getNodeCount();
+		Map<String, Integer> rewrites = new LinkedHashMap<>();
+		for (GraphPass pass : this.passes)
+			rewrites.put(pass.getName(), 0);
+
+		for (int round = 0; round < this.properties.getMaxRounds(); round++) {
+			int changes = 0;
+			for (GraphPass pass : this.passes) {
+				int applied = pass.apply(graph);
+				rewrites.merge(pass.getName(), applied, Integer::sum);
+				changes += applied;
+			}
+			if (changes == 0)
+				break;
+		}
+		return new OptimizedModel(graph.build(model), nodesBefore, rewrites);
+	}
+
+	/**
+	 * Optimize a model file into another one, which is replaced atomically so
+	 * that concurrent loads never read a partial model
+	 */
+	public OptimizedModel optimize(File modelFile, File optimizedFile) throws IOException {
+		long startedAt = System.nanoTime();
+		OptimizedModel optimized = this.optimize(ModelProto.parseFrom(Files.readAllBytes(modelFile.toPath())));
+
+		File directory = optimizedFile.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException(String.format("Cannot create %s", directory));
+		File partial = File.createTempFile(optimizedFile.getName(), ".part", directory);
+		try {
+			try (OutputStream out = Files.newOutputStream(partial.toPath())) {
+				optimized.getModel().writeTo(out);
+			}
+			Files.move(partial.toPath(), optimizedFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(partial.toPath());
+		}
+		logger.info("Optimized {} into {} in {}ms: {}", modelFile, optimizedFile,
+				(System.nanoTime() - startedAt) / 1000000, optimized);
+		return optimized;
+	}
+
+}
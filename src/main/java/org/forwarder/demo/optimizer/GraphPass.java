@@ -0,0 +1,19 @@
+/**
+ *
+ */
+package org.forwarder.demo.optimizer;
+
+/**
+ * One rewrite of the {@link GraphOptimizer}. A pass must leave the outputs of
+ * the graph unchanged for every input and skip anything it is not sure about.
+ */
+interface GraphPass {
+
+	String getName();
+
+	/**
+	 * @return number of rewrites made, 0 if the graph is left as it was
+	 */
+	int apply(GraphEditor graph);
+
+}
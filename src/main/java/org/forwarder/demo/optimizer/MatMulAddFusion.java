@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package org.forwarder.demo.optimizer;
+
+import java.util.List;
+
+import org.onnx4j.prototypes.OnnxProto3.AttributeProto;
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+/**
+ * Replaces a <code>MatMul</code> of a 2-D input by constant
+ * <code>[K, N]</code> weights followed by the <code>Add</code> of a constant
+ * <code>[N]</code> or <code>[1, N]</code> bias with a single
+ * <code>Gemm</code>, as in the final <code>Times212 + Parameter194</code> of
+ * MNIST.
+ */
+class MatMulAddFusion implements GraphPass {
+
+	@Override
+	public String getName() {
+		return "fuseMatMulAdd";
+	}
+
+	@Override
+	public int apply(GraphEditor graph) {
+		int fused = 0;
+		while (this.fuseOne(graph))
+			fused++;
+		return fused;
+	}
+
+	private boolean fuseOne(GraphEditor graph) {
+		for (NodeProto matMul : graph.getNodes()) {
+			if (!"MatMul".equals(matMul.getOpType()) || matMul.getInputCount() != 2
+					|| graph.rank(matMul.getInput(0)) != 2)
+				continue;
+			TensorProto weights = graph.getConstant(matMul.getInput(1));
+			String output = matMul.getOutput(0);
+			List<NodeProto> consumers = graph.consumers(output);
+			if (!Tensors.isFloat(weights) || weights.getDimsCount() != 2 || consumers.size() != 1
+					|| !graph.isOnlyConsumer(output, consumers.get(0)))
+				continue;
+			NodeProto add = consumers.get(0);
+			if (!"Add".equals(add.getOpType()) || add.getInputCount() != 2)
+				continue;
+
+			boolean matMulFirst = output.equals(add.getInput(0));
+			if (!matMulFirst && graph.getOpset() < 7)
+				continue;
+			String biasName = add.getInput(matMulFirst ? 1 : 0);
+			TensorProto bias = graph.getConstant(biasName);
+			if (!Tensors.isFloat(bias) || !this.isRowBias(graph, add, Tensors.dims(bias), weights.getDims(1)))
+				continue;
+
+			NodeProto.Builder gemm = NodeProto.newBuilder().setName(graph.uniqueName(matMul.getName() + "_gemm"))
+					.setOpType("Gemm").setDomain(matMul.getDomain()).addInput(matMul.getInput(0))
+					.addInput(matMul.getInput(1)).addInput(biasName).addOutput(add.getOutput(0));
+			if (graph.getOpset() < 7)
+				gemm.addAttribute(AttributeProto.newBuilder().setName("broadcast").setI(1)
+						.setType(AttributeProto.AttributeType.INT));
+			graph.replaceNode(matMul, gemm.build());
+			graph.removeNode(add);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return whether the bias adds one value per column to every row
+	 */
+	private boolean isRowBias(GraphEditor graph, NodeProto add, long[] dims, long columns) {
+		if (graph.getOpset() < 7 && (GraphEditor.intValue(add, "broadcast", 0) != 1
+				|| GraphEditor.intValue(add, "axis", 1) != 1 || dims.length != 1))
+			return false;
+		return (dims.length == 1 && dims[0] == columns) || (dims.length == 2 && dims[0] == 1 && dims[1] == columns);
+	}
+
+}
@@ -0,0 +1,90 @@
+/**
+ *
+ */
+package org.forwarder.demo.optimizer;
+
+import java.util.Arrays;
+
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+
+/**
+ * Removes nodes that hand their input on unchanged: <code>Identity</code>,
+ * <code>Dropout</code> at inference and <code>Reshape</code> to the shape its
+ * input already has. A <code>Reshape</code> of the only output of another
+ * <code>Reshape</code> reads the input of the first one instead, which
+ * leaves the first one dead.
+ *
+ * Values that are graph outputs are kept, since their names are part of the
+ * model's interface.
+ */
+class NoOpElimination implements GraphPass {
+
+	@Override
+	public String getName() {
+		return "eliminateNoOps";
+	}
+
+	@Override
+	public int apply(GraphEditor graph) {
+		int eliminated = 0;
+		while (this.eliminateOne(graph))
+			eliminated++;
+		return eliminated;
+	}
+
+	/**
+	 * @return whether a node was rewritten, after which the nodes read before
+	 *         may be stale
+	 */
+	private boolean eliminateOne(GraphEditor graph) {
+		for (NodeProto node : graph.getNodes()) {
+			if (node.getInputCount() == 0 || node.getOutputCount() == 0 || graph.isGraphOutput(node.getOutput(0)))
+				continue;
+
+			if (this.isNoOp(graph, node)) {
+				graph.replaceUses(node.getOutput(0), node.getInput(0));
+				graph.removeNode(node);
+				return true;
+			}
+			if ("Reshape".equals(node.getOpType()) && this.skipInnerReshape(graph, node))
+				return true;
+		}
+		return false;
+	}
+
+	private boolean isNoOp(GraphEditor graph, NodeProto node) {
+		switch (node.getOpType()) {
+		case "Identity":
+			return true;
+		case "Dropout":
+			// the mask output must be unused, and before opset 7 only is_test=1 is inference
+			return (node.getOutputCount() == 1 || graph.consumers(node.getOutput(1)).isEmpty()
+					&& !graph.isGraphOutput(node.getOutput(1)))
+					&& (graph.getOpset() >= 7 || GraphEditor.intValue(node, "is_test", 0) == 1);
+		case "Reshape":
+			long[] shape = graph.shape(node.getInput(0));
+			return shape != null && Arrays.equals(shape, ConstantFolding.reshape(shape, graph.reshapeTarget(node)));
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Reshape the input of an inner reshape directly, unless the outer target
+	 * copies dimensions (0) from the inner output
+	 */
+	private boolean skipInnerReshape(GraphEditor graph, NodeProto node) {
+		NodeProto inner = graph.producer(node.getInput(0));
+		long[] target = graph.reshapeTarget(node);
+		if (inner == null || !"Reshape".equals(inner.getOpType()) || target == null
+				|| !graph.isOnlyConsumer(node.getInput(0), node))
+			return false;
+		for (long dim : target) {
+			if (dim == 0)
+				return false;
+		}
+		graph.replaceNode(node, node.toBuilder().setInput(0, inner.getInput(0)).build());
+		return true;
+	}
+
+}
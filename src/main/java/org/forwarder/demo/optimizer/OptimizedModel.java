@@ -0,0 +1,53 @@
+/**
+ *
+ */
+package org.forwarder.demo.optimizer;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.onnx4j.prototypes.OnnxProto3.ModelProto;
+
+/**
+ * A model rewritten by the {@link GraphOptimizer}, with what each pass did
+ */
+public class OptimizedModel {
+
+	private final ModelProto model;
+
+	private final int nodesBefore;
+
+	private final Map<String, Integer> rewrites;
+
+	OptimizedModel(ModelProto model, int nodesBefore, Map<String, Integer> rewrites) {
+		this.model = model;
+		this.nodesBefore = nodesBefore;
+		this.rewrites = Collections.unmodifiableMap(new LinkedHashMap<>(rewrites));
+	}
+
+	public ModelProto getModel() {
+		return this.model;
+	}
+
+	public int getNodesBefore() {
+		return this.nodesBefore;
+	}
+
+	public int getNodesAfter() {
+		return this.model.getGraph().getNodeCount();
+	}
+
+	/**
+	 * @return rewrites made by every enabled pass, by pass name
+	 */
+	public Map<String, Integer> getRewrites() {
+		return this.rewrites;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s nodes to %s %s", this.nodesBefore, this.getNodesAfter(), this.rewrites);
+	}
+
+}
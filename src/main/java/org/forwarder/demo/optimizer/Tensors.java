@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package org.forwarder.demo.optimizer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Reads and writes the data of constant <code>TensorProto</code>s, stored
+ * either as little-endian <code>raw_data</code> or in the typed repeated
+ * fields
+ */
+final class Tensors {
+
+	private Tensors() {
+	}
+
+	static boolean isFloat(TensorProto tensor) {
+		return tensor != null && tensor.getDataType() == TensorProto.DataType.FLOAT.getNumber();
+	}
+
+	static boolean isInt64(TensorProto tensor) {
+		return tensor != null && tensor.getDataType() == TensorProto.DataType.INT64.getNumber();
+	}
+
+	static float[] floats(TensorProto tensor) {
+		if (!tensor.getRawData().isEmpty()) {
+			FloatBuffer raw = tensor.getRawData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN)
+					.asFloatBuffer();
+			float[] values = new float[raw.remaining()];
+			raw.get(values);
+			return values;
+		}
+		float[] values = new float[tensor.getFloatDataCount()];
+		for (int n = 0; n < values.length; n++)
+			values[n] = tensor.getFloatData(n);
+		return values;
+	}
+
+	static long[] longs(TensorProto tensor) {
+		if (!tensor.getRawData().isEmpty()) {
+			LongBuffer raw = tensor.getRawData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN)
+					.asLongBuffer();
+			long[] values = new long[raw.remaining()];
+			raw.get(values);
+			return values;
+		}
+		long[] values = new long[tensor.getInt64DataCount()];
+		for (int n = 0; n < values.length; n++)
+			values[n] = tensor.getInt64Data(n);
+		return values;
+	}
+
+	static long[] dims(TensorProto tensor) {
+		long[] dims = new long[tensor.getDimsCount()];
+		for (int n = 0; n < dims.length; n++)
+			dims[n] = tensor.getDims(n);
+		return dims;
+	}
+
+	static long count(long[] dims) {
+		long count = 1;
+		for (long dim : dims)
+			count *= dim;
+		return count;
+	}
+
+	static TensorProto floatTensor(String name, long[] dims, float[] values) {
+		ByteBuffer raw = ByteBuffer.allocate(values.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		raw.asFloatBuffer().put(values);
+		TensorProto.Builder builder = TensorProto.newBuilder().setName(name)
+				.setDataType(TensorProto.DataType.FLOAT.getNumber()).setRawData(ByteString.copyFrom(raw));
+		for (long dim : dims)
+			builder.addDims(dim);
+		return builder.build();
+	}
+
+	/**
+	 * @return the same data under another name and shape
+	 */
+	static TensorProto reshaped(TensorProto tensor, String name, long[] dims) {
+		TensorProto.Builder builder = tensor.toBuilder().setName(name).clearDims();
+		for (long dim : dims)
+			builder.addDims(dim);
+		return builder.build();
+	}
+
+}
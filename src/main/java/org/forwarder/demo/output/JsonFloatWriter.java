@@ -0,0 +1,54 @@
+/**
+ *
+ */
+package org.forwarder.demo.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+
+/**
+ * Writes float values as a JSON array straight from a buffer, e.g. a
+ * {@link TensorOutputs#view} of a large output, without first copying them
+ * into a <code>float[]</code> for Jackson. Values are formatted the way
+ * Jackson formats a <code>float[]</code>, non-finite ones quoted as
+ * <code>"NaN"</code>, <code>"Infinity"</code> and <code>"-Infinity"</code> so
+ * that the array stays valid JSON.
+ */
+public final class JsonFloatWriter {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Longest {@link Float#toString} plus a separator
+	 */
+	private static final int MAX_VALUE_LENGTH = 16;
+
+	private JsonFloatWriter() {
+	}
+
+	/**
+	 * Write the values from position to limit, leaving the buffer untouched
+	 */
+	public static void write(FloatBuffer values, OutputStream out) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int length = 0;
+		buffer[length++] = '[';
+		for (int n = values.position(), end = values.limit(); n < end; n++) {
+			// flushing at the limit also leaves room for the closing bracket after the last value
+			if (length >= BUFFER_SIZE - MAX_VALUE_LENGTH) {
+				out.write(buffer, 0, length);
+				length = 0;
+			}
+			if (n > values.position())
+				buffer[length++] = ',';
+			float f = values.get(n);
+			String value = Float.isFinite(f) ? Float.toString(f) : '"' + Float.toString(f) + '"';
+			for (int c = 0; c < value.length(); c++)
+				buffer[length++] = (byte) value.charAt(c);
+		}
+		buffer[length++] = ']';
+		out.write(buffer, 0, length);
+	}
+
+}
@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package org.forwarder.demo.output;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.onnx4j.Tensor;
+
+/**
+ * Reads float32 output tensors without element-by-element copies.
+ *
+ * An output tensor belongs to the session that produced it and its buffer is
+ * reused by the next forward, so a {@link #view} is only valid until the
+ * session is given back to its pool. Use {@link #copyTo} or {@link #toArray}
+ * for results that outlive the session.
+ */
+public final class TensorOutputs {
+
+	private TensorOutputs() {
+	}
+
+	/**
+	 * @return read-only view over all values of the tensor, positioned at 0
+	 */
+	public static FloatBuffer view(Tensor tensor) {
+		ByteBuffer data = tensor.getData();
+		ByteBuffer bytes = data.duplicate().order(data.order());
+		bytes.clear();
+		return bytes.asReadOnlyBuffer().order(data.order()).asFloatBuffer();
+	}
+
+	public static int size(Tensor tensor) {
+		return tensor.getData().capacity() / Float.BYTES;
+	}
+
+	/**
+	 * Bulk-copy the values of the tensor into a caller-supplied array
+	 *
+	 * @param destination
+	 *            array of at least {@link #size} elements, e.g. one reused
+	 *            across requests
+	 * @return number of values copied
+	 */
+	public static int copyTo(Tensor tensor, float[] destination) {
+		FloatBuffer view = view(tensor);
+		int size = view.remaining();
+		if (destination.length < size)
+			throw new IllegalArgumentException(
+					String.format("Output of %s values does not fit into %s", size, destination.length));
+		view.get(destination, 0, size);
+		return size;
+	}
+
+	public static float[] toArray(Tensor tensor) {
+		FloatBuffer view = view(tensor);
+		float[] values = new float[view.remaining()];
+		view.get(values);
+		return values;
+	}
+
+}
@@ -0,0 +1,278 @@
+/**
+ *
+ */
+package org.forwarder.demo.preprocess;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Turns an image of any size into the gray-scale <code>height x width</code>
+ * float plane the MNIST models take, in a single pass over the raster.
+ *
+ * Pixels are read straight from the backing <code>int[]</code> or
+ * <code>byte[]</code> of the common RGB(A) image types, converted to gray and
+ * area-averaged into the target grid on the fly, which matches what
+ * <code>getScaledInstance(SCALE_SMOOTH)</code> followed by a per-pixel
+ * <code>getRGB</code> produced. Other image types fall back to row-wise
+ * <code>getRGB</code>.
+ *
+ * The result is written to a direct {@link FloatBuffer} owned by the calling
+ * thread and reused by its next call, so steady state preprocessing allocates
+ * nothing.
+ */
+public class ImagePreprocessor {
+
+	private static final float RED_WEIGHT = 0.299f;
+	private static final float GREEN_WEIGHT = 0.587f;
+	private static final float BLUE_WEIGHT = 0.114f;
+
+	private final int width;
+
+	private final int height;
+
+	private final ThreadLocal<Workspace> workspaces;
+
+	public ImagePreprocessor(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.workspaces = ThreadLocal.withInitial(() -> new Workspace(width, height));
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * @param image
+	 *            source image of any size
+	 * @return gray values in row-major order, positioned at 0. The buffer
+	 *         belongs to the calling thread and is overwritten by its next
+	 *         call.
+	 */
+	public FloatBuffer process(BufferedImage image) {
+		Workspace workspace = this.workspaces.get();
+		workspace.prepare(image.getWidth(), image.getHeight());
+
+		Raster raster = image.getRaster();
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		int type = image.getType();
+		if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+				&& dataBuffer instanceof DataBufferInt && dataBuffer.getNumBanks() == 1
+				&& raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+			this.accumulatePackedInts(raster, workspace);
+		} else if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+				&& dataBuffer instanceof DataBufferByte && dataBuffer.getNumBanks() == 1
+				&& raster.getSampleModel() instanceof ComponentSampleModel) {
+			this.accumulateInterleavedBytes(raster, workspace);
+		} else {
+			this.accumulateRGB(image, workspace);
+		}
+
+		FloatBuffer output = workspace.output;
+		float[] accumulator = workspace.accumulator;
+		output.clear();
+		for (int n = 0; n < accumulator.length; n++)
+			output.put(n, (float) (int) accumulator[n]);
+		return output;
+	}
+
+	private void accumulatePackedInts(Raster raster, Workspace workspace) {
+		SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+		int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+		int stride = sampleModel.getScanlineStride();
+		int origin = raster.getDataBuffer().getOffset() - raster.getSampleModelTranslateY() * stride
+				- raster.getSampleModelTranslateX();
+		int srcWidth = raster.getWidth();
+		int srcHeight = raster.getHeight();
+		float[] row = workspace.row;
+
+		for (int y = 0; y < srcHeight; y++) {
+			int offset = origin + y * stride;
+			for (int x = 0; x < srcWidth; x++) {
+				int color = pixels[offset + x];
+				row[x] = RED_WEIGHT * ((color >> 16) & 0xff) + GREEN_WEIGHT * ((color >> 8) & 0xff)
+						+ BLUE_WEIGHT * (color & 0xff);
+			}
+			workspace.accumulateRow(y);
+		}
+	}
+
+	private void accumulateInterleavedBytes(Raster raster, Workspace workspace) {
+		ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+		byte[] pixels = ((DataBufferByte) raster.getDataBuffer()).getData();
+		int stride = sampleModel.getScanlineStride();
+		int pixelStride = sampleModel.getPixelStride();
+		int[] bandOffsets = sampleModel.getBandOffsets();
+		int red = bandOffsets[0];
+		int green = bandOffsets[1];
+		int blue = bandOffsets[2];
+		int origin = raster.getDataBuffer().getOffset() - raster.getSampleModelTranslateY() * stride
+				- raster.getSampleModelTranslateX() * pixelStride;
+		int srcWidth = raster.getWidth();
+		int srcHeight = raster.getHeight();
+		float[] row = workspace.row;
+
+		for (int y = 0; y < srcHeight; y++) {
+			int offset = origin + y * stride;
+			for (int x = 0; x < srcWidth; x++, offset += pixelStride) {
+				row[x] = RED_WEIGHT * (pixels[offset + red] & 0xff) + GREEN_WEIGHT * (pixels[offset + green] & 0xff)
+						+ BLUE_WEIGHT * (pixels[offset + blue] & 0xff);
+			}
+			workspace.accumulateRow(y);
+		}
+	}
+
+	private void accumulateRGB(BufferedImage image, Workspace workspace) {
+		int srcWidth = image.getWidth();
+		int srcHeight = image.getHeight();
+		int[] colors = workspace.colors;
+		float[] row = workspace.row;
+
+		for (int y = 0; y < srcHeight; y++) {
+			image.getRGB(0, y, srcWidth, 1, colors, 0, srcWidth);
+			for (int x = 0; x < srcWidth; x++) {
+				int color = colors[x];
+				row[x] = RED_WEIGHT * ((color >> 16) & 0xff) + GREEN_WEIGHT * ((color >> 8) & 0xff)
+						+ BLUE_WEIGHT * (color & 0xff);
+			}
+			workspace.accumulateRow(y);
+		}
+	}
+
+	/**
+	 * Per-thread scratch space. The resampling spans only depend on the source
+	 * size, so they are rebuilt only when it changes.
+	 */
+	private static class Workspace {
+
+		private final int width;
+
+		private final int height;
+
+		private final float[] accumulator;
+
+		private final float[] reduced;
+
+		private final FloatBuffer output;
+
+		private int srcWidth = -1;
+
+		private int srcHeight = -1;
+
+		private float[] row = new float[0];
+
+		private int[] colors = new int[0];
+
+		private Spans columns;
+
+		private Spans rows;
+
+		private Workspace(int width, int height) {
+			this.width = width;
+			this.height = height;
+			this.accumulator = new float[width * height];
+			this.reduced = new float[width];
+			this.output = ByteBuffer.allocateDirect(width * height * Float.BYTES).order(ByteOrder.nativeOrder())
+					.asFloatBuffer();
+		}
+
+		private void prepare(int srcWidth, int srcHeight) {
+			if (srcWidth != this.srcWidth) {
+				this.srcWidth = srcWidth;
+				this.columns = new Spans(srcWidth, this.width);
+				this.row = new float[srcWidth];
+				this.colors = new int[srcWidth];
+			}
+			if (srcHeight != this.srcHeight) {
+				this.srcHeight = srcHeight;
+				this.rows = new Spans(srcHeight, this.height);
+			}
+			Arrays.fill(this.accumulator, 0f);
+		}
+
+		/**
+		 * Spread the gray values of source row <code>y</code> held in
+		 * {@link #row} over the target cells it overlaps: reduce the row
+		 * horizontally once, then add it to each target row it covers
+		 */
+		private void accumulateRow(int y) {
+			Spans columns = this.columns;
+			float[] row = this.row;
+			float[] reduced = this.reduced;
+
+			Arrays.fill(reduced, 0f);
+			for (int x = 0; x < this.srcWidth; x++) {
+				float value = row[x];
+				for (int c = columns.start[x], cEnd = columns.start[x + 1]; c < cEnd; c++)
+					reduced[columns.target[c]] += value * columns.weight[c];
+			}
+
+			Spans rows = this.rows;
+			float[] accumulator = this.accumulator;
+			for (int r = rows.start[y], rEnd = rows.start[y + 1]; r < rEnd; r++) {
+				int base = rows.target[r] * this.width;
+				float rowWeight = rows.weight[r];
+				for (int c = 0; c < this.width; c++)
+					accumulator[base + c] += reduced[c] * rowWeight;
+			}
+		}
+
+	}
+
+	/**
+	 * Area-averaging weights along one axis. Source index <code>i</code> covers
+	 * <code>[i * dst / src, (i + 1) * dst / src)</code> in target units and
+	 * contributes to every target cell it overlaps, weighted by the overlap,
+	 * so the weights of each target cell sum up to one.
+	 */
+	private static class Spans {
+
+		private final int[] start;
+
+		private final int[] target;
+
+		private final float[] weight;
+
+		private Spans(int src, int dst) {
+			int capacity = src + dst;
+			int[] target = new int[capacity];
+			float[] weight = new float[capacity];
+			this.start = new int[src + 1];
+
+			double scale = ((double) dst) / src;
+			int count = 0;
+			for (int i = 0; i < src; i++) {
+				this.start[i] = count;
+				double from = i * scale;
+				double to = (i + 1) * scale;
+				for (int cell = (int) from; cell < dst && cell < to; cell++) {
+					double overlap = Math.min(to, cell + 1) - Math.max(from, cell);
+					if (overlap <= 0)
+						continue;
+					target[count] = cell;
+					weight[count] = (float) overlap;
+					count++;
+				}
+			}
+			this.start[src] = count;
+			this.target = Arrays.copyOf(target, count);
+			this.weight = Arrays.copyOf(weight, count);
+		}
+
+	}
+
+}
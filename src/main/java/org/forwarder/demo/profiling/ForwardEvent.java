@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package org.forwarder.demo.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event of one profiled forward. Only loaded, reflectively by
+ * {@link ForwardProfiler}, when JFR events are enabled and the JVM ships
+ * <code>jdk.jfr</code> (JDK 8u262 and later). Builds on JDK 8 leave it out,
+ * see the <code>jdk8</code> profile of the pom.
+ */
+@Name("org.forwarder.demo.Forward")
+@Label("Forward")
+@Category({ "Forwarder", "Demo" })
+class ForwardEvent extends Event {
+
+	@Label("Model")
+	String model;
+
+	@Label("Executor")
+	String executor;
+
+	@Label("Backend")
+	String backend;
+
+	@Label("Allocated")
+	@DataAmount
+	long allocatedBytes;
+
+	@Label("Output Size")
+	@DataAmount
+	long outputBytes;
+
+	static Object start() {
+		ForwardEvent event = new ForwardEvent();
+		event.begin();
+		return event;
+	}
+
+	static void finish(Object started, String model, String executor, String backend, long allocatedBytes,
+			long outputBytes) {
+		ForwardEvent event = (ForwardEvent) started;
+		event.end();
+		if (event.shouldCommit()) {
+			event.model = model;
+			event.executor = executor;
+			event.backend = backend;
+			event.allocatedBytes = allocatedBytes;
+			event.outputBytes = outputBytes;
+			event.commit();
+		}
+	}
+
+}
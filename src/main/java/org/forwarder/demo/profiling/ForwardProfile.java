@@ -0,0 +1,115 @@
+/**
+ *
+ */
+package org.forwarder.demo.profiling;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forwarder.demo.metrics.Histogram;
+import org.forwarder.demo.session.PooledSession;
+import org.onnx4j.Tensor;
+
+/**
+ * Forwards of one model with one executor on one backend. Every forward of
+ * the demo goes through {@link #forward}, which times the
+ * feed/forward/getOutput round trip, measures the heap bytes it allocated on
+ * the calling thread and the size of the output, and invalidates the session
+ * if it fails.
+ *
+ * The onnx4j executors do not expose their node-by-node progress, so this is
+ * per model, executor and backend, one level above the ONNX operators. Models
+ * forwarded on the graph engine are also profiled node by node, in a
+ * {@link org.forwarder.demo.engine.NodeProfile}.
+ */
+public class ForwardProfile {
+
+	private final ForwardProfiler profiler;
+
+	private final String model;
+
+	private final String executor;
+
+	private final String backend;
+
+	private final Histogram wallTimes = new Histogram("us");
+
+	private final Histogram allocatedBytes = new Histogram("bytes");
+
+	private final Histogram outputBytes = new Histogram("bytes");
+
+	private final LongAdder failures = new LongAdder();
+
+	ForwardProfile(ForwardProfiler profiler, String model, String executor, String backend) {
+		this.profiler = profiler;
+		this.model = model;
+		this.executor = executor;
+		this.backend = backend;
+	}
+
+	public String getModel() {
+		return this.model;
+	}
+
+	public String getExecutor() {
+		return this.executor;
+	}
+
+	public String getBackend() {
+		return this.backend;
+	}
+
+	/**
+	 * Feed an input, forward it and get an output on a borrowed session
+	 *
+	 * @param input
+	 *            tensor that stays owned by the caller, e.g. reused by an
+	 *            arena, so the session does not close it after the forward
+	 * @return the output, owned by the session
+	 */
+	public Tensor forward(PooledSession session, Tensor input, String outputName) throws Exception {
+		if (!this.profiler.isEnabled()) {
+			try {
+				return session.get().feed(input, false).forward().getOutput(outputName);
+			} catch (Exception e) {
+				session.invalidate();
+				throw e;
+			}
+		}
+
+		Object event = this.profiler.startEvent();
+		long allocatedBefore = this.profiler.allocatedBytes();
+		long startedAt = System.nanoTime();
+		Tensor output;
+		try {
+			output = session.get().feed(input, false).forward().getOutput(outputName);
+		} catch (Exception e) {
+			this.failures.increment();
+			session.invalidate();
+			throw e;
+		}
+		long wallMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt);
+		long allocated = allocatedBefore >= 0 ? this.profiler.allocatedBytes() - allocatedBefore : -1;
+		long outputSize = output.getData().capacity();
+
+		this.wallTimes.record(wallMicros);
+		if (allocated >= 0)
+			this.allocatedBytes.record(allocated);
+		this.outputBytes.record(outputSize);
+		if (event != null)
+			this.profiler.finishEvent(event, this.model, this.executor, this.backend, allocated, outputSize);
+		return output;
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("failures", this.failures.sum());
+		stats.put("wallTime", this.wallTimes.toMap());
+		stats.put("allocated", this.allocatedBytes.toMap());
+		stats.put("output", this.outputBytes.toMap());
+		return stats;
+	}
+
+}
@@ -0,0 +1,183 @@
+/**
+ *
+ */
+package org.forwarder.demo.profiling;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.forwarder.demo.configurations.ProfilingProperties;
+import org.forwarder.demo.engine.NodeProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps one {@link ForwardProfile} per (model, executor, backend), so that
+ * executors and backends can be compared on each model from
+ * <code>/demo/stats/profiling</code> or a JFR recording, along with the
+ * {@link NodeProfile} of every model compiled for the graph engine, which
+ * breaks its forwards down by node and operator type.
+ */
+public class ForwardProfiler {
+
+	private static final String EVENT_CLASS = "org.forwarder.demo.profiling.ForwardEvent";
+
+	private static Logger logger = LoggerFactory.getLogger(ForwardProfiler.class);
+
+	private final ProfilingProperties properties;
+
+	private final ConcurrentMap<String, ForwardProfile> profiles = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, NodeProfile> nodeProfiles = new ConcurrentHashMap<>();
+
+	private final com.sun.management.ThreadMXBean allocations;
+
+	/**
+	 * Static methods of {@link ForwardEvent}, null unless JFR events are
+	 * enabled and available. Looked up reflectively so that nothing here
+	 * links against <code>jdk.jfr</code>.
+	 */
+	private final MethodHandle startEvent;
+
+	private final MethodHandle finishEvent;
+
+	public ForwardProfiler(ProfilingProperties properties) {
+		this.properties = properties;
+
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+			this.allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+		} else {
+			this.allocations = null;
+		}
+
+		MethodHandle startEvent = null;
+		MethodHandle finishEvent = null;
+		if (properties.isJfrEvents()) {
+			try {
+				Class<?> eventClass = Class.forName(EVENT_CLASS);
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+				startEvent = lookup.findStatic(eventClass, "start", MethodType.methodType(Object.class));
+				finishEvent = lookup.findStatic(eventClass, "finish", MethodType.methodType(void.class, Object.class,
+						String.class, String.class, String.class, long.class, long.class));
+			} catch (ReflectiveOperationException | LinkageError e) {
+				logger.warn("JFR events requested but jdk.jfr is not available on this JVM, or this build left "
+						+ "out {}", EVENT_CLASS);
+				startEvent = null;
+				finishEvent = null;
+			}
+		}
+		this.startEvent = startEvent;
+		this.finishEvent = finishEvent;
+	}
+
+	/**
+	 * @return a profiler that records nothing
+	 */
+	public static ForwardProfiler disabled() {
+		return new ForwardProfiler(new ProfilingProperties());
+	}
+
+	public boolean isEnabled() {
+		return this.properties.isEnabled();
+	}
+
+	/**
+	 * @return profile of forwards of a model with an executor on a backend,
+	 *         created on first use
+	 */
+	public ForwardProfile profile(String model, String executor, String backend) {
+		String key = model + "/" + executor + "/" + backend;
+		ForwardProfile profile = this.profiles.get(key);
+		if (profile == null) {
+			profile = new ForwardProfile(this, model, executor, backend);
+			ForwardProfile existing = this.profiles.putIfAbsent(key, profile);
+			if (existing != null)
+				profile = existing;
+		}
+		return profile;
+	}
+
+	/**
+	 * Report the node profile of the graph engine plan of a model, replacing
+	 * that of a previous load
+	 */
+	public void register(String model, NodeProfile profile) {
+		this.nodeProfiles.put(model, profile);
+	}
+
+	/**
+	 * @return profiles grouped by model, executor then backend, and node
+	 *         profiles by model
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", this.isEnabled());
+		stats.put("allocationsTracked", this.allocations != null);
+		stats.put("jfrEvents", this.startEvent != null);
+
+		Map<String, Object> models = new LinkedHashMap<>();
+		for (ForwardProfile profile : this.profiles.values()) {
+			Map<String, Object> executors = (Map<String, Object>) models.computeIfAbsent(profile.getModel(),
+					model -> new LinkedHashMap<>());
+			Map<String, Object> backends = (Map<String, Object>) executors.computeIfAbsent(profile.getExecutor(),
+					executor -> new LinkedHashMap<>());
+			backends.put(profile.getBackend(), profile.stats());
+		}
+		stats.put("models", models);
+
+		Map<String, Object> engineNodes = new LinkedHashMap<>();
+		for (Map.Entry<String, NodeProfile> profile : this.nodeProfiles.entrySet())
+			engineNodes.put(profile.getKey(), profile.getValue().stats());
+		stats.put("engineNodes", engineNodes);
+		return stats;
+	}
+
+	public void reset() {
+		this.profiles.clear();
+		// still recorded in by the engine backends holding them
+		for (NodeProfile profile : this.nodeProfiles.values())
+			profile.reset();
+	}
+
+	/**
+	 * @return a begun JFR event of a forward, or null if JFR events are off
+	 */
+	Object startEvent() {
+		if (this.startEvent == null)
+			return null;
+		try {
+			return this.startEvent.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException("Failed to begin JFR event", e);
+		}
+	}
+
+	void finishEvent(Object event, String model, String executor, String backend, long allocatedBytes,
+			long outputBytes) {
+		try {
+			this.finishEvent.invokeExact(event, model, executor, backend, allocatedBytes, outputBytes);
+		} catch (Throwable e) {
+			throw new IllegalStateException("Failed to commit JFR event", e);
+		}
+	}
+
+	/**
+	 * @return bytes allocated on the heap by the calling thread so far, or -1
+	 *         if the JVM does not track them
+	 */
+	long allocatedBytes() {
+		return this.allocations != null ? this.allocations.getThreadAllocatedBytes(Thread.currentThread().getId())
+				: -1;
+	}
+
+}
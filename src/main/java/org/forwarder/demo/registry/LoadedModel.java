@@ -0,0 +1,285 @@
+/**
+ *
+ */
+package org.forwarder.demo.registry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forwarder.Forwarder;
+import org.forwarder.demo.arena.TensorArena;
+import org.forwarder.demo.backend.EngineBackend;
+import org.forwarder.demo.batching.MicroBatcher;
+import org.forwarder.demo.configurations.ArenaProperties;
+import org.forwarder.demo.configurations.BatchingProperties;
+import org.forwarder.demo.configurations.SessionPoolProperties;
+import org.forwarder.demo.metrics.InferenceMetrics;
+import org.forwarder.demo.profiling.ForwardProfile;
+import org.forwarder.demo.profiling.ForwardProfiler;
+import org.forwarder.demo.session.SessionPools;
+import org.forwarder.demo.weights.ModelWeights;
+import org.onnx4j.Tensor;
+import org.onnx4j.prototypes.OnnxProto3.ModelProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorShapeProto;
+import org.onnx4j.prototypes.OnnxProto3.ValueInfoProto;
+import org.onnx4j.tensor.TensorBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A model held by the {@link ModelRegistry} together with everything opened on
+ * it: its {@link Forwarder}, its {@link EngineBackend} if enabled, the session
+ * pools of its backends and their batchers, and the mapped weights of its file
+ * shared by all backends.
+ *
+ * Users {@link #retain()} the model for the duration of a request. Once the
+ * registry evicts it, it stops accepting new users and is closed when the last
+ * one {@link #release()}s it.
+ */
+public class LoadedModel {
+
+	private static Logger logger = LoggerFactory.getLogger(LoadedModel.class);
+
+	/**
+	 * Reference held by the registry itself, dropped on eviction
+	 */
+	private final AtomicInteger references = new AtomicInteger(1);
+
+	private final ModelDescriptor descriptor;
+
+	private final File modelFile;
+
+	private final ModelWeights weights;
+
+	private final Forwarder forwarder;
+
+	private final EngineBackend engine;
+
+	private final SessionPools sessionPools;
+
+	private final BatchingProperties batchingProperties;
+
+	private final ForwardProfiler profiler;
+
+	private final TensorArena arena;
+
+	private final ConcurrentMap<String, MicroBatcher> batchers = new ConcurrentHashMap<>();
+
+	private final long estimatedBytes;
+
+	private final long loadMillis;
+
+	private volatile long lastUsedAt = System.currentTimeMillis();
+
+	/**
+	 * Batch size the graph fixes, 0 if dynamic, -1 until read
+	 */
+	private volatile int batchSize = -1;
+
+	LoadedModel(ModelDescriptor descriptor, File modelFile, ModelWeights weights, Forwarder forwarder,
+			EngineBackend engine, long loadMillis, SessionPoolProperties sessionPoolProperties, BatchingProperties batchingProperties,
+			ArenaProperties arenaProperties, ForwardProfiler profiler, InferenceMetrics metrics) {
+		this.descriptor = descriptor;
+		this.modelFile = modelFile;
+		this.weights = weights;
+		this.forwarder = forwarder;
+		this.engine = engine;
+		this.estimatedBytes = modelFile.length();
+		this.loadMillis = loadMillis;
+		this.batchingProperties = batchingProperties;
+		this.profiler = profiler;
+		this.arena = new TensorArena(descriptor.getKey().toString(), arenaProperties.isEnabled(),
+				arenaProperties.getMaxBytesPerModel(), arenaProperties.getLeakThresholdMillis(),
+				arenaProperties.getSweepIntervalMillis());
+		this.sessionPools = new SessionPools(descriptor.getKey().toString(), forwarder, sessionPoolProperties,
+				(backendName, nanos) -> metrics.meters(descriptor.getKey(), descriptor.getExecutor(), backendName)
+						.sessionCreated(nanos));
+		if (engine != null)
+			this.sessionPools.register(EngineBackend.NAME, engine);
+	}
+
+	public ModelDescriptor getDescriptor() {
+		return this.descriptor;
+	}
+
+	public File getModelFile() {
+		return this.modelFile;
+	}
+
+	/**
+	 * Initializers of the model file, viewed in place in its mapping
+	 *
+	 * @return the weights, or null if model files are not mapped
+	 */
+	public ModelWeights getWeights() {
+		return this.weights;
+	}
+
+	public Forwarder getForwarder() {
+		return this.forwarder;
+	}
+
+	/**
+	 * Read from the declared shape of the input on first use
+	 *
+	 * @return the batch size the graph fixes for its input, 0 if its batch
+	 *         dimension is dynamic or not declared
+	 */
+	public int getBatchSize() throws IOException {
+		int batchSize = this.batchSize;
+		if (batchSize < 0) {
+			ModelProto model = this.weights != null ? ModelProto.parseFrom(this.weights.getModelBytes())
+					: ModelProto.parseFrom(Files.readAllBytes(this.modelFile.toPath()));
+			batchSize = 0;
+			for (ValueInfoProto input : model.getGraph().getInputList()) {
+				TensorShapeProto shape = input.getType().getTensorType().getShape();
+				if (input.getName().equals(this.descriptor.getInputName()) && shape.getDimCount() > 0)
+					batchSize = (int) Math.max(0, shape.getDim(0).getDimValue());
+			}
+			this.batchSize = batchSize;
+		}
+		return batchSize;
+	}
+
+	/**
+	 * @return the backend running the model on the graph engine, or null if
+	 *         it is disabled
+	 */
+	public EngineBackend getEngine() {
+		return this.engine;
+	}
+
+	public SessionPools getSessionPools() {
+		return this.sessionPools;
+	}
+
+	/**
+	 * Arena the input tensors of this model are checked out of
+	 */
+	public TensorArena getArena() {
+		return this.arena;
+	}
+
+	/**
+	 * Size of the model file, which the weights held by the forwarder are
+	 * dominated by
+	 */
+	public long getEstimatedBytes() {
+		return this.estimatedBytes;
+	}
+
+	/**
+	 * Build an input tensor of this model from a tensor proto, e.g. one of the
+	 * <code>test_data_set_*&#47;input_0.pb</code> shipped with the model
+	 */
+	public Tensor newInputTensor(TensorProto tensorProto) {
+		return TensorBuilder.builder(tensorProto, this.forwarder.getConfig().getTensorOptions())
+				.manager(this.forwarder.getModel().getTensorManager()).name(this.descriptor.getInputName()).build();
+	}
+
+	/**
+	 * @param backendName
+	 *            name of the backend, e.g. "Tensorflow" or "DL4J"
+	 * @return profile to run the forwards of this model on the backend with
+	 */
+	public ForwardProfile profile(String backendName) {
+		return this.profiler.profile(this.descriptor.getKey().toString(), this.descriptor.getExecutor(),
+				backendName);
+	}
+
+	/**
+	 * @param backendName
+	 *            name of the backend, e.g. "Tensorflow" or "DL4J"
+	 * @return the batcher of the backend, created on first use
+	 * @throws Exception
+	 *             if the forwarder cannot provide the backend
+	 */
+	public MicroBatcher batcher(String backendName) throws Exception {
+		MicroBatcher batcher = this.batchers.get(backendName);
+		if (batcher == null) {
+			synchronized (this.batchers) {
+				batcher = this.batchers.get(backendName);
+				if (batcher == null) {
+					batcher = new MicroBatcher(this.descriptor.getKey() + "/" + backendName,
+							this.sessionPools.get(backendName), this.profile(backendName), this.arena,
+							this.descriptor.getInputName(),
+							this.descriptor.getOutputName(), this.descriptor.getSampleDims(),
+							this.batchingProperties.isStackInputs() ? this.getBatchSize() : 0, this.batchingProperties);
+					this.batchers.put(backendName, batcher);
+				}
+			}
+		}
+		return batcher;
+	}
+
+	/**
+	 * @return false if the model has been evicted and must not be used
+	 */
+	boolean retain() {
+		int count;
+		do {
+			count = this.references.get();
+			if (count == 0)
+				return false;
+		} while (!this.references.compareAndSet(count, count + 1));
+		this.lastUsedAt = System.currentTimeMillis();
+		return true;
+	}
+
+	void release() {
+		if (this.references.decrementAndGet() == 0)
+			this.close();
+	}
+
+	/**
+	 * Drop the registry's reference, closing the model once no request uses
+	 * it any more
+	 */
+	void evict() {
+		this.release();
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("estimatedBytes", this.estimatedBytes);
+		stats.put("loadMillis", this.loadMillis);
+		stats.put("lastUsedAt", this.lastUsedAt);
+		stats.put("inUse", Math.max(0, this.references.get() - 1));
+		stats.put("sessions", this.sessionPools.stats());
+		stats.put("arena", this.arena.stats());
+		if (this.weights != null)
+			stats.put("weights", this.weights.stats());
+		if (this.engine != null)
+			stats.put("engine", this.engine.stats());
+
+		Map<String, Object> batching = new LinkedHashMap<>();
+		for (Map.Entry<String, MicroBatcher> batcher : this.batchers.entrySet())
+			batching.put(batcher.getKey(), batcher.getValue().stats());
+		stats.put("batching", batching);
+		return stats;
+	}
+
+	private void close() {
+		logger.info("Closing model {}", this.descriptor.getKey());
+		for (MicroBatcher batcher : this.batchers.values())
+			batcher.close();
+		this.batchers.clear();
+		this.sessionPools.close();
+		this.arena.close();
+		try {
+			this.forwarder.close();
+		} catch (Exception e) {
+			logger.warn("Failed to close forwarder of {}", this.descriptor.getKey(), e);
+		}
+		if (this.weights != null)
+			this.weights.close();
+	}
+
+}
@@ -0,0 +1,54 @@
+/**
+ * 
+ */
+package org.forwarder.demo.registry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Where a model lives and how to feed it, bound from
+ * <code>forwarder.registry.models[n].*</code>
+ */
+@Data
+public class ModelDescriptor {
+
+	private String name;
+
+	private int opset;
+
+	/**
+	 * <code>classpath:</code> resource or file system path of the
+	 * <code>model.onnx</code>
+	 */
+	private String path;
+
+	private String inputName;
+
+	private String outputName;
+
+	/**
+	 * Shape of one input sample without the batch dimension
+	 */
+	private List<Long> sampleShape = new ArrayList<>();
+
+	/**
+	 * Simple name of the executor class, "RayExecutor" or
+	 * "RecursionExecutor"
+	 */
+	private String executor = "RayExecutor";
+
+	public ModelKey getKey() {
+		return new ModelKey(this.name, this.opset);
+	}
+
+	public long[] getSampleDims() {
+		long[] dims = new long[this.sampleShape.size()];
+		for (int n = 0; n < dims.length; n++)
+			dims[n] = this.sampleShape.get(n);
+		return dims;
+	}
+
+}
@@ -0,0 +1,33 @@
+/**
+ * 
+ */
+package org.forwarder.demo.registry;
+
+/**
+ * Keeps a {@link LoadedModel} from being closed while a request uses it.
+ * Closing the handle lets the registry close the model again once it has
+ * been evicted.
+ */
+public class ModelHandle implements AutoCloseable {
+
+	private final LoadedModel model;
+
+	private boolean closed;
+
+	ModelHandle(LoadedModel model) {
+		this.model = model;
+	}
+
+	public LoadedModel get() {
+		return this.model;
+	}
+
+	@Override
+	public void close() {
+		if (!this.closed) {
+			this.closed = true;
+			this.model.release();
+		}
+	}
+
+}
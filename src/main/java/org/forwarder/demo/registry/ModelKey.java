@@ -0,0 +1,23 @@
+/**
+ * 
+ */
+package org.forwarder.demo.registry;
+
+import lombok.Value;
+
+/**
+ * Identifies a model served by the {@link ModelRegistry}
+ */
+@Value
+public class ModelKey {
+
+	private final String name;
+
+	private final int opset;
+
+	@Override
+	public String toString() {
+		return this.name + "/opset_v" + this.opset;
+	}
+
+}
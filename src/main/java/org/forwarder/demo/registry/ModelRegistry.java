@@ -0,0 +1,408 @@
+/**
+ *
+ */
+package org.forwarder.demo.registry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forwarder.Config;
+import org.forwarder.Forwarder;
+import org.forwarder.demo.artifacts.ArtifactCache;
+import org.forwarder.demo.backend.EngineBackend;
+import org.forwarder.demo.backend.EngineBackends;
+import org.forwarder.demo.artifacts.ModelArtifact;
+import org.forwarder.demo.configurations.ArenaProperties;
+import org.forwarder.demo.configurations.BatchingProperties;
+import org.forwarder.demo.configurations.ModelRegistryProperties;
+import org.forwarder.demo.configurations.SessionPoolProperties;
+import org.forwarder.demo.metrics.Histogram;
+import org.forwarder.demo.metrics.InferenceMetrics;
+import org.forwarder.demo.optimizer.GraphOptimizer;
+import org.forwarder.demo.profiling.ForwardProfiler;
+import org.forwarder.demo.weights.ModelWeights;
+import org.forwarder.demo.weights.WeightStore;
+import org.forwarder.executor.impls.RayExecutor;
+import org.forwarder.executor.impls.RecursionExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves every configured model from one process. A model is loaded the first
+ * time it is acquired, concurrent requests for a model that is still loading
+ * wait for that single load, and the least recently used models are closed
+ * when more than <code>maxModels</code> are loaded or their estimated size
+ * exceeds <code>maxBytes</code>.
+ *
+ * Model files are mapped read-only through a {@link WeightStore}, so models
+ * opened on the same file share one copy of their initializers. When the
+ * {@link GraphOptimizer} is enabled, models are optimized first and loaded
+ * from the optimized file, which the {@link ArtifactCache} keeps across
+ * restarts when enabled, or the extract directory otherwise. When the
+ * {@link EngineBackends} are enabled, every model is also served by an
+ * {@link EngineBackend} named "Engine".
+ */
+public class ModelRegistry implements AutoCloseable {
+
+	private static final String CLASSPATH_PREFIX = "classpath:";
+
+	private static Logger logger = LoggerFactory.getLogger(ModelRegistry.class);
+
+	private final ModelRegistryProperties properties;
+
+	private final SessionPoolProperties sessionPoolProperties;
+
+	private final BatchingProperties batchingProperties;
+
+	private final ArenaProperties arenaProperties;
+
+	private final ForwardProfiler profiler;
+
+	private final InferenceMetrics metrics;
+
+	private final GraphOptimizer optimizer;
+
+	private final ArtifactCache artifactCache;
+
+	private final EngineBackends engineBackends;
+
+	private final WeightStore weightStore = new WeightStore();
+
+	private final Map<ModelKey, ModelDescriptor> descriptors = new LinkedHashMap<>();
+
+	/**
+	 * Loaded and loading models, least recently used first. Guarded by
+	 * itself.
+	 */
+	private final LinkedHashMap<ModelKey, CompletableFuture<LoadedModel>> models = new LinkedHashMap<>(16, 0.75f,
+			true);
+
+	private final Histogram loadTimes = new Histogram("ms");
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	private long residentBytes;
+
+	private volatile boolean closed;
+
+	public ModelRegistry(ModelRegistryProperties properties, SessionPoolProperties sessionPoolProperties,
+			BatchingProperties batchingProperties) {
+		this(properties, sessionPoolProperties, batchingProperties, new ArenaProperties(),
+				ForwardProfiler.disabled(), InferenceMetrics.local(), GraphOptimizer.disabled(),
+				ArtifactCache.disabled(), EngineBackends.disabled());
+	}
+
+	public ModelRegistry(ModelRegistryProperties properties, SessionPoolProperties sessionPoolProperties,
+			BatchingProperties batchingProperties, ArenaProperties arenaProperties, ForwardProfiler profiler,
+			InferenceMetrics metrics, GraphOptimizer optimizer, ArtifactCache artifactCache,
+			EngineBackends engineBackends) {
+		this.properties = properties;
+		this.sessionPoolProperties = sessionPoolProperties;
+		this.batchingProperties = batchingProperties;
+		this.arenaProperties = arenaProperties;
+		this.profiler = profiler;
+		this.metrics = metrics;
+		this.optimizer = optimizer;
+		this.artifactCache = artifactCache;
+		this.engineBackends = engineBackends;
+		for (ModelDescriptor descriptor : properties.getModels())
+			this.descriptors.put(descriptor.getKey(), descriptor);
+	}
+
+	public ModelKey getDefaultKey() {
+		return new ModelKey(this.properties.getDefaultModel(), this.properties.getDefaultOpset());
+	}
+
+	public List<ModelDescriptor> getDescriptors() {
+		return new ArrayList<>(this.descriptors.values());
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if no such model is configured
+	 */
+	public ModelDescriptor getDescriptor(ModelKey key) {
+		ModelDescriptor descriptor = this.descriptors.get(key);
+		if (descriptor == null)
+			throw new IllegalArgumentException(String.format("Unknown model %s", key));
+		return descriptor;
+	}
+
+	/**
+	 * Get a model for the duration of a request, loading it if needed
+	 *
+	 * @param key
+	 *            name and opset of a configured model
+	 * @return handle to close once the request is done with the model
+	 * @throws IllegalArgumentException
+	 *             if no such model is configured
+	 * @throws Exception
+	 *             if the model fails to load
+	 */
+	public ModelHandle acquire(ModelKey key) throws Exception {
+		ModelDescriptor descriptor = this.getDescriptor(key);
+
+		while (true) {
+			if (this.closed)
+				throw new IllegalStateException("Model registry is closed");
+
+			CompletableFuture<LoadedModel> future;
+			boolean loader = false;
+			synchronized (this.models) {
+				future = this.models.get(key);
+				if (future == null) {
+					future = new CompletableFuture<>();
+					this.models.put(key, future);
+					loader = true;
+				}
+			}
+
+			if (loader) {
+				this.misses.increment();
+				this.load(descriptor, future);
+			} else {
+				this.hits.increment();
+			}
+
+			LoadedModel model;
+			try {
+				model = future.get();
+			} catch (ExecutionException e) {
+				throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			}
+
+			if (model.retain())
+				return new ModelHandle(model);
+			// Evicted between lookup and retain, look it up again
+		}
+	}
+
+	public Map<String, Object> stats() {
+		long hits = this.hits.sum();
+		long misses = this.misses.sum();
+
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("hits", hits);
+		stats.put("misses", misses);
+		stats.put("hitRate", hits + misses == 0 ? 0d : ((double) hits) / (hits + misses));
+		stats.put("evictions", this.evictions.sum());
+		stats.put("loadTime", this.loadTimes.toMap());
+
+		Map<String, Object> resident = new LinkedHashMap<>();
+		synchronized (this.models) {
+			stats.put("residentBytes", this.residentBytes);
+			for (Map.Entry<ModelKey, CompletableFuture<LoadedModel>> entry : this.models.entrySet()) {
+				CompletableFuture<LoadedModel> future = entry.getValue();
+				if (future.isDone() && !future.isCompletedExceptionally())
+					resident.put(entry.getKey().toString(), future.join().stats());
+			}
+		}
+		stats.put("models", resident);
+		stats.put("weights", this.weightStore.stats());
+		stats.put("artifacts", this.artifactCache.stats());
+		stats.put("engine", this.engineBackends.stats());
+		return stats;
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+		List<CompletableFuture<LoadedModel>> futures;
+		synchronized (this.models) {
+			futures = new ArrayList<>(this.models.values());
+			this.models.clear();
+			this.residentBytes = 0;
+		}
+		for (CompletableFuture<LoadedModel> future : futures) {
+			if (future.isDone() && !future.isCompletedExceptionally())
+				future.join().evict();
+		}
+	}
+
+	private void load(ModelDescriptor descriptor, CompletableFuture<LoadedModel> future) {
+		ModelKey key = descriptor.getKey();
+		ModelWeights weights = null;
+		Forwarder forwarder = null;
+		try {
+			logger.info("Loading model {} ...", key);
+			long startedAt = System.nanoTime();
+			File extractDirectory = new File(this.properties.getExtractDirectory());
+			File sourceFile = resolve(descriptor.getPath(), extractDirectory);
+			File modelFile = sourceFile;
+			ModelArtifact artifact = null;
+			if (this.optimizer.isEnabled() && this.artifactCache.isEnabled()) {
+				artifact = this.artifactCache.optimized(modelFile, key.getOpset(), this.optimizer);
+				modelFile = artifact.getFile();
+			} else if (this.optimizer.isEnabled()) {
+				File optimizedFile = new File(extractDirectory, "optimized/" + key + "/" + modelFile.getName());
+				this.optimizer.optimize(modelFile, optimizedFile);
+				modelFile = optimizedFile;
+			}
+			if (this.properties.isMapWeights())
+				weights = this.weightStore.acquire(modelFile);
+			forwarder = open(modelFile.getAbsolutePath(), descriptor.getExecutor());
+			long loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+			this.loadTimes.record(loadMillis);
+			if (artifact == null) {
+				logger.info("Model {} loaded in {}ms", key, loadMillis);
+			} else if (artifact.isCached()) {
+				logger.info("Model {} loaded in {}ms from cached artifact {} ({}ms when cold)", key, loadMillis,
+						modelFile, artifact.getColdLoadMillis());
+			} else {
+				logger.info("Model {} loaded cold in {}ms, artifact cached as {}", key, loadMillis, modelFile);
+				this.artifactCache.recordColdLoad(artifact, loadMillis);
+			}
+
+			// the data sets to gate reduced precisions with ship next to the source file
+			EngineBackend engine = this.engineBackends.isEnabled()
+					? this.engineBackends.open(descriptor, modelFile, weights, sourceFile.getParentFile())
+					: null;
+			LoadedModel model = new LoadedModel(descriptor, modelFile, weights, forwarder, engine, loadMillis,
+					this.sessionPoolProperties, this.batchingProperties, this.arenaProperties, this.profiler,
+					this.metrics);
+			// the model owns and closes them from here on
+			forwarder = null;
+			weights = null;
+			synchronized (this.models) {
+				this.residentBytes += model.getEstimatedBytes();
+			}
+			future.complete(model);
+			if (this.closed)
+				model.evict();
+			else
+				this.evictIfNeeded(key);
+		} catch (Exception | Error e) {
+			if (forwarder != null) {
+				try {
+					forwarder.close();
+				} catch (Exception closeException) {
+					e.addSuppressed(closeException);
+				}
+			}
+			if (weights != null)
+				weights.close();
+			synchronized (this.models) {
+				this.models.remove(key, future);
+			}
+			logger.error("Failed to load model {}", key, e);
+			future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Close least recently used models until the budget is met again. The
+	 * model just loaded is never evicted, nor are models still loading.
+	 */
+	private void evictIfNeeded(ModelKey justLoaded) {
+		List<LoadedModel> evicted = new ArrayList<>();
+		synchronized (this.models) {
+			Iterator<Map.Entry<ModelKey, CompletableFuture<LoadedModel>>> iterator = this.models.entrySet()
+					.iterator();
+			while (iterator.hasNext() && (this.models.size() > this.properties.getMaxModels()
+					|| this.residentBytes > this.properties.getMaxBytes())) {
+				Map.Entry<ModelKey, CompletableFuture<LoadedModel>> entry = iterator.next();
+				CompletableFuture<LoadedModel> future = entry.getValue();
+				if (entry.getKey().equals(justLoaded) || !future.isDone() || future.isCompletedExceptionally())
+					continue;
+
+				LoadedModel model = future.join();
+				iterator.remove();
+				this.residentBytes -= model.getEstimatedBytes();
+				evicted.add(model);
+			}
+		}
+
+		for (LoadedModel model : evicted) {
+			logger.info("Evicting model {}", model.getDescriptor().getKey());
+			this.evictions.increment();
+			model.evict();
+		}
+	}
+
+	/**
+	 * @param extractDirectory
+	 *            where a <code>classpath:</code> model packaged inside a jar or
+	 *            war is extracted to
+	 * @return the model file
+	 */
+	static File resolve(String path, File extractDirectory) throws IOException {
+		File file;
+		if (path.startsWith(CLASSPATH_PREFIX)) {
+			String resourcePath = path.substring(CLASSPATH_PREFIX.length());
+			URL resource = ModelRegistry.class.getResource(resourcePath);
+			if (resource == null)
+				throw new FileNotFoundException(String.format("Model %s not found", path));
+			if ("file".equals(resource.getProtocol()))
+				file = new File(URLDecoder.decode(resource.getFile(), "utf-8"));
+			else
+				file = extract(resource, new File(extractDirectory, resourcePath));
+		} else {
+			file = new File(path);
+		}
+		if (!file.isFile())
+			throw new FileNotFoundException(String.format("Model %s not found", file.getAbsolutePath()));
+		return file;
+	}
+
+	/**
+	 * Copy a packaged resource to a file, unless a previous run already did.
+	 * The copy is moved into place atomically, so concurrent loads never see
+	 * a partial file.
+	 */
+	private static File extract(URL resource, File target) throws IOException {
+		long length = resource.openConnection().getContentLengthLong();
+		if (target.isFile() && target.length() == length)
+			return target;
+
+		File directory = target.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException(String.format("Cannot create %s", directory));
+		File partial = File.createTempFile(target.getName(), ".part", directory);
+		try (InputStream in = resource.openStream()) {
+			Files.copy(in, partial.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(partial.toPath());
+		}
+		logger.info("Extracted {} to {}", resource, target);
+		return target;
+	}
+
+	/**
+	 * Open a forwarder on a model file the way the registry does
+	 *
+	 * @param executor
+	 *            simple name of the executor class, "RayExecutor" or
+	 *            "RecursionExecutor"
+	 */
+	public static Forwarder open(String modelPath, String executor) throws Exception {
+		Config config = Config.builder().setDebug(true).setMemoryByteOrder(ByteOrder.LITTLE_ENDIAN).build();
+		if (RecursionExecutor.class.getSimpleName().equals(executor))
+			return Forwarder.config(config).load(modelPath).executor(RecursionExecutor.class);
+		if (RayExecutor.class.getSimpleName().equals(executor))
+			return Forwarder.config(config).load(modelPath).executor(RayExecutor.class);
+		throw new IllegalArgumentException(String.format("Unknown executor \"%s\"", executor));
+	}
+
+}
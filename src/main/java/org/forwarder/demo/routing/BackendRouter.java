@@ -0,0 +1,337 @@
+/**
+ *
+ */
+package org.forwarder.demo.routing;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forwarder.demo.configurations.RoutingProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the "auto" backend. The rolling latency and the failures of every
+ * (model, backend, batch size) are tracked, and each request goes to the
+ * fastest backend that is not out of rotation, except for a small share sent
+ * to a random one to keep the others measured.
+ *
+ * A backend failing <code>failureThreshold</code> times in a row is taken out
+ * of rotation for <code>openMillis</code>, after which a single trial request
+ * decides whether it comes back. A request whose backend fails is retried
+ * once on the next best one.
+ */
+public class BackendRouter {
+
+	public static final String AUTO = "auto";
+
+	private static Logger logger = LoggerFactory.getLogger(BackendRouter.class);
+
+	/**
+	 * A forward on a chosen backend
+	 */
+	public interface BackendCall<T> {
+
+		T call(String backend) throws Exception;
+
+	}
+
+	private final RoutingProperties properties;
+
+	private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+	public BackendRouter(RoutingProperties properties) {
+		this.properties = properties;
+	}
+
+	public static boolean isAuto(String backend) {
+		return AUTO.equalsIgnoreCase(backend);
+	}
+
+	/**
+	 * Run a forward on the best backend, retrying once on the next best one if
+	 * it fails
+	 *
+	 * @param model
+	 *            model forwarded, e.g. "mnist/opset_v8"
+	 * @param batchSize
+	 *            samples per forward
+	 */
+	public <T> T route(String model, int batchSize, BackendCall<T> call) throws Exception {
+		String backend = this.choose(model, batchSize, null);
+		try {
+			return this.call(model, batchSize, backend, call);
+		} catch (IllegalArgumentException e) {
+			throw e;
+		} catch (Exception e) {
+			String fallback = this.choose(model, batchSize, backend);
+			if (fallback == null)
+				throw e;
+			logger.warn("Backend {} failed on {}, retrying on {}", backend, model, fallback, e);
+			this.route(model, batchSize, fallback).fallbacks.increment();
+			return this.call(model, batchSize, fallback, call);
+		}
+	}
+
+	/**
+	 * @param excluded
+	 *            backend not to choose, or null
+	 * @return the backend to forward on, null if there is none left
+	 */
+	public String choose(String model, int batchSize, String excluded) {
+		long now = System.currentTimeMillis();
+		List<String> healthy = new ArrayList<>();
+		String fallback = null;
+		for (String backend : this.properties.getBackends()) {
+			if (backend.equals(excluded))
+				continue;
+			if (fallback == null)
+				fallback = backend;
+			if (this.breaker(model, backend).isAvailable(now))
+				healthy.add(backend);
+		}
+		if (healthy.isEmpty()) {
+			// Every backend is out of rotation, keep serving on the first
+			return fallback;
+		}
+
+		Route chosen = null;
+		Route fastest = null;
+		for (String backend : healthy) {
+			Route route = this.route(model, batchSize, backend);
+			if (route.samples < this.properties.getMinSamples()) {
+				chosen = route;
+				break;
+			}
+			if (fastest == null || route.latencyMicros < fastest.latencyMicros)
+				fastest = route;
+		}
+
+		if (chosen == null) {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			if (healthy.size() > 1 && random.nextDouble() < this.properties.getExplorationRate()) {
+				chosen = this.route(model, batchSize, healthy.get(random.nextInt(healthy.size())));
+				chosen.explored.increment();
+			} else {
+				chosen = fastest;
+			}
+		}
+		chosen.chosen.increment();
+		this.breaker(model, chosen.backend).claim(now, this.properties.getOpenMillis());
+		return chosen.backend;
+	}
+
+	/**
+	 * Record the outcome of a forward on a chosen backend
+	 */
+	public void record(String model, int batchSize, String backend, long micros, boolean succeeded) {
+		Route route = this.route(model, batchSize, backend);
+		Breaker breaker = this.breaker(model, backend);
+		if (succeeded) {
+			route.update(micros, this.properties.getSmoothing());
+			breaker.succeeded();
+		} else {
+			route.failures.increment();
+			if (breaker.failed(System.currentTimeMillis(), this.properties))
+				logger.warn("Backend {} taken out of rotation for {} after {} consecutive failures", backend, model,
+						this.properties.getFailureThreshold());
+		}
+	}
+
+	/**
+	 * @return routes grouped by model, backend then batch size
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> stats() {
+		long now = System.currentTimeMillis();
+		Map<String, Object> models = new LinkedHashMap<>();
+		for (Breaker breaker : this.breakers.values()) {
+			Map<String, Object> backends = (Map<String, Object>) models.computeIfAbsent(breaker.model,
+					model -> new LinkedHashMap<>());
+			Map<String, Object> backend = (Map<String, Object>) backends.computeIfAbsent(breaker.backend,
+					name -> new LinkedHashMap<>());
+			backend.put("state", breaker.state(now));
+			backend.put("opened", breaker.opened.sum());
+		}
+		for (Route route : this.routes.values()) {
+			Map<String, Object> backends = (Map<String, Object>) models.computeIfAbsent(route.model,
+					model -> new LinkedHashMap<>());
+			Map<String, Object> backend = (Map<String, Object>) backends.computeIfAbsent(route.backend,
+					name -> new LinkedHashMap<>());
+			Map<String, Object> batchSizes = (Map<String, Object>) backend.computeIfAbsent("batchSizes",
+					name -> new LinkedHashMap<>());
+			batchSizes.put(String.valueOf(route.batchSize), route.stats());
+		}
+		return models;
+	}
+
+	private <T> T call(String model, int batchSize, String backend, BackendCall<T> call) throws Exception {
+		long startedAt = System.nanoTime();
+		try {
+			T result = call.call(backend);
+			this.record(model, batchSize, backend, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt),
+					true);
+			return result;
+		} catch (IllegalArgumentException e) {
+			// The request is at fault, not the backend
+			throw e;
+		} catch (Exception e) {
+			this.record(model, batchSize, backend, 0, false);
+			throw e;
+		}
+	}
+
+	private Route route(String model, int batchSize, String backend) {
+		int bucket = Integer.highestOneBit(Math.max(1, batchSize));
+		String key = model + "/" + backend + "/" + bucket;
+		Route route = this.routes.get(key);
+		if (route == null) {
+			route = new Route(model, backend, bucket);
+			Route existing = this.routes.putIfAbsent(key, route);
+			if (existing != null)
+				route = existing;
+		}
+		return route;
+	}
+
+	private Breaker breaker(String model, String backend) {
+		String key = model + "/" + backend;
+		Breaker breaker = this.breakers.get(key);
+		if (breaker == null) {
+			breaker = new Breaker(model, backend);
+			Breaker existing = this.breakers.putIfAbsent(key, breaker);
+			if (existing != null)
+				breaker = existing;
+		}
+		return breaker;
+	}
+
+	/**
+	 * Rolling latency of a backend on a model for batch sizes of the same
+	 * power of two
+	 */
+	private static class Route {
+
+		private final String model;
+
+		private final String backend;
+
+		private final int batchSize;
+
+		private final LongAdder chosen = new LongAdder();
+
+		private final LongAdder explored = new LongAdder();
+
+		private final LongAdder fallbacks = new LongAdder();
+
+		private final LongAdder failures = new LongAdder();
+
+		private volatile double latencyMicros;
+
+		private volatile long samples;
+
+		private Route(String model, String backend, int batchSize) {
+			this.model = model;
+			this.backend = backend;
+			this.batchSize = batchSize;
+		}
+
+		private synchronized void update(long micros, double smoothing) {
+			this.latencyMicros = this.samples == 0 ? micros
+					: smoothing * micros + (1 - smoothing) * this.latencyMicros;
+			this.samples++;
+		}
+
+		private Map<String, Object> stats() {
+			Map<String, Object> stats = new LinkedHashMap<>();
+			stats.put("latencyMicros", (long) this.latencyMicros);
+			stats.put("samples", this.samples);
+			stats.put("chosen", this.chosen.sum());
+			stats.put("explored", this.explored.sum());
+			stats.put("fallbacks", this.fallbacks.sum());
+			stats.put("failures", this.failures.sum());
+			return stats;
+		}
+
+	}
+
+	/**
+	 * Circuit breaker of a backend on a model
+	 */
+	private static class Breaker {
+
+		private final String model;
+
+		private final String backend;
+
+		private final LongAdder opened = new LongAdder();
+
+		private int consecutiveFailures;
+
+		/**
+		 * End of the open period, 0 while the breaker is closed
+		 */
+		private long openUntil;
+
+		private Breaker(String model, String backend) {
+			this.model = model;
+			this.backend = backend;
+		}
+
+		/**
+		 * @return true if the breaker is closed or its open period is over
+		 */
+		private synchronized boolean isAvailable(long now) {
+			return this.openUntil == 0 || now >= this.openUntil;
+		}
+
+		/**
+		 * Let the request about to go to the backend through as the trial if
+		 * the open period is over, holding back others for another period
+		 * unless the trial succeeds
+		 */
+		private synchronized void claim(long now, long openMillis) {
+			if (this.openUntil != 0 && now >= this.openUntil)
+				this.openUntil = now + openMillis;
+		}
+
+		private synchronized void succeeded() {
+			this.consecutiveFailures = 0;
+			this.openUntil = 0;
+		}
+
+		/**
+		 * @return true if this failure opened the breaker
+		 */
+		private synchronized boolean failed(long now, RoutingProperties properties) {
+			this.consecutiveFailures++;
+			if (this.openUntil != 0) {
+				// A failed trial
+				this.openUntil = now + properties.getOpenMillis();
+				return false;
+			}
+			if (this.consecutiveFailures < Math.max(1, properties.getFailureThreshold()))
+				return false;
+			this.openUntil = now + properties.getOpenMillis();
+			this.opened.increment();
+			return true;
+		}
+
+		private synchronized String state(long now) {
+			if (this.openUntil == 0)
+				return "CLOSED";
+			return now < this.openUntil ? "OPEN" : "HALF_OPEN";
+		}
+
+	}
+
+}
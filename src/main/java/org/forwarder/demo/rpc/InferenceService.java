@@ -0,0 +1,382 @@
+/**
+ *
+ */
+package org.forwarder.demo.rpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forwarder.demo.backend.EngineBackend;
+import org.forwarder.demo.binary.BinaryTensors;
+import org.forwarder.demo.configurations.PredictProperties;
+import org.forwarder.demo.engine.NdArray;
+import org.forwarder.demo.metrics.ForwardMeters;
+import org.forwarder.demo.metrics.InferenceMetrics;
+import org.forwarder.demo.registry.LoadedModel;
+import org.forwarder.demo.registry.ModelDescriptor;
+import org.forwarder.demo.registry.ModelHandle;
+import org.forwarder.demo.registry.ModelKey;
+import org.forwarder.demo.registry.ModelRegistry;
+import org.forwarder.demo.routing.BackendRouter;
+import org.forwarder.demo.session.PooledSession;
+import org.onnx4j.Tensor;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Forwards <code>TensorProto</code> requests on the models of the
+ * {@link ModelRegistry} and their session pools, either one at a time or as a
+ * bidirectional stream of {@link TensorFrames}, independent of the transport
+ * carrying them.
+ *
+ * The requests of a stream are read as they arrive and forwarded in parallel
+ * on a pool shared by all streams, each on a session of its own, so that a
+ * client pipelines many requests over one connection without waiting for
+ * their responses. Responses are written in the order of the requests as soon
+ * as they are ready; a failed request is answered with an error frame and
+ * does not end the stream. At most <code>maxInFlight</code> requests of a
+ * stream are forwarded or waiting to be written, beyond which the stream is
+ * not read further.
+ *
+ * Outputs are answered with shape <code>[batch, elements / batch]</code>,
+ * where batch is the first input dimension, like the binary forward endpoint.
+ * Requests for the "Engine" backend are forwarded on the graph engine
+ * directly, without copying them into and out of onnx4j tensors.
+ */
+public class InferenceService implements AutoCloseable {
+
+	private static Logger logger = LoggerFactory.getLogger(InferenceService.class);
+
+	private final PredictProperties properties;
+
+	private final ModelRegistry registry;
+
+	private final BackendRouter router;
+
+	private final InferenceMetrics metrics;
+
+	private final ThreadPoolExecutor executor;
+
+	private final Semaphore streams;
+
+	private final LongAdder openedStreams = new LongAdder();
+
+	private final LongAdder requests = new LongAdder();
+
+	private final LongAdder errors = new LongAdder();
+
+	public InferenceService(PredictProperties properties, ModelRegistry registry, BackendRouter router,
+			InferenceMetrics metrics) {
+		this.properties = properties;
+		this.registry = registry;
+		this.router = router;
+		this.metrics = metrics;
+		this.streams = new Semaphore(Math.max(1, properties.getMaxStreams()));
+
+		int threads = properties.getThreads() > 0 ? properties.getThreads()
+				: Runtime.getRuntime().availableProcessors();
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+					Thread thread = new Thread(runnable, "predict-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	public PredictProperties getProperties() {
+		return this.properties;
+	}
+
+	/**
+	 * Forward a single request
+	 *
+	 * @param backend
+	 *            backend to forward on, or "auto" to let the router choose
+	 * @return the output of the model
+	 * @throws IllegalArgumentException
+	 *             if no such model is configured or the input does not fit it
+	 */
+	public TensorProto predict(ModelKey key, String backend, TensorProto input) throws Exception {
+		ForwardMeters meters = this.meters(key, backend);
+		long startedAt = meters.start();
+		try (ModelHandle handle = this.registry.acquire(key)) {
+			LoadedModel model = handle.get();
+			if (BackendRouter.isAuto(backend))
+				return this.router.route(key.toString(), (int) batch(input),
+						chosen -> this.forward(model, chosen, input, meters, startedAt));
+			return this.forward(model, backend, input, meters, startedAt);
+		} catch (Exception e) {
+			this.errors.increment();
+			meters.error(e);
+			throw e;
+		} finally {
+			this.requests.increment();
+			meters.finish();
+		}
+	}
+
+	/**
+	 * Forward the request frames of a stream until it ends, writing a
+	 * response frame for each of them. A frame that cannot be read is
+	 * answered with a last error frame, after the responses of the requests
+	 * before it.
+	 *
+	 * @param backend
+	 *            backend to forward on, or "auto" to let the router choose one
+	 *            for the whole stream, which is told the outcome of every
+	 *            request
+	 * @throws IllegalArgumentException
+	 *             if no such model is configured
+	 * @throws RejectedExecutionException
+	 *             if <code>maxStreams</code> streams are already open
+	 * @throws IOException
+	 *             if the stream cannot be read or the responses cannot be
+	 *             written
+	 */
+	public void predictStream(ModelKey key, String backend, InputStream in, OutputStream out) throws Exception {
+		this.registry.getDescriptor(key);
+		if (!this.streams.tryAcquire())
+			throw new RejectedExecutionException(
+					String.format("%s streams are already open", this.properties.getMaxStreams()));
+		this.openedStreams.increment();
+		try (ModelHandle handle = this.registry.acquire(key)) {
+			String chosen = BackendRouter.isAuto(backend) ? this.router.choose(key.toString(), 1, null) : backend;
+			new Stream(handle.get(), backend, chosen, out).run(in);
+		} finally {
+			this.streams.release();
+		}
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("openStreams", Math.max(1, this.properties.getMaxStreams()) - this.streams.availablePermits());
+		stats.put("openedStreams", this.openedStreams.sum());
+		stats.put("requests", this.requests.sum());
+		stats.put("errors", this.errors.sum());
+		stats.put("queued", this.executor.getQueue().size());
+		return stats;
+	}
+
+	@Override
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+	private TensorProto forward(LoadedModel model, String backend, TensorProto input, ForwardMeters meters,
+			long startedAt) throws Exception {
+		ModelDescriptor descriptor = model.getDescriptor();
+		long batch = batch(input);
+		EngineBackend engine = model.getEngine();
+		ByteBuffer data;
+		if (engine != null && EngineBackend.NAME.equals(backend)) {
+			NdArray array = NdArray.of(input);
+			if (!array.isFloat())
+				throw new IllegalArgumentException(String.format("Input %s is not a float tensor", array));
+			NdArray output = engine.forward(array);
+			data = ByteBuffer.allocate(output.size() * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			data.asFloatBuffer().put(output.data(), 0, output.size());
+		} else {
+			try (Tensor inputTensor = model.newInputTensor(input);
+					PooledSession session = model.getSessionPools().get(backend).borrow()) {
+				Tensor outputTensor = model.profile(backend).forward(session, inputTensor,
+						descriptor.getOutputName());
+				ByteBuffer output = outputTensor.getData();
+				output = output.duplicate().order(output.order());
+				output.clear();
+				// the output buffer is reused by the next forward of the session
+				data = ByteBuffer.allocate(output.remaining()).order(output.order());
+				data.put(output).flip();
+			}
+		}
+		meters.forwarded(startedAt);
+		meters.tensorBytes(input.getSerializedSize(), data.remaining());
+
+		long elements = data.remaining() / Float.BYTES;
+		long[] outputDims = batch > 0 && elements % batch == 0 ? new long[] { batch, elements / batch }
+				: new long[] { elements };
+		return BinaryTensors.tensorProto(descriptor.getOutputName(), data, outputDims);
+	}
+
+	private ForwardMeters meters(ModelKey key, String backend) {
+		return this.metrics.meters(key, this.registry.getDescriptor(key).getExecutor(), backend);
+	}
+
+	private static long batch(TensorProto input) {
+		return input.getDimsCount() > 0 ? input.getDims(0) : 1;
+	}
+
+	/**
+	 * One open stream, whose requests are forwarded on the shared pool and
+	 * whose responses are written by whichever thread completes the next one
+	 * due
+	 */
+	private final class Stream {
+
+		private final LoadedModel model;
+
+		/**
+		 * Backend the stream was opened for, which it is metered as
+		 */
+		private final String backend;
+
+		private final String chosen;
+
+		private final OutputStream out;
+
+		private final int maxInFlight = Math.max(1, InferenceService.this.properties.getMaxInFlight());
+
+		/**
+		 * Released once the response of a request is written
+		 */
+		private final Semaphore inFlight = new Semaphore(this.maxInFlight);
+
+		/**
+		 * Responses not written yet by request index, either a tensor or an
+		 * error message. Guards the fields below and the output.
+		 */
+		private final Map<Integer, Object> responses = new HashMap<>();
+
+		private int nextResponse;
+
+		private IOException writeFailure;
+
+		private Stream(LoadedModel model, String backend, String chosen, OutputStream out) {
+			this.model = model;
+			this.backend = backend;
+			this.chosen = chosen;
+			this.out = out;
+		}
+
+		private void run(InputStream in) throws Exception {
+			int maxBytes = InferenceService.this.properties.getMaxMessageBytes();
+			int requests = 0;
+			String streamError = null;
+			long startedAt = System.nanoTime();
+			try {
+				while (true) {
+					TensorFrames.Frame frame;
+					try {
+						frame = TensorFrames.read(in, maxBytes);
+					} catch (IllegalArgumentException e) {
+						streamError = e.getMessage();
+						break;
+					}
+					if (frame == null)
+						break;
+
+					this.inFlight.acquire();
+					this.checkWritten();
+					int request = requests++;
+					if (frame.isError()) {
+						this.respond(request, "Error frames are not requests");
+						continue;
+					}
+					try {
+						InferenceService.this.executor
+								.execute(() -> this.respond(request, this.predict(frame.getTensor())));
+					} catch (RejectedExecutionException e) {
+						this.respond(request, String.valueOf(e.getMessage()));
+					}
+				}
+			} finally {
+				// every request read is answered, whatever ended the stream
+				this.inFlight.acquireUninterruptibly(this.maxInFlight);
+				logger.debug("Stream on {}/{} answered {} requests in {}ms", this.model.getDescriptor().getKey(),
+						this.chosen, requests, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+			}
+			synchronized (this.responses) {
+				if (streamError != null && this.writeFailure == null)
+					TensorFrames.writeError(this.out, streamError);
+				this.checkWritten();
+				this.out.flush();
+			}
+		}
+
+		/**
+		 * @return the output, or the message of the error it failed with
+		 */
+		private Object predict(TensorProto input) {
+			ForwardMeters meters = InferenceService.this.meters(this.model.getDescriptor().getKey(), this.backend);
+			long startedAt = meters.start();
+			boolean routed = BackendRouter.isAuto(this.backend);
+			try {
+				TensorProto output = InferenceService.this.forward(this.model, this.chosen, input, meters, startedAt);
+				if (routed)
+					InferenceService.this.router.record(this.model.getDescriptor().getKey().toString(),
+							(int) batch(input), this.chosen,
+							TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt), true);
+				return output;
+			} catch (Exception e) {
+				// like the router, only failures of the backend count against it
+				if (routed && !(e instanceof IllegalArgumentException))
+					InferenceService.this.router.record(this.model.getDescriptor().getKey().toString(),
+							(int) batch(input), this.chosen, 0, false);
+				logger.debug("Failed to forward stream request on {}", this.model.getDescriptor().getKey(), e);
+				InferenceService.this.errors.increment();
+				meters.error(e);
+				return String.valueOf(e.getMessage());
+			} finally {
+				InferenceService.this.requests.increment();
+				meters.finish();
+			}
+		}
+
+		/**
+		 * Write the responses due from the given one on, once the ones before
+		 * it are written
+		 */
+		private void respond(int request, Object response) {
+			synchronized (this.responses) {
+				this.responses.put(request, response);
+				int written = 0;
+				Object next;
+				while ((next = this.responses.remove(this.nextResponse)) != null) {
+					this.nextResponse++;
+					written++;
+					if (this.writeFailure != null)
+						continue;
+					try {
+						if (next instanceof TensorProto)
+							TensorFrames.writeTensor(this.out, (TensorProto) next);
+						else
+							TensorFrames.writeError(this.out, (String) next);
+					} catch (IOException e) {
+						this.writeFailure = e;
+					}
+				}
+				if (written > 0 && this.writeFailure == null) {
+					try {
+						this.out.flush();
+					} catch (IOException e) {
+						this.writeFailure = e;
+					}
+				}
+				this.inFlight.release(written);
+			}
+		}
+
+		private void checkWritten() throws IOException {
+			synchronized (this.responses) {
+				if (this.writeFailure != null)
+					throw this.writeFailure;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ */
+package org.forwarder.demo.rpc;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Length-prefixed frames of the streams of an {@link InferenceService}, laid
+ * out like the messages of gRPC: a kind byte, a big-endian 4-byte length and
+ * the payload, either a serialized <code>TensorProto</code> or the UTF-8
+ * message of the error a request failed with.
+ *
+ * <pre>
+ * +------+----------------+---------------------------+
+ * | kind | length (int32) | TensorProto or error text |
+ * +------+----------------+---------------------------+
+ * </pre>
+ */
+public final class TensorFrames {
+
+	public static final String CONTENT_TYPE = "application/x-tensor-frames";
+
+	public static final byte TENSOR = 0;
+
+	public static final byte ERROR = 1;
+
+	private static final int HEADER_BYTES = 1 + Integer.BYTES;
+
+	private TensorFrames() {
+	}
+
+	/**
+	 * @param maxBytes
+	 *            largest payload accepted
+	 * @return the next frame, or null at the end of the stream
+	 * @throws EOFException
+	 *             if the stream ends within a frame
+	 * @throws IllegalArgumentException
+	 *             if the frame is of an unknown kind, too large, or its
+	 *             tensor cannot be parsed
+	 */
+	public static Frame read(InputStream in, int maxBytes) throws IOException {
+		int kind = in.read();
+		if (kind < 0)
+			return null;
+		DataInputStream data = new DataInputStream(in);
+		int length = data.readInt();
+		if (kind != TENSOR && kind != ERROR)
+			throw new IllegalArgumentException(String.format("Unknown frame kind %s", kind));
+		if (length < 0 || length > maxBytes)
+			throw new IllegalArgumentException(
+					String.format("Frame of %s bytes exceeds %s bytes", length & 0xffffffffL, maxBytes));
+		byte[] payload = new byte[length];
+		data.readFully(payload);
+		if (kind == ERROR)
+			return new Frame(null, new String(payload, StandardCharsets.UTF_8));
+		try {
+			return new Frame(TensorProto.parseFrom(payload), null);
+		} catch (InvalidProtocolBufferException e) {
+			throw new IllegalArgumentException("Frame is not a serialized TensorProto", e);
+		}
+	}
+
+	public static void writeTensor(OutputStream out, TensorProto tensor) throws IOException {
+		write(out, TENSOR, tensor.getSerializedSize());
+		tensor.writeTo(out);
+	}
+
+	public static void writeError(OutputStream out, String message) throws IOException {
+		byte[] payload = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+		write(out, ERROR, payload.length);
+		out.write(payload);
+	}
+
+	private static void write(OutputStream out, byte kind, int length) throws IOException {
+		out.write(ByteBuffer.allocate(HEADER_BYTES).put(kind).putInt(length).array());
+	}
+
+	/**
+	 * A frame read, holding either a tensor or an error
+	 */
+	public static class Frame {
+
+		private final TensorProto tensor;
+
+		private final String error;
+
+		Frame(TensorProto tensor, String error) {
+			this.tensor = tensor;
+			this.error = error;
+		}
+
+		public boolean isError() {
+			return this.error != null;
+		}
+
+		/**
+		 * @return the tensor, null if this is an error
+		 */
+		public TensorProto getTensor() {
+			return this.tensor;
+		}
+
+		/**
+		 * @return the error message, null if this is a tensor
+		 */
+		public String getError() {
+			return this.error;
+		}
+
+	}
+
+}
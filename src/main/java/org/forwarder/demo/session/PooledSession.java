@@ -0,0 +1,44 @@
+/**
+ * 
+ */
+package org.forwarder.demo.session;
+
+import org.forwarder.Session;
+
+/**
+ * Exclusive handle on a {@link Session} borrowed from a {@link SessionPool}.
+ * Closing the handle gives the session back to the pool, or closes it for
+ * good once {@link #invalidate()} has been called, so it fits in the same
+ * try-with-resources blocks that used to close sessions directly.
+ */
+public class PooledSession implements AutoCloseable {
+
+	private final SessionPool pool;
+
+	private final Session<?> session;
+
+	private boolean broken;
+
+	PooledSession(SessionPool pool, Session<?> session) {
+		this.pool = pool;
+		this.session = session;
+	}
+
+	public Session<?> get() {
+		return this.session;
+	}
+
+	/**
+	 * Mark the session as unusable, e.g. after a failed forward, so it is
+	 * closed instead of being handed out again
+	 */
+	public void invalidate() {
+		this.broken = true;
+	}
+
+	@Override
+	public void close() {
+		this.pool.giveBack(this, this.broken);
+	}
+
+}
@@ -0,0 +1,269 @@
+/**
+ *
+ */
+package org.forwarder.demo.session;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+import org.forwarder.Backend;
+import org.forwarder.Session;
+import org.forwarder.demo.configurations.SessionPoolProperties;
+import org.forwarder.demo.metrics.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of {@link Session}s opened on one {@link Backend}, so steady
+ * state requests reuse sessions instead of building one per forward.
+ *
+ * Idle sessions are handed out most-recently-used first. A periodic
+ * {@link #sweep()} closes sessions idle for longer than
+ * <code>idleTimeoutMillis</code> (keeping <code>minIdle</code>), reports
+ * sessions borrowed for longer than <code>leakThresholdMillis</code> and
+ * samples the borrow rate.
+ */
+public class SessionPool implements AutoCloseable {
+
+	private static Logger logger = LoggerFactory.getLogger(SessionPool.class);
+
+	private final String name;
+
+	private final Backend<?> backend;
+
+	private final SessionPoolProperties properties;
+
+	private final LongConsumer creationListener;
+
+	private final Semaphore permits;
+
+	private final BlockingDeque<IdleSession> idle = new LinkedBlockingDeque<>();
+
+	private final Map<PooledSession, Borrow> borrowed = new ConcurrentHashMap<>();
+
+	private final Histogram waits = new Histogram("us");
+
+	private final Histogram creations = new Histogram("us");
+
+	private final LongAdder borrows = new LongAdder();
+
+	private final LongAdder created = new LongAdder();
+
+	private final LongAdder evicted = new LongAdder();
+
+	private final LongAdder invalidated = new LongAdder();
+
+	private final LongAdder leaked = new LongAdder();
+
+	private final AtomicLong lastSampledBorrows = new AtomicLong();
+
+	private volatile long lastSampledAt = System.nanoTime();
+
+	private volatile double borrowRate;
+
+	private volatile boolean closed;
+
+	public SessionPool(String name, Backend<?> backend, SessionPoolProperties properties) {
+		this(name, backend, properties, nanos -> {
+		});
+	}
+
+	/**
+	 * @param creationListener
+	 *            told the nanoseconds it took to open each session
+	 */
+	public SessionPool(String name, Backend<?> backend, SessionPoolProperties properties,
+			LongConsumer creationListener) {
+		this.name = name;
+		this.backend = backend;
+		this.properties = properties;
+		this.creationListener = creationListener;
+		this.permits = new Semaphore(Math.max(1, properties.getMaxTotal()), true);
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Open sessions until <code>minIdle</code> of them are idle
+	 *
+	 * @throws Exception
+	 *             if the backend fails to open a session
+	 */
+	public void warmUp() throws Exception {
+		int missing = this.properties.getMinIdle() - this.idle.size();
+		for (int n = 0; n < missing && !this.closed; n++)
+			this.idle.offerFirst(new IdleSession(this.create()));
+		logger.info("Session pool \"{}\" warmed up with {} idle sessions", this.name, this.idle.size());
+	}
+
+	/**
+	 * Take a session out of the pool, opening a new one when none is idle.
+	 * The returned handle gives the session back on {@link PooledSession#close()}.
+	 *
+	 * @return exclusive handle on a session
+	 * @throws TimeoutException
+	 *             if no session frees up within <code>maxWaitMillis</code>
+	 * @throws Exception
+	 *             if the backend fails to open a session
+	 */
+	public PooledSession borrow() throws Exception {
+		if (this.closed)
+			throw new IllegalStateException(String.format("Session pool \"%s\" is closed", this.name));
+
+		long startedAt = System.nanoTime();
+		if (!this.permits.tryAcquire(this.properties.getMaxWaitMillis(), TimeUnit.MILLISECONDS)) {
+			this.waits.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt));
+			throw new TimeoutException(String.format("No session of \"%s\" available within %sms", this.name,
+					this.properties.getMaxWaitMillis()));
+		}
+
+		Session<?> session;
+		try {
+			IdleSession idleSession = this.idle.pollFirst();
+			session = idleSession != null ? idleSession.session : this.create();
+		} catch (Exception | Error e) {
+			this.permits.release();
+			throw e;
+		}
+		this.waits.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt));
+		this.borrows.increment();
+
+		PooledSession pooledSession = new PooledSession(this, session);
+		this.borrowed.put(pooledSession,
+				new Borrow(this.properties.isLeakTrace() ? new Throwable("Session borrowed here") : null));
+		return pooledSession;
+	}
+
+	void giveBack(PooledSession pooledSession, boolean broken) {
+		if (this.borrowed.remove(pooledSession) == null)
+			return;
+
+		try {
+			if (broken || this.closed) {
+				if (broken)
+					this.invalidated.increment();
+				closeQuietly(pooledSession.get());
+			} else {
+				this.idle.offerFirst(new IdleSession(pooledSession.get()));
+			}
+		} finally {
+			this.permits.release();
+		}
+	}
+
+	/**
+	 * Close idle sessions past their timeout, report leaked borrows and
+	 * sample the borrow rate. Called periodically by {@link SessionPools}.
+	 */
+	public void sweep() {
+		long now = System.nanoTime();
+
+		long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(this.properties.getIdleTimeoutMillis());
+		while (this.idle.size() > this.properties.getMinIdle()) {
+			IdleSession oldest = this.idle.peekLast();
+			if (oldest == null || now - oldest.since < idleTimeoutNanos || !this.idle.removeLastOccurrence(oldest))
+				break;
+			closeQuietly(oldest.session);
+			this.evicted.increment();
+		}
+
+		long leakThresholdNanos = TimeUnit.MILLISECONDS.toNanos(this.properties.getLeakThresholdMillis());
+		for (Borrow borrow : this.borrowed.values()) {
+			if (!borrow.reported && now - borrow.since > leakThresholdNanos) {
+				borrow.reported = true;
+				this.leaked.increment();
+				logger.warn("Session of \"{}\" borrowed {}ms ago has not been returned", this.name,
+						TimeUnit.NANOSECONDS.toMillis(now - borrow.since), borrow.trace);
+			}
+		}
+
+		long total = this.borrows.sum();
+		long previous = this.lastSampledBorrows.getAndSet(total);
+		double elapsedSeconds = (now - this.lastSampledAt) / 1e9;
+		this.lastSampledAt = now;
+		this.borrowRate = elapsedSeconds > 0 ? (total - previous) / elapsedSeconds : 0d;
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("idle", this.idle.size());
+		stats.put("borrowed", this.borrowed.size());
+		stats.put("borrows", this.borrows.sum());
+		stats.put("borrowsPerSecond", this.borrowRate);
+		stats.put("created", this.created.sum());
+		stats.put("evicted", this.evicted.sum());
+		stats.put("invalidated", this.invalidated.sum());
+		stats.put("leaked", this.leaked.sum());
+		stats.put("wait", this.waits.toMap());
+		stats.put("creation", this.creations.toMap());
+		return stats;
+	}
+
+	/**
+	 * Close every idle session. Borrowed sessions are closed as they come
+	 * back.
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		IdleSession idleSession;
+		while ((idleSession = this.idle.pollFirst()) != null)
+			closeQuietly(idleSession.session);
+	}
+
+	private Session<?> create() throws Exception {
+		long startedAt = System.nanoTime();
+		Session<?> session = this.backend.newSession();
+		long creationNanos = System.nanoTime() - startedAt;
+		this.creations.record(TimeUnit.NANOSECONDS.toMicros(creationNanos));
+		this.creationListener.accept(creationNanos);
+		this.created.increment();
+		return session;
+	}
+
+	private void closeQuietly(Session<?> session) {
+		try {
+			session.close();
+		} catch (Exception e) {
+			logger.warn("Failed to close session of \"{}\"", this.name, e);
+		}
+	}
+
+	private static class IdleSession {
+
+		private final Session<?> session;
+
+		private final long since = System.nanoTime();
+
+		private IdleSession(Session<?> session) {
+			this.session = session;
+		}
+
+	}
+
+	private static class Borrow {
+
+		private final long since = System.nanoTime();
+
+		private final Throwable trace;
+
+		private volatile boolean reported;
+
+		private Borrow(Throwable trace) {
+			this.trace = trace;
+		}
+
+	}
+
+}
@@ -0,0 +1,139 @@
+/**
+ * 
+ */
+package org.forwarder.demo.session;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+
+import org.forwarder.Backend;
+import org.forwarder.Forwarder;
+import org.forwarder.demo.configurations.SessionPoolProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One {@link SessionPool} per backend of a {@link Forwarder}, created on first
+ * use and swept by a single background thread.
+ */
+public class SessionPools implements AutoCloseable {
+
+	private static Logger logger = LoggerFactory.getLogger(SessionPools.class);
+
+	private final String name;
+
+	private final Forwarder forwarder;
+
+	private final SessionPoolProperties properties;
+
+	private final ObjLongConsumer<String> creationListener;
+
+	private final ConcurrentMap<String, SessionPool> pools = new ConcurrentHashMap<>();
+
+	/**
+	 * In-process backends, provided by this application rather than by the
+	 * forwarder
+	 */
+	private final ConcurrentMap<String, Backend<?>> backends = new ConcurrentHashMap<>();
+
+	private final ScheduledExecutorService housekeeper;
+
+	public SessionPools(String name, Forwarder forwarder, SessionPoolProperties properties) {
+		this(name, forwarder, properties, (backendName, nanos) -> {
+		});
+	}
+
+	/**
+	 * @param creationListener
+	 *            told the backend and the nanoseconds it took to open each
+	 *            session
+	 */
+	public SessionPools(String name, Forwarder forwarder, SessionPoolProperties properties,
+			ObjLongConsumer<String> creationListener) {
+		this.name = name;
+		this.forwarder = forwarder;
+		this.properties = properties;
+		this.creationListener = creationListener;
+		this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "session-pool-housekeeper-" + name);
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = Math.max(1, properties.getEvictionIntervalMillis());
+		this.housekeeper.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Serve a backend the forwarder does not provide under a name, before the
+	 * first pool of that name is created
+	 */
+	public void register(String backendName, Backend<?> backend) {
+		this.backends.put(backendName, backend);
+	}
+
+	/**
+	 * @param backendName
+	 *            name of the backend, e.g. "Tensorflow" or "DL4J", or of a
+	 *            {@link #register registered} one
+	 * @return the pool of the backend, created on first use
+	 * @throws Exception
+	 *             if the forwarder cannot provide the backend
+	 */
+	public SessionPool get(String backendName) throws Exception {
+		SessionPool pool = this.pools.get(backendName);
+		if (pool == null) {
+			synchronized (this.pools) {
+				pool = this.pools.get(backendName);
+				if (pool == null) {
+					Backend<?> backend = this.backends.get(backendName);
+					if (backend == null)
+						backend = this.forwarder.backend(backendName);
+					pool = new SessionPool(this.name + "/" + backendName, backend, this.properties,
+							nanos -> this.creationListener.accept(backendName, nanos));
+					this.pools.put(backendName, pool);
+				}
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Fill the pools of the given backends up to <code>minIdle</code>
+	 */
+	public void warmUp(Iterable<String> backendNames) throws Exception {
+		for (String backendName : backendNames)
+			this.get(backendName).warmUp();
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		for (Map.Entry<String, SessionPool> pool : this.pools.entrySet())
+			stats.put(pool.getKey(), pool.getValue().stats());
+		return stats;
+	}
+
+	@Override
+	public void close() {
+		this.housekeeper.shutdownNow();
+		for (SessionPool pool : this.pools.values())
+			pool.close();
+		this.pools.clear();
+	}
+
+	private void sweep() {
+		for (SessionPool pool : this.pools.values()) {
+			try {
+				pool.sweep();
+			} catch (RuntimeException e) {
+				logger.warn("Failed to sweep session pool \"{}\"", pool.getName(), e);
+			}
+		}
+	}
+
+}
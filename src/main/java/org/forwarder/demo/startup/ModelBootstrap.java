@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package org.forwarder.demo.startup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.io.FileUtils;
+import org.forwarder.demo.binary.BinaryTensors;
+import org.forwarder.demo.configurations.StartupProperties;
+import org.forwarder.demo.registry.LoadedModel;
+import org.forwarder.demo.registry.ModelDescriptor;
+import org.forwarder.demo.registry.ModelHandle;
+import org.forwarder.demo.registry.ModelKey;
+import org.forwarder.demo.registry.ModelRegistry;
+import org.forwarder.demo.session.PooledSession;
+import org.onnx4j.Tensor;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads the startup models and warms up their backends in the background once
+ * the application is up, so that neither a slow model nor a failing one holds
+ * back the servlet container.
+ *
+ * Every (model, backend) pair is one task on a bounded pool: it acquires the
+ * model (tasks of the same model share its single load), fills the session
+ * pool of the backend and runs a few forwards on the sample input shipped with
+ * the model, or on zeros of its sample shape where no input is shipped next to
+ * the loaded file. A model with neither is reported as not warmed up.
+ * {@link #isReady()} turns true once all tasks succeeded.
+ */
+@Component
+public class ModelBootstrap {
+
+	private static final String WARM_UP_INPUT = "test_data_set_0/input_0.pb";
+
+	private static Logger logger = LoggerFactory.getLogger(ModelBootstrap.class);
+
+	public enum State {
+		STARTING, READY, FAILED
+	}
+
+	private final ModelRegistry registry;
+
+	private final StartupProperties properties;
+
+	private final Map<String, String> failures = new ConcurrentHashMap<>();
+
+	private final Map<String, Long> timings = new ConcurrentHashMap<>();
+
+	private volatile State state = State.STARTING;
+
+	private volatile ExecutorService executor;
+
+	public ModelBootstrap(ModelRegistry registry, StartupProperties properties) {
+		this.registry = registry;
+		this.properties = properties;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		int parallelism = Math.max(1, this.properties.getParallelism());
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+					Thread thread = new Thread(runnable, "model-bootstrap-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+
+		long startedAt = System.nanoTime();
+		List<CompletableFuture<Void>> tasks = new ArrayList<>();
+		for (String model : this.properties.getModels()) {
+			ModelKey key;
+			try {
+				key = parse(model);
+			} catch (IllegalArgumentException e) {
+				logger.error("Invalid startup model \"{}\"", model, e);
+				this.failures.put(model, String.valueOf(e.getMessage()));
+				continue;
+			}
+			for (String backend : this.properties.getBackends())
+				tasks.add(CompletableFuture.runAsync(() -> this.warmUp(key, backend), this.executor));
+		}
+
+		CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).whenComplete((result, e) -> {
+			long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+			this.state = this.failures.isEmpty() ? State.READY : State.FAILED;
+			logger.info("Model startup finished as {} in {}ms", this.state, elapsedMillis);
+			this.executor.shutdown();
+		});
+	}
+
+	public boolean isReady() {
+		return this.state == State.READY;
+	}
+
+	public Map<String, Object> status() {
+		Map<String, Object> status = new LinkedHashMap<>();
+		status.put("state", this.state);
+		status.put("millis", new LinkedHashMap<>(this.timings));
+		status.put("failures", new LinkedHashMap<>(this.failures));
+		return status;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (this.executor != null)
+			this.executor.shutdownNow();
+	}
+
+	private void warmUp(ModelKey key, String backend) {
+		String task = key + "/" + backend;
+		long startedAt = System.nanoTime();
+		try (ModelHandle handle = this.registry.acquire(key)) {
+			long loadedAt = System.nanoTime();
+			this.timings.putIfAbsent(key.toString(), TimeUnit.NANOSECONDS.toMillis(loadedAt - startedAt));
+
+			LoadedModel model = handle.get();
+			model.getSessionPools().get(backend).warmUp();
+
+			TensorProto tensorProto = warmUpInput(model);
+			try (Tensor inputTensor = model.newInputTensor(tensorProto)) {
+				for (int n = 0; n < this.properties.getWarmUpIterations(); n++) {
+					try (PooledSession session = model.getSessionPools().get(backend).borrow()) {
+						session.get().feed(inputTensor, false).forward()
+								.getOutput(model.getDescriptor().getOutputName());
+					}
+				}
+			}
+
+			long warmUpMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadedAt);
+			this.timings.put(task, warmUpMillis);
+			logger.info("Backend {} of model {} warmed up in {}ms", backend, key, warmUpMillis);
+		} catch (Throwable e) {
+			logger.error("Failed to start backend {} of model {}", backend, key, e);
+			this.failures.put(task, String.valueOf(e.getMessage()));
+		}
+	}
+
+	/**
+	 * @return the input shipped next to the model file, or else a batch of one
+	 *         zero sample of its configured shape
+	 * @throws IllegalStateException
+	 *             if it has neither
+	 */
+	private static TensorProto warmUpInput(LoadedModel model) throws IOException {
+		File input = new File(model.getModelFile().getParentFile(), WARM_UP_INPUT);
+		if (input.isFile())
+			return TensorProto.parseFrom(FileUtils.readFileToByteArray(input));
+
+		ModelDescriptor descriptor = model.getDescriptor();
+		long[] sampleDims = descriptor.getSampleDims();
+		if (sampleDims.length == 0)
+			throw new IllegalStateException(String.format(
+					"Not warmed up: no %s next to %s and no sample shape configured", WARM_UP_INPUT,
+					model.getModelFile()));
+		long[] dims = new long[sampleDims.length + 1];
+		dims[0] = 1;
+		long elements = 1;
+		for (int n = 0; n < sampleDims.length; n++) {
+			dims[n + 1] = sampleDims[n];
+			elements = Math.multiplyExact(elements, sampleDims[n]);
+		}
+		logger.info("No {} next to {}, warming up on zeros of shape {}", WARM_UP_INPUT, model.getModelFile(),
+				Arrays.toString(dims));
+		ByteBuffer zeros = ByteBuffer.allocate(Math.toIntExact(Math.multiplyExact(elements, (long) Float.BYTES)))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		return BinaryTensors.tensorProto(descriptor.getInputName(), zeros, dims);
+	}
+
+	private static ModelKey parse(String model) {
+		int separator = model.lastIndexOf(':');
+		if (separator < 0)
+			throw new IllegalArgumentException(String.format("Startup model \"%s\" is not name:opset", model));
+		return new ModelKey(model.substring(0, separator).trim(), Integer.parseInt(model.substring(separator + 1).trim()));
+	}
+
+}
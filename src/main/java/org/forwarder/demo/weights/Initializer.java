@@ -0,0 +1,58 @@
+/**
+ *
+ */
+package org.forwarder.demo.weights;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An initializer tensor of a memory-mapped model. Its data is a read-only
+ * little-endian slice of the mapping, either the <code>raw_data</code> or the
+ * packed <code>float_data</code> of the <code>TensorProto</code>, so reading it
+ * never copies the weights onto the heap.
+ */
+public class Initializer {
+
+	private final String name;
+
+	private final int dataType;
+
+	private final long[] dims;
+
+	private final ByteBuffer data;
+
+	Initializer(String name, int dataType, long[] dims, ByteBuffer data) {
+		this.name = name;
+		this.dataType = dataType;
+		this.dims = dims;
+		this.data = data;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return value of <code>TensorProto.DataType</code>
+	 */
+	public int getDataType() {
+		return this.dataType;
+	}
+
+	public long[] getDims() {
+		return this.dims.clone();
+	}
+
+	/**
+	 * @return a read-only view of the data, positioned at its start
+	 */
+	public ByteBuffer getData() {
+		return this.data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public int getByteLength() {
+		return this.data.remaining();
+	}
+
+}
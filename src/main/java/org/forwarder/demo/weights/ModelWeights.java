@@ -0,0 +1,329 @@
+/**
+ *
+ */
+package org.forwarder.demo.weights;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A <code>model.onnx</code> mapped read-only into memory, shared by every
+ * model loaded from the same file through the {@link WeightStore}.
+ *
+ * The initializers are found by walking the protobuf wire format of the
+ * mapping (<code>ModelProto.graph</code>, then
+ * <code>GraphProto.initializer</code>) without parsing the model into
+ * messages, so the weights are never copied: each {@link Initializer} is a
+ * slice of the mapping, paged in by the operating system on first read and
+ * shared with every other process mapping the file. The Engine backend
+ * compiles its model from the mapping, while the native backends of the
+ * forwarder read the file into their own memory regardless.
+ *
+ * Users {@link WeightStore#acquire(File) acquire} the weights and close them
+ * once per acquisition when done. The mapping is dropped once the last user
+ * closed it and is unmapped by the garbage collector.
+ */
+public class ModelWeights implements AutoCloseable {
+
+	private static final int WIRE_VARINT = 0;
+
+	private static final int WIRE_FIXED64 = 1;
+
+	private static final int WIRE_LENGTH_DELIMITED = 2;
+
+	private static final int WIRE_FIXED32 = 5;
+
+	private static final int MODEL_GRAPH = 7;
+
+	private static final int GRAPH_INITIALIZER = 5;
+
+	private static final int GRAPH_INPUT = 11;
+
+	private static final int GRAPH_OUTPUT = 12;
+
+	private static final int VALUE_INFO_NAME = 1;
+
+	private static final int TENSOR_DIMS = 1;
+
+	private static final int TENSOR_DATA_TYPE = 2;
+
+	private static final int TENSOR_FLOAT_DATA = 4;
+
+	private static final int TENSOR_NAME = 8;
+
+	private static final int TENSOR_RAW_DATA = 9;
+
+	private static final int TENSOR_DATA_LOCATION = 14;
+
+	private static final int DATA_LOCATION_EXTERNAL = 1;
+
+	private final WeightStore store;
+
+	private final String path;
+
+	private final MappedByteBuffer mapping;
+
+	private final Map<String, Initializer> initializers;
+
+	private final List<String> inputNames;
+
+	private final List<String> outputNames;
+
+	private final long initializerBytes;
+
+	/**
+	 * Users of the weights, guarded by the store
+	 */
+	final AtomicInteger references = new AtomicInteger();
+
+	ModelWeights(WeightStore store, String path, MappedByteBuffer mapping) {
+		this.store = store;
+		this.path = path;
+		this.mapping = mapping;
+		Map<String, Initializer> initializers = new LinkedHashMap<>();
+		List<String> inputNames = new ArrayList<>();
+		List<String> outputNames = new ArrayList<>();
+		parse(mapping, initializers, inputNames, outputNames);
+		inputNames.removeAll(initializers.keySet());
+		this.initializers = Collections.unmodifiableMap(initializers);
+		this.inputNames = Collections.unmodifiableList(inputNames);
+		this.outputNames = Collections.unmodifiableList(outputNames);
+
+		long bytes = 0;
+		for (Initializer initializer : this.initializers.values())
+			bytes += initializer.getByteLength();
+		this.initializerBytes = bytes;
+	}
+
+	/**
+	 * Map a model file read-only
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the file is too large to be mapped at once
+	 */
+	static MappedByteBuffer map(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IllegalArgumentException(
+						String.format("Model %s of %s bytes is too large to be mapped", file, channel.size()));
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	public String getPath() {
+		return this.path;
+	}
+
+	/**
+	 * @return initializers by name, in the order of the graph
+	 */
+	public Map<String, Initializer> getInitializers() {
+		return this.initializers;
+	}
+
+	public Initializer getInitializer(String name) {
+		return this.initializers.get(name);
+	}
+
+	/**
+	 * @return names of the graph inputs fed at run time, i.e. without the
+	 *         initializers older opsets also list as inputs
+	 */
+	public List<String> getInputNames() {
+		return this.inputNames;
+	}
+
+	public List<String> getOutputNames() {
+		return this.outputNames;
+	}
+
+	/**
+	 * @return a read-only view of the whole model file
+	 */
+	public ByteBuffer getModelBytes() {
+		return this.mapping.asReadOnlyBuffer();
+	}
+
+	public long getMappedBytes() {
+		return this.mapping.capacity();
+	}
+
+	public long getInitializerBytes() {
+		return this.initializerBytes;
+	}
+
+	@Override
+	public void close() {
+		this.store.release(this);
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("path", this.path);
+		stats.put("mappedBytes", this.getMappedBytes());
+		stats.put("initializers", this.initializers.size());
+		stats.put("initializerBytes", this.initializerBytes);
+		stats.put("users", this.references.get());
+		return stats;
+	}
+
+	/**
+	 * Walk a serialized <code>ModelProto</code> for the initializers, inputs
+	 * and outputs of its graph
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the bytes are not a valid protobuf message
+	 */
+	static void parse(ByteBuffer model, Map<String, Initializer> initializers, List<String> inputNames,
+			List<String> outputNames) {
+		ByteBuffer message = model.duplicate();
+		while (message.hasRemaining()) {
+			int tag = (int) readVarint(message);
+			if (tag >>> 3 == MODEL_GRAPH && (tag & 7) == WIRE_LENGTH_DELIMITED) {
+				ByteBuffer graph = readLengthDelimited(message);
+				while (graph.hasRemaining()) {
+					int graphTag = (int) readVarint(graph);
+					if (graphTag >>> 3 == GRAPH_INITIALIZER && (graphTag & 7) == WIRE_LENGTH_DELIMITED) {
+						Initializer initializer = parseTensor(readLengthDelimited(graph));
+						if (initializer != null)
+							initializers.put(initializer.getName(), initializer);
+					} else if (graphTag >>> 3 == GRAPH_INPUT && (graphTag & 7) == WIRE_LENGTH_DELIMITED) {
+						inputNames.add(parseValueInfoName(readLengthDelimited(graph)));
+					} else if (graphTag >>> 3 == GRAPH_OUTPUT && (graphTag & 7) == WIRE_LENGTH_DELIMITED) {
+						outputNames.add(parseValueInfoName(readLengthDelimited(graph)));
+					} else {
+						skip(graph, graphTag);
+					}
+				}
+			} else {
+				skip(message, tag);
+			}
+		}
+	}
+
+	private static String parseValueInfoName(ByteBuffer valueInfo) {
+		String name = "";
+		while (valueInfo.hasRemaining()) {
+			int tag = (int) readVarint(valueInfo);
+			if (tag >>> 3 == VALUE_INFO_NAME && (tag & 7) == WIRE_LENGTH_DELIMITED)
+				name = readString(valueInfo);
+			else
+				skip(valueInfo, tag);
+		}
+		return name;
+	}
+
+	/**
+	 * @return the initializer, or null if its data is stored outside the
+	 *         file or in a field that cannot be viewed in place
+	 */
+	private static Initializer parseTensor(ByteBuffer tensor) {
+		String name = "";
+		int dataType = 0;
+		List<Long> dims = new ArrayList<>();
+		ByteBuffer data = null;
+		boolean external = false;
+		while (tensor.hasRemaining()) {
+			int tag = (int) readVarint(tensor);
+			int field = tag >>> 3;
+			int wireType = tag & 7;
+			if (field == TENSOR_DIMS && wireType == WIRE_VARINT) {
+				dims.add(readVarint(tensor));
+			} else if (field == TENSOR_DIMS && wireType == WIRE_LENGTH_DELIMITED) {
+				ByteBuffer packed = readLengthDelimited(tensor);
+				while (packed.hasRemaining())
+					dims.add(readVarint(packed));
+			} else if (field == TENSOR_DATA_TYPE && wireType == WIRE_VARINT) {
+				dataType = (int) readVarint(tensor);
+			} else if (field == TENSOR_NAME && wireType == WIRE_LENGTH_DELIMITED) {
+				name = readString(tensor);
+			} else if ((field == TENSOR_RAW_DATA || field == TENSOR_FLOAT_DATA)
+					&& wireType == WIRE_LENGTH_DELIMITED) {
+				data = readLengthDelimited(tensor).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+			} else if (field == TENSOR_DATA_LOCATION && wireType == WIRE_VARINT) {
+				external = readVarint(tensor) == DATA_LOCATION_EXTERNAL;
+			} else {
+				skip(tensor, tag);
+			}
+		}
+		if (external || data == null)
+			return null;
+
+		long[] shape = new long[dims.size()];
+		for (int n = 0; n < shape.length; n++)
+			shape[n] = dims.get(n);
+		return new Initializer(name, dataType, shape, data);
+	}
+
+	private static long readVarint(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (!buffer.hasRemaining())
+				throw new IllegalArgumentException("Truncated varint");
+			byte b = buffer.get();
+			value |= (long) (b & 0x7f) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		ByteBuffer utf8 = readLengthDelimited(buffer);
+		byte[] bytes = new byte[utf8.remaining()];
+		utf8.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return a slice of the field, the buffer positioned after it
+	 */
+	private static ByteBuffer readLengthDelimited(ByteBuffer buffer) {
+		long length = readVarint(buffer);
+		if (length < 0 || length > buffer.remaining())
+			throw new IllegalArgumentException(
+					String.format("Field of %s bytes exceeds the %s left", length, buffer.remaining()));
+		ByteBuffer field = buffer.slice();
+		field.limit((int) length);
+		buffer.position(buffer.position() + (int) length);
+		return field;
+	}
+
+	private static void skip(ByteBuffer buffer, int tag) {
+		switch (tag & 7) {
+		case WIRE_VARINT:
+			readVarint(buffer);
+			return;
+		case WIRE_FIXED64:
+			advance(buffer, Long.BYTES);
+			return;
+		case WIRE_LENGTH_DELIMITED:
+			readLengthDelimited(buffer);
+			return;
+		case WIRE_FIXED32:
+			advance(buffer, Integer.BYTES);
+			return;
+		default:
+			throw new IllegalArgumentException(String.format("Unsupported wire type %s", tag & 7));
+		}
+	}
+
+	private static void advance(ByteBuffer buffer, int bytes) {
+		if (buffer.remaining() < bytes)
+			throw new IllegalArgumentException("Truncated field");
+		buffer.position(buffer.position() + bytes);
+	}
+
+}
@@ -0,0 +1,87 @@
+/**
+ *
+ */
+package org.forwarder.demo.weights;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps every model file once, however many models, backends and forwarders
+ * are opened on it, and hands the same {@link ModelWeights} to all of them.
+ * Files are told apart by canonical path.
+ */
+public class WeightStore {
+
+	private static Logger logger = LoggerFactory.getLogger(WeightStore.class);
+
+	/**
+	 * Mapped files by canonical path. Guarded by itself.
+	 */
+	private final Map<String, ModelWeights> weights = new LinkedHashMap<>();
+
+	private final LongAdder mappings = new LongAdder();
+
+	private final LongAdder shares = new LongAdder();
+
+	/**
+	 * Get the weights of a model file, mapping it if no one else has
+	 *
+	 * @return weights to close once they are no longer used
+	 * @throws IllegalArgumentException
+	 *             if the file is not a valid model or too large to be mapped
+	 */
+	public ModelWeights acquire(File file) throws IOException {
+		String path = file.getCanonicalPath();
+		synchronized (this.weights) {
+			ModelWeights mapped = this.weights.get(path);
+			if (mapped == null) {
+				long startedAt = System.nanoTime();
+				mapped = new ModelWeights(this, path, ModelWeights.map(file));
+				this.weights.put(path, mapped);
+				this.mappings.increment();
+				logger.info("Mapped {} with {} initializers of {} bytes in {}us", path,
+						mapped.getInitializers().size(), mapped.getInitializerBytes(),
+						(System.nanoTime() - startedAt) / 1000);
+			} else {
+				this.shares.increment();
+			}
+			mapped.references.incrementAndGet();
+			return mapped;
+		}
+	}
+
+	void release(ModelWeights mapped) {
+		synchronized (this.weights) {
+			if (mapped.references.decrementAndGet() == 0) {
+				this.weights.remove(mapped.getPath(), mapped);
+				logger.info("Unmapped {}", mapped.getPath());
+			}
+		}
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("mappings", this.mappings.sum());
+		stats.put("shares", this.shares.sum());
+
+		long mappedBytes = 0;
+		Map<String, Object> files = new LinkedHashMap<>();
+		synchronized (this.weights) {
+			for (ModelWeights mapped : this.weights.values()) {
+				mappedBytes += mapped.getMappedBytes();
+				files.put(mapped.getPath(), mapped.stats());
+			}
+		}
+		stats.put("mappedBytes", mappedBytes);
+		stats.put("files", files);
+		return stats;
+	}
+
+}
@@ -29,10 +29,13 @@ import java.util.Map.Entry;
 import javax.naming.OperationNotSupportedException;
 
 import org.apache.commons.io.FileUtils;
-import org.forwarder.Backend;
 import org.forwarder.Config;
 import org.forwarder.Forwarder;
-import org.forwarder.Session;
+import org.forwarder.demo.configurations.SessionPoolProperties;
+import org.forwarder.demo.output.TensorOutputs;
+import org.forwarder.demo.session.PooledSession;
+import org.forwarder.demo.session.SessionPool;
+import org.forwarder.demo.session.SessionPools;
 import org.forwarder.executor.impls.RayExecutor;
 import org.onnx4j.Tensor;
 import org.onnx4j.prototypes.OnnxProto3.TensorProto;
@@ -71,7 +74,8 @@ public abstract class ForwarderTestCase extends TestCase {
 
 		try (Forwarder forwarder = Forwarder
 				.config(Config.builder().setDebug(true).setMemoryByteOrder(ByteOrder.LITTLE_ENDIAN).build())
-				.load(absoluteModelPath).executor(RayExecutor.class)) {
+				.load(absoluteModelPath).executor(RayExecutor.class);
+				SessionPools sessionPools = new SessionPools(modelPath, forwarder, new SessionPoolProperties())) {
 			assert forwarder != null;
 			for (Entry<String, String> tensorPairPath : tensorPairPaths.entrySet()) {
 				Tensor inputTensor = this.loadTensor(forwarder, inputName, tensorPairPath.getKey());
@@ -84,14 +88,14 @@ public abstract class ForwarderTestCase extends TestCase {
 				logger.debug("Excepted Tensor: {}", this.dumpTensor(exceptedOutputTensor));
 
 				for (String backendName : backendNames) {
+					SessionPool sessionPool = sessionPools.get(backendName);
 					for (int n = 0; n < 50; n++) {
-					Backend<?> backend = forwarder.backend(backendName);
-					try (Session<?> session = backend.newSession()) {
-						Tensor y0 = session.feed(inputTensor, false).forward().getOutput(outputName);
+					try (PooledSession session = sessionPool.borrow()) {
+						Tensor y0 = session.get().feed(inputTensor, false).forward().getOutput(outputName);
 
 						logger.debug("Actual: {}", this.dumpTensor(y0));
 
-						this.assertSimilarity(y0, exceptedOutputTensor, 0.001f);
+						this.assertSimilarity(y0, exceptedOutputTensor, tolerance);
 					}
 					}
 				}
@@ -99,7 +103,7 @@ public abstract class ForwarderTestCase extends TestCase {
 				inputTensor.close();
 			}
 		} catch (Exception e) {
-			logger.error("Failed to close forwarder instance", e);
+			throw new IllegalStateException(String.format("Failed to test model %s", modelPath), e);
 		}
 
 		logger.debug("Finished");
@@ -116,13 +120,13 @@ public abstract class ForwarderTestCase extends TestCase {
 		assertEquals(excepted.getValueInfo(), actual.getValueInfo());
 		assertEquals(excepted.getData().capacity(), actual.getData().capacity());
 
-		FloatBuffer actualFloat = actual.getData().asFloatBuffer();
-		FloatBuffer exceptedFloat = excepted.getData().asFloatBuffer();
+		FloatBuffer actualFloat = TensorOutputs.view(actual);
+		FloatBuffer exceptedFloat = TensorOutputs.view(excepted);
 
 		for (int n = 0; n < actualFloat.capacity(); n++) {
-			Float nActual = actualFloat.get();
-			Float nExcepted = exceptedFloat.get();
-			assertTrue(Math.abs((nActual) - (nExcepted)) <= tolerance);
+			float nActual = actualFloat.get(n);
+			float nExcepted = exceptedFloat.get(n);
+			assertTrue(Math.abs(nActual - nExcepted) <= tolerance);
 		}
 	}
 
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.arena;
+
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.onnx4j.Tensor;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for TensorArena class.
+ */
+public class TensorArenaTest extends TestCase {
+
+	public TensorArenaTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(TensorArenaTest.class);
+	}
+
+	public void testReusesSizeClass() {
+		try (TensorArena arena = new TensorArena("test", true, 1 << 20, 30000, 0)) {
+			ArenaBuffer first = arena.buffer(1000);
+			assertTrue(first.buffer().isDirect());
+			assertEquals(1024, first.buffer().capacity());
+			assertEquals(1000, first.buffer().limit());
+			first.close();
+
+			try (ArenaBuffer second = arena.buffer(700)) {
+				assertSame(first, second);
+				assertEquals(0, second.buffer().position());
+				assertEquals(700, second.buffer().limit());
+			}
+			assertEquals(1L, arena.stats().get("allocations"));
+			assertEquals(1L, arena.stats().get("reuses"));
+			assertEquals(1024L, arena.stats().get("retainedBytes"));
+		}
+	}
+
+	public void testOverflowIsNotRetained() {
+		try (TensorArena arena = new TensorArena("test", true, 1024, 30000, 0)) {
+			try (ArenaBuffer retained = arena.buffer(1024); ArenaBuffer overflow = arena.buffer(1024)) {
+				assertEquals(2048L, arena.stats().get("liveBytes"));
+				assertEquals(1L, arena.stats().get("overflows"));
+			}
+			assertEquals(1024L, arena.stats().get("liveBytes"));
+			assertEquals(2048L, arena.stats().get("peakBytes"));
+		}
+	}
+
+	public void testReportsLeaks() {
+		try (TensorArena arena = new TensorArena("test", true, 1 << 20, -1, 0)) {
+			arena.buffer(64);
+			assertEquals(1, arena.stats().get("leased"));
+			assertEquals(1L, arena.stats().get("leaks"));
+			// Reported only once
+			assertEquals(1L, arena.stats().get("leaks"));
+		}
+	}
+
+	public void testSweepsLeaksPeriodically() throws Exception {
+		try (TensorArena arena = new TensorArena("test", true, 1 << 20, 10, 10)) {
+			ArenaBuffer leaked = arena.buffer(64);
+			ArenaBuffer returned = arena.buffer(64);
+			returned.close();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (arena.leakCount() == 0 && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			assertEquals("Leak reported without reading the stats", 1L, arena.leakCount());
+			leaked.close();
+		}
+	}
+
+	/**
+	 * Input tensors are overwritten through the buffer onnx4j returns as
+	 * their data, which only works as long as it is the live buffer of the
+	 * tensor rather than a copy
+	 */
+	public void testOverwritesTensorsInPlace() {
+		long[] dims = { 1, 4 };
+		try (TensorArena arena = new TensorArena("test", true, 1 << 20, 30000, 0)) {
+			Tensor tensor;
+			try (ArenaTensor first = arena.tensor(dims, "x", FloatBuffer.wrap(new float[] { 1, 2, 3, 4 }))) {
+				tensor = first.get();
+			}
+			assertEquals("onnx4j copies tensor data", Boolean.TRUE, arena.stats().get("tensorsReusable"));
+
+			try (ArenaTensor second = arena.tensor(dims, "x", FloatBuffer.wrap(new float[] { 5, 6, 7, 8 }))) {
+				assertSame(tensor, second.get());
+				FloatBuffer data = second.get().getData().duplicate().order(ByteOrder.nativeOrder())
+						.asFloatBuffer();
+				for (int n = 0; n < 4; n++)
+					assertEquals(5f + n, data.get(n));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.artifacts;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.forwarder.demo.configurations.ArtifactCacheProperties;
+import org.forwarder.demo.configurations.OptimizerProperties;
+import org.forwarder.demo.optimizer.GraphOptimizer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for ArtifactCache class, on the bundled MNIST model.
+ */
+public class ArtifactCacheTest extends TestCase {
+
+	private File directory;
+
+	private File modelFile;
+
+	public ArtifactCacheTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(ArtifactCacheTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = Files.createTempDirectory("artifact-cache-test").toFile();
+		this.modelFile = new File(this.directory, "model.onnx");
+		try (InputStream in = this.getClass().getResourceAsStream("/mnist/opset_v8/model.onnx")) {
+			Files.copy(in, this.modelFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try (Stream<Path> paths = Files.walk(this.directory.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	public void testReusesArtifactAcrossRestarts() throws Exception {
+		GraphOptimizer optimizer = this.optimizer(false);
+		ArtifactCache cache = this.cache();
+		ModelArtifact cold = cache.optimized(this.modelFile, 8, optimizer);
+		assertFalse(cold.isCached());
+		assertTrue(cold.getFile().isFile());
+		cache.recordColdLoad(cold, 42);
+
+		long builtAt = cold.getFile().lastModified();
+		ArtifactCache restarted = this.cache();
+		ModelArtifact cached = restarted.optimized(this.modelFile, 8, optimizer);
+		assertTrue(cached.isCached());
+		assertEquals(cold.getFile(), cached.getFile());
+		assertEquals(builtAt, cached.getFile().lastModified());
+		assertEquals(42, cached.getColdLoadMillis());
+		assertEquals(1L, restarted.stats().get("hits"));
+		assertEquals(0L, restarted.stats().get("misses"));
+
+		// touched but unchanged, e.g. extracted again from the war
+		assertTrue(this.modelFile.setLastModified(this.modelFile.lastModified() - 10000));
+		assertTrue(this.cache().optimized(this.modelFile, 8, optimizer).isCached());
+	}
+
+	public void testRebuildsWhenModelChanges() throws Exception {
+		GraphOptimizer optimizer = this.optimizer(false);
+		ModelArtifact cold = this.cache().optimized(this.modelFile, 8, optimizer);
+
+		try (InputStream in = this.getClass().getResourceAsStream("/mnist/opset_v7/model.onnx")) {
+			Files.copy(in, this.modelFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		ArtifactCache restarted = this.cache();
+		ModelArtifact rebuilt = restarted.optimized(this.modelFile, 8, optimizer);
+		assertFalse(rebuilt.isCached());
+		assertEquals(cold.getFile(), rebuilt.getFile());
+		assertEquals(-1, rebuilt.getColdLoadMillis());
+		assertEquals(1L, restarted.stats().get("invalidations"));
+	}
+
+	public void testSeparatesOptimizerSettingsAndOpsets() throws Exception {
+		ArtifactCache cache = this.cache();
+		File plain = cache.optimized(this.modelFile, 8, this.optimizer(false)).getFile();
+		File fused = cache.optimized(this.modelFile, 8, this.optimizer(true)).getFile();
+		File otherOpset = cache.optimized(this.modelFile, 7, this.optimizer(false)).getFile();
+
+		assertFalse(plain.equals(fused));
+		assertFalse(plain.equals(otherOpset));
+		assertEquals(3L, cache.stats().get("misses"));
+	}
+
+	private GraphOptimizer optimizer(boolean fuseMatMulAdd) {
+		OptimizerProperties properties = new OptimizerProperties();
+		properties.setEnabled(true);
+		properties.setFuseMatMulAdd(fuseMatMulAdd);
+		return new GraphOptimizer(properties);
+	}
+
+	private ArtifactCache cache() {
+		ArtifactCacheProperties properties = new ArtifactCacheProperties();
+		properties.setDirectory(new File(this.directory, "artifacts").getPath());
+		return new ArtifactCache(properties);
+	}
+
+}
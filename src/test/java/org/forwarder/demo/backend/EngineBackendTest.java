@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.backend;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import org.forwarder.demo.configurations.EngineProperties;
+import org.forwarder.demo.configurations.ProfilingProperties;
+import org.forwarder.demo.engine.NdArray;
+import org.forwarder.demo.engine.Precision;
+import org.forwarder.demo.profiling.ForwardProfiler;
+import org.forwarder.demo.registry.ModelDescriptor;
+import org.forwarder.demo.weights.ModelWeights;
+import org.forwarder.demo.weights.WeightStore;
+import org.onnx4j.prototypes.OnnxProto3.ModelProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for EngineBackend class, against the reference outputs of the
+ * bundled MNIST models, and of Squeezenet when its model.onnx is present.
+ */
+public class EngineBackendTest extends TestCase {
+
+	private static final float TOLERANCE = 1e-3f;
+
+	public EngineBackendTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(EngineBackendTest.class);
+	}
+
+	public void testMatchesMnistReferenceOutputs() throws Exception {
+		try (EngineBackends backends = new EngineBackends(new EngineProperties())) {
+			for (int opset : new int[] { 1, 7, 8 }) {
+				String inputName = opset == 1 ? "Input73" : "Input3";
+				String outputName = opset == 1 ? "Plus422_Output_0" : "Plus214_Output_0";
+				EngineBackend backend = backends.open(mnist(opset, inputName, outputName),
+						resource("/mnist/opset_v" + opset + "/model.onnx"), resource("/mnist/opset_v" + opset));
+				backend.newSession().close();
+				assertNotNull(backend.getPlan());
+				for (int testDataSet = 0; testDataSet < 3; testDataSet++)
+					assertForwards(backend, "/mnist/opset_v" + opset + "/test_data_set_" + testDataSet);
+			}
+		}
+	}
+
+	public void testForwardsBatchesOfSamples() throws Exception {
+		try (EngineBackends backends = new EngineBackends(new EngineProperties())) {
+			EngineBackend backend = this.mnist8(backends);
+			float[] first = NdArray.of(readTensor("/mnist/opset_v8/test_data_set_0/input_0.pb")).data();
+			float[] second = NdArray.of(readTensor("/mnist/opset_v8/test_data_set_1/input_0.pb")).data();
+			float[] batch = new float[first.length + second.length + 7];
+			System.arraycopy(first, 0, batch, 0, first.length);
+			System.arraycopy(second, 0, batch, first.length, second.length);
+
+			NdArray output = backend.forward(batch, first.length + second.length);
+			assertEquals(2, output.dim(0));
+			float[] expected = NdArray.of(readTensor("/mnist/opset_v8/test_data_set_1/output_0.pb")).data();
+			for (int n = 0; n < expected.length; n++)
+				assertEquals(expected[n], output.data()[expected.length + n], TOLERANCE);
+
+			try {
+				backend.forward(batch, first.length + 1);
+				fail("Partial samples must be rejected");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	public void testCompilesFromMappedWeights() throws Exception {
+		WeightStore weightStore = new WeightStore();
+		File modelFile = resource("/mnist/opset_v8/model.onnx");
+		try (EngineBackends backends = new EngineBackends(new EngineProperties());
+				ModelWeights weights = weightStore.acquire(modelFile)) {
+			EngineBackend backend = backends.open(mnist(8, "Input3", "Plus214_Output_0"), modelFile, weights,
+					resource("/mnist/opset_v8"));
+			backend.newSession().close();
+			for (int testDataSet = 0; testDataSet < 3; testDataSet++)
+				assertForwards(backend, "/mnist/opset_v8/test_data_set_" + testDataSet);
+		}
+	}
+
+	public void testKeepsReducedPrecisionWithinTolerance() throws Exception {
+		EngineProperties properties = new EngineProperties();
+		properties.setPrecision(Precision.INT8);
+		properties.setTolerance(0.05);
+		try (EngineBackends backends = new EngineBackends(properties)) {
+			EngineBackend backend = this.mnist8(backends);
+			assertEquals(Precision.INT8, backend.getPlan().getPrecision());
+			NdArray output = backend.forward(
+					NdArray.of(readTensor("/mnist/opset_v8/test_data_set_0/input_0.pb")).data(), 28 * 28);
+			float[] expected = NdArray.of(readTensor("/mnist/opset_v8/test_data_set_0/output_0.pb")).data();
+			assertEquals(argMax(expected), argMax(output.data()));
+		}
+	}
+
+	public void testFallsBackToFp32() throws Exception {
+		EngineProperties properties = new EngineProperties();
+		properties.setPrecision(Precision.INT8);
+		properties.setTolerance(0);
+		try (EngineBackends backends = new EngineBackends(properties)) {
+			assertEquals(Precision.FP32, this.mnist8(backends).getPlan().getPrecision());
+		}
+
+		properties.setTolerance(1);
+		File empty = Files.createTempDirectory("engine").toFile();
+		try (EngineBackends backends = new EngineBackends(properties)) {
+			EngineBackend backend = backends.open(mnist(8, "Input3", "Plus214_Output_0"),
+					resource("/mnist/opset_v8/model.onnx"), empty);
+			backend.newSession().close();
+			assertEquals(Precision.FP32, backend.getPlan().getPrecision());
+		} finally {
+			empty.delete();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public void testReportsNodeProfileWhenProfiling() throws Exception {
+		ProfilingProperties properties = new ProfilingProperties();
+		properties.setEnabled(true);
+		ForwardProfiler profiler = new ForwardProfiler(properties);
+		try (EngineBackends backends = new EngineBackends(new EngineProperties(), profiler)) {
+			EngineBackend backend = this.mnist8(backends);
+			assertForwards(backend, "/mnist/opset_v8/test_data_set_0");
+
+			Map<String, Object> nodes = (Map<String, Object>) ((Map<String, Object>) profiler.stats()
+					.get("engineNodes")).get("mnist/opset_v8");
+			assertNotNull(nodes);
+			Map<String, Map<String, Object>> opTypes = (Map<String, Map<String, Object>>) nodes.get("opTypes");
+			assertEquals(2L, opTypes.get("Conv").get("runs"));
+			List<Map<String, Object>> byNode = (List<Map<String, Object>>) nodes.get("nodes");
+			assertEquals(backend.getPlan().getNodeCount(), byNode.size());
+			assertEquals("Scores of the 10 digits", 10L * Float.BYTES,
+					byNode.get(byNode.size() - 1).get("outputBytes"));
+		}
+	}
+
+	public void testRejectsUnknownOutput() throws Exception {
+		try (EngineBackends backends = new EngineBackends(new EngineProperties())) {
+			backends.open(mnist(8, "Input3", "Plus422_Output_0"), resource("/mnist/opset_v8/model.onnx"),
+					resource("/mnist/opset_v8")).newSession();
+			fail("Unknown output must be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testMatchesSqueezenetReferenceOutputs() throws Exception {
+		URL model = EngineBackendTest.class.getResource("/squeezenet/opset_v7/model.onnx");
+		if (model == null)
+			return;
+		ModelProto proto;
+		try (InputStream in = model.openStream()) {
+			proto = ModelProto.parseFrom(in);
+		}
+		ModelDescriptor descriptor = new ModelDescriptor();
+		descriptor.setName("squeezenet");
+		descriptor.setOpset(7);
+		descriptor.setInputName(proto.getGraph().getInput(0).getName());
+		descriptor.setOutputName(proto.getGraph().getOutput(0).getName());
+		try (EngineBackends backends = new EngineBackends(new EngineProperties())) {
+			EngineBackend backend = backends.open(descriptor, new File(model.toURI()),
+					resource("/squeezenet/opset_v7"));
+			backend.newSession().close();
+			assertForwards(backend, "/squeezenet/opset_v7/test_data_set_0");
+		}
+	}
+
+	private EngineBackend mnist8(EngineBackends backends) throws Exception {
+		EngineBackend backend = backends.open(mnist(8, "Input3", "Plus214_Output_0"),
+				resource("/mnist/opset_v8/model.onnx"), resource("/mnist/opset_v8"));
+		backend.newSession().close();
+		return backend;
+	}
+
+	private static void assertForwards(EngineBackend backend, String directory) throws Exception {
+		NdArray input = NdArray.of(readTensor(directory + "/input_0.pb"));
+		float[] expected = NdArray.of(readTensor(directory + "/output_0.pb")).data();
+		NdArray output = backend.forward(input.data(), input.size());
+		assertEquals(directory, expected.length, output.size());
+		for (int n = 0; n < expected.length; n++)
+			assertEquals(directory + " at " + n, expected[n], output.data()[n],
+					TOLERANCE * Math.max(1, Math.abs(expected[n])));
+	}
+
+	private static int argMax(float[] values) {
+		int argMax = 0;
+		for (int n = 1; n < values.length; n++)
+			if (values[n] > values[argMax])
+				argMax = n;
+		return argMax;
+	}
+
+	private static ModelDescriptor mnist(int opset, String inputName, String outputName) {
+		ModelDescriptor descriptor = new ModelDescriptor();
+		descriptor.setName("mnist");
+		descriptor.setOpset(opset);
+		descriptor.setPath("classpath:/mnist/opset_v" + opset + "/model.onnx");
+		descriptor.setInputName(inputName);
+		descriptor.setOutputName(outputName);
+		descriptor.getSampleShape().add(1L);
+		descriptor.getSampleShape().add(28L);
+		descriptor.getSampleShape().add(28L);
+		return descriptor;
+	}
+
+	private static File resource(String resource) throws Exception {
+		return new File(EngineBackendTest.class.getResource(resource).toURI());
+	}
+
+	private static TensorProto readTensor(String resource) throws Exception {
+		try (InputStream in = EngineBackendTest.class.getResourceAsStream(resource)) {
+			return TensorProto.parseFrom(in);
+		}
+	}
+
+}
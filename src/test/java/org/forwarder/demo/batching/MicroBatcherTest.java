@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.batching;
+
+import org.forwarder.demo.arena.TensorArena;
+import org.forwarder.demo.configurations.BatchingProperties;
+import org.forwarder.demo.configurations.SessionPoolProperties;
+import org.forwarder.demo.profiling.ForwardProfiler;
+import org.forwarder.demo.session.SessionPool;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for MicroBatcher class, on the limits it accepts.
+ */
+public class MicroBatcherTest extends TestCase {
+
+	private static final long[] SAMPLE_SHAPE = { 1, 28, 28 };
+
+	public MicroBatcherTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(MicroBatcherTest.class);
+	}
+
+	public void testRejectsStackingOtherThanFixedBatch() {
+		BatchingProperties properties = new BatchingProperties();
+		properties.setStackInputs(true);
+		try {
+			batcher(1, properties).close();
+			fail("Batches of 8 stacked for a graph fixing a batch of 1");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("fixes a batch of 1"));
+		}
+
+		properties.setMaxBatchSize(1);
+		batcher(1, properties).close();
+		properties.setMaxBatchSize(32);
+		batcher(0, properties).close();
+	}
+
+	public void testRejectsStackingMoreThanQueued() {
+		BatchingProperties properties = new BatchingProperties();
+		properties.setStackInputs(true);
+		properties.setQueueCapacity(4);
+		try {
+			batcher(0, properties).close();
+			fail("Batches of 8 stacked out of a queue of 4");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("queues only 4"));
+		}
+	}
+
+	public void testForwardsUnstackedRequestsWhateverTheBatch() {
+		BatchingProperties properties = new BatchingProperties();
+		properties.setQueueCapacity(4);
+		MicroBatcher batcher = batcher(1, properties);
+		try {
+			assertEquals(Boolean.FALSE, batcher.stats().get("stacked"));
+		} finally {
+			batcher.close();
+		}
+	}
+
+	private static MicroBatcher batcher(int modelBatchSize, BatchingProperties properties) {
+		return new MicroBatcher("mnist/opset_v8/test", new SessionPool("test", null, new SessionPoolProperties()),
+				ForwardProfiler.disabled().profile("mnist/opset_v8", "RayExecutor", "test"),
+				new TensorArena("test", true, 1 << 20, 30000, 0), "Input3", "Plus214_Output_0", SAMPLE_SHAPE,
+				modelBatchSize, properties);
+	}
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for BinaryTensors class.
+ */
+public class BinaryTensorsTest extends TestCase {
+
+	private static final int MAX_BYTES = 1024 * 1024;
+
+	public BinaryTensorsTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(BinaryTensorsTest.class);
+	}
+
+	public void testRawRoundTrip() throws Exception {
+		long[] dims = new long[] { 2, 3 };
+		ByteBuffer data = floats(ByteOrder.BIG_ENDIAN, 0f, 1f, 2f, 3f, 4f, 5f);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryTensors.writeRaw(out, data, dims);
+		assertEquals(BinaryTensors.rawLength(data, dims), out.size());
+
+		ByteBuffer body = BinaryTensors.read(new ByteArrayInputStream(out.toByteArray()), -1, MAX_BYTES);
+		assertTrue(body.isDirect());
+		assertTrue(BinaryTensors.isRaw(body));
+		assertTrue(Arrays.equals(dims, BinaryTensors.readRawHeader(body)));
+
+		FloatBuffer values = body.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+		for (int n = 0; n < 6; n++)
+			assertEquals((float) n, values.get(n));
+	}
+
+	public void testRawShapeMismatch() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryTensors.writeRaw(out, floats(ByteOrder.LITTLE_ENDIAN, 1f, 2f), new long[] { 3 });
+		ByteBuffer body = BinaryTensors.read(new ByteArrayInputStream(out.toByteArray()), out.size(), MAX_BYTES);
+		try {
+			BinaryTensors.readRawHeader(body);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testTensorProtoRoundTrip() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryTensors.writeTensorProto(out, "y", floats(ByteOrder.LITTLE_ENDIAN, 1f, 2f), new long[] { 1, 2 });
+
+		ByteBuffer body = BinaryTensors.read(new ByteArrayInputStream(out.toByteArray()), out.size(), MAX_BYTES);
+		assertFalse(BinaryTensors.isRaw(body));
+
+		TensorProto tensorProto = BinaryTensors.toTensorProto(body);
+		assertEquals("y", tensorProto.getName());
+		assertEquals(Arrays.asList(1L, 2L), tensorProto.getDimsList());
+		FloatBuffer values = tensorProto.getRawData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN)
+				.asFloatBuffer();
+		assertEquals(1f, values.get(0));
+		assertEquals(2f, values.get(1));
+	}
+
+	public void testRawRankOverflow() throws Exception {
+		ByteBuffer body = header(Integer.MAX_VALUE);
+		body.flip();
+		try {
+			BinaryTensors.readRawHeader(body);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Invalid rank " + Integer.MAX_VALUE, e.getMessage());
+		}
+	}
+
+	public void testRawShapeOverflow() throws Exception {
+		ByteBuffer body = header(3).putLong(1L << 32).putLong(1L << 32).putLong(4);
+		body.flip();
+		try {
+			BinaryTensors.readRawHeader(body);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getCause() instanceof ArithmeticException);
+		}
+	}
+
+	public void testDeclaredBodyTooLarge() throws Exception {
+		try {
+			BinaryTensors.read(new ByteArrayInputStream(new byte[0]), MAX_BYTES + 1L, MAX_BYTES);
+			fail();
+		} catch (BodyTooLargeException e) {
+			// expected
+		}
+		try {
+			BinaryTensors.read(new ByteArrayInputStream(new byte[0]), Long.MAX_VALUE, MAX_BYTES);
+			fail();
+		} catch (BodyTooLargeException e) {
+			// expected
+		}
+	}
+
+	public void testStreamedBodyTooLarge() throws Exception {
+		assertEquals(MAX_BYTES,
+				BinaryTensors.read(new ByteArrayInputStream(new byte[MAX_BYTES]), -1, MAX_BYTES).remaining());
+		try {
+			BinaryTensors.read(new ByteArrayInputStream(new byte[MAX_BYTES + 1]), -1, MAX_BYTES);
+			fail();
+		} catch (BodyTooLargeException e) {
+			// expected
+		}
+	}
+
+	private static ByteBuffer header(int rank) {
+		return ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN).putInt(BinaryTensors.RAW_MAGIC).putInt(rank);
+	}
+
+	private static ByteBuffer floats(ByteOrder order, float... values) {
+		ByteBuffer buffer = ByteBuffer.allocate(values.length * Float.BYTES).order(order);
+		buffer.asFloatBuffer().put(values);
+		return buffer;
+	}
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.bulk;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forwarder.demo.artifacts.ArtifactCache;
+import org.forwarder.demo.backend.EngineBackend;
+import org.forwarder.demo.backend.EngineBackends;
+import org.forwarder.demo.configurations.ArenaProperties;
+import org.forwarder.demo.configurations.BatchingProperties;
+import org.forwarder.demo.configurations.BulkProperties;
+import org.forwarder.demo.configurations.EngineProperties;
+import org.forwarder.demo.configurations.ModelRegistryProperties;
+import org.forwarder.demo.configurations.SessionPoolProperties;
+import org.forwarder.demo.metrics.InferenceMetrics;
+import org.forwarder.demo.optimizer.GraphOptimizer;
+import org.forwarder.demo.preprocess.ImagePreprocessor;
+import org.forwarder.demo.profiling.ForwardProfiler;
+import org.forwarder.demo.registry.ModelDescriptor;
+import org.forwarder.demo.registry.ModelHandle;
+import org.forwarder.demo.registry.ModelKey;
+import org.forwarder.demo.registry.ModelRegistry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for BulkScorer class, on lines that never reach a forward.
+ */
+public class BulkScorerTest extends TestCase {
+
+	private static final ModelKey MNIST = new ModelKey("mnist", 8);
+
+	private static final int MAX_LINE_BYTES = 1024;
+
+	private ModelRegistry registry;
+
+	private EngineBackends engineBackends;
+
+	private BulkScorer scorer;
+
+	public BulkScorerTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(BulkScorerTest.class);
+	}
+
+	@Override
+	protected void setUp() {
+		ModelRegistryProperties properties = new ModelRegistryProperties();
+		ModelDescriptor descriptor = new ModelDescriptor();
+		descriptor.setName("mnist");
+		descriptor.setOpset(8);
+		descriptor.setPath("classpath:/mnist/opset_v8/model.onnx");
+		descriptor.setInputName("Input3");
+		descriptor.setOutputName("Plus214_Output_0");
+		descriptor.getSampleShape().add(1L);
+		descriptor.getSampleShape().add(28L);
+		descriptor.getSampleShape().add(28L);
+		properties.getModels().add(descriptor);
+
+		this.engineBackends = new EngineBackends(new EngineProperties());
+		this.registry = new ModelRegistry(properties, new SessionPoolProperties(), new BatchingProperties(),
+				new ArenaProperties(), ForwardProfiler.disabled(), InferenceMetrics.local(), GraphOptimizer.disabled(),
+				ArtifactCache.disabled(), this.engineBackends);
+		BulkProperties bulkProperties = new BulkProperties();
+		bulkProperties.setThreads(1);
+		bulkProperties.setBatchSize(2);
+		bulkProperties.setMaxLineBytes(MAX_LINE_BYTES);
+		this.scorer = new BulkScorer(bulkProperties, new BatchingProperties());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.scorer.close();
+		this.registry.close();
+		this.engineBackends.close();
+	}
+
+	public void testAnswersEveryBadLineAndSkipsBlankOnes() throws Exception {
+		StringBuilder tooLong = new StringBuilder("{\"id\":\"c\",\"tensor\":\"");
+		while (tooLong.length() <= MAX_LINE_BYTES)
+			tooLong.append('A');
+		tooLong.append("\"}");
+		String body = "{\"id\":\"a\",\"tensor\":\"" + "\n" // malformed
+				+ "\n" // blank
+				+ "{\"id\":\"b\"}\r\n" // neither img nor tensor
+				+ "\r\n" // blank
+				+ tooLong + "\n" // oversize
+				+ "{\"id\":\"d\",\"tensor\":\"AAAA\"}"; // not a tensor, without a last line break
+
+		List<JsonNode> results = this.score(body);
+		assertEquals(4, results.size());
+		for (int n = 0; n < results.size(); n++) {
+			assertEquals(n, results.get(n).get("index").asInt());
+			assertTrue(results.get(n).hasNonNull("error"));
+			assertFalse(results.get(n).has("output"));
+		}
+		assertFalse(results.get(0).has("id"));
+		assertEquals("b", results.get(1).get("id").asText());
+		assertEquals("Line has neither \"img\" nor \"tensor\"", results.get(1).get("error").asText());
+		assertEquals("Line is too long", results.get(2).get("error").asText());
+		assertEquals("d", results.get(3).get("id").asText());
+	}
+
+	public void testAnswersOversizeLastLine() throws Exception {
+		StringBuilder body = new StringBuilder();
+		while (body.length() <= MAX_LINE_BYTES)
+			body.append('x');
+
+		List<JsonNode> results = this.score(body.toString());
+		assertEquals(1, results.size());
+		assertEquals("Line is too long", results.get(0).get("error").asText());
+	}
+
+	private List<JsonNode> score(String body) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ModelHandle handle = this.registry.acquire(MNIST)) {
+			this.scorer.score(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), out, handle.get(),
+					EngineBackend.NAME, new ImagePreprocessor(28, 28),
+					InferenceMetrics.local().meters(MNIST, "RayExecutor", EngineBackend.NAME));
+		}
+
+		ObjectMapper objectMapper = new ObjectMapper();
+		List<JsonNode> results = new ArrayList<>();
+		BufferedReader lines = new BufferedReader(new StringReader(out.toString("UTF-8")));
+		String line;
+		while ((line = lines.readLine()) != null)
+			results.add(objectMapper.readTree(line));
+		return results;
+	}
+
+}
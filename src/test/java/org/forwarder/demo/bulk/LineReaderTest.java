@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.bulk;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for LineReader class.
+ */
+public class LineReaderTest extends TestCase {
+
+	public LineReaderTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(LineReaderTest.class);
+	}
+
+	public void testSplitsLines() throws Exception {
+		LineReader lines = reader("{\"id\":1}\r\n\n{\"id\":2}", 64);
+		assertEquals("{\"id\":1}", new String(lines.next(), StandardCharsets.UTF_8));
+		assertEquals(0, lines.next().length);
+		assertEquals("{\"id\":2}", new String(lines.next(), StandardCharsets.UTF_8));
+		assertNull(lines.next());
+	}
+
+	public void testSkipsLongLines() throws Exception {
+		StringBuilder body = new StringBuilder();
+		for (int n = 0; n < 100000; n++)
+			body.append('x');
+		body.append("\nshort\n");
+
+		LineReader lines = reader(body.toString(), 1024);
+		assertSame(LineReader.TOO_LONG, lines.next());
+		assertEquals("short", new String(lines.next(), StandardCharsets.UTF_8));
+		assertNull(lines.next());
+	}
+
+	private static LineReader reader(String body, int maxLineBytes) {
+		return new LineReader(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), maxLineBytes);
+	}
+
+}
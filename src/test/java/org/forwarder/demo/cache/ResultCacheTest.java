@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.cache;
+
+import java.nio.FloatBuffer;
+
+import org.forwarder.demo.configurations.CacheProperties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for ResultCache class.
+ */
+public class ResultCacheTest extends TestCase {
+
+	public ResultCacheTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(ResultCacheTest.class);
+	}
+
+	public void testHitAndMiss() {
+		ResultCache cache = new ResultCache(new CacheProperties());
+		ResultCache.Key key = ResultCache.key("mnist/opset_v8", "DL4J", FloatBuffer.wrap(new float[] { 1f, 2f }));
+		assertNull(cache.get(key));
+
+		cache.put(key, new float[] { 0.5f });
+		float[] result = cache.get(ResultCache.key("mnist/opset_v8", "DL4J", FloatBuffer.wrap(new float[] { 1f, 2f })));
+		assertEquals(0.5f, result[0]);
+		assertNull(cache.get(ResultCache.key("mnist/opset_v8", "Tensorflow", FloatBuffer.wrap(new float[] { 1f, 2f }))));
+		assertNull(cache.get(ResultCache.key("mnist/opset_v8", "DL4J", FloatBuffer.wrap(new float[] { 1f, 3f }))));
+
+		// Callers get their own copy
+		result[0] = 0f;
+		assertEquals(0.5f, cache.get(key)[0]);
+		assertEquals(2L, cache.stats().get("hits"));
+		assertEquals(3L, cache.stats().get("misses"));
+	}
+
+	public void testEvictsLeastRecentlyUsed() {
+		CacheProperties properties = new CacheProperties();
+		properties.setMaxEntries(2);
+		ResultCache cache = new ResultCache(properties);
+
+		ResultCache.Key first = ResultCache.key("m", "b", FloatBuffer.wrap(new float[] { 1f }));
+		ResultCache.Key second = ResultCache.key("m", "b", FloatBuffer.wrap(new float[] { 2f }));
+		ResultCache.Key third = ResultCache.key("m", "b", FloatBuffer.wrap(new float[] { 3f }));
+		cache.put(first, new float[] { 1f });
+		cache.put(second, new float[] { 2f });
+		cache.get(first);
+		cache.put(third, new float[] { 3f });
+
+		assertNotNull(cache.get(first));
+		assertNull(cache.get(second));
+		assertNotNull(cache.get(third));
+		assertEquals(1L, cache.stats().get("evictions"));
+	}
+
+	public void testExpires() throws Exception {
+		CacheProperties properties = new CacheProperties();
+		properties.setTtlMillis(0);
+		ResultCache cache = new ResultCache(properties);
+
+		ResultCache.Key key = ResultCache.key("m", "b", FloatBuffer.wrap(new float[] { 1f }));
+		cache.put(key, new float[] { 1f });
+		assertNull(cache.get(key));
+		assertEquals(1L, cache.stats().get("expirations"));
+	}
+
+}
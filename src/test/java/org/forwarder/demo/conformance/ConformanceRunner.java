@@ -0,0 +1,398 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.conformance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.forwarder.Forwarder;
+import org.forwarder.demo.configurations.SessionPoolProperties;
+import org.forwarder.demo.metrics.Histogram;
+import org.forwarder.demo.optimizer.GraphOptimizer;
+import org.forwarder.demo.output.TensorOutputs;
+import org.forwarder.demo.registry.ModelRegistry;
+import org.forwarder.demo.session.PooledSession;
+import org.forwarder.demo.session.SessionPool;
+import org.forwarder.demo.session.SessionPools;
+import org.forwarder.demo.weights.ModelWeights;
+import org.forwarder.demo.weights.WeightStore;
+import org.onnx4j.Tensor;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+import org.onnx4j.tensor.TensorBuilder;
+
+/**
+ * Runs every model found under a directory against the test data sets next
+ * to it, on every executor and backend, and measures the forwards while
+ * doing so.
+ *
+ * A model is a directory holding a <code>model.onnx</code> and
+ * <code>test_data_set_*&#47;{input_0,output_0}.pb</code>, laid out as in the
+ * ONNX model zoo. Input and output names are read from the tensor protos, or
+ * from the graph when the protos are unnamed as in older zoo releases.
+ * Each (model, executor) opens one forwarder and forks one task per backend
+ * on a {@link ForkJoinPool}, and every task forwards each data set
+ * <code>repetitions</code> times, comparing every output with the expected
+ * one. With a {@link GraphOptimizer}, every model is optimized first and the
+ * optimized graph is checked instead.
+ */
+public class ConformanceRunner {
+
+	static final String MODEL_FILE = "model.onnx";
+
+	static final String TEST_DATA_SET_PREFIX = "test_data_set_";
+
+	private final List<String> executors;
+
+	private final List<String> backends;
+
+	private final int repetitions;
+
+	private final float tolerance;
+
+	private final GraphOptimizer optimizer;
+
+	private final WeightStore weightStore = new WeightStore();
+
+	public ConformanceRunner(List<String> executors, List<String> backends, int repetitions, float tolerance) {
+		this(executors, backends, repetitions, tolerance, null);
+	}
+
+	/**
+	 * @param optimizer
+	 *            optimizer to run every model through before loading it, or
+	 *            null to load models as they are
+	 */
+	public ConformanceRunner(List<String> executors, List<String> backends, int repetitions, float tolerance,
+			GraphOptimizer optimizer) {
+		this.executors = executors;
+		this.backends = backends;
+		this.repetitions = repetitions;
+		this.tolerance = tolerance;
+		this.optimizer = optimizer;
+	}
+
+	/**
+	 * @return models below the directory that have test data, by path
+	 */
+	public static List<ModelCase> discover(File root) {
+		List<ModelCase> models = new ArrayList<>();
+		discover(root, root, models);
+		Collections.sort(models, (a, b) -> a.name.compareTo(b.name));
+		return models;
+	}
+
+	private static void discover(File root, File directory, List<ModelCase> models) {
+		File[] children = directory.listFiles();
+		if (children == null)
+			return;
+
+		File modelFile = new File(directory, MODEL_FILE);
+		List<File> testDataSets = new ArrayList<>();
+		for (File child : children) {
+			if (!child.isDirectory())
+				continue;
+			if (child.getName().startsWith(TEST_DATA_SET_PREFIX))
+				testDataSets.add(child);
+			else
+				discover(root, child, models);
+		}
+		if (modelFile.isFile() && !testDataSets.isEmpty()) {
+			Collections.sort(testDataSets);
+			String name = root.toURI().relativize(directory.toURI()).getPath().replaceAll("/$", "");
+			models.add(new ModelCase(name, modelFile, testDataSets));
+		}
+	}
+
+	public List<Result> run(List<ModelCase> models, ForkJoinPool pool) {
+		List<ModelTask> tasks = new ArrayList<>();
+		for (ModelCase model : models) {
+			for (String executor : this.executors)
+				tasks.add(new ModelTask(model, executor));
+		}
+
+		List<Result> results = new ArrayList<>();
+		for (ForkJoinTask<List<Result>> task : tasks)
+			pool.execute(task);
+		for (ForkJoinTask<List<Result>> task : tasks)
+			results.addAll(task.join());
+		return results;
+	}
+
+	/**
+	 * @return the expected values of an output proto
+	 */
+	static FloatBuffer values(TensorProto tensorProto) {
+		if (!tensorProto.getRawData().isEmpty())
+			return tensorProto.getRawData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+		FloatBuffer values = FloatBuffer.allocate(tensorProto.getFloatDataCount());
+		for (int n = 0; n < tensorProto.getFloatDataCount(); n++)
+			values.put(tensorProto.getFloatData(n));
+		values.flip();
+		return values;
+	}
+
+	private static TensorProto read(File file) throws IOException {
+		return TensorProto.parseFrom(FileUtils.readFileToByteArray(file));
+	}
+
+	public static class ModelCase {
+
+		private final String name;
+
+		private final File modelFile;
+
+		private final List<File> testDataSets;
+
+		ModelCase(String name, File modelFile, List<File> testDataSets) {
+			this.name = name;
+			this.modelFile = modelFile;
+			this.testDataSets = testDataSets;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public List<File> getTestDataSets() {
+			return this.testDataSets;
+		}
+
+	}
+
+	public static class Result {
+
+		private final String model;
+
+		private final String executor;
+
+		private final String backend;
+
+		private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+		private final Histogram latencies = new Histogram("us");
+
+		private long elapsedNanos;
+
+		Result(String model, String executor, String backend) {
+			this.model = model;
+			this.executor = executor;
+			this.backend = backend;
+		}
+
+		public List<String> getFailures() {
+			return this.failures;
+		}
+
+		public Histogram getLatencies() {
+			return this.latencies;
+		}
+
+		public double getThroughput() {
+			return this.elapsedNanos == 0 ? 0d
+					: this.latencies.getCount() * ((double) TimeUnit.SECONDS.toNanos(1)) / this.elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-24s %-18s %-11s %6d forwards %9.1f/s p50 %7dus p90 %7dus p99 %7dus %s",
+					this.model, this.executor, this.backend, this.latencies.getCount(), this.getThroughput(),
+					this.latencies.getPercentile(0.50), this.latencies.getPercentile(0.90),
+					this.latencies.getPercentile(0.99),
+					this.failures.isEmpty() ? "OK" : this.failures.size() + " FAILED");
+		}
+
+		private void fail(String message, Object... args) {
+			this.failures.add(String.format("%s/%s/%s: ", this.model, this.executor, this.backend)
+					+ String.format(message, args));
+		}
+
+	}
+
+	/**
+	 * Opens the forwarder of one model with one executor and forks one task
+	 * per backend on it
+	 */
+	private class ModelTask extends RecursiveTask<List<Result>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ModelCase model;
+
+		private final String executor;
+
+		private ModelTask(ModelCase model, String executor) {
+			this.model = model;
+			this.executor = executor;
+		}
+
+		@Override
+		protected List<Result> compute() {
+			if (ConformanceRunner.this.optimizer == null)
+				return this.check(this.model.modelFile);
+
+			File optimizedFile = null;
+			try {
+				optimizedFile = File.createTempFile("conformance", ".onnx");
+				ConformanceRunner.this.optimizer.optimize(this.model.modelFile, optimizedFile);
+				return this.check(optimizedFile);
+			} catch (IOException e) {
+				return this.failed("failed to optimize the graph: %s", e);
+			} finally {
+				if (optimizedFile != null)
+					optimizedFile.delete();
+			}
+		}
+
+		private List<Result> check(File modelFile) {
+			String inputName;
+			String outputName;
+			try (ModelWeights weights = ConformanceRunner.this.weightStore.acquire(modelFile)) {
+				inputName = weights.getInputNames().get(0);
+				outputName = weights.getOutputNames().get(0);
+			} catch (Exception e) {
+				return this.failed("failed to read the graph: %s", e);
+			}
+
+			List<Result> results = new ArrayList<>();
+			List<Tensor> inputs = new ArrayList<>();
+			List<TensorProto> outputs = new ArrayList<>();
+			try (Forwarder forwarder = ModelRegistry.open(modelFile.getAbsolutePath(), this.executor);
+					SessionPools sessionPools = new SessionPools(this.model.name, forwarder,
+							new SessionPoolProperties())) {
+				for (File testDataSet : this.model.testDataSets) {
+					TensorProto input = read(new File(testDataSet, "input_0.pb"));
+					inputs.add(TensorBuilder.builder(input, forwarder.getConfig().getTensorOptions())
+							.manager(forwarder.getModel().getTensorManager())
+							.name(input.getName().isEmpty() ? inputName : input.getName()).build());
+					outputs.add(read(new File(testDataSet, "output_0.pb")));
+				}
+
+				List<BackendTask> tasks = new ArrayList<>();
+				for (String backend : ConformanceRunner.this.backends)
+					tasks.add(new BackendTask(new Result(this.model.name, this.executor, backend), sessionPools,
+							inputs, outputs, outputName));
+				for (BackendTask task : ForkJoinTask.invokeAll(tasks))
+					results.add(task.join());
+			} catch (Exception e) {
+				return this.failed("failed to open or close the forwarder: %s", e);
+			} finally {
+				for (Tensor input : inputs) {
+					if (input != null)
+						input.close();
+				}
+			}
+			return results;
+		}
+
+		private List<Result> failed(String message, Exception e) {
+			Result result = new Result(this.model.name, this.executor, "*");
+			result.fail(message, e);
+			return Collections.singletonList(result);
+		}
+
+	}
+
+	/**
+	 * Forwards every data set of a model on one backend
+	 */
+	private class BackendTask extends RecursiveTask<Result> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Result result;
+
+		private final SessionPools sessionPools;
+
+		private final List<Tensor> inputs;
+
+		private final List<TensorProto> outputs;
+
+		private final String outputName;
+
+		private BackendTask(Result result, SessionPools sessionPools, List<Tensor> inputs,
+				List<TensorProto> outputs, String outputName) {
+			this.result = result;
+			this.sessionPools = sessionPools;
+			this.inputs = inputs;
+			this.outputs = outputs;
+			this.outputName = outputName;
+		}
+
+		@Override
+		protected Result compute() {
+			long startedAt = System.nanoTime();
+			try {
+				SessionPool sessionPool = this.sessionPools.get(this.result.backend);
+				for (int set = 0; set < this.inputs.size(); set++) {
+					TensorProto expected = this.outputs.get(set);
+					FloatBuffer expectedValues = values(expected);
+					String outputName = expected.getName().isEmpty() ? this.outputName : expected.getName();
+					for (int n = 0; n < ConformanceRunner.this.repetitions; n++) {
+						long forwardStartedAt = System.nanoTime();
+						try (PooledSession session = sessionPool.borrow()) {
+							Tensor output = session.get().feed(this.inputs.get(set), false).forward()
+									.getOutput(outputName);
+							this.result.latencies
+									.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - forwardStartedAt));
+							if (!this.compare(set, TensorOutputs.view(output), expectedValues))
+								break;
+						}
+					}
+				}
+			} catch (Exception e) {
+				this.result.fail("%s", e);
+			}
+			this.result.elapsedNanos = System.nanoTime() - startedAt;
+			return this.result;
+		}
+
+		/**
+		 * @return false once the output mismatches, to report each data set
+		 *         once
+		 */
+		private boolean compare(int set, FloatBuffer actual, FloatBuffer expected) {
+			if (actual.remaining() != expected.remaining()) {
+				this.result.fail("test_data_set_%s has %s values, expected %s", set, actual.remaining(),
+						expected.remaining());
+				return false;
+			}
+			float tolerance = ConformanceRunner.this.tolerance;
+			for (int n = 0; n < actual.remaining(); n++) {
+				float difference = Math.abs(actual.get(n) - expected.get(n));
+				if (!(difference <= tolerance)) {
+					this.result.fail("test_data_set_%s differs at %s: %s instead of %s", set, n, actual.get(n),
+							expected.get(n));
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+}
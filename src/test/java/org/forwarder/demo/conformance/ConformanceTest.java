@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.conformance;
+
+import java.io.File;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.forwarder.demo.configurations.OptimizerProperties;
+import org.forwarder.demo.conformance.ConformanceRunner.ModelCase;
+import org.forwarder.demo.conformance.ConformanceRunner.Result;
+import org.forwarder.demo.optimizer.GraphOptimizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Conformance and throughput of every model under the test resources, on
+ * every executor and backend. Tuned with system properties:
+ * <code>conformance.executors</code>, <code>conformance.backends</code>,
+ * <code>conformance.repetitions</code>, <code>conformance.tolerance</code>
+ * and <code>conformance.parallelism</code>. The optimized models are checked
+ * with the default passes plus <code>MatMul</code>/<code>Add</code> fusion
+ * when <code>conformance.fuseMatMulAdd</code> is set.
+ */
+public class ConformanceTest extends TestCase {
+
+	private static Logger logger = LoggerFactory.getLogger(ConformanceTest.class);
+
+	public ConformanceTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(ConformanceTest.class);
+	}
+
+	public void testDiscoversModelsWithTestData() throws Exception {
+		List<ModelCase> models = ConformanceRunner.discover(resources());
+		List<String> names = new ArrayList<>();
+		for (ModelCase model : models)
+			names.add(model.getName());
+		assertTrue(names.toString(), names.containsAll(Arrays.asList("mnist/opset_v1", "mnist/opset_v7",
+				"mnist/opset_v8")));
+		for (ModelCase model : models)
+			assertFalse(model.getTestDataSets().isEmpty());
+	}
+
+	public void testModelsConform() throws Exception {
+		this.assertConform(null);
+	}
+
+	public void testOptimizedModelsConform() throws Exception {
+		OptimizerProperties properties = new OptimizerProperties();
+		properties.setEnabled(true);
+		properties.setFuseMatMulAdd(Boolean.getBoolean("conformance.fuseMatMulAdd"));
+		this.assertConform(new GraphOptimizer(properties));
+	}
+
+	private void assertConform(GraphOptimizer optimizer) throws Exception {
+		ConformanceRunner runner = new ConformanceRunner(
+				list("conformance.executors", "RayExecutor,RecursionExecutor"),
+				list("conformance.backends", "Tensorflow,DL4J"),
+				Integer.getInteger("conformance.repetitions", 50),
+				Float.parseFloat(System.getProperty("conformance.tolerance", "0.001")), optimizer);
+		ForkJoinPool pool = new ForkJoinPool(
+				Integer.getInteger("conformance.parallelism", Runtime.getRuntime().availableProcessors()));
+		List<Result> results;
+		try {
+			results = runner.run(ConformanceRunner.discover(resources()), pool);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		List<String> failures = new ArrayList<>();
+		for (Result result : results) {
+			logger.info("{}", result);
+			failures.addAll(result.getFailures());
+		}
+		assertFalse(results.isEmpty());
+		assertTrue(String.join("\n", failures), failures.isEmpty());
+	}
+
+	private static File resources() throws Exception {
+		return new File(URLDecoder.decode(ConformanceTest.class.getResource("/").getFile(), "utf-8"));
+	}
+
+	private static List<String> list(String property, String defaultValue) {
+		return Arrays.asList(System.getProperty(property, defaultValue).split(","));
+	}
+
+}
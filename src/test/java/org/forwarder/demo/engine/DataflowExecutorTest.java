@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.engine;
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forwarder.demo.configurations.OptimizerProperties;
+import org.forwarder.demo.optimizer.GraphOptimizer;
+import org.onnx4j.prototypes.OnnxProto3.GraphProto;
+import org.onnx4j.prototypes.OnnxProto3.ModelProto;
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+import org.onnx4j.prototypes.OnnxProto3.OperatorSetIdProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+import org.onnx4j.prototypes.OnnxProto3.ValueInfoProto;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for DataflowExecutor class, against the reference outputs of the
+ * bundled MNIST models and on a wide hand-written graph.
+ */
+public class DataflowExecutorTest extends TestCase {
+
+	private static final float TOLERANCE = 1e-3f;
+
+	private static final int BRANCHES = 8;
+
+	private DataflowExecutor executor;
+
+	public DataflowExecutorTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(DataflowExecutorTest.class);
+	}
+
+	@Override
+	protected void setUp() {
+		this.executor = new DataflowExecutor(4, 3);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.executor.close();
+	}
+
+	public void testMatchesMnistReferenceOutputs() throws Exception {
+		OptimizerProperties properties = new OptimizerProperties();
+		properties.setFuseMatMulAdd(true);
+		GraphOptimizer optimizer = new GraphOptimizer(properties);
+		for (int opset : new int[] { 1, 7, 8 }) {
+			ModelProto model = readModel(opset);
+			ExecutionPlan plan = ExecutionPlan.compile(model);
+			ExecutionPlan optimized = ExecutionPlan.compile(optimizer.optimize(model).getModel());
+			for (int testDataSet = 0; testDataSet < 3; testDataSet++) {
+				String directory = "/mnist/opset_v" + opset + "/test_data_set_" + testDataSet;
+				NdArray input = NdArray.of(readTensor(directory + "/input_0.pb"));
+				float[] expected = NdArray.of(readTensor(directory + "/output_0.pb")).data();
+				String message = "opset " + opset + " data set " + testDataSet;
+
+				Map<String, NdArray> inputs = Collections
+						.singletonMap(plan.getInputNames().iterator().next(), input);
+				assertClose(message, expected, output(plan.execute(new SequentialExecutor(), inputs)));
+				assertClose(message, expected, output(plan.execute(this.executor, inputs)));
+				assertClose(message + " optimized", expected, output(optimized.execute(this.executor, inputs)));
+			}
+		}
+	}
+
+	public void testRunsBranchesConcurrentlyUpToParallelism() throws Exception {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger mostRunning = new AtomicInteger();
+		ExecutionPlan plan = ExecutionPlan.compile(wideModel(), (node, opset) -> {
+			if (!"Slow".equals(node.getOpType()))
+				return Kernels.create(node, opset);
+			return (inputs, allocator) -> {
+				mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					running.decrementAndGet();
+				}
+				return Kernels.one(inputs[0]);
+			};
+		});
+
+		NdArray x = NdArray.floats(new int[] { 2 }, new float[] { 1, 2 });
+		NdArray y = plan.execute(this.executor, Collections.singletonMap("x", x)).get("y");
+		assertEquals(BRANCHES * 1f, y.data()[0]);
+		assertEquals(BRANCHES * 2f, y.data()[1]);
+		assertTrue("Most branches run at once " + mostRunning, mostRunning.get() > 1);
+		assertTrue("Most branches run at once " + mostRunning, mostRunning.get() <= 3);
+	}
+
+	public void testRunsOnCallerWithParallelismOfOne() throws Exception {
+		Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		ExecutionPlan plan = ExecutionPlan.compile(wideModel(), (node, opset) -> {
+			Kernel kernel = "Slow".equals(node.getOpType()) ? (inputs, allocator) -> Kernels.one(inputs[0])
+					: Kernels.create(node, opset);
+			return (inputs, allocator) -> {
+				threads.add(Thread.currentThread());
+				return kernel.run(inputs, allocator);
+			};
+		});
+
+		try (DataflowExecutor sequential = new DataflowExecutor(4, 1)) {
+			plan.execute(sequential, Collections.singletonMap("x", NdArray.zeros(2)));
+		}
+		assertEquals(Collections.singleton(Thread.currentThread()), threads);
+	}
+
+	public void testPropagatesKernelFailures() throws Exception {
+		ExecutionPlan plan = ExecutionPlan.compile(wideModel(), (node, opset) -> {
+			if (!"Slow".equals(node.getOpType()))
+				return Kernels.create(node, opset);
+			return (inputs, allocator) -> {
+				throw new IllegalArgumentException("broken branch");
+			};
+		});
+		try {
+			plan.execute(this.executor, Collections.singletonMap("x", NdArray.zeros(2)));
+			fail("Kernel failure swallowed");
+		} catch (IllegalStateException e) {
+			assertEquals("broken branch", e.getCause().getMessage());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public void testProfilesEveryNodeOnBothExecutors() throws Exception {
+		ExecutionPlan plan = ExecutionPlan.compile(wideModel(), (node, opset) -> {
+			if (!"Slow".equals(node.getOpType()))
+				return Kernels.create(node, opset);
+			return (inputs, allocator) -> {
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return Kernels.one(inputs[0]);
+			};
+		});
+		NodeProfile profile = new NodeProfile(plan);
+		Map<String, NdArray> inputs = Collections.singletonMap("x", NdArray.zeros(2));
+		plan.execute(new SequentialExecutor(), inputs, null, profile);
+		plan.execute(this.executor, inputs, null, profile);
+
+		Map<String, Object> stats = profile.stats();
+		List<Map<String, Object>> nodes = (List<Map<String, Object>>) stats.get("nodes");
+		assertEquals(BRANCHES + 1, nodes.size());
+		for (Map<String, Object> node : nodes) {
+			assertEquals(node.toString(), 2L, node.get("runs"));
+			assertEquals(node.toString(), 2L * 2 * Float.BYTES, node.get("outputBytes"));
+		}
+
+		Map<String, Map<String, Object>> opTypes = (Map<String, Map<String, Object>>) stats.get("opTypes");
+		assertEquals("Slowest operator type first", "Slow", opTypes.keySet().iterator().next());
+		assertEquals(2L * BRANCHES, opTypes.get("Slow").get("runs"));
+		assertTrue((Long) opTypes.get("Slow").get("wallMicros") >= 2L * BRANCHES * 1000);
+		assertEquals(2L, opTypes.get("Sum").get("runs"));
+
+		profile.reset();
+		assertEquals(0L, ((List<Map<String, Object>>) profile.stats().get("nodes")).get(0).get("runs"));
+	}
+
+	public void testRejectsUnsupportedOperators() {
+		ModelProto model = ModelProto.newBuilder()
+				.setGraph(GraphProto.newBuilder().addInput(ValueInfoProto.newBuilder().setName("x"))
+						.addNode(NodeProto.newBuilder().setOpType("Upsample").addInput("x").addOutput("y"))
+						.addOutput(ValueInfoProto.newBuilder().setName("y")))
+				.build();
+		try {
+			ExecutionPlan.compile(model);
+			fail("Unsupported operator compiled");
+		} catch (UnsupportedOperationException e) {
+			assertTrue(e.getMessage().contains("Upsample"));
+		}
+	}
+
+	/**
+	 * <code>y = Sum(Slow(x), ...)</code> over {@value #BRANCHES} independent
+	 * branches
+	 */
+	private static ModelProto wideModel() {
+		GraphProto.Builder graph = GraphProto.newBuilder().addInput(ValueInfoProto.newBuilder().setName("x"))
+				.addOutput(ValueInfoProto.newBuilder().setName("y"));
+		NodeProto.Builder sum = NodeProto.newBuilder().setOpType("Sum").addOutput("y");
+		for (int n = 0; n < BRANCHES; n++) {
+			graph.addNode(NodeProto.newBuilder().setOpType("Slow").addInput("x").addOutput("branch" + n));
+			sum.addInput("branch" + n);
+		}
+		return ModelProto.newBuilder().addOpsetImport(OperatorSetIdProto.newBuilder().setVersion(8))
+				.setGraph(graph.addNode(sum)).build();
+	}
+
+	private static float[] output(Map<String, NdArray> outputs) {
+		assertEquals(1, outputs.size());
+		return outputs.values().iterator().next().data();
+	}
+
+	private static void assertClose(String message, float[] expected, float[] actual) {
+		assertEquals(message, expected.length, actual.length);
+		for (int n = 0; n < expected.length; n++)
+			assertEquals(message + " at " + n, expected[n], actual[n], TOLERANCE);
+	}
+
+	private static ModelProto readModel(int opset) throws Exception {
+		try (InputStream in = DataflowExecutorTest.class
+				.getResourceAsStream("/mnist/opset_v" + opset + "/model.onnx")) {
+			return ModelProto.parseFrom(in);
+		}
+	}
+
+	private static TensorProto readTensor(String resource) throws Exception {
+		try (InputStream in = DataflowExecutorTest.class.getResourceAsStream(resource)) {
+			return TensorProto.parseFrom(in);
+		}
+	}
+
+}
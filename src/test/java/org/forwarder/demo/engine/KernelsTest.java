@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.engine;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.onnx4j.prototypes.OnnxProto3.AttributeProto;
+import org.onnx4j.prototypes.OnnxProto3.AttributeProto.AttributeType;
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the blocked Conv, pooling, Gemm and Add kernels, against
+ * naive loops straight from the operator definitions.
+ */
+public class KernelsTest extends TestCase {
+
+	private static final float TOLERANCE = 1e-4f;
+
+	private final Random random = new Random(24);
+
+	public KernelsTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(KernelsTest.class);
+	}
+
+	public void testConvMatchesNaiveConv() {
+		// shape of input, maps, kernel, strides, pads, dilations, group
+		int[][][] cases = { { { 2, 3, 9, 9 }, { 4 }, { 3, 3 }, { 1, 1 }, { 0, 0, 0, 0 }, { 1, 1 }, { 1 } },
+				{ { 1, 4, 10, 11 }, { 6 }, { 3, 2 }, { 2, 3 }, { 1, 2, 2, 1 }, { 1, 1 }, { 2 } },
+				{ { 1, 2, 12, 12 }, { 3 }, { 3, 3 }, { 1, 1 }, { 2, 2, 2, 2 }, { 2, 2 }, { 1 } },
+				{ { 2, 6, 5, 7 }, { 6 }, { 3, 3 }, { 1, 1 }, { 1, 1, 1, 1 }, { 1, 1 }, { 6 } },
+				{ { 1, 8, 6, 6 }, { 5 }, { 1, 1 }, { 1, 1 }, { 0, 0, 0, 0 }, { 1, 1 }, { 1 } },
+				// a block of columns smaller than an output map
+				{ { 1, 3, 160, 160 }, { 2 }, { 3, 3 }, { 1, 1 }, { 1, 1, 1, 1 }, { 1, 1 }, { 1 } } };
+		for (int[][] c : cases) {
+			int[] inputShape = c[0];
+			int maps = c[1][0];
+			int group = c[6][0];
+			NdArray input = this.randoms(inputShape);
+			NdArray weights = this.randoms(maps, inputShape[1] / group, c[2][0], c[2][1]);
+			NdArray bias = this.randoms(maps);
+			NodeProto node = NodeProto.newBuilder().setOpType("Conv").addAttribute(ints("strides", c[3]))
+					.addAttribute(ints("pads", c[4])).addAttribute(ints("dilations", c[5]))
+					.addAttribute(intValue("group", group)).build();
+
+			NdArray actual = run(node, input, weights, bias);
+			NdArray expected = conv(input, weights, bias, c[3], c[4], c[5], group);
+			assertClose(node.toString(), expected, actual);
+		}
+	}
+
+	public void testPoolsMatchNaivePools() {
+		// shape of input, kernel, strides, pads, ceil_mode
+		int[][][] cases = { { { 1, 2, 8, 8 }, { 2, 2 }, { 2, 2 }, { 0, 0, 0, 0 }, { 0 } },
+				{ { 2, 3, 8, 9 }, { 3, 3 }, { 2, 2 }, { 1, 1, 1, 1 }, { 1 } },
+				{ { 1, 1, 7, 10 }, { 3, 2 }, { 1, 3 }, { 1, 0, 2, 1 }, { 0 } },
+				{ { 1, 2, 13, 13 }, { 3, 3 }, { 2, 2 }, { 0, 0, 0, 0 }, { 1 } } };
+		for (int[][] c : cases) {
+			NdArray input = this.randoms(c[0]);
+			for (String opType : new String[] { "MaxPool", "AveragePool" }) {
+				for (int countPadding = 0; countPadding < (opType.equals("MaxPool") ? 1 : 2); countPadding++) {
+					NodeProto.Builder node = NodeProto.newBuilder().setOpType(opType)
+							.addAttribute(ints("kernel_shape", c[1])).addAttribute(ints("strides", c[2]))
+							.addAttribute(ints("pads", c[3])).addAttribute(intValue("ceil_mode", c[4][0]));
+					if (countPadding != 0)
+						node.addAttribute(intValue("count_include_pad", 1));
+
+					NdArray actual = run(node.build(), input);
+					NdArray expected = pool(input, c[1], c[2], c[3], c[4][0] != 0, opType.equals("MaxPool"),
+							countPadding != 0);
+					assertClose(node.toString(), expected, actual);
+				}
+			}
+		}
+	}
+
+	public void testGemmMatchesNaiveGemm() {
+		// rows, depth and columns spanning several blocks of MatMulKernels
+		int rows = 5;
+		int depth = 150;
+		int columns = 300;
+		for (int transposeA = 0; transposeA < 2; transposeA++) {
+			for (int transposeB = 0; transposeB < 2; transposeB++) {
+				NdArray a = transposeA != 0 ? this.randoms(depth, rows) : this.randoms(rows, depth);
+				NdArray b = transposeB != 0 ? this.randoms(columns, depth) : this.randoms(depth, columns);
+				NdArray c = this.randoms(columns);
+				NodeProto node = NodeProto.newBuilder().setOpType("Gemm").addAttribute(floatValue("alpha", 0.5f))
+						.addAttribute(floatValue("beta", 2f)).addAttribute(intValue("transA", transposeA))
+						.addAttribute(intValue("transB", transposeB)).build();
+
+				float[] expected = new float[rows * columns];
+				for (int i = 0; i < rows; i++) {
+					for (int j = 0; j < columns; j++) {
+						float sum = 0;
+						for (int k = 0; k < depth; k++)
+							sum += a.data()[transposeA != 0 ? k * rows + i : i * depth + k]
+									* b.data()[transposeB != 0 ? j * depth + k : k * columns + j];
+						expected[i * columns + j] = 0.5f * sum + 2f * c.data()[j];
+					}
+				}
+				assertClose(node.toString(), NdArray.floats(new int[] { rows, columns }, expected),
+						run(node, a, b, c));
+			}
+		}
+	}
+
+	public void testAddBroadcasts() {
+		int[][][] cases = { { { 2, 3, 4, 5 }, { 2, 3, 4, 5 } }, { { 2, 3, 4, 5 }, { 3, 1, 5 } },
+				{ { 2, 3, 4, 5 }, { 5 } }, { { 2, 3, 4, 5 }, { 1 } }, { { 2, 3, 4, 5 }, { 3, 1, 1 } },
+				{ { 4, 5 }, { 2, 3, 4, 5 } }, { { 2, 1, 5 }, { 1, 4, 1 } } };
+		NodeProto node = NodeProto.newBuilder().setOpType("Add").build();
+		for (int[][] c : cases) {
+			NdArray a = this.randoms(c[0]);
+			NdArray b = this.randoms(c[1]);
+			NdArray expected = Broadcast.apply(a, b, (x, y) -> x + y, Allocator.HEAP);
+			assertClose(c[0].length + "-D + " + c[1].length + "-D", expected, run(node, a, b));
+		}
+	}
+
+	private static NdArray run(NodeProto node, NdArray... inputs) {
+		return Kernels.create(node, 8).run(inputs, Allocator.HEAP)[0];
+	}
+
+	private static NdArray conv(NdArray input, NdArray weights, NdArray bias, int[] strides, int[] pads,
+			int[] dilations, int group) {
+		int batches = input.dim(0), channels = input.dim(1), height = input.dim(2), width = input.dim(3);
+		int maps = weights.dim(0), kernelHeight = weights.dim(2), kernelWidth = weights.dim(3);
+		int groupChannels = channels / group;
+		int outputHeight = (height + pads[0] + pads[2] - (kernelHeight - 1) * dilations[0] - 1) / strides[0] + 1;
+		int outputWidth = (width + pads[1] + pads[3] - (kernelWidth - 1) * dilations[1] - 1) / strides[1] + 1;
+		float[] x = input.data(), w = weights.data();
+		float[] y = new float[batches * maps * outputHeight * outputWidth];
+		int n = 0;
+		for (int batch = 0; batch < batches; batch++) {
+			for (int map = 0; map < maps; map++) {
+				int firstChannel = map / (maps / group) * groupChannels;
+				for (int oh = 0; oh < outputHeight; oh++) {
+					for (int ow = 0; ow < outputWidth; ow++) {
+						float sum = bias.data()[map];
+						for (int c = 0; c < groupChannels; c++) {
+							for (int kh = 0; kh < kernelHeight; kh++) {
+								int ih = oh * strides[0] - pads[0] + kh * dilations[0];
+								for (int kw = 0; kw < kernelWidth; kw++) {
+									int iw = ow * strides[1] - pads[1] + kw * dilations[1];
+									if (ih >= 0 && ih < height && iw >= 0 && iw < width)
+										sum += x[((batch * channels + firstChannel + c) * height + ih) * width + iw]
+												* w[((map * groupChannels + c) * kernelHeight + kh) * kernelWidth
+														+ kw];
+								}
+							}
+						}
+						y[n++] = sum;
+					}
+				}
+			}
+		}
+		return NdArray.floats(new int[] { batches, maps, outputHeight, outputWidth }, y);
+	}
+
+	private static NdArray pool(NdArray input, int[] kernel, int[] strides, int[] pads, boolean ceil, boolean max,
+			boolean countPadding) {
+		int planes = input.dim(0) * input.dim(1), height = input.dim(2), width = input.dim(3);
+		int[] outputs = new int[2];
+		for (int axis = 0; axis < 2; axis++) {
+			int padded = input.dim(axis + 2) + pads[axis] + pads[axis + 2] - kernel[axis];
+			outputs[axis] = (ceil ? (padded + strides[axis] - 1) / strides[axis] : padded / strides[axis]) + 1;
+		}
+		float[] x = input.data();
+		float[] y = new float[planes * outputs[0] * outputs[1]];
+		int n = 0;
+		for (int plane = 0; plane < planes; plane++) {
+			for (int oh = 0; oh < outputs[0]; oh++) {
+				for (int ow = 0; ow < outputs[1]; ow++) {
+					float value = max ? Float.NEGATIVE_INFINITY : 0;
+					int count = 0;
+					for (int kh = 0; kh < kernel[0]; kh++) {
+						int ih = oh * strides[0] - pads[0] + kh;
+						for (int kw = 0; kw < kernel[1]; kw++) {
+							int iw = ow * strides[1] - pads[1] + kw;
+							if (ih < 0 || ih >= height || iw < 0 || iw >= width)
+								continue;
+							float v = x[(plane * height + ih) * width + iw];
+							value = max ? Math.max(value, v) : value + v;
+							count++;
+						}
+					}
+					y[n++] = max ? value : value / (countPadding ? kernel[0] * kernel[1] : count);
+				}
+			}
+		}
+		return NdArray.floats(new int[] { input.dim(0), input.dim(1), outputs[0], outputs[1] }, y);
+	}
+
+	private static void assertClose(String message, NdArray expected, NdArray actual) {
+		assertEquals(message, Arrays.toString(expected.shape()), Arrays.toString(actual.shape()));
+		for (int n = 0; n < expected.size(); n++) {
+			float e = expected.data()[n];
+			assertEquals(message + " at " + n, e, actual.data()[n], TOLERANCE * Math.max(1, Math.abs(e)));
+		}
+	}
+
+	private NdArray randoms(int... shape) {
+		float[] data = new float[NdArray.size(shape)];
+		for (int n = 0; n < data.length; n++)
+			data[n] = (float) this.random.nextGaussian();
+		return NdArray.floats(shape, data);
+	}
+
+	private static AttributeProto ints(String name, int... values) {
+		AttributeProto.Builder attribute = AttributeProto.newBuilder().setName(name).setType(AttributeType.INTS);
+		for (int value : values)
+			attribute.addInts(value);
+		return attribute.build();
+	}
+
+	private static AttributeProto intValue(String name, int value) {
+		return AttributeProto.newBuilder().setName(name).setType(AttributeType.INT).setI(value).build();
+	}
+
+	private static AttributeProto floatValue(String name, float value) {
+		return AttributeProto.newBuilder().setName(name).setType(AttributeType.FLOAT).setF(value).build();
+	}
+
+}
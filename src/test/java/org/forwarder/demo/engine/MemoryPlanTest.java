@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.engine;
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import org.forwarder.demo.engine.ExecutionPlan.Step;
+import org.onnx4j.prototypes.OnnxProto3.GraphProto;
+import org.onnx4j.prototypes.OnnxProto3.ModelProto;
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+import org.onnx4j.prototypes.OnnxProto3.OperatorSetIdProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+import org.onnx4j.prototypes.OnnxProto3.ValueInfoProto;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for MemoryPlan class, on the bundled MNIST models and a
+ * hand-written graph of two branches.
+ */
+public class MemoryPlanTest extends TestCase {
+
+	private static final float TOLERANCE = 1e-3f;
+
+	public MemoryPlanTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(MemoryPlanTest.class);
+	}
+
+	public void testReusesSlabsAcrossMnistForwards() throws Exception {
+		try (DataflowExecutor dataflow = new DataflowExecutor(2, 2)) {
+			for (int opset : new int[] { 1, 7, 8 }) {
+				ExecutionPlan plan = ExecutionPlan.compile(readModel(opset));
+				String inputName = plan.getInputNames().iterator().next();
+				MemoryPlan memory = plan.planMemory(Collections.singletonMap(inputName, new int[] { 1, 1, 28, 28 }));
+				assertTrue(memory.toString(), memory.getPlannedBytes() * 2 < memory.getNaiveBytes());
+				assertTrue(memory.toString(), memory.getSlabCount() <= 3);
+
+				float[][] outputs = new float[3][];
+				for (int round = 0; round < 2; round++) {
+					for (int testDataSet = 0; testDataSet < 3; testDataSet++) {
+						String directory = "/mnist/opset_v" + opset + "/test_data_set_" + testDataSet;
+						Map<String, NdArray> inputs = Collections.singletonMap(inputName,
+								NdArray.of(readTensor(directory + "/input_0.pb")));
+						float[] expected = NdArray.of(readTensor(directory + "/output_0.pb")).data();
+						GraphExecutor executor = round == 0 ? new SequentialExecutor() : dataflow;
+						outputs[testDataSet] = output(plan.execute(executor, inputs, memory));
+						assertClose(directory, expected, outputs[testDataSet]);
+					}
+				}
+				assertEquals(1L, memory.stats().get("slabSets"));
+
+				// outputs are not planned, so later forwards leave them alone
+				for (int testDataSet = 0; testDataSet < 3; testDataSet++) {
+					String directory = "/mnist/opset_v" + opset + "/test_data_set_" + testDataSet;
+					assertClose(directory, NdArray.of(readTensor(directory + "/output_0.pb")).data(),
+							outputs[testDataSet]);
+				}
+			}
+		}
+	}
+
+	public void testKeepsConcurrentBranchesApart() throws Exception {
+		ExecutionPlan plan = ExecutionPlan.compile(branchesModel());
+		MemoryPlan memory = plan.planMemory(Collections.singletonMap("x", new int[] { 4 }));
+
+		// run in order, b2 could take the slab of a1 once a2 read it, but
+		// nothing keeps a2 from running concurrently with b2
+		assertFalse(slabOf(plan, memory, "a1") == slabOf(plan, memory, "b2"));
+		assertFalse(slabOf(plan, memory, "a1") == slabOf(plan, memory, "b1"));
+		assertEquals(-1, slabOf(plan, memory, "y"));
+		assertEquals(5, memory.getPlannedValues());
+
+		NdArray x = NdArray.floats(new int[] { 4 }, new float[] { -2, -1, 1, 2 });
+		try (DataflowExecutor executor = new DataflowExecutor(2, 2)) {
+			for (int n = 0; n < 20; n++) {
+				float[] y = output(plan.execute(executor, Collections.singletonMap("x", x), memory));
+				assertClose("y", new float[] { 1.1192f, 1.2689f, 2.7311f, 3.8808f }, y);
+			}
+		}
+	}
+
+	public void testAllocatesInputsOfOtherShapes() throws Exception {
+		ExecutionPlan plan = ExecutionPlan.compile(branchesModel());
+		MemoryPlan memory = plan.planMemory(Collections.singletonMap("x", new int[] { 2 }));
+		Map<String, NdArray> inputs = Collections.singletonMap("x",
+				NdArray.floats(new int[] { 4 }, new float[] { -2, -1, 1, 2 }));
+		assertFalse(memory.fits(inputs));
+
+		float[] y = output(plan.execute(new SequentialExecutor(), inputs, memory));
+		assertClose("y", new float[] { 1.1192f, 1.2689f, 2.7311f, 3.8808f }, y);
+		assertEquals(0L, memory.stats().get("slabSets"));
+	}
+
+	/**
+	 * <code>y = Relu(Relu(x) + 1) + Relu(Sigmoid(x))</code>, the two branches
+	 * independent
+	 */
+	private static ModelProto branchesModel() {
+		TensorProto one = TensorProto.newBuilder().setName("one").setDataType(TensorProto.DataType.FLOAT.getNumber())
+				.addFloatData(1).build();
+		GraphProto graph = GraphProto.newBuilder().addInput(ValueInfoProto.newBuilder().setName("x"))
+				.addInitializer(one)
+				.addNode(node("Relu", "a1", "x"))
+				.addNode(node("Sigmoid", "b1", "x"))
+				.addNode(node("Add", "a2", "a1", "one"))
+				.addNode(node("Relu", "b2", "b1"))
+				.addNode(node("Relu", "a3", "a2"))
+				.addNode(node("Add", "y", "a3", "b2"))
+				.addOutput(ValueInfoProto.newBuilder().setName("y")).build();
+		return ModelProto.newBuilder().addOpsetImport(OperatorSetIdProto.newBuilder().setVersion(8)).setGraph(graph)
+				.build();
+	}
+
+	private static NodeProto node(String opType, String output, String... inputs) {
+		NodeProto.Builder node = NodeProto.newBuilder().setOpType(opType).addOutput(output);
+		for (String input : inputs)
+			node.addInput(input);
+		return node.build();
+	}
+
+	private static int slabOf(ExecutionPlan plan, MemoryPlan memory, String value) {
+		for (Step step : plan.getSteps()) {
+			if (step.node.getOutput(0).equals(value))
+				return memory.getSlabs(step.index)[0];
+		}
+		throw new IllegalArgumentException(value);
+	}
+
+	private static float[] output(Map<String, NdArray> outputs) {
+		assertEquals(1, outputs.size());
+		return outputs.values().iterator().next().data();
+	}
+
+	private static void assertClose(String message, float[] expected, float[] actual) {
+		assertEquals(message, expected.length, actual.length);
+		for (int n = 0; n < expected.length; n++)
+			assertEquals(message + " at " + n, expected[n], actual[n], TOLERANCE);
+	}
+
+	private static ModelProto readModel(int opset) throws Exception {
+		try (InputStream in = MemoryPlanTest.class.getResourceAsStream("/mnist/opset_v" + opset + "/model.onnx")) {
+			return ModelProto.parseFrom(in);
+		}
+	}
+
+	private static TensorProto readTensor(String resource) throws Exception {
+		try (InputStream in = MemoryPlanTest.class.getResourceAsStream(resource)) {
+			return TensorProto.parseFrom(in);
+		}
+	}
+
+}
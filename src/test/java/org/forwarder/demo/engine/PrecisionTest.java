@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.engine;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.forwarder.demo.configurations.OptimizerProperties;
+import org.forwarder.demo.optimizer.GraphOptimizer;
+import org.onnx4j.prototypes.OnnxProto3.ModelProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for Precision class, packing the weights of the bundled MNIST
+ * models and checking them with the AccuracyGate.
+ */
+public class PrecisionTest extends TestCase {
+
+	public PrecisionTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(PrecisionTest.class);
+	}
+
+	public void testRoundsToHalf() {
+		assertEquals(0x3c00, PackedWeights.toHalf(1f));
+		assertEquals((short) 0xc000, PackedWeights.toHalf(-2f));
+		assertEquals(0x7bff, PackedWeights.toHalf(65504f));
+		assertEquals(0x7c00, PackedWeights.toHalf(65520f));
+		assertEquals(0x0001, PackedWeights.toHalf(0x1p-24f));
+		assertEquals(0x0000, PackedWeights.toHalf(0x1p-26f));
+		// ties to even: 1 + 2^-11 is halfway between 1 and 1 + 2^-10
+		assertEquals(0x3c00, PackedWeights.toHalf(1f + 0x1p-11f));
+		assertEquals(0x3c02, PackedWeights.toHalf(1f + 3 * 0x1p-11f));
+		assertTrue(Float.isNaN(PackedWeights.toFloat(PackedWeights.toHalf(Float.NaN))));
+
+		for (int bits = 0; bits < 1 << 16; bits++) {
+			float value = PackedWeights.toFloat((short) bits);
+			if (!Float.isNaN(value))
+				assertEquals(Integer.toHexString(bits), (short) bits, PackedWeights.toHalf(value));
+		}
+	}
+
+	public void testQuantizesPerChannel() {
+		// channels along the last axis, of very different ranges
+		float[] data = { -1f, 0f, 100f, 0.5f, 0.001f, -300f, 0f, -0.002f, 50f };
+		PackedWeights packed = PackedWeights.int8(data, new int[] { 3, 3 }, 1);
+		float[] decoded = new float[data.length];
+		packed.decode(0, data.length, decoded, 0);
+		for (int n = 0; n < data.length; n++) {
+			float scale = ((PackedWeights.Int8) packed).getScale(n % 3);
+			assertEquals("value " + n, data[n], decoded[n], scale / 2 + 1e-6f);
+			if (data[n] == 0)
+				assertEquals("zero " + n, 0f, decoded[n]);
+		}
+		assertEquals(data.length + 3 * 8, packed.getByteLength());
+
+		float[] tail = new float[4];
+		packed.decode(5, 4, tail, 0);
+		assertTrue(Arrays.equals(Arrays.copyOfRange(decoded, 5, 9), tail));
+	}
+
+	public void testGatesReducedPrecisionMnist() throws Exception {
+		try (DataflowExecutor dataflow = new DataflowExecutor(2, 2)) {
+			for (int opset : new int[] { 1, 7, 8 }) {
+				ModelProto model = readModel(opset);
+				File directory = directory(opset);
+				ExecutionPlan fp32 = ExecutionPlan.compile(model);
+				ExecutionPlan fp16 = ExecutionPlan.compile(model, Precision.FP16);
+				ExecutionPlan int8 = ExecutionPlan.compile(model, Precision.INT8);
+				assertEquals(Precision.INT8, int8.getPrecision());
+				assertTrue(fp16.getWeightBytes() < fp32.getWeightBytes());
+				assertTrue(int8.getWeightBytes() < fp16.getWeightBytes());
+
+				AccuracyGate.Result result = new AccuracyGate(1e-5).check(fp32, dataflow, directory);
+				assertTrue(result.toString(), result.isPassed());
+				assertEquals(3, result.getDataSetCount());
+				result = new AccuracyGate(1e-3).check(fp16, dataflow, directory);
+				assertTrue(result.toString(), result.isPassed());
+				assertTrue(result.toString(), result.getMaxError() > 0);
+				result = new AccuracyGate(1e-2).check(int8, new SequentialExecutor(), directory);
+				assertTrue(result.toString(), result.isPassed());
+				result = new AccuracyGate(1e-4).check(int8, dataflow, directory);
+				assertFalse(result.toString(), result.isPassed());
+			}
+		}
+	}
+
+	public void testPacksFoldedWeights() throws Exception {
+		// folding the Reshape of the MatMul weights makes them packable too
+		OptimizerProperties properties = new OptimizerProperties();
+		ModelProto model = new GraphOptimizer(properties).optimize(readModel(8)).getModel();
+		ExecutionPlan fp32 = ExecutionPlan.compile(model);
+		ExecutionPlan fp16 = ExecutionPlan.compile(model, Precision.FP16);
+		ExecutionPlan int8 = ExecutionPlan.compile(model, Precision.INT8);
+		assertTrue(fp16.getWeightBytes() + " of " + fp32.getWeightBytes(),
+				fp16.getWeightBytes() < fp32.getWeightBytes() * 0.55);
+		assertTrue(int8.getWeightBytes() + " of " + fp32.getWeightBytes(),
+				int8.getWeightBytes() < fp32.getWeightBytes() * 0.3);
+
+		String inputName = int8.getInputNames().iterator().next();
+		MemoryPlan memory = int8.planMemory(Collections.singletonMap(inputName, new int[] { 1, 1, 28, 28 }));
+		NdArray input = NdArray.of(readTensor("/mnist/opset_v8/test_data_set_0/input_0.pb"));
+		NdArray expected = NdArray.of(readTensor("/mnist/opset_v8/test_data_set_0/output_0.pb"));
+		NdArray output = int8.execute(new SequentialExecutor(), Collections.singletonMap(inputName, input), memory)
+				.values().iterator().next();
+		assertTrue(AccuracyGate.error(output, expected) < 1e-2);
+	}
+
+	public void testNeverPassesWithoutDataSets() throws Exception {
+		File empty = new File(directory(8), "test_data_set_0");
+		AccuracyGate.Result result = new AccuracyGate(1).check(ExecutionPlan.compile(readModel(8)),
+				new SequentialExecutor(), empty);
+		assertEquals(0, result.getDataSetCount());
+		assertFalse(result.isPassed());
+	}
+
+	private static File directory(int opset) throws Exception {
+		return new File(PrecisionTest.class.getResource("/mnist/opset_v" + opset).toURI());
+	}
+
+	private static ModelProto readModel(int opset) throws Exception {
+		try (InputStream in = PrecisionTest.class.getResourceAsStream("/mnist/opset_v" + opset + "/model.onnx")) {
+			return ModelProto.parseFrom(in);
+		}
+	}
+
+	private static TensorProto readTensor(String resource) throws Exception {
+		try (InputStream in = PrecisionTest.class.getResourceAsStream(resource)) {
+			return TensorProto.parseFrom(in);
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.inference;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.forwarder.demo.configurations.InferenceProperties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for InferenceExecutors class.
+ */
+public class InferenceExecutorsTest extends TestCase {
+
+	public InferenceExecutorsTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(InferenceExecutorsTest.class);
+	}
+
+	public void testSubmit() throws Exception {
+		try (InferenceExecutors executors = new InferenceExecutors(new InferenceProperties())) {
+			String threadName = executors.submit("Tensorflow", () -> Thread.currentThread().getName()).get(5,
+					TimeUnit.SECONDS);
+			assertTrue(threadName.startsWith("inference-Tensorflow-"));
+		}
+	}
+
+	public void testShedsWhenQueueIsFull() throws Exception {
+		InferenceProperties properties = new InferenceProperties();
+		properties.setThreads(1);
+		properties.setQueueCapacity(1);
+
+		CountDownLatch release = new CountDownLatch(1);
+		try (InferenceExecutors executors = new InferenceExecutors(properties)) {
+			CountDownLatch started = new CountDownLatch(1);
+			executors.submit("DL4J", () -> {
+				started.countDown();
+				return release.await(5, TimeUnit.SECONDS);
+			});
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			executors.submit("DL4J", () -> true);
+			try {
+				executors.submit("DL4J", () -> true);
+				fail();
+			} catch (RejectedExecutionException e) {
+				// expected
+			}
+			assertEquals(1L, executors.stats().get("rejected"));
+		} finally {
+			release.countDown();
+		}
+	}
+
+	public void testRejectsUnknownBackend() throws Exception {
+		try (InferenceExecutors executors = new InferenceExecutors(new InferenceProperties())) {
+			try {
+				executors.submit("Tensorflow2", () -> true);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			assertTrue(((Map<?, ?>) executors.stats().get("backends")).isEmpty());
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.metrics;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for Histogram class.
+ */
+public class HistogramTest extends TestCase {
+
+	public HistogramTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(HistogramTest.class);
+	}
+
+	public void testEmpty() {
+		Histogram histogram = new Histogram("us");
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(0.99));
+		assertEquals(0d, histogram.getMean());
+	}
+
+	public void testPercentiles() {
+		Histogram histogram = new Histogram("us");
+		for (int n = 1; n <= 100; n++)
+			histogram.record(n);
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(100, histogram.getMax());
+		assertEquals(50.5d, histogram.getMean());
+		// 50 falls into [32, 63], 99 and 100 into [64, 127] capped by max
+		assertEquals(63, histogram.getPercentile(0.50));
+		assertEquals(100, histogram.getPercentile(0.99));
+	}
+
+	public void testNegativeValuesCountAsZero() {
+		Histogram histogram = new Histogram("requests");
+		histogram.record(-5);
+		assertEquals(1, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(1.0));
+	}
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.metrics;
+
+import org.forwarder.demo.registry.ModelKey;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for InferenceMetrics class.
+ */
+public class InferenceMetricsTest extends TestCase {
+
+	private static final ModelKey MNIST = new ModelKey("mnist", 8);
+
+	public InferenceMetricsTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(InferenceMetricsTest.class);
+	}
+
+	public void testUnknownBackendsShareOneTag() {
+		InferenceMetrics metrics = InferenceMetrics.local();
+		ForwardMeters tensorflow = metrics.meters(MNIST, "RayExecutor", "Tensorflow");
+		assertSame(tensorflow, metrics.meters(MNIST, "RayExecutor", "Tensorflow"));
+
+		ForwardMeters other = metrics.meters(MNIST, "RayExecutor", "foo");
+		assertNotSame(tensorflow, other);
+		assertSame(other, metrics.meters(MNIST, "RayExecutor", "bar"));
+		assertNotNull(metrics.getRegistry().find("forwarder.requests").tags("backend", "other").counter());
+	}
+
+	public void testRecordsStagesAndErrors() {
+		InferenceMetrics metrics = InferenceMetrics.local();
+		MeterRegistry registry = metrics.getRegistry();
+		ForwardMeters meters = metrics.meters(MNIST, "RayExecutor", "DL4J");
+
+		long startedAt = meters.start();
+		assertEquals(1d, registry.find("forwarder.requests.in.flight").gauge().value());
+		long decodedAt = meters.decoded(startedAt);
+		assertTrue(decodedAt >= startedAt);
+		meters.error(new IllegalStateException());
+		meters.error(new IllegalStateException());
+		meters.finish();
+
+		assertEquals(0d, registry.find("forwarder.requests.in.flight").gauge().value());
+		assertEquals(1L, registry.find("forwarder.decode").tags("model", "mnist/opset_v8").timer().count());
+		assertEquals(2d,
+				registry.find("forwarder.errors").tags("type", "IllegalStateException").counter().count());
+	}
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.optimizer;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forwarder.demo.configurations.OptimizerProperties;
+import org.onnx4j.prototypes.OnnxProto3.GraphProto;
+import org.onnx4j.prototypes.OnnxProto3.ModelProto;
+import org.onnx4j.prototypes.OnnxProto3.NodeProto;
+import org.onnx4j.prototypes.OnnxProto3.OperatorSetIdProto;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+import org.onnx4j.prototypes.OnnxProto3.ValueInfoProto;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for GraphOptimizer class, on the bundled MNIST models and a
+ * hand-written convolution.
+ */
+public class GraphOptimizerTest extends TestCase {
+
+	public GraphOptimizerTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(GraphOptimizerTest.class);
+	}
+
+	public void testFoldsAndFusesMnist() throws Exception {
+		OptimizerProperties properties = new OptimizerProperties();
+		properties.setFuseMatMulAdd(true);
+		ModelProto model = this.readModel("/mnist/opset_v8/model.onnx");
+		OptimizedModel optimized = new GraphOptimizer(properties).optimize(model);
+
+		assertEquals(12, optimized.getNodesBefore());
+		assertEquals(1, (int) optimized.getRewrites().get("constantFolding"));
+		assertEquals(2, (int) optimized.getRewrites().get("fuseConvAdd"));
+		assertEquals(1, (int) optimized.getRewrites().get("fuseMatMulAdd"));
+		assertEquals("[Conv, Relu, MaxPool, Conv, Relu, MaxPool, Reshape, Gemm]",
+				opTypes(optimized.getModel().getGraph()).toString());
+
+		GraphProto graph = optimized.getModel().getGraph();
+		NodeProto conv = graph.getNode(0);
+		assertEquals("Plus30_Output_0", conv.getOutput(0));
+		assertEquals(Tensors.floats(initializer(model.getGraph(), "Parameter6")).length,
+				Tensors.floats(initializer(graph, conv.getInput(2))).length);
+		assertEquals("Plus214_Output_0", graph.getNode(7).getOutput(0));
+		// IR 3 lists initializers as inputs: the folded weights replace their original
+		assertNotNull(initializer(graph, "Parameter193_reshape1"));
+		assertNull(initializer(graph, "Parameter193"));
+		assertTrue(inputNames(graph).contains("Parameter193_reshape1"));
+		assertFalse(inputNames(graph).contains("Parameter193"));
+	}
+
+	public void testFoldsConstantNodesOfOpset1() throws Exception {
+		OptimizedModel optimized = new GraphOptimizer(new OptimizerProperties())
+				.optimize(this.readModel("/mnist/opset_v1/model.onnx"));
+
+		assertEquals("[Div, Conv, Relu, MaxPool, Conv, Relu, MaxPool, Reshape, MatMul, Add]",
+				opTypes(optimized.getModel().getGraph()).toString());
+		assertEquals(2, (int) optimized.getRewrites().get("fuseConvAdd"));
+		assertEquals("Plus422_Output_0", optimized.getModel().getGraph().getOutput(0).getName());
+	}
+
+	public void testFoldsBatchNormIntoConv() throws Exception {
+		GraphProto graph = GraphProto.newBuilder()
+				.addNode(NodeProto.newBuilder().setOpType("Conv").addInput("x").addInput("w").addOutput("y"))
+				.addNode(NodeProto.newBuilder().setOpType("BatchNormalization").addInput("y").addInput("scale")
+						.addInput("shift").addInput("mean").addInput("var").addOutput("z"))
+				.addInitializer(Tensors.floatTensor("w", new long[] { 2, 1, 1, 1 }, new float[] { 1f, 2f }))
+				.addInitializer(Tensors.floatTensor("scale", new long[] { 2 }, new float[] { 2f, 3f }))
+				.addInitializer(Tensors.floatTensor("shift", new long[] { 2 }, new float[] { 1f, -1f }))
+				.addInitializer(Tensors.floatTensor("mean", new long[] { 2 }, new float[] { 0.5f, 1f }))
+				.addInitializer(Tensors.floatTensor("var", new long[] { 2 }, new float[] { 4f, 9f }))
+				.addInput(ValueInfoProto.newBuilder().setName("x")).addOutput(ValueInfoProto.newBuilder().setName("z"))
+				.build();
+		ModelProto model = ModelProto.newBuilder().setIrVersion(4)
+				.addOpsetImport(OperatorSetIdProto.newBuilder().setVersion(9)).setGraph(graph).build();
+
+		OptimizerProperties properties = new OptimizerProperties();
+		GraphProto optimized = new GraphOptimizer(properties).optimize(model).getModel().getGraph();
+		assertEquals(1, optimized.getNodeCount());
+		NodeProto conv = optimized.getNode(0);
+		assertEquals("z", conv.getOutput(0));
+
+		// s = scale / sqrt(var + 1e-5) ~ [1, 1]; W' = W * s, b' = -mean * s + shift
+		float[] weights = Tensors.floats(initializer(optimized, conv.getInput(1)));
+		float[] bias = Tensors.floats(initializer(optimized, conv.getInput(2)));
+		assertEquals(1f, weights[0], 1e-4f);
+		assertEquals(2f, weights[1], 1e-4f);
+		assertEquals(0.5f, bias[0], 1e-4f);
+		assertEquals(-2f, bias[1], 1e-4f);
+		// IR 4 does not need initializers as inputs, nor are the replaced ones kept
+		assertEquals(1, optimized.getInputCount());
+		assertEquals(2, optimized.getInitializerCount());
+
+		properties.setFuseConvBatchNorm(false);
+		assertEquals(2, new GraphOptimizer(properties).optimize(model).getNodesAfter());
+	}
+
+	private ModelProto readModel(String path) throws Exception {
+		try (InputStream in = GraphOptimizerTest.class.getResourceAsStream(path)) {
+			assertNotNull(path, in);
+			return ModelProto.parseFrom(in);
+		}
+	}
+
+	private static List<String> opTypes(GraphProto graph) {
+		List<String> opTypes = new ArrayList<>();
+		for (NodeProto node : graph.getNodeList())
+			opTypes.add(node.getOpType());
+		return opTypes;
+	}
+
+	private static List<String> inputNames(GraphProto graph) {
+		List<String> names = new ArrayList<>();
+		for (ValueInfoProto input : graph.getInputList())
+			names.add(input.getName());
+		return names;
+	}
+
+	private static TensorProto initializer(GraphProto graph, String name) {
+		for (TensorProto initializer : graph.getInitializerList()) {
+			if (initializer.getName().equals(name))
+				return initializer;
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.output;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for JsonFloatWriter class.
+ */
+public class JsonFloatWriterTest extends TestCase {
+
+	public JsonFloatWriterTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(JsonFloatWriterTest.class);
+	}
+
+	public void testMatchesJackson() throws Exception {
+		float[] values = new float[5000];
+		for (int n = 0; n < values.length; n++)
+			values[n] = (n % 2 == 0 ? -1 : 1) * n * 1.234567e-3f;
+		values[1] = Float.MIN_VALUE;
+		values[2] = -Float.MAX_VALUE;
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonFloatWriter.write(FloatBuffer.wrap(values), out);
+		assertEquals(new ObjectMapper().writeValueAsString(values), out.toString("US-ASCII"));
+	}
+
+	public void testNonFiniteValuesMatchJackson() throws Exception {
+		float[] values = new float[] { Float.NaN, 1f, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY };
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonFloatWriter.write(FloatBuffer.wrap(values), out);
+		String json = out.toString("US-ASCII");
+		assertEquals("[\"NaN\",1.0,\"Infinity\",\"-Infinity\"]", json);
+		assertEquals(new ObjectMapper().writeValueAsString(values), json);
+		assertEquals(4, new ObjectMapper().readTree(json).size());
+	}
+
+	public void testFillsBufferUpToClosingBracket() throws Exception {
+		// "[" then 512 values of 15 characters and 511 commas end exactly at the 8192 bytes of the buffer
+		float[] values = new float[512];
+		Arrays.fill(values, -Float.MIN_NORMAL);
+		assertEquals(15, Float.toString(values[0]).length());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonFloatWriter.write(FloatBuffer.wrap(values), out);
+		assertEquals(new ObjectMapper().writeValueAsString(values), out.toString("US-ASCII"));
+	}
+
+	public void testEmpty() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonFloatWriter.write(FloatBuffer.allocate(0), out);
+		assertEquals("[]", out.toString("US-ASCII"));
+	}
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.preprocess;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for ImagePreprocessor class, checked against the
+ * getScaledInstance + getRGB path it replaces.
+ */
+public class ImagePreprocessorTest extends TestCase {
+
+	private static final int SIZE = 28;
+
+	public ImagePreprocessorTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(ImagePreprocessorTest.class);
+	}
+
+	public void testIntArgbCanvas() {
+		this.assertMatchesReference(this.draw(280, 280, BufferedImage.TYPE_INT_ARGB));
+	}
+
+	public void testIntRgb() {
+		this.assertMatchesReference(this.draw(300, 350, BufferedImage.TYPE_INT_RGB));
+	}
+
+	public void testThreeByteBgr() {
+		this.assertMatchesReference(this.draw(200, 200, BufferedImage.TYPE_3BYTE_BGR));
+	}
+
+	public void testFourByteAbgr() {
+		this.assertMatchesReference(this.draw(256, 256, BufferedImage.TYPE_4BYTE_ABGR));
+	}
+
+	public void testFallbackType() {
+		this.assertMatchesReference(this.draw(140, 140, BufferedImage.TYPE_USHORT_565_RGB));
+	}
+
+	public void testUpscale() {
+		this.assertMatchesReference(this.draw(14, 14, BufferedImage.TYPE_INT_RGB));
+	}
+
+	public void testReusesThreadBuffer() {
+		ImagePreprocessor preprocessor = new ImagePreprocessor(SIZE, SIZE);
+		FloatBuffer first = preprocessor.process(this.draw(100, 100, BufferedImage.TYPE_INT_RGB));
+		FloatBuffer second = preprocessor.process(this.draw(120, 90, BufferedImage.TYPE_INT_ARGB));
+		assertSame(first, second);
+		assertTrue(second.isDirect());
+		assertEquals(SIZE * SIZE, second.capacity());
+	}
+
+	private void assertMatchesReference(BufferedImage image) {
+		float[] expected = reference(image);
+		FloatBuffer actual = new ImagePreprocessor(SIZE, SIZE).process(image);
+		assertEquals(expected.length, actual.capacity());
+		for (int n = 0; n < expected.length; n++) {
+			assertTrue(String.format("pixel %s: expected %s but was %s", n, expected[n], actual.get(n)),
+					Math.abs(expected[n] - actual.get(n)) <= 2f);
+		}
+	}
+
+	private BufferedImage draw(int width, int height, int type) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setColor(Color.WHITE);
+		g2d.fillRect(0, 0, width, height);
+		Random random = new Random(width * 31 + height);
+		for (int n = 0; n < 12; n++) {
+			g2d.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+			g2d.fillOval(random.nextInt(width), random.nextInt(height), 1 + random.nextInt(width / 2),
+					1 + random.nextInt(height / 2));
+		}
+		g2d.dispose();
+		return image;
+	}
+
+	private static float[] reference(BufferedImage img) {
+		Image tmp = img.getScaledInstance(SIZE, SIZE, Image.SCALE_SMOOTH);
+		BufferedImage resized = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = resized.createGraphics();
+		g2d.drawImage(tmp, 0, 0, null);
+		g2d.dispose();
+
+		float[] pixels = new float[SIZE * SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			for (int j = 0; j < SIZE; j++) {
+				int color = resized.getRGB(j, i);
+				int red = (color >> 16) & 0xff;
+				int green = (color >> 8) & 0xff;
+				int blue = (color) & 0xff;
+				pixels[i * SIZE + j] = (int) (0.299 * red + 0.587 * green + 0.114 * blue);
+			}
+		}
+		return pixels;
+	}
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.registry;
+
+import java.util.Map;
+
+import org.forwarder.demo.configurations.BatchingProperties;
+import org.forwarder.demo.configurations.ModelRegistryProperties;
+import org.forwarder.demo.configurations.SessionPoolProperties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for ModelRegistry class, using the bundled MNIST models.
+ */
+public class ModelRegistryTest extends TestCase {
+
+	public ModelRegistryTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(ModelRegistryTest.class);
+	}
+
+	public void testLoadsOnceAndCountsHits() throws Exception {
+		try (ModelRegistry registry = this.createRegistry(3)) {
+			ModelKey key = new ModelKey("mnist", 8);
+			try (ModelHandle first = registry.acquire(key); ModelHandle second = registry.acquire(key)) {
+				assertSame(first.get(), second.get());
+			}
+
+			Map<String, Object> stats = registry.stats();
+			assertEquals(1L, stats.get("misses"));
+			assertEquals(1L, stats.get("hits"));
+		}
+	}
+
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		try (ModelRegistry registry = this.createRegistry(2)) {
+			registry.acquire(new ModelKey("mnist", 1)).close();
+			registry.acquire(new ModelKey("mnist", 7)).close();
+			// touch v1 so that v7 becomes the least recently used
+			registry.acquire(new ModelKey("mnist", 1)).close();
+			registry.acquire(new ModelKey("mnist", 8)).close();
+
+			Map<String, Object> stats = registry.stats();
+			assertEquals(1L, stats.get("evictions"));
+			Map<?, ?> models = (Map<?, ?>) stats.get("models");
+			assertTrue(models.containsKey("mnist/opset_v1"));
+			assertFalse(models.containsKey("mnist/opset_v7"));
+			assertTrue(models.containsKey("mnist/opset_v8"));
+		}
+	}
+
+	public void testEvictedModelStaysUsableUntilReleased() throws Exception {
+		try (ModelRegistry registry = this.createRegistry(1)) {
+			try (ModelHandle handle = registry.acquire(new ModelKey("mnist", 1))) {
+				registry.acquire(new ModelKey("mnist", 7)).close();
+				assertEquals(1L, registry.stats().get("evictions"));
+				assertNotNull(handle.get().getSessionPools().get("DL4J"));
+
+				try (ModelHandle reloaded = registry.acquire(new ModelKey("mnist", 1))) {
+					assertNotSame(handle.get(), reloaded.get());
+				}
+			}
+		}
+	}
+
+	public void testUnknownModel() throws Exception {
+		try (ModelRegistry registry = this.createRegistry(1)) {
+			registry.acquire(new ModelKey("mnist", 42));
+			fail("Unknown model must be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private ModelRegistry createRegistry(int maxModels) {
+		ModelRegistryProperties properties = new ModelRegistryProperties();
+		properties.setMaxModels(maxModels);
+		properties.getModels().add(this.mnist(1, "Input73", "Plus422_Output_0"));
+		properties.getModels().add(this.mnist(7, "Input3", "Plus214_Output_0"));
+		properties.getModels().add(this.mnist(8, "Input3", "Plus214_Output_0"));
+		return new ModelRegistry(properties, new SessionPoolProperties(), new BatchingProperties());
+	}
+
+	private ModelDescriptor mnist(int opset, String inputName, String outputName) {
+		ModelDescriptor descriptor = new ModelDescriptor();
+		descriptor.setName("mnist");
+		descriptor.setOpset(opset);
+		descriptor.setPath("classpath:/mnist/opset_v" + opset + "/model.onnx");
+		descriptor.setInputName(inputName);
+		descriptor.setOutputName(outputName);
+		return descriptor;
+	}
+
+}
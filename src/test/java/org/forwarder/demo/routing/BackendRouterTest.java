@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.routing;
+
+import java.util.Map;
+
+import org.forwarder.demo.configurations.RoutingProperties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for BackendRouter class.
+ */
+public class BackendRouterTest extends TestCase {
+
+	private static final String MODEL = "mnist/opset_v8";
+
+	public BackendRouterTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(BackendRouterTest.class);
+	}
+
+	public void testPrefersFastest() {
+		BackendRouter router = new BackendRouter(properties());
+		for (int n = 0; n < 10; n++) {
+			router.record(MODEL, 1, "Tensorflow", 500, true);
+			router.record(MODEL, 1, "DL4J", 2000, true);
+		}
+		for (int n = 0; n < 20; n++)
+			assertEquals("Tensorflow", router.choose(MODEL, 1, null));
+
+		// Batch sizes are measured apart
+		assertEquals("Tensorflow", router.choose(MODEL, 8, null));
+	}
+
+	public void testMeasuresEveryBackendFirst() {
+		BackendRouter router = new BackendRouter(properties());
+		for (int n = 0; n < 10; n++)
+			router.record(MODEL, 1, "Tensorflow", 500, true);
+		assertEquals("DL4J", router.choose(MODEL, 1, null));
+	}
+
+	public void testOpensBreakerAndFallsBack() throws Exception {
+		BackendRouter router = new BackendRouter(properties());
+		for (int n = 0; n < 10; n++) {
+			router.record(MODEL, 1, "Tensorflow", 500, true);
+			router.record(MODEL, 1, "DL4J", 2000, true);
+		}
+
+		for (int n = 0; n < 3; n++) {
+			String result = router.route(MODEL, 1, backend -> {
+				if ("Tensorflow".equals(backend))
+					throw new IllegalStateException("Backend is down");
+				return backend;
+			});
+			assertEquals("DL4J", result);
+		}
+		assertEquals("DL4J", router.choose(MODEL, 1, null));
+		assertEquals("OPEN", backend(router, "Tensorflow").get("state"));
+	}
+
+	public void testRequestErrorsDoNotCount() {
+		BackendRouter router = new BackendRouter(properties());
+		for (int n = 0; n < 5; n++) {
+			try {
+				router.route(MODEL, 1, backend -> {
+					throw new IllegalArgumentException("Bad input");
+				});
+				fail();
+			} catch (Exception e) {
+				assertTrue(e instanceof IllegalArgumentException);
+			}
+		}
+		assertEquals("CLOSED", backend(router, "Tensorflow").get("state"));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> backend(BackendRouter router, String backend) {
+		return (Map<String, Object>) ((Map<String, Object>) router.stats().get(MODEL)).get(backend);
+	}
+
+	private static RoutingProperties properties() {
+		RoutingProperties properties = new RoutingProperties();
+		properties.setExplorationRate(0);
+		properties.setFailureThreshold(3);
+		return properties;
+	}
+
+}
@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.rpc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.forwarder.demo.artifacts.ArtifactCache;
+import org.forwarder.demo.backend.EngineBackend;
+import org.forwarder.demo.backend.EngineBackends;
+import org.forwarder.demo.configurations.ArenaProperties;
+import org.forwarder.demo.configurations.BatchingProperties;
+import org.forwarder.demo.configurations.EngineProperties;
+import org.forwarder.demo.configurations.ModelRegistryProperties;
+import org.forwarder.demo.configurations.PredictProperties;
+import org.forwarder.demo.configurations.RoutingProperties;
+import org.forwarder.demo.configurations.SessionPoolProperties;
+import org.forwarder.demo.engine.NdArray;
+import org.forwarder.demo.metrics.InferenceMetrics;
+import org.forwarder.demo.optimizer.GraphOptimizer;
+import org.forwarder.demo.profiling.ForwardProfiler;
+import org.forwarder.demo.registry.ModelDescriptor;
+import org.forwarder.demo.registry.ModelKey;
+import org.forwarder.demo.registry.ModelRegistry;
+import org.forwarder.demo.routing.BackendRouter;
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for InferenceService class, streaming the bundled MNIST data sets
+ * through a local channel of piped streams to the Engine backend.
+ */
+public class InferenceServiceTest extends TestCase {
+
+	private static final ModelKey MNIST = new ModelKey("mnist", 8);
+
+	private static final float TOLERANCE = 1e-3f;
+
+	private ModelRegistry registry;
+
+	private EngineBackends engineBackends;
+
+	private BackendRouter router;
+
+	private InferenceService service;
+
+	private ExecutorService server;
+
+	public InferenceServiceTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(InferenceServiceTest.class);
+	}
+
+	@Override
+	protected void setUp() {
+		ModelRegistryProperties properties = new ModelRegistryProperties();
+		ModelDescriptor descriptor = new ModelDescriptor();
+		descriptor.setName("mnist");
+		descriptor.setOpset(8);
+		descriptor.setPath("classpath:/mnist/opset_v8/model.onnx");
+		descriptor.setInputName("Input3");
+		descriptor.setOutputName("Plus214_Output_0");
+		descriptor.getSampleShape().add(1L);
+		descriptor.getSampleShape().add(28L);
+		descriptor.getSampleShape().add(28L);
+		properties.getModels().add(descriptor);
+
+		this.engineBackends = new EngineBackends(new EngineProperties());
+		this.registry = new ModelRegistry(properties, new SessionPoolProperties(), new BatchingProperties(),
+				new ArenaProperties(), ForwardProfiler.disabled(), InferenceMetrics.local(), GraphOptimizer.disabled(),
+				ArtifactCache.disabled(), this.engineBackends);
+		PredictProperties predictProperties = new PredictProperties();
+		predictProperties.setThreads(2);
+		predictProperties.setMaxInFlight(4);
+		predictProperties.setMaxStreams(1);
+		RoutingProperties routingProperties = new RoutingProperties();
+		routingProperties.setBackends(new ArrayList<>(Arrays.asList(EngineBackend.NAME)));
+		this.router = new BackendRouter(routingProperties);
+		this.service = new InferenceService(predictProperties, this.registry, this.router, InferenceMetrics.local());
+		this.server = Executors.newCachedThreadPool();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.server.shutdownNow();
+		this.service.close();
+		this.registry.close();
+		this.engineBackends.close();
+	}
+
+	public void testPredictsUnary() throws Exception {
+		TensorProto output = this.service.predict(MNIST, EngineBackend.NAME, readTensor(0, "input_0.pb"));
+		assertEquals("Plus214_Output_0", output.getName());
+		assertEquals(2, output.getDimsCount());
+		assertEquals(1, output.getDims(0));
+		assertOutput(0, output);
+	}
+
+	public void testPipelinesStreamInOrder() throws Exception {
+		int requests = 15;
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		for (int n = 0; n < requests; n++)
+			TensorFrames.writeTensor(body, readTensor(n % 3, "input_0.pb"));
+
+		InputStream responses = this.stream(new ByteArrayInputStream(body.toByteArray()));
+		for (int n = 0; n < requests; n++)
+			assertOutput(n % 3, read(responses).getTensor());
+		assertNull(read(responses));
+		assertEquals((long) requests, this.service.stats().get("requests"));
+	}
+
+	public void testAnswersBeforeStreamEnds() throws Exception {
+		PipedOutputStream requests = new PipedOutputStream();
+		InputStream responses = this.stream(new PipedInputStream(requests, 1 << 20));
+		for (int n = 0; n < 3; n++) {
+			TensorFrames.writeTensor(requests, readTensor(n, "input_0.pb"));
+			requests.flush();
+			assertOutput(n, read(responses).getTensor());
+		}
+		requests.close();
+		assertNull(read(responses));
+	}
+
+	public void testFailedRequestDoesNotEndStream() throws Exception {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		TensorFrames.writeTensor(body, readTensor(0, "input_0.pb"));
+		TensorFrames.writeTensor(body,
+				TensorProto.newBuilder().setDataType(TensorProto.DataType.FLOAT.getNumber()).addDims(5)
+						.addFloatData(1).addFloatData(2).addFloatData(3).addFloatData(4).addFloatData(5).build());
+		TensorFrames.writeTensor(body, readTensor(1, "input_0.pb"));
+
+		InputStream responses = this.stream(new ByteArrayInputStream(body.toByteArray()));
+		assertOutput(0, read(responses).getTensor());
+		TensorFrames.Frame error = read(responses);
+		assertTrue(error.isError());
+		assertTrue(error.getError(), error.getError().contains("whole samples"));
+		assertOutput(1, read(responses).getTensor());
+		assertNull(read(responses));
+		assertEquals(1L, this.service.stats().get("errors"));
+	}
+
+	public void testEndsStreamOnBadFrame() throws Exception {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		TensorFrames.writeTensor(body, readTensor(0, "input_0.pb"));
+		body.write(new byte[] { 7, 0, 0, 0, 1, 0 });
+		TensorFrames.writeTensor(body, readTensor(1, "input_0.pb"));
+
+		InputStream responses = this.stream(new ByteArrayInputStream(body.toByteArray()));
+		assertOutput(0, read(responses).getTensor());
+		TensorFrames.Frame error = read(responses);
+		assertTrue(error.isError());
+		assertTrue(error.getError(), error.getError().contains("kind 7"));
+		assertNull(read(responses));
+	}
+
+	public void testShedsStreamsBeyondLimit() throws Exception {
+		PipedOutputStream requests = new PipedOutputStream();
+		InputStream responses = this.stream(new PipedInputStream(requests, 1 << 20));
+		TensorFrames.writeTensor(requests, readTensor(0, "input_0.pb"));
+		requests.flush();
+		assertOutput(0, read(responses).getTensor());
+
+		try {
+			this.service.predictStream(MNIST, EngineBackend.NAME, new ByteArrayInputStream(new byte[0]),
+					new ByteArrayOutputStream());
+			fail("Streams beyond maxStreams must be shed");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		requests.close();
+		assertNull(read(responses));
+	}
+
+	@SuppressWarnings("unchecked")
+	public void testRecordsRoutedStreamRequests() throws Exception {
+		int requests = 3;
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		for (int n = 0; n < requests; n++)
+			TensorFrames.writeTensor(body, readTensor(n, "input_0.pb"));
+
+		InputStream responses = this.stream(new ByteArrayInputStream(body.toByteArray()), BackendRouter.AUTO);
+		for (int n = 0; n < requests; n++)
+			assertOutput(n, read(responses).getTensor());
+		assertNull(read(responses));
+
+		Map<String, Object> backends = (Map<String, Object>) this.router.stats().get(MNIST.toString());
+		Map<String, Object> engine = (Map<String, Object>) backends.get(EngineBackend.NAME);
+		Map<String, Object> route = (Map<String, Object>) ((Map<String, Object>) engine.get("batchSizes")).get("1");
+		assertEquals(1L, route.get("chosen"));
+		assertEquals((long) requests, route.get("samples"));
+		assertEquals(0L, route.get("failures"));
+	}
+
+	private InputStream stream(InputStream requests) throws Exception {
+		return this.stream(requests, EngineBackend.NAME);
+	}
+
+	/**
+	 * Serve a stream of requests on another thread, as a connection would
+	 *
+	 * @return the responses
+	 */
+	private InputStream stream(InputStream requests, String backend) throws Exception {
+		PipedInputStream responses = new PipedInputStream(1 << 20);
+		PipedOutputStream out = new PipedOutputStream(responses);
+		this.server.submit(() -> {
+			try (PipedOutputStream closed = out) {
+				this.service.predictStream(MNIST, backend, requests, out);
+			}
+			return null;
+		});
+		return responses;
+	}
+
+	private TensorFrames.Frame read(InputStream responses) throws Exception {
+		Future<TensorFrames.Frame> frame = this.server.submit(() -> TensorFrames.read(responses, 1 << 20));
+		return frame.get(30, TimeUnit.SECONDS);
+	}
+
+	private static void assertOutput(int testDataSet, TensorProto output) throws Exception {
+		assertNotNull(output);
+		float[] expected = NdArray.of(readTensor(testDataSet, "output_0.pb")).data();
+		float[] actual = NdArray.of(output).data();
+		assertEquals(expected.length, NdArray.of(output).size());
+		for (int n = 0; n < expected.length; n++)
+			assertEquals(expected[n], actual[n], TOLERANCE);
+	}
+
+	private static TensorProto readTensor(int testDataSet, String name) throws Exception {
+		try (InputStream in = InferenceServiceTest.class
+				.getResourceAsStream("/mnist/opset_v8/test_data_set_" + testDataSet + "/" + name)) {
+			return TensorProto.parseFrom(in);
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.forwarder.demo.weights;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+
+import org.onnx4j.prototypes.OnnxProto3.TensorProto;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for WeightStore class, mapping a hand-written model file.
+ */
+public class WeightStoreTest extends TestCase {
+
+	public WeightStoreTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(WeightStoreTest.class);
+	}
+
+	public void testSharesOneMappingPerFile() throws Exception {
+		File file = this.writeModel();
+		try {
+			WeightStore store = new WeightStore();
+			ModelWeights first = store.acquire(file);
+			ModelWeights second = store.acquire(file.getAbsoluteFile());
+			assertSame(first, second);
+			assertEquals(1L, store.stats().get("mappings"));
+			assertEquals(1L, store.stats().get("shares"));
+
+			first.close();
+			assertEquals(file.length(), store.stats().get("mappedBytes"));
+			second.close();
+			assertEquals(0L, store.stats().get("mappedBytes"));
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testViewsInitializersInPlace() throws Exception {
+		File file = this.writeModel();
+		try (ModelWeights weights = new WeightStore().acquire(file)) {
+			assertEquals(2, weights.getInitializers().size());
+
+			Initializer raw = weights.getInitializer("raw");
+			assertEquals(2, raw.getDims().length);
+			assertEquals(3L, raw.getDims()[1]);
+			assertTrue(raw.getData().isReadOnly());
+			FloatBuffer values = raw.getData().asFloatBuffer();
+			assertEquals(6, values.remaining());
+			assertEquals(5f, values.get(5));
+
+			FloatBuffer packed = weights.getInitializer("packed").getData().asFloatBuffer();
+			assertEquals(2, packed.remaining());
+			assertEquals(-1f, packed.get(1));
+			assertEquals(32L, weights.getInitializerBytes());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Write a <code>ModelProto</code> holding a graph with one raw and one
+	 * packed float initializer
+	 */
+	private File writeModel() throws Exception {
+		ByteBuffer rawData = ByteBuffer.allocate(6 * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		for (int n = 0; n < 6; n++)
+			rawData.putFloat(n);
+		rawData.flip();
+		TensorProto raw = TensorProto.newBuilder().setName("raw").addDims(2).addDims(3)
+				.setDataType(TensorProto.DataType.FLOAT.getNumber())
+				.setRawData(ByteString.copyFrom(rawData)).build();
+		TensorProto packed = TensorProto.newBuilder().setName("packed").addDims(2)
+				.setDataType(TensorProto.DataType.FLOAT.getNumber()).addFloatData(1f).addFloatData(-1f).build();
+
+		ByteArrayOutputStream graph = new ByteArrayOutputStream();
+		CodedOutputStream graphOut = CodedOutputStream.newInstance(graph);
+		graphOut.writeString(2, "graph");
+		graphOut.writeByteArray(5, raw.toByteArray());
+		graphOut.writeByteArray(5, packed.toByteArray());
+		graphOut.flush();
+
+		ByteArrayOutputStream model = new ByteArrayOutputStream();
+		CodedOutputStream modelOut = CodedOutputStream.newInstance(model);
+		modelOut.writeInt64(1, 3);
+		modelOut.writeString(2, "test");
+		modelOut.writeByteArray(7, graph.toByteArray());
+		modelOut.flush();
+
+		File file = File.createTempFile("model", ".onnx");
+		Files.write(file.toPath(), model.toByteArray());
+		return file;
+	}
+
+}